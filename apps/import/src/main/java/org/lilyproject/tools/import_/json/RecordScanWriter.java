@@ -84,6 +84,10 @@ public class RecordScanWriter implements EntityWriter<RecordScan> {
 
         node.put("cacheBlocks", scan.getCacheBlocks());
 
+        node.put("parallelism", scan.getParallelism());
+
+        node.put("ordered", scan.getOrdered());
+
         return node;
     }
 }
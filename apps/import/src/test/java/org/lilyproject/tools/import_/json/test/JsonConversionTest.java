@@ -198,6 +198,19 @@ public class JsonConversionTest {
         assertEquals(500, parsedScan.getCaching());
     }
 
+    @Test
+    public void testScanParallelism() throws Exception {
+        RecordScan scan = new RecordScan();
+        scan.setParallelism(8);
+        scan.setOrdered(false);
+
+        byte[] data = scanToBytes(scan);
+        RecordScan parsedScan = scanFromBytes(data);
+
+        assertEquals(8, parsedScan.getParallelism());
+        assertEquals(false, parsedScan.getOrdered());
+    }
+
     @Test
     public void testScanRecordTypeFilter() throws Exception {
         QName recordType = new QName("ns", "rt");
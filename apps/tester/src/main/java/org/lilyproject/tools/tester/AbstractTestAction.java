@@ -33,6 +33,8 @@ public abstract class AbstractTestAction implements TestAction {
     private String name;
     protected JsonNode actionNode;
     protected TestActionContext testActionContext;
+    /** Time in ns the current run started later than scheduled, only in the open-loop mode. */
+    private long scheduleDelay;
 
     public AbstractTestAction(JsonNode actionNode, TestActionContext testActionContext) {
         this.actionNode = actionNode;
@@ -67,6 +69,26 @@ public abstract class AbstractTestAction implements TestAction {
         return failureCount;
     }
 
+    /**
+     * The reported duration of the action includes the time it had to wait before it could start. Otherwise,
+     * when the cluster can't keep up with the requested rate, the queueing time would not be measured
+     * (coordinated omission) and the latencies would look better than they are.
+     */
+    @Override
+    public int runScheduled(long scheduledAt) {
+        failureCount = 0;
+        scheduleDelay = Math.max(0, System.nanoTime() - scheduledAt);
+        if (testActionContext.metrics != null) {
+            testActionContext.metrics.increment(name + ".scheduleDelay", scheduleDelay / 1e6d);
+        }
+        try {
+            runAction();
+        } finally {
+            scheduleDelay = 0;
+        }
+        return failureCount;
+    }
+
     abstract protected void runAction();
 
     protected void report(boolean success, double duration) {
@@ -81,6 +103,9 @@ public abstract class AbstractTestAction implements TestAction {
         String metricname = name;
         if (subactionName != null) {
             metricname = name + "." + subactionName;
+        } else {
+            // the latency of the action as a whole is measured from when it should have started
+            duration += scheduleDelay;
         }
         if (testActionContext.metrics != null) {
             testActionContext.metrics.increment(metricname, actionType, duration / 1e6d);
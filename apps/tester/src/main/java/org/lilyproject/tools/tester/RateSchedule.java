@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.tester;
+
+import org.codehaus.jackson.JsonNode;
+import org.lilyproject.util.json.JsonFormatException;
+import org.lilyproject.util.json.JsonUtil;
+
+/**
+ * The rate, in operations per second, at which the open-loop mode of the {@link Tester} starts an action. This
+ * is configured with the rate property of the action in the scenario, which is one of:
+ *
+ * <ul>
+ *     <li>{type: "constant", opsPerSecond: 100}</li>
+ *     <li>{type: "ramp", from: 10, to: 500, duration: 300}: goes linearly from 'from' to 'to' in 'duration'
+ *     seconds, and stays at 'to' afterwards.</li>
+ *     <li>{type: "step", from: 50, to: 500, step: 50, stepDuration: 60}: starts at 'from' and goes up
+ *     with 'step' every 'stepDuration' seconds, until it reaches 'to'.</li>
+ * </ul>
+ */
+public class RateSchedule {
+    public enum Type {CONSTANT, RAMP, STEP}
+
+    private final Type type;
+    private final double from;
+    private final double to;
+    private final double step;
+    /** The duration of the ramp or of each step, in ms. */
+    private final long duration;
+
+    private RateSchedule(Type type, double from, double to, double step, long duration) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+        this.step = step;
+        this.duration = duration;
+    }
+
+    public static RateSchedule constant(double opsPerSecond) {
+        return new RateSchedule(Type.CONSTANT, opsPerSecond, opsPerSecond, 0, 0);
+    }
+
+    public static RateSchedule ramp(double from, double to, int durationSeconds) {
+        return new RateSchedule(Type.RAMP, from, to, 0, durationSeconds * 1000L);
+    }
+
+    public static RateSchedule step(double from, double to, double step, int stepDurationSeconds) {
+        return new RateSchedule(Type.STEP, from, to, step, stepDurationSeconds * 1000L);
+    }
+
+    /**
+     * Returns null if the node is null, i.e. when the action has no rate.
+     */
+    public static RateSchedule fromJson(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+
+        String type = JsonUtil.getString(node, "type", "constant");
+        if (type.equals("constant")) {
+            return constant(getRate(node, "opsPerSecond"));
+        } else if (type.equals("ramp")) {
+            return ramp(getRate(node, "from"), getRate(node, "to"), JsonUtil.getInt(node, "duration"));
+        } else if (type.equals("step")) {
+            int stepDuration = JsonUtil.getInt(node, "stepDuration");
+            if (stepDuration <= 0) {
+                throw new JsonFormatException("The stepDuration of a rate should be at least 1 second.");
+            }
+            return step(getRate(node, "from"), getRate(node, "to"), getRate(node, "step"), stepDuration);
+        } else {
+            throw new JsonFormatException("Unknown rate type: " + type);
+        }
+    }
+
+    private static double getRate(JsonNode node, String prop) {
+        JsonNode rateNode = node.get(prop);
+        if (rateNode == null || !rateNode.isNumber()) {
+            throw new JsonFormatException("Missing or non-numeric rate property: " + prop);
+        }
+        return rateNode.getDoubleValue();
+    }
+
+    /**
+     * The number of operations per second the action should be started at, at the given time since the start
+     * of the test.
+     */
+    public double getRate(long elapsedMillis) {
+        switch (type) {
+            case CONSTANT:
+                return from;
+            case RAMP:
+                if (elapsedMillis >= duration) {
+                    return to;
+                }
+                return from + (to - from) * elapsedMillis / duration;
+            case STEP:
+                double rate = from + step * (elapsedMillis / duration);
+                return step >= 0 ? Math.min(rate, to) : Math.max(rate, to);
+            default:
+                throw new RuntimeException("Unexpected rate type: " + type);
+        }
+    }
+}
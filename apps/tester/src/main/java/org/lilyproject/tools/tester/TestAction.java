@@ -20,6 +20,15 @@ import org.lilyproject.repository.api.RecordId;
 public interface TestAction {
 
     int run();
+
+    /**
+     * Runs the action once, as scheduled by the open-loop mode of the {@link Tester}.
+     *
+     * @param scheduledAt the {@link System#nanoTime()} at which the action should have started
+     * @return the number of failures
+     */
+    int runScheduled(long scheduledAt);
+
     TestActionContext getContext();
 
     ActionResult linkFieldAction(TestFieldType testFieldType, RecordId recordId);
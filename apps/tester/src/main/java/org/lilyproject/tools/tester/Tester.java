@@ -25,6 +25,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -56,6 +59,9 @@ import org.lilyproject.util.json.JsonUtil;
 
 public class Tester extends BaseRepositoryTestTool {
 
+    /** How often the open-loop mode checks the stop conditions, in ns. */
+    private static final long STOP_CHECK_INTERVAL = 100 * 1000000L;
+
     private Option configFileOption;
     private Option dumpSampleConfigOption;
     private RecordType recordType;
@@ -71,6 +77,8 @@ public class Tester extends BaseRepositoryTestTool {
     private List<TestAction> workersTestActions[] = null;
     private List<JsonNode> recordSpacesConfig = new ArrayList<JsonNode>();
     private List<RecordSpaces> workersRecordSpaces = null;
+    /** The rate of each action of the scenario, null for actions without rate. */
+    private List<RateSchedule> actionRates = new ArrayList<RateSchedule>();
 
     private Map<QName, TestRecordType> recordTypes = new HashMap<QName, TestRecordType>();
     private Map<QName, TestFieldType> fieldTypes = new HashMap<QName, TestFieldType>();
@@ -156,7 +164,11 @@ public class Tester extends BaseRepositoryTestTool {
             System.out.println("Running tests...");
             System.out.println("Tail the output files if you wonder what is happening.");
             nrOfIterations = OptionUtil.getIntOption(cmd, iterationsOption, 1000);
-            test();
+            if (isOpenLoop()) {
+                openLoopTest();
+            } else {
+                test();
+            }
         } finally {
             closeStreams();
         }
@@ -325,6 +337,8 @@ public class Tester extends BaseRepositoryTestTool {
             TestAction testAction = testActionFactory.getTestAction(actionNode, testActionContext);
             workersTestActions[i].add(testAction);
         }
+
+        actionRates.add(RateSchedule.fromJson(actionNode.get("rate")));
     }
 
     private void readStopConditions(JsonNode stopConditions) {
@@ -422,6 +436,124 @@ public class Tester extends BaseRepositoryTestTool {
 
     }
 
+    private boolean isOpenLoop() {
+        for (RateSchedule rate : actionRates) {
+            if (rate != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the scenario in open-loop mode: rather than running the actions back to back, each action is
+     * started at the rate configured for it, independent of how long the previous actions took. The actions
+     * are run by a pool of worker threads, their latency is measured from when they should have started.
+     */
+    private void openLoopTest() throws InterruptedException {
+        int actionCount = actionRates.size();
+        for (int a = 0; a < actionCount; a++) {
+            if (actionRates.get(a) == null) {
+                System.out.println("Action " + a + " of the scenario has no rate, it is not run in open-loop mode.");
+            }
+        }
+
+        startTime = System.currentTimeMillis();
+        // The scheduler waits when the workers can't keep up, the actions keep their scheduled time though
+        BlockingQueue<ScheduledAction> queue = new ArrayBlockingQueue<ScheduledAction>(workers * 100);
+        List<Thread> threads = new ArrayList<Thread>(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.add(new OpenLoopWorkerThread(workersTestActions[i], queue));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        long[] nextStart = new long[actionCount];
+        for (int a = 0; a < actionCount; a++) {
+            nextStart[a] = actionRates.get(a) != null ? startNanos : Long.MAX_VALUE;
+        }
+
+        long nextStopCheck = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= nextStopCheck) {
+                if (checkStopConditions()) {
+                    break;
+                }
+                nextStopCheck = now + STOP_CHECK_INTERVAL;
+            }
+
+            int action = 0;
+            for (int a = 1; a < actionCount; a++) {
+                if (nextStart[a] < nextStart[action]) {
+                    action = a;
+                }
+            }
+
+            if (nextStart[action] > now) {
+                LockSupport.parkNanos(Math.min(nextStart[action] - now, STOP_CHECK_INTERVAL));
+                continue;
+            }
+
+            double rate = actionRates.get(action).getRate((nextStart[action] - startNanos) / 1000000L);
+            if (rate <= 0) {
+                // nothing to do for now, check again later
+                nextStart[action] = now + STOP_CHECK_INTERVAL;
+                continue;
+            }
+
+            queue.put(new ScheduledAction(action, nextStart[action]));
+            nextStart[action] += (long)(1e9d / rate);
+        }
+
+        // Drop the actions that did not start yet
+        queue.clear();
+        for (int i = 0; i < workers; i++) {
+            queue.put(ScheduledAction.STOP);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static class ScheduledAction {
+        static final ScheduledAction STOP = new ScheduledAction(-1, 0);
+
+        final int action;
+        /** The System.nanoTime() at which the action should start. */
+        final long scheduledAt;
+
+        ScheduledAction(int action, long scheduledAt) {
+            this.action = action;
+            this.scheduledAt = scheduledAt;
+        }
+    }
+
+    private class OpenLoopWorkerThread extends Thread {
+        private final List<TestAction> testActions;
+        private final BlockingQueue<ScheduledAction> queue;
+
+        OpenLoopWorkerThread(List<TestAction> testActions, BlockingQueue<ScheduledAction> queue) {
+            this.testActions = testActions;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ScheduledAction scheduledAction;
+                while ((scheduledAction = queue.take()) != ScheduledAction.STOP) {
+                    TestAction testAction = testActions.get(scheduledAction.action);
+                    incFailureCount(testAction.runScheduled(scheduledAction.scheduledAt));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     private synchronized void incFailureCount(int amount) {
         failureCount = failureCount + amount;
     }
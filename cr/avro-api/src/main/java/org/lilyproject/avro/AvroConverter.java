@@ -32,6 +32,7 @@ import org.apache.commons.logging.LogFactory;
 import org.lilyproject.avro.repository.RecordAsBytesConverter;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.indexer.IndexerException;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
@@ -154,6 +155,40 @@ public class AvroConverter {
         return avroRecords;
     }
 
+    public List<AvroBatchMutationResult> convertBatchMutationResults(List<BatchMutationResult> results,
+            LRepository repository)
+            throws AvroRepositoryException, AvroInterruptedException, RepositoryException, InterruptedException {
+        List<AvroBatchMutationResult> avroResults = new ArrayList<AvroBatchMutationResult>(results.size());
+        for (BatchMutationResult result : results) {
+            AvroBatchMutationResult avroResult = new AvroBatchMutationResult();
+            if (result.isSuccess()) {
+                avroResult.setRecord(convert(result.getRecord(), repository));
+            } else {
+                // the client still has the record it supplied
+                avroResult.setException(convert(result.getException()));
+            }
+            avroResults.add(avroResult);
+        }
+        return avroResults;
+    }
+
+    /**
+     * @param records the records which were supplied to the batch operation
+     */
+    public List<BatchMutationResult> convertAvroBatchMutationResults(List<AvroBatchMutationResult> avroResults,
+            List<Record> records, LRepository repository) throws RepositoryException, InterruptedException {
+        List<BatchMutationResult> results = new ArrayList<BatchMutationResult>(avroResults.size());
+        for (int i = 0; i < avroResults.size(); i++) {
+            AvroBatchMutationResult avroResult = avroResults.get(i);
+            if (avroResult.getException() == null) {
+                results.add(new BatchMutationResult(convertRecord(avroResult.getRecord(), repository)));
+            } else {
+                results.add(new BatchMutationResult(records.get(i), convert(avroResult.getException())));
+            }
+        }
+        return results;
+    }
+
 
     public FieldType convert(AvroFieldType avroFieldType, TypeManager typeManager)
             throws RepositoryException, InterruptedException {
@@ -614,6 +649,17 @@ public class AvroConverter {
         return names;
     }
 
+    public List<AvroQName> convert(QName[] names) {
+        List<AvroQName> avroNames = null;
+        if (names != null) {
+            avroNames = new ArrayList<AvroQName>(names.length);
+            for (QName name : names) {
+                avroNames.add(convert(name));
+            }
+        }
+        return avroNames;
+    }
+
 
 
 
@@ -710,4 +756,20 @@ public class AvroConverter {
         }
         return recordIds;
     }
+
+    public List<ByteBuffer> convertRecordIds(List<RecordId> recordIds) {
+        List<ByteBuffer> avroRecordIds = new ArrayList<ByteBuffer>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            avroRecordIds.add(convert(recordId));
+        }
+        return avroRecordIds;
+    }
+
+    public List<RecordId> convertAvroRecordIdList(List<ByteBuffer> avroRecordIds, LRepository repository) {
+        List<RecordId> recordIds = new ArrayList<RecordId>(avroRecordIds.size());
+        for (ByteBuffer avroRecordId : avroRecordIds) {
+            recordIds.add(convertAvroRecordId(avroRecordId, repository));
+        }
+        return recordIds;
+    }
 }
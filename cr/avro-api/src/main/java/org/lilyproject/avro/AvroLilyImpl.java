@@ -70,6 +70,36 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public List<AvroBatchMutationResult> createBatch(List<ByteBuffer> records, String repositoryName,
+            String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertBatchMutationResults(
+                    table.createBatch(converter.convertAvroRecords(records, repository)), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
+    @Override
+    public List<AvroBatchMutationResult> updateBatch(List<ByteBuffer> records, String repositoryName,
+            String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertBatchMutationResults(
+                    table.updateBatch(converter.convertAvroRecords(records, repository)), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public ByteBuffer createOrUpdate(ByteBuffer record, String repositoryName, String tableName, boolean useLatestRecordType)
             throws AvroRepositoryException, AvroInterruptedException {
@@ -338,6 +368,62 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public ByteBuffer read(ByteBuffer recordId, long avroVersion, List<AvroQName> avroFieldNames,
+            String repositoryName, String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            Record record = table.read(converter.convertAvroRecordId(recordId, repository),
+                    converter.convertAvroVersion(avroVersion), converter.convert(avroFieldNames));
+            return converter.convert(record, repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
+    @Override
+    public List<ByteBuffer> readMulti(List<ByteBuffer> recordIds, List<AvroQName> avroFieldNames,
+            String repositoryName, String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            List<Record> records = table.read(converter.convertAvroRecordIdList(recordIds, repository),
+                    converter.convert(avroFieldNames));
+            return converter.convertRecords(records, repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
+    @Override
+    public List<ByteBuffer> readVersions(ByteBuffer recordId, long fromVersion, long toVersion, List<Long> versions,
+            List<AvroQName> avroFieldNames, String repositoryName, String tableName)
+            throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            RecordId decodedRecordId = converter.convertAvroRecordId(recordId, repository);
+            List<Record> records;
+            if (versions != null) {
+                records = table.readVersions(decodedRecordId, new ArrayList<Long>(versions),
+                        converter.convert(avroFieldNames));
+            } else {
+                records = table.readVersions(decodedRecordId, fromVersion, toVersion,
+                        converter.convert(avroFieldNames));
+            }
+            return converter.convertRecords(records, repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public Object disableSchemaCacheRefresh() throws AvroRepositoryException, AvroInterruptedException {
         try {
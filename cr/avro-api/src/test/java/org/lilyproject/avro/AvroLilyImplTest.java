@@ -25,9 +25,11 @@ import com.google.common.collect.Maps;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.indexer.Indexer;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
@@ -36,6 +38,7 @@ import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -113,4 +116,73 @@ public class AvroLilyImplTest {
         avroLilyImpl.delete(recordIdBytes, repositoryName, Table.RECORD.name, avroMutationConditions, attributes);
     }
 
+    @Test
+    public void testRead() throws Exception {
+        ByteBuffer recordIdBytes = mock(ByteBuffer.class);
+        List<AvroQName> avroFieldNames = Lists.newArrayList(mock(AvroQName.class));
+        QName[] fieldNames = new QName[] {new QName("ns", "field")};
+
+        RecordId recordId = mock(RecordId.class);
+        Record record = mock(Record.class);
+        ByteBuffer recordBytes = mock(ByteBuffer.class);
+
+        when(avroConverter.convertAvroRecordId(recordIdBytes, repository)).thenReturn(recordId);
+        when(avroConverter.convertAvroVersion(3L)).thenReturn(3L);
+        when(avroConverter.convert(avroFieldNames)).thenReturn(fieldNames);
+        when(table.read(recordId, 3L, fieldNames)).thenReturn(record);
+        when(avroConverter.convert(record, repository)).thenReturn(recordBytes);
+
+        assertEquals(recordBytes, avroLilyImpl.read(recordIdBytes, 3L, avroFieldNames, repositoryName,
+                Table.RECORD.name));
+    }
+
+    @Test
+    public void testReadVersions_List() throws Exception {
+        ByteBuffer recordIdBytes = mock(ByteBuffer.class);
+        List<Long> versions = Lists.newArrayList(2L, 1L);
+
+        RecordId recordId = mock(RecordId.class);
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+        List<ByteBuffer> recordBytes = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+
+        when(avroConverter.convertAvroRecordId(recordIdBytes, repository)).thenReturn(recordId);
+        when(table.readVersions(recordId, versions, (QName[])null)).thenReturn(records);
+        when(avroConverter.convertRecords(records, repository)).thenReturn(recordBytes);
+
+        assertEquals(recordBytes, avroLilyImpl.readVersions(recordIdBytes, -1, -1, versions, null, repositoryName,
+                Table.RECORD.name));
+    }
+
+    @Test
+    public void testCreateBatch() throws Exception {
+        List<ByteBuffer> recordBytes = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+        List<BatchMutationResult> results = Lists.newArrayList(new BatchMutationResult(records.get(0)),
+                new BatchMutationResult(records.get(1)));
+        List<AvroBatchMutationResult> avroResults = Lists.newArrayList(new AvroBatchMutationResult(),
+                new AvroBatchMutationResult());
+
+        when(avroConverter.convertAvroRecords(recordBytes, repository)).thenReturn(records);
+        when(table.createBatch(records)).thenReturn(results);
+        when(avroConverter.convertBatchMutationResults(results, repository)).thenReturn(avroResults);
+
+        assertEquals(avroResults, avroLilyImpl.createBatch(recordBytes, repositoryName, Table.RECORD.name));
+    }
+
+    @Test
+    public void testUpdateBatch() throws Exception {
+        List<ByteBuffer> recordBytes = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+        List<BatchMutationResult> results = Lists.newArrayList(new BatchMutationResult(records.get(0)),
+                new BatchMutationResult(records.get(1)));
+        List<AvroBatchMutationResult> avroResults = Lists.newArrayList(new AvroBatchMutationResult(),
+                new AvroBatchMutationResult());
+
+        when(avroConverter.convertAvroRecords(recordBytes, repository)).thenReturn(records);
+        when(table.updateBatch(records)).thenReturn(results);
+        when(avroConverter.convertBatchMutationResults(results, repository)).thenReturn(avroResults);
+
+        assertEquals(avroResults, avroLilyImpl.updateBatch(recordBytes, repositoryName, Table.RECORD.name));
+    }
+
 }
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.bulk;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
@@ -25,9 +26,11 @@ import java.util.Set;
 
 import com.google.common.collect.Sets;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
@@ -77,6 +80,7 @@ public class BulkIngester implements Closeable {
     private HTableInterface recordTable;
     private FieldTypes fieldTypes;
     private List<Put> putBuffer = Lists.newArrayListWithCapacity(PUT_BUFFER_SIZE);
+    private HFileBulkLoader hfileBulkLoader;
 
     /**
      * Factory method for creation of a {@code BulkIngester} that operates on the default repository table.
@@ -97,6 +101,28 @@ public class BulkIngester implements Closeable {
      * @param tableName name of the repository table to write to
      */
     public static BulkIngester newBulkIngester(String zkConnString, int timeout, String tableName) {
+        return newBulkIngester(zkConnString, timeout, tableName, null, null, 0);
+    }
+
+    /**
+     * Factory method for creation of a {@code BulkIngester} which writes the records to HFiles and bulk loads
+     * these into the repository table when it is closed, rather than putting the records on the region servers.
+     * See {@link HFileBulkLoader}.
+     *
+     * @param zkConnString connection string for ZooKeeper
+     * @param timeout ZooKeeper session timeout
+     * @param tableName name of the repository table to write to, null for the default table
+     * @param spillDir local directory where the sorted records are stored until they are loaded
+     * @param stagingDir directory on the file system of the cluster where the HFiles are written to be loaded
+     * @param maxBufferSize maximum size in bytes of the records kept in memory
+     */
+    public static BulkIngester newHFileBulkIngester(String zkConnString, int timeout, String tableName,
+            File spillDir, Path stagingDir, long maxBufferSize) {
+        return newBulkIngester(zkConnString, timeout, tableName, spillDir, stagingDir, maxBufferSize);
+    }
+
+    private static BulkIngester newBulkIngester(String zkConnString, int timeout, String tableName, File spillDir,
+            Path stagingDir, long maxBufferSize) {
         try {
             ZooKeeperItf zk = ZkUtil.connect(zkConnString, timeout);
             Configuration conf = HBaseConfiguration.create();
@@ -121,9 +147,15 @@ public class BulkIngester implements Closeable {
                 hbaseRepository = (HBaseRepository)repositoryManager.getDefaultRepository();
             }
             
-            return new BulkIngester(repositoryManager, hbaseRepository,
-                    LilyHBaseSchema.getRecordTable(hbaseTableFactory, hbaseRepository.getRepositoryName(), hbaseRepository.getTableName()),
+            HTableInterface recordTable = LilyHBaseSchema.getRecordTable(hbaseTableFactory,
+                    hbaseRepository.getRepositoryName(), hbaseRepository.getTableName());
+            BulkIngester bulkIngester = new BulkIngester(repositoryManager, hbaseRepository, recordTable,
                     typeManager.getFieldTypesSnapshot());
+            if (spillDir != null) {
+                bulkIngester.hfileBulkLoader = new HFileBulkLoader(conf, Bytes.toString(recordTable.getTableName()),
+                        spillDir, stagingDir, maxBufferSize);
+            }
+            return bulkIngester;
         } catch (Exception e) {
             ExceptionUtil.handleInterrupt(e);
             throw new RuntimeException(e);
@@ -165,11 +197,16 @@ public class BulkIngester implements Closeable {
      * <b>WARNING:</b>This method is not thread-safe.
      * <p>
      * Puts are first written to a buffer, which is flushed when it reaches {@link BulkIngester#PUT_BUFFER_SIZE}.
+     * When writing to HFiles, the puts are only written to the table when this {@code BulkIngester} is closed.
      * 
      * @param record Record to be written
      * @throws IOException
      */
     public void write(Record record) throws InterruptedException, RepositoryException, IOException {
+        if (hfileBulkLoader != null) {
+            hfileBulkLoader.add(buildPut(record));
+            return;
+        }
         putBuffer.add(buildPut(record));
         if (putBuffer.size() == PUT_BUFFER_SIZE) {
             flush();
@@ -190,6 +227,24 @@ public class BulkIngester implements Closeable {
         }
     }
 
+    /**
+     * Write puts built with {@link #buildPut(Record)} directly, without passing through the put buffer. This
+     * is meant for callers which do their own buffering.
+     * <p>
+     * This method is not thread-safe.
+     *
+     * @param puts puts to be written
+     */
+    public void write(List<Put> puts) throws IOException {
+        if (hfileBulkLoader != null) {
+            for (Put put : puts) {
+                hfileBulkLoader.add(put);
+            }
+        } else {
+            recordTable.put(Lists.newArrayList(puts));
+        }
+    }
+
     /**
      * Build the {@code Put} that represents a record for inserting into HBase.
      * @param record The record to be translated into an HBase {@code Put}
@@ -239,7 +294,16 @@ public class BulkIngester implements Closeable {
     @Override
     public void close() throws IOException {
         flush();
-        repositoryManager.close();
+        if (hfileBulkLoader != null) {
+            try {
+                hfileBulkLoader.load();
+            } finally {
+                hfileBulkLoader.close();
+                repositoryManager.close();
+            }
+        } else {
+            repositoryManager.close();
+        }
     }
     
     
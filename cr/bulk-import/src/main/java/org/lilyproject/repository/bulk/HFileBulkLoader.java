@@ -0,0 +1,375 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Writes {@code Put}s to HFiles and bulk loads these into a table, as an alternative to putting them on the
+ * live region servers.
+ *
+ * <p>The key values of the puts are buffered in memory. When the buffer is full, they are sorted and spilled to
+ * a run file on local disk. When {@link #load()} is called, the runs are merged into one HFile per region and
+ * column family, which are written to a staging directory and bulk loaded into the table. The region servers
+ * read the HFiles from there, so the staging directory has to be on the file system of the cluster. The HFiles
+ * of one region are loaded into it atomically.</p>
+ *
+ * <p>All key values get the time at which the loader was created as timestamp, unless their put specifies one.
+ * When several puts write the same cell with the same timestamp, the value of the put which was added last
+ * is loaded.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public class HFileBulkLoader implements Closeable {
+
+    /** Default maximum size of the key values buffered in memory before they are spilled to disk. */
+    public static final long DEFAULT_MAX_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Configuration conf;
+    private final HTable table;
+    private final FileSystem localFs;
+    private final Path spillDir;
+    private final Path outputDir;
+    private final long maxBufferSize;
+    private final byte[] now = Bytes.toBytes(System.currentTimeMillis());
+
+    /** The buffered key values, by column family. */
+    private final Map<byte[], List<KeyValue>> buffer = new TreeMap<byte[], List<KeyValue>>(Bytes.BYTES_COMPARATOR);
+    private long bufferSize = 0;
+
+    /** The run files spilled to local disk, by column family. */
+    private final Map<byte[], List<Path>> runs = new TreeMap<byte[], List<Path>>(Bytes.BYTES_COMPARATOR);
+    private int runCount = 0;
+
+    /**
+     * @param spillDir local directory in which the sorted runs are stored, a subdirectory is created in it
+     * @param stagingDir directory on the file system of the cluster, e.g. hdfs://namenode/tmp, in which the
+     *                   HFiles are written before they are loaded, a subdirectory is created in it
+     * @param maxBufferSize maximum size in bytes of the key values kept in memory
+     */
+    public HFileBulkLoader(Configuration conf, String tableName, File spillDir, Path stagingDir, long maxBufferSize)
+            throws IOException {
+        this.conf = conf;
+        this.table = new HTable(conf, tableName);
+        this.localFs = FileSystem.getLocal(conf);
+        this.maxBufferSize = maxBufferSize;
+
+        String dirName = "lily-bulkload-" + UUID.randomUUID();
+        this.spillDir = new Path(spillDir.getAbsolutePath(), dirName);
+        this.outputDir = new Path(stagingDir, dirName);
+
+        try {
+            checkStagingFileSystem();
+        } catch (IOException e) {
+            table.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fails if the HFiles would be staged on the local file system while the table is served by region servers
+     * on other hosts, which would not find them.
+     */
+    private void checkStagingFileSystem() throws IOException {
+        FileSystem fs = outputDir.getFileSystem(conf);
+        if (!(fs instanceof LocalFileSystem)) {
+            return;
+        }
+
+        for (ServerName server : table.getRegionLocations().values()) {
+            if (!isLocalHost(server.getHostname())) {
+                throw new IOException("The HFile staging directory " + outputDir + " is on the local file system, "
+                        + "but region server " + server.getHostname() + " is on another host: use a directory "
+                        + "on the file system of the cluster");
+            }
+        }
+    }
+
+    private static boolean isLocalHost(String hostname) {
+        try {
+            InetAddress address = InetAddress.getByName(hostname);
+            return address.isLoopbackAddress() || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds the key values of a put, they will be written to the table when {@link #load()} is called.
+     */
+    public void add(Put put) throws IOException {
+        for (List<KeyValue> familyKvs : put.getFamilyMap().values()) {
+            for (KeyValue kv : familyKvs) {
+                kv.updateLatestStamp(now);
+                List<KeyValue> kvs = buffer.get(kv.getFamily());
+                if (kvs == null) {
+                    kvs = new ArrayList<KeyValue>();
+                    buffer.put(kv.getFamily(), kvs);
+                }
+                kvs.add(kv);
+                bufferSize += kv.heapSize();
+            }
+        }
+
+        if (bufferSize >= maxBufferSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the buffered key values, sorted, to a new run file for each column family. Of the key values for
+     * the same cell and timestamp, only the one which was added last is kept.
+     */
+    private void spill() throws IOException {
+        for (Map.Entry<byte[], List<KeyValue>> entry : buffer.entrySet()) {
+            List<KeyValue> kvs = entry.getValue();
+            // the sort is stable, so equal key values stay in the order they were added
+            Collections.sort(kvs, KeyValue.COMPARATOR);
+
+            Path runPath = new Path(new Path(spillDir, Bytes.toString(entry.getKey())), "run-" + runCount);
+            HFile.Writer writer = HFile.getWriterFactoryNoCache(conf)
+                    .withPath(localFs, runPath)
+                    .withComparator(KeyValue.KEY_COMPARATOR)
+                    .create();
+            try {
+                for (int i = 0; i < kvs.size(); i++) {
+                    KeyValue kv = kvs.get(i);
+                    if (i + 1 < kvs.size() && KeyValue.COMPARATOR.compare(kv, kvs.get(i + 1)) == 0) {
+                        continue;
+                    }
+                    writer.append(kv);
+                }
+            } finally {
+                writer.close();
+            }
+
+            List<Path> familyRuns = runs.get(entry.getKey());
+            if (familyRuns == null) {
+                familyRuns = new ArrayList<Path>();
+                runs.put(entry.getKey(), familyRuns);
+            }
+            familyRuns.add(runPath);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Spilled " + bufferSize + " bytes of key values to run " + runCount + " in " + spillDir);
+        }
+
+        runCount++;
+        buffer.clear();
+        bufferSize = 0;
+    }
+
+    /**
+     * Merges all key values added so far into HFiles split on the region boundaries of the table, and bulk loads
+     * them into the table.
+     */
+    public void load() throws IOException {
+        if (bufferSize > 0) {
+            spill();
+        }
+        if (runs.isEmpty()) {
+            return;
+        }
+
+        FileSystem fs = outputDir.getFileSystem(conf);
+        HTableDescriptor tableDescriptor = table.getTableDescriptor();
+        byte[][] startKeys = table.getStartKeys();
+
+        for (Map.Entry<byte[], List<Path>> entry : runs.entrySet()) {
+            HColumnDescriptor family = tableDescriptor.getFamily(entry.getKey());
+            if (family == null) {
+                throw new IOException("Table " + Bytes.toString(table.getTableName()) + " has no column family "
+                        + Bytes.toString(entry.getKey()));
+            }
+            merge(entry.getValue(), fs, new Path(outputDir, family.getNameAsString()), family, startKeys);
+        }
+
+        try {
+            new LoadIncrementalHFiles(conf).doBulkLoad(outputDir, table);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error bulk loading " + outputDir, e);
+        }
+
+        runs.clear();
+    }
+
+    /**
+     * Merges the run files of a column family, starting a new HFile at each region boundary. Of the key values
+     * for the same cell and timestamp, the one of the latest run is kept.
+     */
+    private void merge(List<Path> familyRuns, FileSystem fs, Path familyDir, HColumnDescriptor family,
+            byte[][] startKeys) throws IOException {
+        CacheConfig cacheConf = new CacheConfig(conf);
+        List<HFile.Reader> readers = new ArrayList<HFile.Reader>(familyRuns.size());
+        PriorityQueue<RunScanner> queue = new PriorityQueue<RunScanner>(familyRuns.size(),
+                new Comparator<RunScanner>() {
+                    @Override
+                    public int compare(RunScanner scanner1, RunScanner scanner2) {
+                        int result = KeyValue.COMPARATOR.compare(scanner1.current, scanner2.current);
+                        return result != 0 ? result : scanner2.run - scanner1.run;
+                    }
+                });
+
+        StoreFile.Writer writer = null;
+        try {
+            for (int run = 0; run < familyRuns.size(); run++) {
+                HFile.Reader reader = HFile.createReader(localFs, familyRuns.get(run), cacheConf);
+                readers.add(reader);
+                reader.loadFileInfo();
+                RunScanner scanner = new RunScanner(reader.getScanner(false, false), run);
+                if (scanner.seekTo()) {
+                    queue.add(scanner);
+                }
+            }
+
+            int region = -1;
+            byte[] regionEndKey = null;
+            KeyValue lastKv = null;
+            while (!queue.isEmpty()) {
+                RunScanner scanner = queue.poll();
+                KeyValue kv = scanner.current;
+                if (scanner.next()) {
+                    queue.add(scanner);
+                }
+
+                // overwritten by a later run, which came first
+                if (lastKv != null && KeyValue.COMPARATOR.compare(kv, lastKv) == 0) {
+                    continue;
+                }
+                lastKv = kv;
+
+                if (writer == null || (regionEndKey != null && Bytes.compareTo(kv.getRow(), regionEndKey) >= 0)) {
+                    if (writer != null) {
+                        closeWriter(writer);
+                        writer = null;
+                    }
+                    while (region + 1 < startKeys.length && Bytes.compareTo(kv.getRow(), startKeys[region + 1]) >= 0) {
+                        region++;
+                    }
+                    regionEndKey = region + 1 < startKeys.length ? startKeys[region + 1] : null;
+                    writer = new StoreFile.WriterBuilder(conf, cacheConf, fs, family.getBlocksize())
+                            .withOutputDir(familyDir)
+                            .withCompression(family.getCompression())
+                            .withBloomType(family.getBloomFilterType())
+                            .withComparator(KeyValue.COMPARATOR)
+                            .build();
+                }
+
+                writer.append(kv);
+            }
+        } finally {
+            if (writer != null) {
+                closeWriter(writer);
+            }
+            for (HFile.Reader reader : readers) {
+                reader.close(false);
+            }
+        }
+    }
+
+    /**
+     * Keeps the current key value of a run, so that it is not decoded again each time it is compared.
+     */
+    private static class RunScanner {
+        private final HFileScanner scanner;
+        /** Index of the run, later runs have higher indexes. */
+        private final int run;
+        private KeyValue current;
+
+        RunScanner(HFileScanner scanner, int run) {
+            this.scanner = scanner;
+            this.run = run;
+        }
+
+        boolean seekTo() throws IOException {
+            if (scanner.seekTo()) {
+                current = scanner.getKeyValue();
+                return true;
+            }
+            return false;
+        }
+
+        boolean next() throws IOException {
+            if (scanner.next()) {
+                current = scanner.getKeyValue();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void closeWriter(StoreFile.Writer writer) throws IOException {
+        writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+        writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes(spillDir.getName()));
+        writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true));
+        writer.appendTrackedTimestampsToMetadata();
+        writer.close();
+    }
+
+    /**
+     * Removes the files which were written, whether or not they were loaded.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.clear();
+        try {
+            localFs.delete(spillDir, true);
+            FileSystem fs = outputDir.getFileSystem(conf);
+            if (fs.exists(outputDir)) {
+                fs.delete(outputDir, true);
+            }
+        } finally {
+            table.close();
+        }
+    }
+}
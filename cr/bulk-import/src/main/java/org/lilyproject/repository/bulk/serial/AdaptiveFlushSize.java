@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.serial;
+
+/**
+ * Determines how many puts a worker of the {@link ThreadedRecordWriter} buffers before writing them, based on
+ * how long the previous writes took.
+ *
+ * <p>As long as full batches are written faster than the target latency, the batch size grows, so that fewer
+ * and larger requests are sent. When a write takes longer than the target latency, which happens when the region
+ * servers are getting overloaded, the batch size is halved.</p>
+ */
+class AdaptiveFlushSize {
+    private final int minSize;
+    private final int maxSize;
+    private final long targetLatency;
+    private int size;
+
+    /**
+     * @param targetLatency the duration in ms a write of a batch should take at most
+     */
+    AdaptiveFlushSize(int minSize, int maxSize, int initialSize, long targetLatency) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetLatency = targetLatency;
+        this.size = Math.max(minSize, Math.min(maxSize, initialSize));
+    }
+
+    int get() {
+        return size;
+    }
+
+    /**
+     * Adjusts the batch size after a write.
+     *
+     * @param flushed the number of puts that were written
+     * @param latency the duration of the write in ms
+     */
+    void update(int flushed, long latency) {
+        if (latency > targetLatency) {
+            size = Math.max(minSize, size / 2);
+        } else if (flushed >= size && latency < targetLatency / 2) {
+            // only grow on full batches, batches flushed because they got too old say nothing about the size
+            size = Math.min(maxSize, size + size / 4 + 1);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
 import org.lilyproject.repository.bulk.AbstractBulkImportCliTool;
 import org.lilyproject.repository.bulk.BulkIngester;
 import org.lilyproject.repository.bulk.LineMapper;
@@ -47,16 +48,36 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
 
     private Option dryRunOption;
 
+    private Option bulkLoadOption;
+
+    private Option stagingDirOption;
+
     private boolean dryRun;
 
+    /** Local directory for the HFiles to bulk load, null when writing directly to Lily. */
+    private File bulkLoadDir;
+
+    /** Directory on the file system of the cluster from which the HFiles are bulk loaded. */
+    private Path stagingDir;
+
     @SuppressWarnings("static-access")
     @Override
     public List<Option> getOptions() {
         dryRunOption = OptionBuilder.withDescription("Only print out the created records without writing them to Lily").withLongOpt(
                 "dryrun").create('d');
 
+        bulkLoadOption = OptionBuilder.withDescription("Write the records to HFiles in the given local directory and "
+                + "bulk load them at the end, rather than writing them to the region servers. Requires --stagingdir")
+                .withLongOpt("bulkload").hasArg().withArgName("dir").create('b');
+
+        stagingDirOption = OptionBuilder.withDescription("Directory on the file system of the cluster from which the "
+                + "region servers bulk load the HFiles, e.g. hdfs://namenode/tmp").withLongOpt(
+                "stagingdir").hasArg().withArgName("dir").create('g');
+
         List<Option> options = super.getOptions();
         options.add(dryRunOption);
+        options.add(bulkLoadOption);
+        options.add(stagingDirOption);
         return options;
     }
 
@@ -68,6 +89,15 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
         }
 
         dryRun = cmd.hasOption(dryRunOption.getOpt());
+        if (cmd.hasOption(bulkLoadOption.getOpt())) {
+            bulkLoadDir = new File(cmd.getOptionValue(bulkLoadOption.getOpt()));
+            if (!cmd.hasOption(stagingDirOption.getOpt())) {
+                System.err.println("No staging directory on the file system of the cluster given, which --bulkload "
+                        + "requires");
+                return 1;
+            }
+            stagingDir = new Path(cmd.getOptionValue(stagingDirOption.getOpt()));
+        }
         return 0;
     }
 
@@ -84,6 +114,8 @@ public class BulkImportTool extends AbstractBulkImportCliTool {
         RecordWriter recordWriter;
         if (dryRun) {
             recordWriter = new DebugRecordWriter(System.out);
+        } else if (bulkLoadDir != null) {
+            recordWriter = new HFileRecordWriter(zkConnectionString, outputTable, bulkLoadDir, stagingDir);
         } else {
             recordWriter = new ThreadedRecordWriter(zkConnectionString, 10, outputTable);
         }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.serial;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.bulk.BulkIngester;
+import org.lilyproject.repository.bulk.HFileBulkLoader;
+import org.lilyproject.repository.bulk.RecordWriter;
+
+/**
+ * Import writer for bulk imports where the import runs as a single process which writes the records to HFiles,
+ * and bulk loads these into Lily when it is closed. This keeps the import from competing with
+ * the other traffic on the region servers.
+ */
+public class HFileRecordWriter implements RecordWriter {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private BulkIngester bulkIngester;
+    private long recordsWritten = 0;
+    private long writeFailures = 0;
+
+    /**
+     * @param spillDir local directory where the records are sorted
+     * @param stagingDir directory on the file system of the cluster where the HFiles are written to be loaded
+     */
+    public HFileRecordWriter(String lilyZk, String repositoryTableName, File spillDir, Path stagingDir) {
+        bulkIngester = BulkIngester.newHFileBulkIngester(lilyZk, 30000, repositoryTableName, spillDir, stagingDir,
+                HFileBulkLoader.DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(Record record) throws IOException, InterruptedException {
+        try {
+            bulkIngester.write(record);
+            recordsWritten++;
+        } catch (RepositoryException e) {
+            log.error("Error writing record " + record, e);
+            writeFailures++;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            bulkIngester.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error bulk loading the records", e);
+        }
+    }
+
+    public long getNumWriteFailures() {
+        return writeFailures;
+    }
+
+    @Override
+    public long getNumRecords() {
+        return recordsWritten;
+    }
+
+}
@@ -16,104 +16,275 @@
 package org.lilyproject.repository.bulk.serial;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.Put;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.bulk.BulkIngester;
 import org.lilyproject.repository.bulk.RecordWriter;
-import org.lilyproject.util.concurrent.WaitPolicy;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.exception.ExceptionUtil;
 
 /**
  * Import writer for bulk imports where the import runs as a single (multi-threaded) process writing directly to Lily.
+ *
+ * <p>The records are handed to the worker threads in chunks, each worker having a small queue of chunks. The producer
+ * only waits when the queues of all workers are full. Each worker buffers the puts of its records and writes them
+ * when their number reaches a size which is adapted to the observed write latency (see {@link AdaptiveFlushSize}),
+ * or when the oldest of them has been waiting for {@link #MAX_FLUSH_DELAY} ms.</p>
+ *
+ * <p>The time the producer waited, the flush sizes and the throughput are available through
+ * {@link ThreadedRecordWriterMetrics}.</p>
  */
 public class ThreadedRecordWriter implements RecordWriter {
-    
+
+    /** Number of records handed to a worker at once. */
+    private static final int CHUNK_SIZE = 100;
+
+    /** Number of chunks which can be waiting for each worker. */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /** Maximum time in ms records are buffered by a worker before they are written. */
+    static final long MAX_FLUSH_DELAY = 1000;
+
+    /** The duration in ms a write of a batch of puts should take at most. */
+    private static final long TARGET_FLUSH_LATENCY = 500;
+
+    private static final int MIN_FLUSH_SIZE = 100;
+    private static final int MAX_FLUSH_SIZE = 10000;
+
+    /** Tells a worker there are no more records. */
+    private static final List<Record> END = new ArrayList<Record>(0);
+
     private Log log = LogFactory.getLog(getClass());
-    
-    private String lilyZk;
-    private String repositoryTableName;
-    private ThreadPoolExecutor executor;
+
+    private final Worker[] workers;
+    private final Thread[] threads;
+    private final ThreadedRecordWriterMetrics metrics;
     private AtomicLong recordsWritten = new AtomicLong();
     private AtomicLong writeFailures = new AtomicLong();
-    private ThreadLocal<BulkIngester> threadLocalBulkIngesters;
-    private List<BulkIngester> bulkIngesters;
-    
-    
-    public ThreadedRecordWriter(String lilyZk, int numThreads, String repositoryTableName) {
-        this.lilyZk = lilyZk;
-        this.repositoryTableName = repositoryTableName;
-        executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<Runnable>(5));
-        executor.setRejectedExecutionHandler(new WaitPolicy());
-        threadLocalBulkIngesters  = new ThreadLocal<BulkIngester>();
-        bulkIngesters = Collections.synchronizedList(Lists.<BulkIngester>newArrayList());
+
+    // Accessed by the producer only, within the lock of this object
+    private List<Record> chunk = new ArrayList<Record>(CHUNK_SIZE);
+    private int nextWorker = 0;
+    private long producerStallTime = 0;
+
+    interface BulkIngesterFactory {
+        BulkIngester create();
     }
-    
 
-    @Override
-    public void write(final Record record) throws IOException, InterruptedException {
-        executor.submit(new Runnable(){
+    public ThreadedRecordWriter(final String lilyZk, int numThreads, final String repositoryTableName) {
+        this(numThreads, new BulkIngesterFactory() {
             @Override
-            public void run() {
-                
-                if (threadLocalBulkIngesters.get() == null) {
-                    BulkIngester bulkIngester = BulkIngester.newBulkIngester(lilyZk, 30000, repositoryTableName);
-                    bulkIngesters.add(bulkIngester);
-                    threadLocalBulkIngesters.set(bulkIngester);
-                }
-                
-                BulkIngester bulkIngester = threadLocalBulkIngesters.get();
-                
-                
-                try {
-                    bulkIngester.write(record);
-                    recordsWritten.incrementAndGet();
-                } catch (Exception e) {
-                    ExceptionUtil.handleInterrupt(e);
-                    log.error("Error writing record " + record, e);
-                    writeFailures.incrementAndGet();
-                }
-            }});
+            public BulkIngester create() {
+                return BulkIngester.newBulkIngester(lilyZk, 30000, repositoryTableName);
+            }
+        });
     }
-    
+
+    ThreadedRecordWriter(int numThreads, BulkIngesterFactory bulkIngesterFactory) {
+        metrics = new ThreadedRecordWriterMetrics();
+        workers = new Worker[numThreads];
+        threads = new Thread[numThreads];
+        ThreadFactory threadFactory = new CustomThreadFactory("bulk-import-writer", null);
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new Worker(bulkIngesterFactory);
+            threads[i] = threadFactory.newThread(workers[i]);
+            threads[i].start();
+        }
+    }
+
+    @Override
+    public synchronized void write(Record record) throws IOException, InterruptedException {
+        chunk.add(record);
+        if (chunk.size() >= CHUNK_SIZE) {
+            handOff();
+        }
+    }
+
+    /**
+     * Gives the current chunk to the next worker which has room for it, waiting if there is none.
+     */
+    private void handOff() throws InterruptedException {
+        List<Record> fullChunk = chunk;
+        chunk = new ArrayList<Record>(CHUNK_SIZE);
+
+        for (int i = 0; i < workers.length; i++) {
+            int worker = (nextWorker + i) % workers.length;
+            if (workers[worker].queue.offer(fullChunk)) {
+                nextWorker = worker + 1;
+                return;
+            }
+        }
+
+        long before = System.currentTimeMillis();
+        int worker = nextWorker % workers.length;
+        workers[worker].queue.put(fullChunk);
+        nextWorker = worker + 1;
+        long stall = System.currentTimeMillis() - before;
+        producerStallTime += stall;
+        metrics.producerStall.inc(stall);
+    }
+
     @Override
     public void close() {
-        this.executor.shutdown();
-        boolean successfulFinish;
         try {
-            successfulFinish = executor.awaitTermination(10, TimeUnit.MINUTES);
+            synchronized (this) {
+                if (!chunk.isEmpty()) {
+                    handOff();
+                }
+                for (Worker worker : workers) {
+                    worker.queue.put(END);
+                }
+            }
+
+            long waitUntil = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10);
+            for (Thread thread : threads) {
+                thread.join(Math.max(waitUntil - System.currentTimeMillis(), 1));
+                if (thread.isAlive()) {
+                    throw new RuntimeException("JSON import writer threads did not end successfully.");
+                }
+            }
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } finally {
+            metrics.shutdown();
         }
-        if (!successfulFinish) {
-            throw new RuntimeException("JSON import executor did not end successfully.");
-        }
-        for (BulkIngester bulkIngester : bulkIngesters) {
-            try {
-                bulkIngester.close();
-            } catch (IOException e) {
-                log.error("Error closing bulk ingester", e);
-            }
-        }
-    }
 
+        log.info("Wrote " + recordsWritten + " records, " + writeFailures + " failed, producer waited "
+                + producerStallTime + " ms for the writers.");
+    }
 
     public long getNumWriteFailures() {
         return writeFailures.longValue();
     }
-    
+
     @Override
     public long getNumRecords() {
         return recordsWritten.longValue();
     }
 
+    /**
+     * Total time in ms the producer waited because all writer threads were busy.
+     */
+    public synchronized long getProducerStallTime() {
+        return producerStallTime;
+    }
+
+    private class Worker implements Runnable {
+        private final BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<List<Record>>(CHUNKS_PER_WORKER);
+        private final BulkIngesterFactory bulkIngesterFactory;
+        private final AdaptiveFlushSize flushSize = new AdaptiveFlushSize(MIN_FLUSH_SIZE, MAX_FLUSH_SIZE,
+                BulkIngester.PUT_BUFFER_SIZE, TARGET_FLUSH_LATENCY);
+        private List<Put> puts = new ArrayList<Put>();
+        private long firstBufferedAt;
+
+        Worker(BulkIngesterFactory bulkIngesterFactory) {
+            this.bulkIngesterFactory = bulkIngesterFactory;
+        }
+
+        @Override
+        public void run() {
+            BulkIngester bulkIngester = null;
+            try {
+                bulkIngester = bulkIngesterFactory.create();
+            } catch (Throwable t) {
+                // keep on taking chunks, so that the producer does not get stuck
+                log.error("Error creating bulk ingester, the records given to this writer thread will fail", t);
+            }
+
+            try {
+                while (true) {
+                    long timeout = puts.isEmpty() ? MAX_FLUSH_DELAY :
+                            firstBufferedAt + MAX_FLUSH_DELAY - System.currentTimeMillis();
+                    List<Record> records = queue.poll(Math.max(timeout, 0), TimeUnit.MILLISECONDS);
+                    if (records == END) {
+                        break;
+                    }
+
+                    if (records != null) {
+                        for (Record record : records) {
+                            buffer(bulkIngester, record);
+                            if (puts.size() >= flushSize.get()) {
+                                flush(bulkIngester);
+                            }
+                        }
+                    }
+
+                    if (!puts.isEmpty() && System.currentTimeMillis() - firstBufferedAt >= MAX_FLUSH_DELAY) {
+                        flush(bulkIngester);
+                    }
+                }
+
+                if (!puts.isEmpty()) {
+                    flush(bulkIngester);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (bulkIngester != null) {
+                    try {
+                        bulkIngester.close();
+                    } catch (Throwable e) {
+                        log.error("Error closing bulk ingester", e);
+                    }
+                }
+            }
+        }
+
+        private void buffer(BulkIngester bulkIngester, Record record) {
+            if (bulkIngester == null) {
+                failed(1);
+                return;
+            }
+
+            try {
+                if (puts.isEmpty()) {
+                    firstBufferedAt = System.currentTimeMillis();
+                }
+                puts.add(bulkIngester.buildPut(record));
+            } catch (Throwable e) {
+                // whatever goes wrong, the worker should keep taking chunks, so that the producer doesn't get stuck
+                ExceptionUtil.handleInterrupt(e);
+                log.error("Error writing record " + record, e);
+                failed(1);
+            }
+        }
+
+        private void flush(BulkIngester bulkIngester) {
+            int size = puts.size();
+            long before = System.currentTimeMillis();
+            try {
+                bulkIngester.write(puts);
+                recordsWritten.addAndGet(size);
+                metrics.recordsWritten.inc(size);
+            } catch (Throwable e) {
+                log.error("Error writing " + size + " records", e);
+                failed(size);
+            }
+            long latency = System.currentTimeMillis() - before;
+
+            metrics.flushDuration.inc(latency);
+            metrics.flushSize.inc(size);
+            flushSize.update(size, latency);
+            metrics.targetFlushSize.set(flushSize.get());
+
+            puts = new ArrayList<Put>(flushSize.get());
+        }
+
+        private void failed(int count) {
+            writeFailures.addAndGet(count);
+            metrics.writeFailures.inc(count);
+        }
+    }
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.serial;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+public class ThreadedRecordWriterMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final ThreadedRecordWriterMetricsMXBean mbean;
+    private final MetricsContext context;
+
+    /** Time the producer waited because the queues of all workers were full. */
+    public MetricsTimeVaryingRate producerStall = new MetricsTimeVaryingRate("producer_stall", registry);
+
+    /** Number of records written per flush (the "time" of this rate is the number of records). */
+    public MetricsTimeVaryingRate flushSize = new MetricsTimeVaryingRate("flush_size", registry);
+
+    /** Duration of writing a batch of puts to HBase. */
+    public MetricsTimeVaryingRate flushDuration = new MetricsTimeVaryingRate("flush_duration", registry);
+
+    /** Number of records written, which gives the throughput. */
+    public MetricsTimeVaryingLong recordsWritten = new MetricsTimeVaryingLong("records_written", registry);
+
+    /** Number of records which could not be written. */
+    public MetricsTimeVaryingLong writeFailures = new MetricsTimeVaryingLong("write_failures", registry);
+
+    /** The flush size the workers currently aim for, as last adjusted by one of them. */
+    public MetricsIntValue targetFlushSize = new MetricsIntValue("target_flush_size", registry);
+
+    public ThreadedRecordWriterMetrics() {
+        context = MetricsUtil.getContext("bulkImport");
+        metricsRecord = MetricsUtil.createRecord(context, "threadedRecordWriter");
+        context.registerUpdater(this);
+        mbean = new ThreadedRecordWriterMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    public class ThreadedRecordWriterMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public ThreadedRecordWriterMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Bulk Import Writer");
+
+            mbeanName = MBeanUtil.registerMBean("Bulk Import", "threadedRecordWriter", this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null) {
+                MBeanUtil.unregisterMBean(mbeanName);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.io.Files;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.HBaseProxy;
+import org.lilyproject.hadooptestfw.TestHelper;
+
+public class HFileBulkLoaderTest {
+
+    private static final byte[] FAMILY = Bytes.toBytes("data");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+    private static HBaseProxy HBASE_PROXY;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        HBASE_PROXY = new HBaseProxy();
+        HBASE_PROXY.start();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        HBASE_PROXY.stop();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        String tableName = "bulkload";
+        HTableDescriptor tableDescriptor = new HTableDescriptor(tableName);
+        tableDescriptor.addFamily(new HColumnDescriptor(FAMILY));
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        // three regions, so that the HFiles have to be split on the region boundaries
+        admin.createTable(tableDescriptor, new byte[][] {Bytes.toBytes("row-300"), Bytes.toBytes("row-600")});
+        admin.close();
+
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(i);
+        }
+        Collections.shuffle(rows);
+
+        File spillDir = Files.createTempDir();
+        // a small buffer, so that the puts are spilled in several runs which need to be merged
+        HFileBulkLoader loader = new HFileBulkLoader(HBASE_PROXY.getConf(), tableName, spillDir, stagingDir(), 10000);
+        try {
+            for (int row : rows) {
+                Put put = new Put(rowKey(row));
+                put.add(FAMILY, QUALIFIER, 1L, Bytes.toBytes(row));
+                loader.add(put);
+            }
+            loader.load();
+        } finally {
+            loader.close();
+        }
+
+        // the spilled runs are removed
+        assertEquals(0, spillDir.list().length);
+        FileUtil.fullyDelete(spillDir);
+
+        HTable table = new HTable(HBASE_PROXY.getConf(), tableName);
+        assertEquals(3, table.getStartKeys().length);
+        ResultScanner scanner = table.getScanner(new Scan());
+        List<String> expectedRows = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            expectedRows.add(Bytes.toString(rowKey(i)));
+        }
+        Collections.sort(expectedRows);
+
+        int count = 0;
+        for (Result result : scanner) {
+            String row = expectedRows.get(count);
+            assertEquals(row, Bytes.toString(result.getRow()));
+            int value = Integer.parseInt(row.substring("row-".length()));
+            assertArrayEquals(Bytes.toBytes(value), result.getValue(FAMILY, QUALIFIER));
+            count++;
+        }
+        scanner.close();
+        table.close();
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testLoadNothing() throws Exception {
+        String tableName = "bulkload-empty";
+        HTableDescriptor tableDescriptor = new HTableDescriptor(tableName);
+        tableDescriptor.addFamily(new HColumnDescriptor(FAMILY));
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        admin.createTable(tableDescriptor);
+        admin.close();
+
+        File spillDir = Files.createTempDir();
+        HFileBulkLoader loader = new HFileBulkLoader(HBASE_PROXY.getConf(), tableName, spillDir, stagingDir(), 10000);
+        loader.load();
+        loader.close();
+        FileUtil.fullyDelete(spillDir);
+
+        HTable table = new HTable(HBASE_PROXY.getConf(), tableName);
+        ResultScanner scanner = table.getScanner(new Scan());
+        assertFalse(scanner.iterator().hasNext());
+        scanner.close();
+        table.close();
+    }
+
+    @Test
+    public void testLastPutWins() throws Exception {
+        String tableName = "bulkload-overwrite";
+        HTableDescriptor tableDescriptor = new HTableDescriptor(tableName);
+        tableDescriptor.addFamily(new HColumnDescriptor(FAMILY));
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        admin.createTable(tableDescriptor, new byte[][] {Bytes.toBytes("row-50")});
+        admin.close();
+
+        File spillDir = Files.createTempDir();
+        // a small buffer, so that the values of a cell end up both in the same run and in different runs
+        HFileBulkLoader loader = new HFileBulkLoader(HBASE_PROXY.getConf(), tableName, spillDir, stagingDir(), 5000);
+        try {
+            for (int version = 0; version < 5; version++) {
+                for (int row = 0; row < 100; row++) {
+                    // without timestamp, so that all puts get the same one
+                    Put put = new Put(rowKey(row));
+                    put.add(FAMILY, QUALIFIER, Bytes.toBytes(version));
+                    loader.add(put);
+                    if (row % 10 == 0) {
+                        put = new Put(rowKey(row));
+                        put.add(FAMILY, QUALIFIER, Bytes.toBytes(version * 100));
+                        loader.add(put);
+                    }
+                }
+            }
+            loader.load();
+        } finally {
+            loader.close();
+        }
+        FileUtil.fullyDelete(spillDir);
+
+        HTable table = new HTable(HBASE_PROXY.getConf(), tableName);
+        ResultScanner scanner = table.getScanner(new Scan());
+        int count = 0;
+        for (Result result : scanner) {
+            int row = Integer.parseInt(Bytes.toString(result.getRow()).substring("row-".length()));
+            assertArrayEquals(Bytes.toBytes(row % 10 == 0 ? 400 : 4), result.getValue(FAMILY, QUALIFIER));
+            count++;
+        }
+        scanner.close();
+        table.close();
+        assertEquals(100, count);
+    }
+
+    private static Path stagingDir() throws IOException {
+        return FileSystem.get(HBASE_PROXY.getConf()).makeQualified(new Path("/tmp/bulkload-staging"));
+    }
+
+    private static byte[] rowKey(int row) {
+        return Bytes.toBytes("row-" + row);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.bulk.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Test;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.bulk.BulkIngester;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ThreadedRecordWriterTest {
+
+    @Test
+    public void testWriteAllRecords() throws Exception {
+        final Set<Put> written = Collections.newSetFromMap(new ConcurrentHashMap<Put, Boolean>());
+        ThreadedRecordWriter writer = new ThreadedRecordWriter(3, new ThreadedRecordWriter.BulkIngesterFactory() {
+            @Override
+            public BulkIngester create() {
+                BulkIngester bulkIngester = mock(BulkIngester.class);
+                try {
+                    when(bulkIngester.buildPut(any(Record.class))).thenAnswer(new Answer<Put>() {
+                        @Override
+                        public Put answer(InvocationOnMock invocation) {
+                            return new Put(new byte[] {1});
+                        }
+                    });
+                    doAnswer(new Answer<Void>() {
+                        @Override
+                        public Void answer(InvocationOnMock invocation) {
+                            written.addAll((List<Put>)invocation.getArguments()[0]);
+                            return null;
+                        }
+                    }).when(bulkIngester).write(any(List.class));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return bulkIngester;
+            }
+        });
+
+        // not a multiple of the chunk size, so the last chunk is only handed off when closing
+        for (int i = 0; i < 5050; i++) {
+            writer.write(mock(Record.class));
+        }
+        writer.close();
+
+        assertEquals(5050, writer.getNumRecords());
+        assertEquals(0, writer.getNumWriteFailures());
+        assertEquals(5050, written.size());
+    }
+
+    @Test
+    public void testFlushAfterDelay() throws Exception {
+        final BulkIngester bulkIngester = mock(BulkIngester.class);
+        when(bulkIngester.buildPut(any(Record.class))).thenReturn(new Put(new byte[] {1}));
+        ThreadedRecordWriter writer = new ThreadedRecordWriter(1, new ThreadedRecordWriter.BulkIngesterFactory() {
+            @Override
+            public BulkIngester create() {
+                return bulkIngester;
+            }
+        });
+
+        // one chunk, far less than the flush size
+        for (int i = 0; i < 100; i++) {
+            writer.write(mock(Record.class));
+        }
+
+        long waitUntil = System.currentTimeMillis() + 10 * ThreadedRecordWriter.MAX_FLUSH_DELAY;
+        while (writer.getNumRecords() < 100 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(50);
+        }
+        assertEquals(100, writer.getNumRecords());
+
+        writer.close();
+        verify(bulkIngester).close();
+    }
+
+    @Test
+    public void testWriteFailures() throws Exception {
+        final BulkIngester bulkIngester = mock(BulkIngester.class);
+        Record badRecord = mock(Record.class);
+        when(bulkIngester.buildPut(any(Record.class))).thenReturn(new Put(new byte[] {1}));
+        when(bulkIngester.buildPut(badRecord)).thenThrow(new RecordException("bad record"));
+        ThreadedRecordWriter writer = new ThreadedRecordWriter(1, new ThreadedRecordWriter.BulkIngesterFactory() {
+            @Override
+            public BulkIngester create() {
+                return bulkIngester;
+            }
+        });
+
+        writer.write(badRecord);
+        for (int i = 0; i < 9; i++) {
+            writer.write(mock(Record.class));
+        }
+        writer.close();
+
+        assertEquals(9, writer.getNumRecords());
+        assertEquals(1, writer.getNumWriteFailures());
+
+        // when the puts can't be written, all their records failed
+        final BulkIngester failingIngester = mock(BulkIngester.class);
+        when(failingIngester.buildPut(any(Record.class))).thenReturn(new Put(new byte[] {1}));
+        doThrow(new IOException("region servers are gone")).when(failingIngester).write(any(List.class));
+        writer = new ThreadedRecordWriter(1, new ThreadedRecordWriter.BulkIngesterFactory() {
+            @Override
+            public BulkIngester create() {
+                return failingIngester;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            writer.write(mock(Record.class));
+        }
+        writer.close();
+
+        assertEquals(0, writer.getNumRecords());
+        assertEquals(10, writer.getNumWriteFailures());
+
+        // unexpected errors don't stop the writer threads, which would leave the producer waiting forever
+        final BulkIngester brokenIngester = mock(BulkIngester.class);
+        when(brokenIngester.buildPut(any(Record.class))).thenReturn(new Put(new byte[] {1}));
+        doThrow(new IllegalStateException("broken")).when(brokenIngester).write(any(List.class));
+        writer = new ThreadedRecordWriter(1, new ThreadedRecordWriter.BulkIngesterFactory() {
+            @Override
+            public BulkIngester create() {
+                return brokenIngester;
+            }
+        });
+        // more chunks than the worker queue can hold
+        for (int i = 0; i < 20000; i++) {
+            writer.write(mock(Record.class));
+        }
+        writer.close();
+
+        assertEquals(0, writer.getNumRecords());
+        assertEquals(20000, writer.getNumWriteFailures());
+    }
+
+    @Test
+    public void testAdaptiveFlushSize() {
+        AdaptiveFlushSize flushSize = new AdaptiveFlushSize(100, 1000, 400, 500);
+
+        // fast full flushes grow the size up to the maximum
+        flushSize.update(400, 10);
+        assertEquals(501, flushSize.get());
+        for (int i = 0; i < 20; i++) {
+            flushSize.update(flushSize.get(), 10);
+        }
+        assertEquals(1000, flushSize.get());
+
+        // partial flushes, triggered by the delay, don't change it
+        flushSize.update(10, 10);
+        assertEquals(1000, flushSize.get());
+
+        // slow flushes shrink it down to the minimum
+        flushSize.update(1000, 800);
+        assertEquals(500, flushSize.get());
+        for (int i = 0; i < 20; i++) {
+            flushSize.update(flushSize.get(), 800);
+        }
+        assertEquals(100, flushSize.get());
+    }
+}
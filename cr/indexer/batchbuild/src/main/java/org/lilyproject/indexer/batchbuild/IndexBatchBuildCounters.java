@@ -16,5 +16,10 @@
 package org.lilyproject.indexer.batchbuild;
 
 public enum IndexBatchBuildCounters {
-    NUM_FAILED_RECORDS
+    NUM_FAILED_RECORDS,
+    NUM_INDEXED_RECORDS,
+    /** Number of requests sent to Solr, a batch for one shard being sent in one request. */
+    NUM_SOLR_BATCHES,
+    /** Total time spent indexing the batches and sending them to Solr. */
+    SOLR_BATCH_TIME_MS
 }
@@ -17,11 +17,16 @@ package org.lilyproject.indexer.batchbuild;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.iharder.Base64;
 import org.apache.commons.logging.Log;
@@ -40,11 +45,14 @@ import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
+import org.lilyproject.indexer.engine.DerefRecordCache;
 import org.lilyproject.indexer.engine.IndexLocker;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
+import org.lilyproject.indexer.engine.SolrClient;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.engine.SolrShardManager;
+import org.lilyproject.indexer.engine.ZooKeeperIndexLocker;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
 import org.lilyproject.indexer.model.sharding.DefaultShardSelectorBuilder;
@@ -61,14 +69,39 @@ import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
+/**
+ * Map task of the batch index build.
+ *
+ * <p>The records are grouped per Solr shard into batches. A batch is indexed by a worker thread as an
+ * {@link Indexer} batch (see {@link Indexer#startBatch()}), so that the documents of the batch are sent to Solr
+ * in one request. The number of batches waiting for a worker is bounded, when this limit is reached the map
+ * thread indexes the batch itself, which slows down the reading of the input.</p>
+ *
+ * <p>When locking is disabled, which is the case when there is no incremental indexing going on for the index,
+ * no index locks are taken at all.</p>
+ */
 public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Result> {
+    /** Interval between updates of the task status. */
+    private static final long STATUS_INTERVAL = 10000;
+
     private Indexer indexer;
     private String table;
     private ThreadSafeClientConnManager connectionManager;
     private IndexLocker indexLocker;
+    private boolean enableLocking;
+    private SolrShardManager solrShardMgr;
     private ZooKeeperItf zk;
     private LilyClient lilyClient;
     private ThreadPoolExecutor executor;
+    private int batchSize;
+    private final Map<SolrClient, List<IdRecord>> batches = new HashMap<SolrClient, List<IdRecord>>();
+
+    private long startTime;
+    private long lastStatusUpdate;
+    private final AtomicLong indexedRecords = new AtomicLong();
+    private final AtomicLong solrBatches = new AtomicLong();
+    private final AtomicLong solrTime = new AtomicLong();
+
     private final Log log = LogFactory.getLog(getClass());
 
     @Override
@@ -96,25 +129,37 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
 
             table = Bytes.toString(((TableSplit)context.getInputSplit()).getTableName());
 
-            SolrShardManager solrShardMgr = getShardManager(jobConf);
+            solrShardMgr = getShardManager(jobConf);
 
-            boolean enableLocking =
-                    Boolean.parseBoolean(jobConf.get("org.lilyproject.indexer.batchbuild.enableLocking"));
+            enableLocking = Boolean.parseBoolean(jobConf.get("org.lilyproject.indexer.batchbuild.enableLocking"));
 
-            indexLocker = new IndexLocker(zk, enableLocking);
+            indexLocker = new ZooKeeperIndexLocker(zk, enableLocking);
 
             final DerefMap derefMap = indexerConf.containsDerefExpressions() ?
                     DerefMapHbaseImpl.create(indexName, LilyClient.getHBaseConfiguration(zk), null,
                             repository.getIdGenerator()) : null;
-            indexer = new Indexer(indexName, indexerConf, repository, solrShardMgr, indexLocker,
-                    new IndexerMetrics(indexName), derefMap);
+
+            // The records read for deref expressions are cached for the whole task, records linked from many
+            // others are typically read again and again otherwise
+            IndexerMetrics indexerMetrics = new IndexerMetrics(indexName);
+            int derefCacheSize = getIntProp("org.lilyproject.indexer.batchbuild.derefCacheSize", 10000, jobConf);
+            DerefRecordCache derefRecordCache = derefCacheSize > 0 && indexerConf.containsDerefExpressions() ?
+                    new DerefRecordCache(derefCacheSize, TimeUnit.MINUTES.toMillis(10), indexerMetrics) : null;
+
+            indexer = new Indexer(indexName, indexerConf, repository, solrShardMgr, indexLocker, indexerMetrics,
+                    derefMap, derefRecordCache, null);
 
             int workers = getIntProp("org.lilyproject.indexer.batchbuild.threads", 5, jobConf);
+            batchSize = getIntProp("org.lilyproject.indexer.batchbuild.batchSize", 100, jobConf);
 
+            // Bound the number of batches waiting for a worker, the map thread indexes the batch itself when
+            // they are all busy
             executor = new ThreadPoolExecutor(workers, workers, 10, TimeUnit.SECONDS,
-                    new ArrayBlockingQueue<Runnable>(1000));
+                    new ArrayBlockingQueue<Runnable>(workers));
             executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
 
+            startTime = System.currentTimeMillis();
+            lastStatusUpdate = startTime;
         } catch (Exception e) {
             throw new IOException("Error in index build map task setup.", e);
         }
@@ -181,11 +226,19 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
+        for (List<IdRecord> batch : batches.values()) {
+            if (!batch.isEmpty()) {
+                executor.execute(new BatchTask(batch, context));
+            }
+        }
+        batches.clear();
+
         executor.shutdown();
         boolean successfulFinish = executor.awaitTermination(5, TimeUnit.MINUTES);
         if (!successfulFinish) {
             log.error("Executor did not finish outstanding work within the foreseen timeout.");
         }
+        updateStatus(context);
 
         Closer.close(connectionManager);
         log.info("Shutdown lily client");
@@ -197,45 +250,154 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
     @Override
     public void map(RecordIdWritable recordIdWritable, IdRecordWritable recordWritable, Context context)
             throws IOException, InterruptedException {
-        executor.submit(new MappingTask(table, recordWritable.getRecord(), context));
+        IdRecord record = recordWritable.getRecord();
+
+        SolrClient solrClient;
+        try {
+            solrClient = solrShardMgr.getSolrClient(record.getId());
+        } catch (Exception e) {
+            context.getCounter(IndexBatchBuildCounters.NUM_FAILED_RECORDS).increment(1);
+            log.error("Failure indexing record " + record.getId() + ": could not determine its Solr shard", e);
+            return;
+        }
+
+        List<IdRecord> batch = batches.get(solrClient);
+        if (batch == null) {
+            batch = new ArrayList<IdRecord>(batchSize);
+            batches.put(solrClient, batch);
+        }
+        batch.add(record);
+
+        if (batch.size() >= batchSize) {
+            batches.remove(solrClient);
+            executor.execute(new BatchTask(batch, context));
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastStatusUpdate >= STATUS_INTERVAL) {
+            lastStatusUpdate = now;
+            updateStatus(context);
+        }
+    }
+
+    private void updateStatus(Context context) {
+        long indexed = indexedRecords.get();
+        long batchCount = solrBatches.get();
+        double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000d;
+        context.setStatus(String.format("Indexed %d records, %.1f docs/sec, average Solr batch latency %d ms",
+                indexed, indexed / seconds, batchCount > 0 ? solrTime.get() / batchCount : 0));
     }
 
-    public class MappingTask implements Runnable {
-        private final String table;
-        private final IdRecord idRecord;
+    /**
+     * Indexes a batch of records of the same Solr shard.
+     */
+    private class BatchTask implements Runnable {
+        private final List<IdRecord> records;
         private final Context context;
 
-        private MappingTask(String table, IdRecord idRecord, Context context) {
-            this.table = table;
-            this.idRecord = idRecord;
+        private BatchTask(List<IdRecord> records, Context context) {
+            this.records = records;
             this.context = context;
         }
 
         @Override
         public void run() {
-            boolean locked = false;
-            RecordId recordId = idRecord.getId();
+            List<RecordId> lockedRecords = new ArrayList<RecordId>(records.size());
+            List<IdRecord> batchedRecords = new ArrayList<IdRecord>(records.size());
+            boolean flushed = false;
             try {
-                indexLocker.lock(recordId);
-                locked = true;
-                indexer.index(table, idRecord);
-            } catch (Throwable t) {
-                context.getCounter(IndexBatchBuildCounters.NUM_FAILED_RECORDS).increment(1);
-
-                // Avoid printing a complete stack trace for common errors.
-                if (t instanceof SolrServerException &&
-                        t.getMessage().equals("java.net.ConnectException: Connection refused")) {
-                    log.error("Failure indexing record " + recordId + ": Solr connection refused.");
-                } else {
-                    log.error("Failure indexing record " + recordId, t);
+                indexer.startBatch();
+                for (IdRecord record : lockOrder(records)) {
+                    try {
+                        if (enableLocking) {
+                            indexLocker.lock(record.getId());
+                            lockedRecords.add(record.getId());
+                        }
+                        indexer.index(table, record);
+                        batchedRecords.add(record);
+                    } catch (Throwable t) {
+                        recordFailed(record.getId(), t);
+                    }
                 }
 
+                long before = System.currentTimeMillis();
+                indexer.flushBatch();
+                long duration = System.currentTimeMillis() - before;
+                flushed = true;
+
+                solrBatches.incrementAndGet();
+                solrTime.addAndGet(duration);
+                indexedRecords.addAndGet(batchedRecords.size());
+                context.getCounter(IndexBatchBuildCounters.NUM_INDEXED_RECORDS).increment(batchedRecords.size());
+                context.getCounter(IndexBatchBuildCounters.NUM_SOLR_BATCHES).increment(1);
+                context.getCounter(IndexBatchBuildCounters.SOLR_BATCH_TIME_MS).increment(duration);
+            } catch (Throwable t) {
+                log.error("Failure indexing a batch of " + batchedRecords.size() +
+                        " records, indexing them one by one", t);
             } finally {
-                if (locked) {
+                indexer.endBatch();
+            }
+
+            try {
+                if (!flushed) {
+                    // Find out which records of the batch failed
+                    for (IdRecord record : batchedRecords) {
+                        indexRecord(record);
+                    }
+                }
+            } finally {
+                for (RecordId recordId : lockedRecords) {
                     indexLocker.unlockLogFailure(recordId);
                 }
             }
         }
+
+        /**
+         * The locks of the batch are all held until it is flushed, they are taken in the lock order so that
+         * concurrent batches or incremental indexers can't wait for each other.
+         */
+        private List<IdRecord> lockOrder(List<IdRecord> records) {
+            if (!enableLocking) {
+                return records;
+            }
+            List<IdRecord> sortedRecords = new ArrayList<IdRecord>(records);
+            final Comparator<RecordId> lockOrder = indexLocker.getLockOrder();
+            Collections.sort(sortedRecords, new Comparator<IdRecord>() {
+                @Override
+                public int compare(IdRecord record1, IdRecord record2) {
+                    return lockOrder.compare(record1.getId(), record2.getId());
+                }
+            });
+            return sortedRecords;
+        }
+
+        private void indexRecord(IdRecord record) {
+            long before = System.currentTimeMillis();
+            try {
+                indexer.index(table, record);
+                long duration = System.currentTimeMillis() - before;
+                solrBatches.incrementAndGet();
+                solrTime.addAndGet(duration);
+                indexedRecords.incrementAndGet();
+                context.getCounter(IndexBatchBuildCounters.NUM_INDEXED_RECORDS).increment(1);
+                context.getCounter(IndexBatchBuildCounters.NUM_SOLR_BATCHES).increment(1);
+                context.getCounter(IndexBatchBuildCounters.SOLR_BATCH_TIME_MS).increment(duration);
+            } catch (Throwable t) {
+                recordFailed(record.getId(), t);
+            }
+        }
+
+        private void recordFailed(RecordId recordId, Throwable t) {
+            context.getCounter(IndexBatchBuildCounters.NUM_FAILED_RECORDS).increment(1);
+
+            // Avoid printing a complete stack trace for common errors.
+            if (t instanceof SolrServerException &&
+                    t.getMessage().equals("java.net.ConnectException: Connection refused")) {
+                log.error("Failure indexing record " + recordId + ": Solr connection refused.");
+            } else {
+                log.error("Failure indexing record " + recordId, t);
+            }
+        }
     }
 
 }
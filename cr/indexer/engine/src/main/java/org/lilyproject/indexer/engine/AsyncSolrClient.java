@@ -0,0 +1,423 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * A {@link SolrClient} which sends its updates asynchronously, so that the indexing threads don't have to wait
+ * for a round trip to Solr for each update.
+ *
+ * <p>Updates (adds, deletes by id and deletes by query) are queued in the order they are submitted. A background
+ * thread takes them from the queue and sends them to the wrapped SolrClient, one request at a time, combining
+ * consecutive updates of the same kind into one request. The queue is flushed when it contains
+ * <tt>maxBufferedDocs</tt> documents, when its oldest update is <tt>maxBufferAge</tt> ms old, or when
+ * {@link #flush()} is called.</p>
+ *
+ * <p>The number of documents queued or being sent is bounded by <tt>maxPendingDocs</tt>: when this limit is
+ * reached, submitting threads block until there is room again.</p>
+ *
+ * <p>The update methods return a dummy response immediately. Failures of the actual requests are reported
+ * through the future returned by {@link #flush()}, which covers all updates submitted by the calling thread
+ * since its previous call to flush. Queries and commits are performed synchronously, commits only after the
+ * updates submitted by the calling thread have been sent.</p>
+ */
+public class AsyncSolrClient implements SolrClient, Closeable {
+    /**
+     * Dummy UpdateResponse that is returned for updates which are queued.
+     */
+    static final UpdateResponse QUEUED_UPDATE_RESPONSE = new UpdateResponse();
+
+    static {
+        QUEUED_UPDATE_RESPONSE.setResponse(new NamedList<Object>());
+    }
+
+    private final SolrClient delegate;
+    private final SolrClientMetrics metrics;
+    private final int maxBufferedDocs;
+    private final long maxBufferAge;
+    private final int maxPendingDocs;
+
+    /** Lock protecting the queue and the counters below, also used to signal changes to them. */
+    private final Object lock = new Object();
+    private final LinkedList<Operation> queue = new LinkedList<Operation>();
+    /** Number of documents in the queue. */
+    private int queuedDocs;
+    /** Number of documents in the queue or being sent. */
+    private int pendingDocs;
+    private long pendingBytes;
+    private boolean flushRequested;
+    private boolean stopped;
+
+    /** The futures of the updates submitted by a thread since its last call to flush(). */
+    private final ThreadLocal<List<ListenableFuture<UpdateResponse>>> unconfirmed =
+            new ThreadLocal<List<ListenableFuture<UpdateResponse>>>() {
+                @Override
+                protected List<ListenableFuture<UpdateResponse>> initialValue() {
+                    return new ArrayList<ListenableFuture<UpdateResponse>>();
+                }
+            };
+
+    private final Thread flusher;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param maxBufferedDocs number of queued documents which triggers a flush, also the maximum number of
+     *                        documents sent in one request
+     * @param maxBufferAge age in ms of the oldest queued update which triggers a flush
+     * @param maxPendingDocs maximum number of documents queued or being sent
+     */
+    public AsyncSolrClient(SolrClient delegate, SolrClientMetrics metrics, int maxBufferedDocs, long maxBufferAge,
+            int maxPendingDocs) {
+        if (maxBufferedDocs < 1 || maxPendingDocs < maxBufferedDocs) {
+            throw new IllegalArgumentException("Invalid buffer sizes: maxBufferedDocs = " + maxBufferedDocs +
+                    ", maxPendingDocs = " + maxPendingDocs);
+        }
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.maxBufferedDocs = maxBufferedDocs;
+        this.maxBufferAge = maxBufferAge;
+        this.maxPendingDocs = maxPendingDocs;
+
+        flusher = new Thread(new Flusher(), "Async Solr client " + delegate.getDescription());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public String getDescription() {
+        return delegate.getDescription();
+    }
+
+    @Override
+    public UpdateResponse add(SolrInputDocument doc) throws SolrClientException, InterruptedException {
+        return add(Collections.singletonList(doc));
+    }
+
+    @Override
+    public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrClientException, InterruptedException {
+        long bytes = 0;
+        for (SolrInputDocument doc : docs) {
+            bytes += estimateSize(doc);
+        }
+        return submit(new Operation(OperationType.ADD, new ArrayList<Object>(docs), bytes));
+    }
+
+    @Override
+    public UpdateResponse deleteById(String id) throws SolrClientException, InterruptedException {
+        return deleteById(Collections.singletonList(id));
+    }
+
+    @Override
+    public UpdateResponse deleteById(List<String> ids) throws SolrClientException, InterruptedException {
+        return submit(new Operation(OperationType.DELETE_BY_ID, new ArrayList<Object>(ids), 0));
+    }
+
+    @Override
+    public UpdateResponse deleteByQuery(String query) throws SolrClientException, InterruptedException {
+        return submit(new Operation(OperationType.DELETE_BY_QUERY, Collections.<Object>singletonList(query), 0));
+    }
+
+    @Override
+    public UpdateResponse commit(boolean waitFlush, boolean waitSearcher) throws SolrClientException,
+            InterruptedException {
+        waitFor(flush());
+        return delegate.commit(waitFlush, waitSearcher);
+    }
+
+    @Override
+    public UpdateResponse commit() throws SolrClientException, InterruptedException {
+        return commit(true, true);
+    }
+
+    @Override
+    public QueryResponse query(SolrParams params) throws SolrClientException, InterruptedException {
+        return delegate.query(params);
+    }
+
+    /**
+     * Triggers the sending of all queued updates. The returned future completes when the updates submitted by
+     * the calling thread since its previous call to this method have been processed by Solr, and fails if any
+     * of them failed.
+     */
+    public ListenableFuture<List<UpdateResponse>> flush() {
+        List<ListenableFuture<UpdateResponse>> futures = unconfirmed.get();
+        unconfirmed.remove();
+        if (!futures.isEmpty()) {
+            synchronized (lock) {
+                flushRequested = true;
+                lock.notifyAll();
+            }
+        }
+        return Futures.allAsList(futures);
+    }
+
+    /**
+     * Waits for the completion of the given future, as returned by {@link #flush()}.
+     */
+    public void waitFor(Future<?> future) throws SolrClientException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrClientException) {
+                throw (SolrClientException) cause;
+            }
+            throw new SolrClientException(getDescription(), cause);
+        }
+    }
+
+    /**
+     * Flushes all given clients which are asynchronous, and waits until the updates sent through them by the
+     * calling thread have been processed. The flushes of the different clients run concurrently.
+     */
+    static void flushAll(Collection<SolrClient> solrClients) throws SolrClientException, InterruptedException {
+        List<AsyncSolrClient> asyncClients = new ArrayList<AsyncSolrClient>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (SolrClient solrClient : solrClients) {
+            if (solrClient instanceof AsyncSolrClient) {
+                AsyncSolrClient asyncClient = (AsyncSolrClient) solrClient;
+                asyncClients.add(asyncClient);
+                futures.add(asyncClient.flush());
+            }
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            asyncClients.get(i).waitFor(futures.get(i));
+        }
+    }
+
+    /**
+     * Sends the remaining queued updates and stops the background thread.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private UpdateResponse submit(Operation operation) throws SolrClientException, InterruptedException {
+        synchronized (lock) {
+            while (!stopped && pendingDocs > 0 && pendingDocs + operation.size() > maxPendingDocs) {
+                lock.wait();
+            }
+            if (stopped) {
+                throw new SolrClientException(getDescription(), new IllegalStateException("Client is closed."));
+            }
+            queue.add(operation);
+            queuedDocs += operation.size();
+            pendingDocs += operation.size();
+            pendingBytes += operation.bytes;
+            updateMetrics();
+            if (queuedDocs >= maxBufferedDocs) {
+                lock.notifyAll();
+            }
+        }
+        unconfirmed.get().add(operation.future);
+        return QUEUED_UPDATE_RESPONSE;
+    }
+
+    private void updateMetrics() {
+        metrics.queueDepth.set(pendingDocs);
+        metrics.inFlightBytes.set(pendingBytes);
+    }
+
+    /**
+     * Rough estimate of the size of a document, based on the length of its field names and values.
+     */
+    static long estimateSize(SolrInputDocument doc) {
+        long size = 0;
+        for (SolrInputField field : doc) {
+            size += field.getName().length();
+            for (Object value : field) {
+                if (value instanceof CharSequence) {
+                    size += ((CharSequence) value).length();
+                } else if (value instanceof byte[]) {
+                    size += ((byte[]) value).length;
+                } else {
+                    size += 8;
+                }
+            }
+        }
+        return size;
+    }
+
+    private enum OperationType { ADD, DELETE_BY_ID, DELETE_BY_QUERY }
+
+    private static class Operation {
+        final OperationType type;
+        /** The documents, ids or query, depending on the type. */
+        final List<Object> items;
+        final long bytes;
+        final long queuedAt = System.currentTimeMillis();
+        final SettableFuture<UpdateResponse> future = SettableFuture.create();
+
+        Operation(OperationType type, List<Object> items, long bytes) {
+            this.type = type;
+            this.items = items;
+            this.bytes = bytes;
+        }
+
+        int size() {
+            return items.size();
+        }
+    }
+
+    private class Flusher implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                List<Operation> request;
+                try {
+                    request = takeRequest();
+                } catch (InterruptedException e) {
+                    failQueued(e);
+                    return;
+                }
+
+                if (request == null) {
+                    return;
+                }
+
+                send(request);
+
+                synchronized (lock) {
+                    for (Operation operation : request) {
+                        pendingDocs -= operation.size();
+                        pendingBytes -= operation.bytes;
+                    }
+                    updateMetrics();
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits until a flush is due, and then takes the next request from the queue: a series of consecutive
+         * operations of the same type. Returns null when the client is closed and the queue is empty.
+         */
+        private List<Operation> takeRequest() throws InterruptedException {
+            synchronized (lock) {
+                while (true) {
+                    if (queue.isEmpty()) {
+                        if (stopped) {
+                            return null;
+                        }
+                        lock.wait();
+                        continue;
+                    }
+                    long age = System.currentTimeMillis() - queue.getFirst().queuedAt;
+                    if (stopped || flushRequested || queuedDocs >= maxBufferedDocs || age >= maxBufferAge) {
+                        break;
+                    }
+                    lock.wait(maxBufferAge - age);
+                }
+
+                List<Operation> request = new ArrayList<Operation>();
+                Operation first = queue.removeFirst();
+                request.add(first);
+                int docs = first.size();
+                if (first.type != OperationType.DELETE_BY_QUERY) {
+                    while (!queue.isEmpty() && queue.getFirst().type == first.type
+                            && docs + queue.getFirst().size() <= maxBufferedDocs) {
+                        Operation next = queue.removeFirst();
+                        request.add(next);
+                        docs += next.size();
+                    }
+                }
+                queuedDocs -= docs;
+                if (queue.isEmpty()) {
+                    flushRequested = false;
+                }
+                return request;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void send(List<Operation> request) {
+            long before = System.currentTimeMillis();
+            try {
+                UpdateResponse response;
+                OperationType type = request.get(0).type;
+                if (type == OperationType.DELETE_BY_QUERY) {
+                    response = delegate.deleteByQuery((String) request.get(0).items.get(0));
+                } else {
+                    List<Object> items = new ArrayList<Object>();
+                    for (Operation operation : request) {
+                        items.addAll(operation.items);
+                    }
+                    if (type == OperationType.ADD) {
+                        response = delegate.add((List<SolrInputDocument>) (List<?>) items);
+                    } else {
+                        response = delegate.deleteById((List<String>) (List<?>) items);
+                    }
+                }
+                for (Operation operation : request) {
+                    operation.future.set(response);
+                }
+            } catch (Throwable t) {
+                if (t instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                log.error("Error sending updates to Solr " + getDescription(), t);
+                for (Operation operation : request) {
+                    operation.future.setException(t);
+                }
+            } finally {
+                metrics.flushes.inc(System.currentTimeMillis() - before);
+            }
+        }
+
+        private void failQueued(Throwable t) {
+            synchronized (lock) {
+                log.error("Async Solr client for " + getDescription() + " interrupted, " + queue.size() +
+                        " queued updates are not sent.");
+                for (Operation operation : queue) {
+                    operation.future.setException(t);
+                }
+                queue.clear();
+                stopped = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
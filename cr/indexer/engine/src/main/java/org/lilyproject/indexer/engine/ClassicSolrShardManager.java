@@ -18,7 +18,9 @@ package org.lilyproject.indexer.engine;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -50,6 +52,7 @@ public class ClassicSolrShardManager implements SolrShardManager {
     private Map<String, SolrClientHandle> shardConnections;
     private final ShardSelector selector;
     private final HttpClient httpClient;
+    private final SolrClientConfig solrClientConfig;
     private RequestWriter requestWriter;
     private ResponseParser responseParser;
 
@@ -69,6 +72,7 @@ public class ClassicSolrShardManager implements SolrShardManager {
         this.shards = shards;
         this.selector = selector;
         this.httpClient = httpClient;
+        this.solrClientConfig = solrClientConfig;
 
         if (solrClientConfig.getRequestWriter() != null) {
             try {
@@ -136,6 +140,7 @@ public class ClassicSolrShardManager implements SolrShardManager {
             if (swallowUnrecoverableExceptions) {
                 solrClient = ErrorSwallowingSolrClient.wrap(solrClient, metrics);
             }
+            solrClient = solrClientConfig.wrapAsync(solrClient, metrics);
             shardConnections.put(shard.getKey(), new SolrClientHandle(solrClient, metrics));
         }
     }
@@ -146,6 +151,15 @@ public class ClassicSolrShardManager implements SolrShardManager {
         return shardConnections.get(shardName).solrClient;
     }
 
+    @Override
+    public void flush() throws SolrClientException, InterruptedException {
+        List<SolrClient> solrClients = new ArrayList<SolrClient>(shardConnections.size());
+        for (SolrClientHandle handle : shardConnections.values()) {
+            solrClients.add(handle.solrClient);
+        }
+        AsyncSolrClient.flushAll(solrClients);
+    }
+
     private static final class SolrClientHandle {
         SolrClient solrClient;
         SolrClientMetrics solrClientMetrics;
@@ -160,6 +174,9 @@ public class ClassicSolrShardManager implements SolrShardManager {
     public void close() throws IOException {
         if (shardConnections != null) {
             for (SolrClientHandle client : shardConnections.values()) {
+                if (client.solrClient instanceof AsyncSolrClient) {
+                    ((AsyncSolrClient) client.solrClient).close();
+                }
                 client.solrClientMetrics.shutdown();
             }
         }
@@ -17,6 +17,7 @@ package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.Collections;
 
 import org.apache.solr.client.solrj.impl.CloudSolrServer;
 import org.lilyproject.indexer.model.sharding.ShardSelectorException;
@@ -37,21 +38,33 @@ public class CloudSolrShardManager implements SolrShardManager {
      */
     public CloudSolrShardManager(String indexName, String zkHost, String collection, boolean swallowUnrecoverableExceptions)
             throws MalformedURLException {
+        this(indexName, zkHost, collection, new SolrClientConfig(), swallowUnrecoverableExceptions);
+    }
+
+    /**
+     * @param swallowUnrecoverableExceptions If true, SolrClients will swallow and report all exceptions that cannot be corrected by a change in configuration
+     */
+    public CloudSolrShardManager(String indexName, String zkHost, String collection, SolrClientConfig solrClientConfig,
+                                 boolean swallowUnrecoverableExceptions) throws MalformedURLException {
         solrServer = new CloudSolrServer(zkHost);
 
-        solrClient = createSolrClient(solrServer, collection, swallowUnrecoverableExceptions, indexName);
+        solrClient = createSolrClient(solrServer, collection, solrClientConfig, swallowUnrecoverableExceptions,
+                indexName);
     }
 
-    private SolrClient createSolrClient(CloudSolrServer solrServer, String collection, boolean swallowUnrecoverableExceptions,
-                                        String indexName) {
-        final SolrClientImpl solrClient = new SolrClientImpl(solrServer, collection, "Solr Cloud Client");
+    private SolrClient createSolrClient(CloudSolrServer solrServer, String collection, SolrClientConfig solrClientConfig,
+                                        boolean swallowUnrecoverableExceptions, String indexName) {
+        SolrClient solrClient = new SolrClientImpl(solrServer, collection, "Solr Cloud Client");
 
-        if (swallowUnrecoverableExceptions) {
+        if (swallowUnrecoverableExceptions || solrClientConfig.isAsyncUpdates()) {
             solrClientMetrics = new SolrClientMetrics(indexName, "cloud");
-            return ErrorSwallowingSolrClient.wrap(solrClient, solrClientMetrics);
-        } else {
-            return solrClient;
         }
+
+        if (swallowUnrecoverableExceptions) {
+            solrClient = ErrorSwallowingSolrClient.wrap(solrClient, solrClientMetrics);
+        }
+
+        return solrClientConfig.wrapAsync(solrClient, solrClientMetrics);
     }
 
     @Override
@@ -59,8 +72,16 @@ public class CloudSolrShardManager implements SolrShardManager {
         return solrClient;
     }
 
+    @Override
+    public void flush() throws SolrClientException, InterruptedException {
+        AsyncSolrClient.flushAll(Collections.singletonList(solrClient));
+    }
+
     @Override
     public void close() throws IOException {
+        if (solrClient instanceof AsyncSolrClient) {
+            ((AsyncSolrClient) solrClient).close();
+        }
         solrServer.shutdown();
         if (solrClientMetrics != null) {
             solrClientMetrics.shutdown();
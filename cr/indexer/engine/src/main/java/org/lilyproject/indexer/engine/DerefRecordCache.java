@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.util.repo.VersionTag;
+
+/**
+ * Read-through cache for the records which are read when evaluating dereference expressions.
+ *
+ * <p>Popular records (e.g. a category linked from many records) would otherwise be read again for each record
+ * which links to them, for each vtag. Per record, the versions of the different vtags are cached, an entry
+ * holds the record as it was when the vtag was resolved.</p>
+ *
+ * <p>The {@link IndexUpdater} invalidates a record when it receives an event for it. Since the events of a
+ * record are only delivered to one Lily node, the caches of the other nodes rely on the expiry time to drop
+ * outdated entries.</p>
+ *
+ * <p>The cached records are never handed out directly, but as copies, so that callers can't modify the
+ * cached state and different threads don't share the same (not thread safe) record instance.</p>
+ */
+public class DerefRecordCache {
+    private final Cache<AbsoluteRecordId, ConcurrentMap<SchemaId, IdRecord>> cache;
+    private final IndexerMetrics metrics;
+
+    /**
+     * @param maxRecords maximum number of records kept in the cache
+     * @param expireAfter time in ms after which an entry is dropped from the cache
+     */
+    public DerefRecordCache(long maxRecords, long expireAfter, final IndexerMetrics metrics) {
+        this.metrics = metrics;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxRecords)
+                .expireAfterWrite(expireAfter, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<AbsoluteRecordId, ConcurrentMap<SchemaId, IdRecord>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<AbsoluteRecordId, ConcurrentMap<SchemaId, IdRecord>> notification) {
+                        if (notification.wasEvicted()) {
+                            metrics.derefCacheEvictions.inc();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the version of the record corresponding to the given vtag, reading it from the repository if it
+     * is not in the cache. Returns null if the vtag is not defined on the record.
+     *
+     * @throws org.lilyproject.repository.api.RecordNotFoundException if the record does not exist
+     * @throws org.lilyproject.repository.api.VersionNotFoundException if the version the vtag points to does
+     *                                                                  not exist
+     */
+    public IdRecord getRecord(String table, RecordId recordId, SchemaId vtag, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        ConcurrentMap<SchemaId, IdRecord> versions = getVersions(new AbsoluteRecordIdImpl(table, recordId));
+
+        IdRecord record = versions.get(vtag);
+        if (record != null) {
+            metrics.derefCacheHits.inc();
+        } else {
+            metrics.derefCacheMisses.inc();
+            record = VersionTag.getIdRecord(recordId, vtag, repository.getTable(table), repository);
+            if (record == null) {
+                return null;
+            }
+            versions.put(vtag, record);
+        }
+
+        return record.cloneRecord();
+    }
+
+    /**
+     * Drops the cached versions of the given record.
+     */
+    public void invalidate(String table, RecordId recordId) {
+        cache.invalidate(new AbsoluteRecordIdImpl(table, recordId));
+    }
+
+    private ConcurrentMap<SchemaId, IdRecord> getVersions(AbsoluteRecordId recordId) {
+        try {
+            return cache.get(recordId, new Callable<ConcurrentMap<SchemaId, IdRecord>>() {
+                @Override
+                public ConcurrentMap<SchemaId, IdRecord> call() {
+                    return new ConcurrentHashMap<SchemaId, IdRecord>();
+                }
+            });
+        } catch (ExecutionException e) {
+            // can't happen, creating the map does not fail
+            throw new RuntimeException(e);
+        }
+    }
+}
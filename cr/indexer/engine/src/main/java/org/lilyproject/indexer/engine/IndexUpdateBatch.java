@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.util.repo.VTaggedRecord;
+
+/**
+ * Collects the index updates produced while processing a batch of events, see {@link Indexer#startBatch()}.
+ *
+ * <p>Two things are collected:</p>
+ *
+ * <ul>
+ *     <li>the (re)indexing of records: multiple requests to index the same record are merged into one, which
+ *     is only performed when the batch is flushed.</li>
+ *     <li>the updates to send to Solr, grouped per shard. For each Solr document only the last operation is
+ *     kept, deletes by query are sent before the other operations of the shard.</li>
+ * </ul>
+ *
+ * <p>Instances are confined to a single thread.</p>
+ */
+class IndexUpdateBatch {
+    private final Map<AbsoluteRecordId, PendingIndex> pendingIndexes =
+            new LinkedHashMap<AbsoluteRecordId, PendingIndex>();
+    private final Map<SolrClient, ShardUpdates> shardUpdates = new LinkedHashMap<SolrClient, ShardUpdates>();
+
+    void index(String table, VTaggedRecord vtRecord, Set<SchemaId> vtags) {
+        AbsoluteRecordId key = new AbsoluteRecordIdImpl(table, vtRecord.getId());
+        PendingIndex pending = pendingIndexes.get(key);
+        if (pending == null) {
+            pending = new PendingIndex(table, vtRecord);
+            pendingIndexes.put(key, pending);
+        } else {
+            // later events have the most recent view on the record
+            pending.vtRecord = vtRecord;
+        }
+        pending.vtags.addAll(vtags);
+    }
+
+    /**
+     * Takes the pending (re)index operations out of this batch.
+     */
+    List<PendingIndex> takePendingIndexes() {
+        List<PendingIndex> result = new ArrayList<PendingIndex>(pendingIndexes.values());
+        pendingIndexes.clear();
+        return result;
+    }
+
+    void add(SolrClient solrClient, RecordId recordId, String indexId, SolrInputDocument doc) {
+        getShardUpdates(solrClient).updates.put(indexId, new DocumentUpdate(recordId, doc));
+    }
+
+    void deleteById(SolrClient solrClient, String table, RecordId recordId, SchemaId vtag, String indexId) {
+        PendingIndex pending = pendingIndexes.get(new AbsoluteRecordIdImpl(table, recordId));
+        if (pending != null) {
+            pending.vtags.remove(vtag);
+        }
+        getShardUpdates(solrClient).updates.put(indexId, new DocumentUpdate(recordId, null));
+    }
+
+    void deleteByQuery(SolrClient solrClient, RecordId recordId, String query) {
+        Iterator<PendingIndex> pendingIt = pendingIndexes.values().iterator();
+        while (pendingIt.hasNext()) {
+            if (pendingIt.next().vtRecord.getId().equals(recordId)) {
+                pendingIt.remove();
+            }
+        }
+
+        // Earlier updates of documents of this record are made obsolete by the delete
+        ShardUpdates updates = getShardUpdates(solrClient);
+        Iterator<DocumentUpdate> updateIt = updates.updates.values().iterator();
+        while (updateIt.hasNext()) {
+            if (updateIt.next().recordId.equals(recordId)) {
+                updateIt.remove();
+            }
+        }
+        updates.deleteQueries.add(query);
+    }
+
+    Map<SolrClient, ShardUpdates> getShardUpdates() {
+        return shardUpdates;
+    }
+
+    private ShardUpdates getShardUpdates(SolrClient solrClient) {
+        ShardUpdates updates = shardUpdates.get(solrClient);
+        if (updates == null) {
+            updates = new ShardUpdates();
+            shardUpdates.put(solrClient, updates);
+        }
+        return updates;
+    }
+
+    static class PendingIndex {
+        final String table;
+        VTaggedRecord vtRecord;
+        final Set<SchemaId> vtags = new HashSet<SchemaId>();
+
+        PendingIndex(String table, VTaggedRecord vtRecord) {
+            this.table = table;
+            this.vtRecord = vtRecord;
+        }
+    }
+
+    static class ShardUpdates {
+        private final List<String> deleteQueries = new ArrayList<String>();
+        private final Map<String, DocumentUpdate> updates = new LinkedHashMap<String, DocumentUpdate>();
+
+        List<String> getDeleteQueries() {
+            return deleteQueries;
+        }
+
+        List<String> getDeletedIds() {
+            List<String> ids = new ArrayList<String>();
+            for (Map.Entry<String, DocumentUpdate> entry : updates.entrySet()) {
+                if (entry.getValue().doc == null) {
+                    ids.add(entry.getKey());
+                }
+            }
+            return ids;
+        }
+
+        Collection<SolrInputDocument> getAddedDocuments() {
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+            for (DocumentUpdate update : updates.values()) {
+                if (update.doc != null) {
+                    docs.add(update.doc);
+                }
+            }
+            return docs;
+        }
+    }
+
+    private static class DocumentUpdate {
+        final RecordId recordId;
+        /** The document to add, null in case of a delete. */
+        final SolrInputDocument doc;
+
+        DocumentUpdate(RecordId recordId, SolrInputDocument doc) {
+            this.recordId = recordId;
+            this.doc = doc;
+        }
+    }
+}
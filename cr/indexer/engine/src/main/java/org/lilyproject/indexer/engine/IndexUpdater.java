@@ -16,7 +16,11 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,7 +44,9 @@ import org.lilyproject.indexer.model.util.IndexRecordFilterUtil;
 import org.lilyproject.linkindex.LinkIndexException;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
@@ -136,11 +142,40 @@ public class IndexUpdater extends LilyEventListener {
 
     @Override
     public void processLilyEvents(List<LilySepEvent> events) {
-        for (LilySepEvent event : events) {
-            processEvent(event);
+        boolean processed = false;
+        try {
+            if (events.size() == 1) {
+                processEvent(events.get(0));
+            } else if (!events.isEmpty()) {
+                processEventBatch(events);
+            }
+            processed = true;
+        } finally {
+            if (!processed) {
+                // The Solr updates sent before the failure should not be reported with the next events
+                indexer.discardSolrUpdates();
+            }
+        }
+
+        // When the Solr clients send their updates asynchronously, wait for them here, so that the events are
+        // only acknowledged to the SEP once their updates have been processed by Solr.
+        waitForSolrUpdates(events.size());
+    }
+
+    private void waitForSolrUpdates(int eventCount) {
+        try {
+            indexer.waitForSolrUpdates();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Failure in IndexUpdater while waiting for the Solr updates of " + eventCount + " events: " + e);
+            metrics.errors.inc();
+            // We throw the exception through so that it will be retried by the SEP
+            throw new RuntimeException(e);
         }
     }
-    
+
     public void processEvent(LilySepEvent event) {
 
         long before = System.currentTimeMillis();
@@ -149,13 +184,128 @@ public class IndexUpdater extends LilyEventListener {
         // of the Lily Runtime module to which the index updater belongs. This is necessary for Tika
         // to find its parser implementations.
 
-        RecordEvent recordEvent = null;
-        RecordId recordId = null;
+        ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(myContextClassLoader);
+            handleEvent(event, null);
+        } finally {
+            long after = System.currentTimeMillis();
+            metrics.updates.inc(after - before);
+            Thread.currentThread().setContextClassLoader(currentCL);
+        }
+    }
+
+    /**
+     * Processes a batch of events as a whole: the records concerned by the events are read with one multi-get,
+     * multiple index updates of the same record are merged into one, and the resulting Solr updates are sent
+     * per shard in bulk. The index locks of all the records are taken before they are read, in the order of
+     * {@link IndexLocker#getLockOrder()}, and held until the Solr updates have been sent.
+     *
+     * <p>The events are still handled in order, so that for example deletes and re-creates of the same record
+     * within the batch are treated correctly.
+     */
+    public void processEventBatch(List<LilySepEvent> events) {
+        long before = System.currentTimeMillis();
 
+        EventBatch batch = new EventBatch();
         ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(myContextClassLoader);
+            indexer.startBatch();
+
+            // Lock before reading, so that no other thread can index a newer state of the records meanwhile
+            lockRecords(events, batch);
+            readRecords(events, batch);
+
+            for (LilySepEvent event : events) {
+                handleEvent(event, batch);
+            }
+
+            indexer.flushBatch();
+        } catch (RuntimeException e) {
+            // already logged by handleEvent
+            throw e;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Failure in IndexUpdater while processing a batch of " + events.size() + " events: " + e);
+            metrics.errors.inc();
+            // We throw the exception through so that it will be retried by the SEP
+            throw new RuntimeException(e);
+        } finally {
+            indexer.endBatch();
+            for (RecordId recordId : batch.lockedRecords) {
+                indexLocker.unlockLogFailure(recordId);
+            }
+            // One update per event, as when processing the events one by one
+            long perEvent = (System.currentTimeMillis() - before) / events.size();
+            for (int i = 0; i < events.size(); i++) {
+                metrics.updates.inc(perEvent);
+            }
+            Thread.currentThread().setContextClassLoader(currentCL);
+        }
+    }
 
+    /**
+     * Takes the index locks of all records concerned by the events.
+     */
+    private void lockRecords(List<LilySepEvent> events, EventBatch batch) throws IndexLockException {
+        Set<RecordId> recordIds = new HashSet<RecordId>();
+        for (LilySepEvent event : events) {
+            recordIds.add(event.getRecordId());
+        }
+
+        List<RecordId> sortedRecordIds = new ArrayList<RecordId>(recordIds);
+        Collections.sort(sortedRecordIds, indexLocker.getLockOrder());
+        for (RecordId recordId : sortedRecordIds) {
+            lock(recordId, batch);
+        }
+    }
+
+    /**
+     * Reads, with one multi-get per table, the records which are needed to process the events.
+     */
+    private void readRecords(List<LilySepEvent> events, EventBatch batch)
+            throws RepositoryException, InterruptedException, IOException {
+        Map<Pair<String, String>, Set<RecordId>> recordIdsByTable = new HashMap<Pair<String, String>, Set<RecordId>>();
+        for (LilySepEvent event : events) {
+            RecordEvent recordEvent = event.getRecordEvent();
+            if (recordEvent.getType().equals(DELETE)) {
+                continue;
+            }
+            Pair<String, String> table =
+                    new Pair<String, String>(event.getLilyRepositoryName(), recordEvent.getTableName());
+            Set<RecordId> recordIds = recordIdsByTable.get(table);
+            if (recordIds == null) {
+                recordIds = new HashSet<RecordId>();
+                recordIdsByTable.put(table, recordIds);
+            }
+            recordIds.add(event.getRecordId());
+        }
+
+        for (Map.Entry<Pair<String, String>, Set<RecordId>> entry : recordIdsByTable.entrySet()) {
+            String repositoryName = entry.getKey().getV1();
+            String tableName = entry.getKey().getV2();
+            LTable table = repositoryManager.getRepository(repositoryName).getTable(tableName);
+            List<IdRecord> records = table.readWithIds(new ArrayList<RecordId>(entry.getValue()), null);
+            for (IdRecord record : records) {
+                batch.records.put(new Pair<String, AbsoluteRecordId>(repositoryName,
+                        new AbsoluteRecordIdImpl(tableName, record.getId())), record);
+            }
+        }
+    }
+
+    /**
+     * Handles one event.
+     *
+     * @param batch the batch this event is part of, or null if the event is processed by itself
+     */
+    private void handleEvent(LilySepEvent event, EventBatch batch) {
+        RecordEvent recordEvent = null;
+        RecordId recordId = null;
+
+        try {
             recordEvent = event.getRecordEvent();
             recordId = event.getRecordId();
             LRepository repository = repositoryManager.getRepository(event.getLilyRepositoryName());
@@ -164,22 +314,27 @@ public class IndexUpdater extends LilyEventListener {
                 log.debug("Received message: " + recordEvent.toJson());
             }
 
+            if (!recordEvent.getType().equals(INDEX)) {
+                // The record changed, so cached copies of it used for dereferencing are outdated
+                indexer.recordChanged(recordEvent.getTableName(), recordId);
+            }
+
             if (recordEvent.getType().equals(INDEX)) {
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Record %1$s: reindex requested for these vtags: %2$s", recordId,
                             indexer.vtagSetToNameString(recordEvent.getVtagsToIndex())));
                 }
                 String tableName = recordEvent.getTableName();
-                index(repository, tableName, recordId, recordEvent.getVtagsToIndex());
+                index(repository, tableName, recordId, recordEvent.getVtagsToIndex(), batch, event);
             } else if (recordEvent.getType().equals(DELETE)) {
                 // Record is deleted: delete its index entry. We do not check for a matching index case, since
                 // we can't (record is not available anymore), and besides IndexAwareMQFeeder takes care of sending us
                 // only relevant events.
-                indexLocker.lock(recordId);
+                lock(recordId, batch);
                 try {
                     indexer.delete(recordId);
                 } finally {
-                    indexLocker.unlockLogFailure(recordId);
+                    unlock(recordId, batch);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -236,15 +391,20 @@ public class IndexUpdater extends LilyEventListener {
                 RecordEventHelper eventHelper = new RecordEventHelper(recordEvent, null, repository.getTypeManager());
 
                 if (doIndexing) {
-                    indexLocker.lock(recordId);
+                    lock(recordId, batch);
                     try {
                         try {
                             // Read the vtags of the record. Note that while this algorithm is running, the record can
                             // meanwhile undergo changes. However, we continuously work with the snapshot of the vtags
                             // mappings read here. The processing of later events will bring the index up to date with
                             // any new changes.
-                            vtRecord = new VTaggedRecord(recordId, eventHelper,
-                                    repository.getTable(recordEvent.getTableName()), repository);
+                            LTable table = repository.getTable(recordEvent.getTableName());
+                            if (batch != null) {
+                                vtRecord = new VTaggedRecord(batch.getRecord(event, table, repository), eventHelper, table,
+                                        repository);
+                            } else {
+                                vtRecord = new VTaggedRecord(recordId, eventHelper, table, repository);
+                            }
                         } catch (RecordNotFoundException e) {
                             // The record has been deleted in the meantime.
                             // For now, we do nothing, when the delete event is received the record will be removed
@@ -255,7 +415,7 @@ public class IndexUpdater extends LilyEventListener {
 
                         handleRecordCreateUpdate(vtRecord);
                     } finally {
-                        indexLocker.unlockLogFailure(recordId);
+                        unlock(recordId, batch);
                     }
                 }
 
@@ -279,10 +439,31 @@ public class IndexUpdater extends LilyEventListener {
             }
             // We throw the exception through so that it will be retried by the SEP
             throw new RuntimeException(e);
-        } finally {
-            long after = System.currentTimeMillis();
-            metrics.updates.inc(after - before);
-            Thread.currentThread().setContextClassLoader(currentCL);
+        }
+    }
+
+    /**
+     * Takes the index lock on the record. When processing a batch, the lock is kept until the end of the
+     * batch (see {@link Indexer#startBatch()}), otherwise it should be released with {@link #unlock}.
+     */
+    private void lock(RecordId recordId, EventBatch batch) throws IndexLockException {
+        if (batch == null) {
+            timedLock(recordId);
+        } else if (!batch.lockedRecords.contains(recordId)) {
+            timedLock(recordId);
+            batch.lockedRecords.add(recordId);
+        }
+    }
+
+    private void timedLock(RecordId recordId) throws IndexLockException {
+        long before = System.currentTimeMillis();
+        indexLocker.lock(recordId);
+        metrics.lockWaits.inc(System.currentTimeMillis() - before);
+    }
+
+    private void unlock(RecordId recordId, EventBatch batch) {
+        if (batch == null) {
+            indexLocker.unlockLogFailure(recordId);
         }
     }
 
@@ -482,7 +663,7 @@ public class IndexUpdater extends LilyEventListener {
 
             try {
                 eventPublisherMgr.getEventPublisher(/* TODO multiple repositories */ RepoAndTableUtil.DEFAULT_REPOSITORY,
-                        referrer.getTable()).publishEvent(referrer.getRecordId().toBytes(), payload.toJsonBytes());
+                        referrer.getTable()).publishEvent(referrer.getRecordId().toBytes(), payload.toBytes());
             } catch (Exception e) {
                 // We failed to put the message: this is pretty important since it means the record's index
                 // won't get updated, therefore log as error, but after this we continue with the next one.
@@ -515,16 +696,22 @@ public class IndexUpdater extends LilyEventListener {
      *
      * @throws IOException
      */
-    private void index(LRepository repository, String table, RecordId recordId, Set<SchemaId> vtagsToIndex) throws RepositoryException, InterruptedException,
+    private void index(LRepository repository, String table, RecordId recordId, Set<SchemaId> vtagsToIndex,
+            EventBatch batch, LilySepEvent event) throws RepositoryException, InterruptedException,
             SolrClientException, ShardSelectorException, IndexLockException, IOException {
         boolean lockObtained = false;
         try {
-            indexLocker.lock(recordId);
+            lock(recordId, batch);
             lockObtained = true;
 
             VTaggedRecord vtRecord;
             try {
-                vtRecord = new VTaggedRecord(recordId, repository.getTable(table), repository);
+                LTable lTable = repository.getTable(table);
+                if (batch != null) {
+                    vtRecord = new VTaggedRecord(batch.getRecord(event, lTable, repository), null, lTable, repository);
+                } else {
+                    vtRecord = new VTaggedRecord(recordId, lTable, repository);
+                }
             } catch (RecordNotFoundException e) {
                 // can't index what doesn't exist
                 return;
@@ -544,8 +731,34 @@ public class IndexUpdater extends LilyEventListener {
             indexer.index(table, vtRecord, vtagsToIndex);
         } finally {
             if (lockObtained) {
-                indexLocker.unlockLogFailure(recordId);
+                unlock(recordId, batch);
+            }
+        }
+    }
+
+    /**
+     * State of the processing of a batch of events.
+     */
+    private static class EventBatch {
+        /** The records read at the start of the batch, keyed on repository name and table + record id. */
+        private final Map<Pair<String, AbsoluteRecordId>, IdRecord> records =
+                new HashMap<Pair<String, AbsoluteRecordId>, IdRecord>();
+        /** The records for which we took the index lock, these are released at the end of the batch. */
+        private final Set<RecordId> lockedRecords = new LinkedHashSet<RecordId>();
+
+        /**
+         * Returns the record, as read at the start of the batch.
+         *
+         * @throws RecordNotFoundException if the record does not exist (anymore)
+         */
+        IdRecord getRecord(LilySepEvent event, LTable table, LRepository repository)
+                throws RecordNotFoundException {
+            IdRecord record = records.get(new Pair<String, AbsoluteRecordId>(event.getLilyRepositoryName(),
+                    new AbsoluteRecordIdImpl(table.getTableName(), event.getRecordId())));
+            if (record == null) {
+                throw new RecordNotFoundException(event.getRecordId(), table, repository);
             }
+            return record;
         }
     }
 
@@ -37,6 +37,11 @@ public class IndexUpdaterMetrics implements Updater {
     private final IndexerMetricsMBean mbean;
 
     public MetricsTimeVaryingRate updates = new MetricsTimeVaryingRate("updates", registry);
+
+    /**
+     * Time spent waiting to obtain index locks.
+     */
+    public MetricsTimeVaryingRate lockWaits = new MetricsTimeVaryingRate("lockWaits", registry);
     public MetricsLongValue lastReindexRequestedTimestamp =
                     new MetricsLongValue("lastReindexRequestTimestamp", registry);
 
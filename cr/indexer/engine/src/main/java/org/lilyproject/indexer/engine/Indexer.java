@@ -16,11 +16,19 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +42,7 @@ import org.lilyproject.indexer.model.indexerconf.DynamicIndexField;
 import org.lilyproject.indexer.model.indexerconf.DynamicIndexField.DynamicIndexFieldMatch;
 import org.lilyproject.indexer.model.indexerconf.IndexCase;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.indexer.model.indexerconf.Value;
 import org.lilyproject.indexer.model.sharding.ShardSelectorException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdRecord;
@@ -46,6 +55,7 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.repo.SystemFields;
 import org.lilyproject.util.repo.VTaggedRecord;
 
@@ -73,11 +83,40 @@ public class Indexer {
      */
     private final DerefMap derefMap;
 
+    /**
+     * Cache for the records read while evaluating dereference expressions, <code>null</code> if not enabled.
+     */
+    private final DerefRecordCache derefRecordCache;
+
+    /**
+     * Executor on which the documents for the different vtags of a record are built, <code>null</code> to build
+     * them sequentially.
+     */
+    private final ExecutorService vtagExecutor;
+
+    /**
+     * The batch of index updates being collected by the current thread, if any. See {@link #startBatch()}.
+     */
+    private final ThreadLocal<IndexUpdateBatch> currentBatch = new ThreadLocal<IndexUpdateBatch>();
+
     private final Log log = LogFactory.getLog(getClass());
 
     public Indexer(String indexName, IndexerConf conf, LRepository repository, SolrShardManager solrShardMgr,
                    IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap)
             throws RepositoryException, InterruptedException {
+        this(indexName, conf, repository, solrShardMgr, indexLocker, metrics, derefMap, null, null);
+    }
+
+    /**
+     * @param derefRecordCache optional cache for the records read while evaluating dereference expressions
+     * @param vtagExecutor optional executor to build the documents for the different vtags of a record
+     *                     concurrently. This should be a bounded executor which runs tasks in the submitting
+     *                     thread when it is saturated.
+     */
+    public Indexer(String indexName, IndexerConf conf, LRepository repository, SolrShardManager solrShardMgr,
+                   IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap,
+                   DerefRecordCache derefRecordCache, ExecutorService vtagExecutor)
+            throws RepositoryException, InterruptedException {
         this.indexName = indexName;
         this.conf = conf;
         this.repository = repository;
@@ -88,6 +127,8 @@ public class Indexer {
         this.valueEvaluator = new ValueEvaluator(conf);
         this.metrics = metrics;
         this.derefMap = derefMap;
+        this.derefRecordCache = derefRecordCache;
+        this.vtagExecutor = vtagExecutor;
     }
 
     public IndexerConf getConf() {
@@ -147,11 +188,25 @@ public class Indexer {
      *
      * <p>This method requires you obtained the {@link IndexLocker} for the record.
      *
+     * <p>When a batch is active, the indexing is postponed until {@link #flushBatch()}, and merged with other
+     * index requests for the same record.
+     *
      * @param vtagsToIndex all vtags for which to index the record, not all vtags need to exist on the record,
      *                     but this should only contain appropriate vtags as defined by the IndexCase for this record.
      */
     protected void index(String table, VTaggedRecord vtRecord, Set<SchemaId> vtagsToIndex)
             throws RepositoryException, ShardSelectorException, InterruptedException, SolrClientException, IOException {
+        IndexUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            verifyLock(vtRecord.getId());
+            batch.index(table, vtRecord, vtagsToIndex);
+        } else {
+            doIndex(table, vtRecord, vtagsToIndex);
+        }
+    }
+
+    private void doIndex(String table, VTaggedRecord vtRecord, Set<SchemaId> vtagsToIndex)
+            throws RepositoryException, ShardSelectorException, InterruptedException, SolrClientException, IOException {
 
         RecordId recordId = vtRecord.getId();
 
@@ -173,8 +228,7 @@ public class Indexer {
                 // do this any way when it later receives a message about the delete.
                 for (SchemaId vtag : entry.getValue()) {
                     verifyLock(recordId);
-                    solrShardMgr.getSolrClient(recordId).deleteById(getIndexId(table, recordId, vtag));
-                    metrics.deletesById.inc();
+                    deleteById(table, recordId, vtag);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -203,48 +257,21 @@ public class Indexer {
         // Note that it is important the the indexFields are evaluated in order, since multiple
         // indexFields can have the same name and the order of values for multi-value fields can be important.
         //
-        // The value of the indexFields is re-evaluated for each vtag. It is only the value of
-        // deref-values which can change from vtag to vtag, so we could optimize this by only
-        // evaluating those after the first run, but again because we want to maintain order and
-        // because a deref-field could share the same name with a non-deref field, we simply
-        // re-evaluate all fields for each vtag.
-        for (SchemaId vtag : vtags) {
-
-            SolrDocumentBuilder solrDocumentBuilder =
-                    new SolrDocumentBuilder(repository, getConf().getRecordFilter(), systemFields, valueEvaluator,
-                            table, record, getIndexId(table, record.getId(), vtag), vtag, version);
-
-            // By convention/definition, we first evaluate the static index fields and then the dynamic ones
-
-            //
-            // 1: evaluate the static index fields
-            //
-            conf.getIndexFields().collectIndexUpdate(solrDocumentBuilder);
-
-            //
-            // 2: evaluate dynamic index fields
-            //
-            if (!conf.getDynamicFields().isEmpty()) {
-                for (Map.Entry<SchemaId, Object> field : record.getFieldsById().entrySet()) {
-                    FieldType fieldType = typeManager.getFieldTypeById(field.getKey());
-                    for (DynamicIndexField dynField : conf.getDynamicFields()) {
-                        DynamicIndexFieldMatch match = dynField.matches(fieldType);
-                        if (match.match) {
-                            String fieldName = evalName(dynField, match, fieldType);
-
-                            List<String> values = valueEvaluator.format(table, record, fieldType, dynField.extractContext(),
-                                    dynField.getFormatter(), repository);
-
-                            solrDocumentBuilder.addField(fieldName, values);
-
-                            if (!dynField.getContinue()) {
-                                // stop on first match, unless continue attribute is true
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
+        // It is only the value of deref-values which can change from vtag to vtag. Therefore the other values,
+        // and the dynamic index fields, are evaluated only once and shared between the documents of the different
+        // vtags (see SolrDocumentBuilder.setRecordValues). Each document is still built by evaluating all
+        // indexFields in order, so that the field order is the same as when evaluating everything per vtag.
+        List<SchemaId> vtagList = new ArrayList<SchemaId>(vtags);
+        Map<Value, List<String>> recordValues = new ConcurrentHashMap<Value, List<String>>();
+        List<Pair<String, List<String>>> dynamicFieldValues = evalDynamicFields(table, record);
+
+        List<SolrDocumentBuilder> builders =
+                buildDocuments(table, record, version, vtagList, recordValues, dynamicFieldValues);
+
+        // The results are processed in order, on this thread, since this might add to the batch of this thread
+        for (int i = 0; i < vtagList.size(); i++) {
+            SchemaId vtag = vtagList.get(i);
+            SolrDocumentBuilder solrDocumentBuilder = builders.get(i);
 
             if (solrDocumentBuilder.isEmptyDocument()) {
                 // No single field was added to the Solr document.
@@ -255,8 +282,7 @@ public class Indexer {
                 // because with deref-expressions we are never sure) that we did.
 
                 // There can be a previous entry in the index which we should try to delete
-                solrShardMgr.getSolrClient(record.getId()).deleteById(getIndexId(table, record.getId(), vtag));
-                metrics.deletesById.inc();
+                deleteById(table, record.getId(), vtag);
 
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Record %1$s, vtag %2$s: no index fields produced output, " +
@@ -269,8 +295,7 @@ public class Indexer {
 
                 processDependencies(table, record, vtag, solrDocumentBuilder);
 
-                log.debug("index response " + solrShardMgr.getSolrClient(record.getId()).add(solrDoc).toString());
-                metrics.adds.inc();
+                add(table, record.getId(), vtag, solrDoc);
 
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Record %1$s, vtag %2$s: indexed, doc = %3$s", record.getId(),
@@ -280,6 +305,117 @@ public class Indexer {
         }
     }
 
+    /**
+     * Builds the documents for the given vtags. When a vtag executor is available, the document of the first
+     * vtag is built on the current thread (which evaluates the values shared by all vtags), and the others
+     * concurrently on the executor.
+     */
+    private List<SolrDocumentBuilder> buildDocuments(final String table, IdRecord record, final long version,
+            List<SchemaId> vtags, final Map<Value, List<String>> recordValues,
+            final List<Pair<String, List<String>>> dynamicFieldValues)
+            throws RepositoryException, InterruptedException, IOException {
+        List<SolrDocumentBuilder> builders = new ArrayList<SolrDocumentBuilder>(vtags.size());
+        if (vtagExecutor == null || vtags.size() < 2) {
+            for (SchemaId vtag : vtags) {
+                builders.add(buildDocument(table, record, version, vtag, recordValues, dynamicFieldValues));
+            }
+            return builders;
+        }
+
+        builders.add(buildDocument(table, record, version, vtags.get(0), recordValues, dynamicFieldValues));
+
+        List<Future<SolrDocumentBuilder>> futures = new ArrayList<Future<SolrDocumentBuilder>>(vtags.size() - 1);
+        try {
+            for (final SchemaId vtag : vtags.subList(1, vtags.size())) {
+                // Record objects are not thread safe, so each task works on its own copy
+                final IdRecord recordCopy = record.cloneRecord();
+                futures.add(vtagExecutor.submit(new Callable<SolrDocumentBuilder>() {
+                    @Override
+                    public SolrDocumentBuilder call() throws Exception {
+                        return buildDocument(table, recordCopy, version, vtag, recordValues, dynamicFieldValues);
+                    }
+                }));
+            }
+
+            for (Future<SolrDocumentBuilder> future : futures) {
+                builders.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // In case of failure, don't leave tasks running
+            for (Future<SolrDocumentBuilder> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return builders;
+    }
+
+    private SolrDocumentBuilder buildDocument(String table, IdRecord record, long version, SchemaId vtag,
+            Map<Value, List<String>> recordValues, List<Pair<String, List<String>>> dynamicFieldValues)
+            throws RepositoryException, InterruptedException, IOException {
+        SolrDocumentBuilder solrDocumentBuilder =
+                new SolrDocumentBuilder(repository, getConf().getRecordFilter(), systemFields, valueEvaluator,
+                        table, record, getIndexId(table, record.getId(), vtag), vtag, version, derefRecordCache);
+        solrDocumentBuilder.setRecordValues(recordValues);
+
+        // By convention/definition, we first evaluate the static index fields and then the dynamic ones
+
+        //
+        // 1: evaluate the static index fields
+        //
+        conf.getIndexFields().collectIndexUpdate(solrDocumentBuilder);
+
+        //
+        // 2: add the dynamic index fields
+        //
+        for (Pair<String, List<String>> field : dynamicFieldValues) {
+            solrDocumentBuilder.addField(field.getV1(), field.getV2());
+        }
+
+        return solrDocumentBuilder;
+    }
+
+    /**
+     * Evaluates the dynamic index fields, these only depend on the record, not on the vtag.
+     *
+     * @return the names and values of the index fields, in order
+     */
+    private List<Pair<String, List<String>>> evalDynamicFields(String table, IdRecord record)
+            throws RepositoryException, InterruptedException {
+        if (conf.getDynamicFields().isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Pair<String, List<String>>> result = new ArrayList<Pair<String, List<String>>>();
+        for (Map.Entry<SchemaId, Object> field : record.getFieldsById().entrySet()) {
+            FieldType fieldType = typeManager.getFieldTypeById(field.getKey());
+            for (Pair<DynamicIndexField, DynamicIndexFieldMatch> match : conf.getDynamicFieldMatches(fieldType)) {
+                DynamicIndexField dynField = match.getV1();
+                String fieldName = evalName(dynField, match.getV2(), fieldType);
+
+                List<String> values = valueEvaluator.format(table, record, fieldType, dynField.extractContext(),
+                        dynField.getFormatter(), repository);
+
+                result.add(new Pair<String, List<String>>(fieldName, values));
+            }
+        }
+        return result;
+    }
+
     private void processDependencies(String table, IdRecord record, SchemaId vtag, SolrDocumentBuilder solrDocumentBuilder)
             throws IOException, RepositoryException, InterruptedException {
         if (log.isDebugEnabled()) {
@@ -358,10 +494,15 @@ public class Indexer {
     public void delete(RecordId recordId) throws SolrClientException, ShardSelectorException,
             InterruptedException {
         verifyLock(recordId);
-        UpdateResponse response = solrShardMgr.getSolrClient(recordId)
-                .deleteByQuery("lily.id:" + ClientUtils.escapeQueryChars(recordId.toString()));
-        log.debug(response.toString());
-        metrics.deletesByQuery.inc();
+        String query = "lily.id:" + ClientUtils.escapeQueryChars(recordId.toString());
+        IndexUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            batch.deleteByQuery(solrShardMgr.getSolrClient(recordId), recordId, query);
+        } else {
+            UpdateResponse response = solrShardMgr.getSolrClient(recordId).deleteByQuery(query);
+            log.debug(response.toString());
+            metrics.deletesByQuery.inc();
+        }
     }
 
     /**
@@ -370,8 +511,125 @@ public class Indexer {
     public void delete(String table, RecordId recordId, SchemaId vtag) throws SolrClientException, ShardSelectorException,
             InterruptedException {
         verifyLock(recordId);
-        solrShardMgr.getSolrClient(recordId).deleteById(getIndexId(table, recordId, vtag));
-        metrics.deletesByQuery.inc();
+        deleteById(table, recordId, vtag);
+    }
+
+    private void add(String table, RecordId recordId, SchemaId vtag, SolrInputDocument solrDoc)
+            throws SolrClientException, ShardSelectorException, InterruptedException {
+        IndexUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            batch.add(solrShardMgr.getSolrClient(recordId), recordId, getIndexId(table, recordId, vtag), solrDoc);
+        } else {
+            log.debug("index response " + solrShardMgr.getSolrClient(recordId).add(solrDoc).toString());
+            metrics.adds.inc();
+        }
+    }
+
+    private void deleteById(String table, RecordId recordId, SchemaId vtag)
+            throws SolrClientException, ShardSelectorException, InterruptedException {
+        String indexId = getIndexId(table, recordId, vtag);
+        IndexUpdateBatch batch = currentBatch.get();
+        if (batch != null) {
+            batch.deleteById(solrShardMgr.getSolrClient(recordId), table, recordId, vtag, indexId);
+        } else {
+            solrShardMgr.getSolrClient(recordId).deleteById(indexId);
+            metrics.deletesById.inc();
+        }
+    }
+
+    /**
+     * Starts collecting the index updates done by the current thread, rather than applying them immediately.
+     * Requests to index the same record are merged, and the resulting Solr updates are sent per shard in
+     * bulk by {@link #flushBatch()}.
+     *
+     * <p>Since the indexing is postponed until the flush, the {@link IndexLocker} locks of the involved records
+     * should be held until after the flush.
+     *
+     * <p>Each call to this method should be followed by a call to {@link #endBatch()}, in a finally block.
+     */
+    public void startBatch() {
+        if (currentBatch.get() != null) {
+            throw new IllegalStateException("A batch is already active for the current thread.");
+        }
+        currentBatch.set(new IndexUpdateBatch());
+    }
+
+    /**
+     * Performs the indexing collected in the current batch, and sends the resulting updates to Solr.
+     * The batch stays active.
+     */
+    public void flushBatch() throws RepositoryException, ShardSelectorException, InterruptedException,
+            SolrClientException, IOException {
+        IndexUpdateBatch batch = currentBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch active for the current thread.");
+        }
+
+        for (IndexUpdateBatch.PendingIndex pending : batch.takePendingIndexes()) {
+            doIndex(pending.table, pending.vtRecord, pending.vtags);
+        }
+
+        for (Map.Entry<SolrClient, IndexUpdateBatch.ShardUpdates> entry : batch.getShardUpdates().entrySet()) {
+            SolrClient solrClient = entry.getKey();
+            IndexUpdateBatch.ShardUpdates updates = entry.getValue();
+
+            for (String query : updates.getDeleteQueries()) {
+                log.debug(solrClient.deleteByQuery(query).toString());
+                metrics.deletesByQuery.inc();
+            }
+
+            List<String> deletedIds = updates.getDeletedIds();
+            if (!deletedIds.isEmpty()) {
+                solrClient.deleteById(deletedIds);
+                metrics.deletesById.inc(deletedIds.size());
+            }
+
+            Collection<SolrInputDocument> docs = updates.getAddedDocuments();
+            if (!docs.isEmpty()) {
+                log.debug("index response " + solrClient.add(docs).toString());
+                metrics.adds.inc(docs.size());
+            }
+        }
+        batch.getShardUpdates().clear();
+    }
+
+    /**
+     * Notifies the indexer that the given record changed, so that it is no longer served from the
+     * {@link DerefRecordCache}.
+     */
+    public void recordChanged(String table, RecordId recordId) {
+        if (derefRecordCache != null) {
+            derefRecordCache.invalidate(table, recordId);
+        }
+    }
+
+    /**
+     * Waits until the Solr updates sent by the current thread have been processed by Solr. This is only
+     * relevant when the Solr clients send their updates asynchronously, see {@link SolrShardManager#flush()}.
+     */
+    public void waitForSolrUpdates() throws SolrClientException, InterruptedException {
+        solrShardMgr.flush();
+    }
+
+    /**
+     * Like {@link #waitForSolrUpdates()}, for when the processing of the current thread failed already. A failure
+     * of the updates is only logged, in any case they are no longer waited for by the next call of the thread.
+     */
+    public void discardSolrUpdates() {
+        try {
+            solrShardMgr.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Solr updates failed after an earlier failure: " + e);
+        }
+    }
+
+    /**
+     * Ends the batch of the current thread. Anything which was not flushed is discarded.
+     */
+    public void endBatch() {
+        currentBatch.remove();
     }
 
     private Map<Long, Set<SchemaId>> getVtagsByVersion(Set<SchemaId> vtagsToIndex, Map<SchemaId, Long> vtags) {
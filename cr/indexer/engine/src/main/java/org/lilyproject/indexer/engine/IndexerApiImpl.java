@@ -16,6 +16,8 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -51,37 +53,83 @@ public class IndexerApiImpl implements org.lilyproject.indexer.Indexer {
             log.warn("cannot index record [" + recordId + "] because there are no known indexes");
         }
 
-        boolean matched = false;
-        for (Indexer indexer : indexerRegistry.getAllIndexers()) {
-            final IndexCase indexCase = indexer.getConf().getRecordFilter().getIndexCase(table, idRecord);
-            if (indexCase != null) {
-                matched = true;
-                tryIndex(indexer, table, idRecord, indexCase);
+        List<Indexer> usedIndexers = new ArrayList<Indexer>();
+        boolean sent = false;
+        try {
+            for (Indexer indexer : indexerRegistry.getAllIndexers()) {
+                final IndexCase indexCase = indexer.getConf().getRecordFilter().getIndexCase(table, idRecord);
+                if (indexCase != null) {
+                    usedIndexers.add(indexer);
+                    tryIndex(indexer, table, idRecord, indexCase);
+                }
+            }
+            sent = true;
+        } finally {
+            if (!sent) {
+                discardSolrUpdates(usedIndexers);
             }
         }
+        waitForSolrUpdates(usedIndexers);
 
-        if (!matched) {
+        if (usedIndexers.isEmpty()) {
             log.warn("cannot index record [" + recordId + "] because it didn't match the record filter of any index");
         }
     }
 
     @Override
     public void indexOn(String table, RecordId recordId, Set<String> indexes) throws IndexerException, InterruptedException {
-        for (String indexName : indexes) {
-            final org.lilyproject.indexer.engine.Indexer indexer = indexerRegistry.getIndexer(indexName);
-            if (indexer == null) {
-                throw new IndexerException("index " + indexName + " could not be found");
-            } else {
-                final IdRecord idRecord = tryReadRecord(table, recordId);
-                final IndexCase indexCase = indexer.getConf().getRecordFilter().getIndexCase(table, idRecord);
-                if (indexCase != null) // it matches -> index
-                {
-                    tryIndex(indexer, table, idRecord, indexCase);
-                } else // it doesn't match -> explicitly delete
-                {
-                    tryDelete(indexer, recordId);
+        List<Indexer> usedIndexers = new ArrayList<Indexer>();
+        boolean sent = false;
+        try {
+            for (String indexName : indexes) {
+                final org.lilyproject.indexer.engine.Indexer indexer = indexerRegistry.getIndexer(indexName);
+                if (indexer == null) {
+                    throw new IndexerException("index " + indexName + " could not be found");
+                } else {
+                    usedIndexers.add(indexer);
+                    final IdRecord idRecord = tryReadRecord(table, recordId);
+                    final IndexCase indexCase = indexer.getConf().getRecordFilter().getIndexCase(table, idRecord);
+                    if (indexCase != null) // it matches -> index
+                    {
+                        tryIndex(indexer, table, idRecord, indexCase);
+                    } else // it doesn't match -> explicitly delete
+                    {
+                        tryDelete(indexer, recordId);
+                    }
                 }
             }
+            sent = true;
+        } finally {
+            if (!sent) {
+                discardSolrUpdates(usedIndexers);
+            }
+        }
+        waitForSolrUpdates(usedIndexers);
+    }
+
+    /**
+     * When the Solr clients send their updates asynchronously, waits for the updates sent by this thread, so that
+     * their failures are reported to the caller, and so that they don't pile up.
+     */
+    private void waitForSolrUpdates(List<Indexer> indexers) throws IndexerException, InterruptedException {
+        for (int i = 0; i < indexers.size(); i++) {
+            boolean waited = false;
+            try {
+                indexers.get(i).waitForSolrUpdates();
+                waited = true;
+            } catch (SolrClientException e) {
+                throw new IndexerException("failed to index on solr", e);
+            } finally {
+                if (!waited) {
+                    discardSolrUpdates(indexers.subList(i + 1, indexers.size()));
+                }
+            }
+        }
+    }
+
+    private void discardSolrUpdates(List<Indexer> indexers) {
+        for (Indexer indexer : indexers) {
+            indexer.discardSolrUpdates();
         }
     }
 
@@ -44,6 +44,15 @@ public class IndexerMetrics implements Updater {
 
     public MetricsTimeVaryingLong deletesByQuery = new MetricsTimeVaryingLong("deletesByQuery", registry);
 
+    /** Lookups of dereferenced records which were served from the {@link DerefRecordCache}. */
+    public MetricsTimeVaryingLong derefCacheHits = new MetricsTimeVaryingLong("derefCacheHits", registry);
+
+    /** Lookups of dereferenced records which had to be read from the repository. */
+    public MetricsTimeVaryingLong derefCacheMisses = new MetricsTimeVaryingLong("derefCacheMisses", registry);
+
+    /** Records dropped from the {@link DerefRecordCache} because of its size or expiry limits. */
+    public MetricsTimeVaryingLong derefCacheEvictions = new MetricsTimeVaryingLong("derefCacheEvictions", registry);
+
     public IndexerMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexer");
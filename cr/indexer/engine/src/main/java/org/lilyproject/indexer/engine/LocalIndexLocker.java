@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * {@link IndexLocker} which only locks within the current process, using a fixed set of lock stripes
+ * selected by the hash of the record id.
+ *
+ * <p>Locks are re-entrant and counted: each lock call should be matched by an unlock call. Since
+ * different records can map onto the same stripe, {@link #hasLock} can also return true for a record
+ * which shares its stripe with a record locked by the current thread, and a thread holding the locks on
+ * multiple records might wait for a stripe held by another thread. Threads which take these locks in the
+ * {@link #getLockOrder() lock order} can't end up waiting for each other, otherwise the wait is bounded by the
+ * maximum wait time, after which an {@link IndexLockTimeoutException} is thrown.</p>
+ */
+public class LocalIndexLocker implements IndexLocker {
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantLock[] stripes;
+    private final int maxWaitTime;
+
+    private Log log = LogFactory.getLog(getClass());
+
+    public LocalIndexLocker() {
+        this(DEFAULT_STRIPES, 20000);
+    }
+
+    /**
+     * @param stripes number of locks over which the records are spread
+     * @param maxWaitTime maximum time to wait for a lock, in ms
+     */
+    public LocalIndexLocker(int stripes, int maxWaitTime) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes should be at least 1, got: " + stripes);
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    private int getStripeIndex(RecordId recordId) {
+        return (recordId.hashCode() & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    private ReentrantLock getStripe(RecordId recordId) {
+        return stripes[getStripeIndex(recordId)];
+    }
+
+    /**
+     * Orders on the stripes, records which share a stripe share its (re-entrant) lock.
+     */
+    @Override
+    public Comparator<RecordId> getLockOrder() {
+        return new Comparator<RecordId>() {
+            @Override
+            public int compare(RecordId recordId1, RecordId recordId2) {
+                int stripe1 = getStripeIndex(recordId1);
+                int stripe2 = getStripeIndex(recordId2);
+                return stripe1 < stripe2 ? -1 : (stripe1 == stripe2 ? 0 : 1);
+            }
+        };
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        try {
+            if (!getStripe(recordId).tryLock(maxWaitTime, TimeUnit.MILLISECONDS)) {
+                throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
+                        " within " + maxWaitTime + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexLockException("Interrupted while taking index lock on record " + recordId, e);
+        }
+    }
+
+    @Override
+    public void unlock(RecordId recordId) throws IndexLockException {
+        ReentrantLock lock = getStripe(recordId);
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
+                    " because it is not owned by the current thread.");
+        }
+        lock.unlock();
+    }
+
+    @Override
+    public void unlockLogFailure(RecordId recordId) {
+        try {
+            unlock(recordId);
+        } catch (Throwable t) {
+            log.error("Error releasing lock on record " + recordId, t);
+        }
+    }
+
+    @Override
+    public boolean hasLock(RecordId recordId) {
+        return getStripe(recordId).isHeldByCurrentThread();
+    }
+}
@@ -18,6 +18,10 @@ package org.lilyproject.indexer.engine;
 public class SolrClientConfig {
     private String requestWriter;
     private String responseParser;
+    private boolean asyncUpdates = false;
+    private int asyncMaxBufferedDocs = 500;
+    private long asyncMaxBufferAge = 1000;
+    private int asyncMaxPendingDocs = 5000;
 
     public String getRequestWriter() {
         return requestWriter;
@@ -34,4 +38,49 @@ public class SolrClientConfig {
     public void setResponseParser(String responseParser) {
         this.responseParser = responseParser;
     }
+
+    /**
+     * If true, updates are sent to Solr asynchronously by an {@link AsyncSolrClient}.
+     */
+    public boolean isAsyncUpdates() {
+        return asyncUpdates;
+    }
+
+    public void setAsyncUpdates(boolean asyncUpdates) {
+        this.asyncUpdates = asyncUpdates;
+    }
+
+    public int getAsyncMaxBufferedDocs() {
+        return asyncMaxBufferedDocs;
+    }
+
+    public void setAsyncMaxBufferedDocs(int asyncMaxBufferedDocs) {
+        this.asyncMaxBufferedDocs = asyncMaxBufferedDocs;
+    }
+
+    public long getAsyncMaxBufferAge() {
+        return asyncMaxBufferAge;
+    }
+
+    public void setAsyncMaxBufferAge(long asyncMaxBufferAge) {
+        this.asyncMaxBufferAge = asyncMaxBufferAge;
+    }
+
+    public int getAsyncMaxPendingDocs() {
+        return asyncMaxPendingDocs;
+    }
+
+    public void setAsyncMaxPendingDocs(int asyncMaxPendingDocs) {
+        this.asyncMaxPendingDocs = asyncMaxPendingDocs;
+    }
+
+    /**
+     * Wraps the given client in an {@link AsyncSolrClient} if asynchronous updates are enabled.
+     */
+    SolrClient wrapAsync(SolrClient solrClient, SolrClientMetrics metrics) {
+        if (!asyncUpdates) {
+            return solrClient;
+        }
+        return new AsyncSolrClient(solrClient, metrics, asyncMaxBufferedDocs, asyncMaxBufferAge, asyncMaxPendingDocs);
+    }
 }
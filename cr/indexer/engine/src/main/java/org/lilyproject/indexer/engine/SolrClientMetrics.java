@@ -22,8 +22,10 @@ import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
@@ -37,6 +39,15 @@ public class SolrClientMetrics implements Updater {
     /** Counts number of times indexing exceptions have been swallowed because they are determined as not retry-able. */
     public MetricsTimeVaryingLong swallowedExceptions = new MetricsTimeVaryingLong("swallowedExceptions", registry);
 
+    /** Number of documents (or ids to delete) buffered or being sent by an {@link AsyncSolrClient}. */
+    public MetricsLongValue queueDepth = new MetricsLongValue("queueDepth", registry);
+
+    /** Estimated size of the documents buffered or being sent by an {@link AsyncSolrClient}. */
+    public MetricsLongValue inFlightBytes = new MetricsLongValue("inFlightBytes", registry);
+
+    /** Duration of the requests by which an {@link AsyncSolrClient} flushes its buffer. */
+    public MetricsTimeVaryingRate flushes = new MetricsTimeVaryingRate("flushes", registry);
+
     public SolrClientMetrics(String indexName, String shardName) {
         this.recordName = indexName + "_" + shardName;
         context = MetricsUtil.getContext("solrClient");
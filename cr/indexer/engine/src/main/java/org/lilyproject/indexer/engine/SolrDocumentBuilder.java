@@ -16,6 +16,7 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import org.apache.solr.common.SolrInputDocument;
 import org.lilyproject.indexer.derefmap.DependencyEntry;
 import org.lilyproject.indexer.derefmap.DerefMapUtil;
 import org.lilyproject.indexer.model.indexerconf.Dep;
+import org.lilyproject.indexer.model.indexerconf.DerefValue;
 import org.lilyproject.indexer.model.indexerconf.FieldTemplatePart;
 import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.indexerconf.IndexUpdateBuilder;
@@ -54,23 +56,31 @@ import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
 import org.lilyproject.util.repo.SystemFields;
+import org.lilyproject.util.repo.VersionTag;
 
 public class SolrDocumentBuilder implements IndexUpdateBuilder {
 
     private final Log log = LogFactory.getLog(getClass());
 
+    /**
+     * Marker for values which evaluated to null in {@link #recordValues}.
+     */
+    private static final List<String> NO_VALUES = Collections.unmodifiableList(new ArrayList<String>(0));
+
     private final LRepository repository;
     private final IndexRecordFilter indexRecordFilter;
     private final SystemFields systemFields;
     private final TypeManager typeManager;
     private final ValueEvaluator valueEvaluator;
     private final NameTemplateResolver nameTemplateResolver;
+    private final DerefRecordCache derefRecordCache;
 
     private final SolrInputDocument solrDoc = new SolrInputDocument();
     private boolean emptyDocument = true;
 
     private Stack<RecordContext> contexts;
     private LoadingCache<DependencyEntry, Set<SchemaId>> dependencies;
+    private Map<Value, List<String>> recordValues;
 
     private String table;
     private RecordId recordId;
@@ -79,7 +89,8 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
     private long version;
 
     public SolrDocumentBuilder(LRepository repository, IndexRecordFilter indexRecordFilter, SystemFields systemFields,
-                               ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag, long version) {
+                               ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag,
+                               long version, DerefRecordCache derefRecordCache) {
         this.repository = repository;
         this.indexRecordFilter = indexRecordFilter;
         this.systemFields = systemFields;
@@ -90,6 +101,7 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         this.key = key;
         this.vtag = vtag;
         this.version = version;
+        this.derefRecordCache = derefRecordCache;
 
         this.nameTemplateResolver = new FieldNameTemplateResolver();
 
@@ -127,7 +139,29 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
 
     @Override
     public List<String> eval(Value value) throws RepositoryException, IOException, InterruptedException {
-        return valueEvaluator.eval(table, value, this);
+        // Values which are not dereferenced only depend on the record itself, when evaluated on the record
+        // (and not in the context of a followed record), so their result can be shared between vtags
+        if (recordValues == null || value instanceof DerefValue || contexts.size() > 1) {
+            return valueEvaluator.eval(table, value, this);
+        }
+
+        List<String> result = recordValues.get(value);
+        if (result == null) {
+            result = valueEvaluator.eval(table, value, this);
+            recordValues.put(value, result != null ? result : NO_VALUES);
+        } else if (result == NO_VALUES) {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Sets a map in which the evaluated non-deref values of the record are kept, to share them between the
+     * documents built for the different vtags of the same record version. The map should be thread safe if it
+     * is shared between builders used by different threads.
+     */
+    public void setRecordValues(Map<Value, List<String>> recordValues) {
+        this.recordValues = recordValues;
     }
 
     @Override
@@ -256,4 +290,12 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         return table;
     }
 
+    @Override
+    public IdRecord readRecord(String table, RecordId recordId) throws RepositoryException, InterruptedException {
+        if (derefRecordCache != null) {
+            return derefRecordCache.getRecord(table, recordId, vtag, repository);
+        }
+        return VersionTag.getIdRecord(recordId, vtag, repository.getTable(table), repository);
+    }
+
 }
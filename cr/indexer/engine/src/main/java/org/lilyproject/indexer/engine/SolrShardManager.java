@@ -22,4 +22,11 @@ import org.lilyproject.repository.api.RecordId;
 
 public interface SolrShardManager extends Closeable {
     SolrClient getSolrClient(RecordId recordId) throws ShardSelectorException;
+
+    /**
+     * Waits until the updates which the current thread sent through the clients of this shard manager have been
+     * processed by Solr. This only has an effect if the clients send their updates asynchronously, see
+     * {@link AsyncSolrClient}.
+     */
+    void flush() throws SolrClientException, InterruptedException;
 }
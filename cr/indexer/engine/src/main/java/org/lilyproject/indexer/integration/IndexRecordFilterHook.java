@@ -16,9 +16,16 @@
 package org.lilyproject.indexer.integration;
 
 import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.util.IndexInfo;
@@ -27,13 +34,16 @@ import org.lilyproject.plugin.PluginRegistry;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.spi.FieldEncodingContext;
 import org.lilyproject.repository.spi.RecordUpdateHook;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 
@@ -55,6 +65,11 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
      */
     private final String NAME = "org.lilyproject.IndexRecordFilterHook";
 
+    /** Maximum number of record states for which the index inclusion decision is remembered. */
+    private static final int DECISION_CACHE_SIZE = 10000;
+
+    private volatile CompiledFilters compiledFilters;
+
     public IndexRecordFilterHook(IndexesInfo indexesInfo) {
         this.indexesInfo = indexesInfo;
     }
@@ -181,12 +196,13 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
             return;
         }
 
+        // Within a repository write, the encoded values are reused by the repository (and vice versa)
         if (oldValue != null) {
-            oldValue = type.getValueType().toBytes(oldValue, new IdentityRecordStack());
+            oldValue = FieldEncodingContext.encodeValue(type, oldValue, new IdentityRecordStack());
         }
 
         if (newValue != null) {
-            newValue = type.getValueType().toBytes(newValue, new IdentityRecordStack());
+            newValue = FieldEncodingContext.encodeValue(type, newValue, new IdentityRecordStack());
         }
 
         idxSel.addChangedField(type.getId(), (byte[])oldValue, (byte[])newValue);
@@ -196,35 +212,67 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
      * Calculate the inclusion/exclusion sets for index subscriptions based on the old and new
      * records, and update the {@code IndexRecordFilterData} with this information.
      *
+     * <p>The outcome only depends on the properties of the records the index filters look at, so it is
+     * remembered for each combination of these, see {@link CompiledFilters}.</p>
+     *
      * @param table table where the record update has occurred
      * @param oldRecord Previous version of the record, null if the record is being newly created
      * @param newRecord New version of the record, null if the record is being deleted
      * @param indexFilterData To be updated with index subscription inclusion/exclusion information
      */
     void calculateIndexInclusion(String table, Record oldRecord, Record newRecord, IndexRecordFilterData indexFilterData) {
+        CompiledFilters filters = getCompiledFilters();
+
+        List<Object> key = filters.getDecisionKey(table, oldRecord, newRecord);
+        InclusionDecision decision = key != null ? filters.decisions.getIfPresent(key) : null;
+        if (decision == null) {
+            decision = decideIndexInclusion(filters, table, oldRecord, newRecord);
+            if (key != null) {
+                filters.decisions.put(key, decision);
+            }
+        }
 
+        if (decision.include) {
+            indexFilterData.setSubscriptionInclusions(decision.subscriptionIds);
+        } else {
+            indexFilterData.setSubscriptionExclusions(decision.subscriptionIds);
+        }
+    }
+
+    private InclusionDecision decideIndexInclusion(CompiledFilters filters, String table, Record oldRecord,
+            Record newRecord) {
         Set<String> applicableIndexes = Sets.newHashSet();
         Set<String> nonApplicableIndexes = Sets.newHashSet();
-        for (IndexInfo indexInfo : indexesInfo.getIndexInfos()) {
-            String queueSubscriptionId = indexInfo.getIndexDefinition().getQueueSubscriptionId();
-            if (indexIsApplicable(indexInfo.getIndexerConf().getRecordFilter(), table, oldRecord, newRecord)) {
-                applicableIndexes.add(queueSubscriptionId);
+        for (Pair<String, IndexRecordFilter> filter : filters.filters) {
+            if (indexIsApplicable(filter.getV2(), table, oldRecord, newRecord)) {
+                applicableIndexes.add(filter.getV1());
             } else {
-                nonApplicableIndexes.add(queueSubscriptionId);
+                nonApplicableIndexes.add(filter.getV1());
             }
         }
 
         if (applicableIndexes.isEmpty()) {
-            indexFilterData.setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
+            return new InclusionDecision(false, IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
         } else if (nonApplicableIndexes.isEmpty()) {
-            indexFilterData.setSubscriptionInclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
+            return new InclusionDecision(true, IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
         } else if (applicableIndexes.size() > nonApplicableIndexes.size()) {
-            indexFilterData.setSubscriptionInclusions(applicableIndexes);
+            return new InclusionDecision(true, ImmutableSet.copyOf(applicableIndexes));
         } else {
-            indexFilterData.setSubscriptionExclusions(nonApplicableIndexes);
+            return new InclusionDecision(false, ImmutableSet.copyOf(nonApplicableIndexes));
         }
     }
 
+    private CompiledFilters getCompiledFilters() {
+        // The generation is read first: if the indexes change meanwhile, the filters are only built once more
+        long generation = indexesInfo.getGeneration();
+        CompiledFilters filters = compiledFilters;
+        if (filters == null || filters.generation != generation) {
+            filters = new CompiledFilters(generation, indexesInfo.getIndexInfos());
+            compiledFilters = filters;
+        }
+        return filters;
+    }
+
     /**
      * Determine if an {@code IndexRecordFilter} is applicable for either the old or new version of
      * a record.
@@ -236,4 +284,92 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
                 || (newRecord != null && filter.getIndexCase(table, newRecord) != null));
     }
 
+    /**
+     * The record filters of all indexes, together with the inclusion decisions taken for the record states
+     * seen so far.
+     *
+     * <p>The index filters only look at the table, the record type, the variant properties and the values
+     * of some fields, so these form the key for the decisions. Decisions are not remembered when a filter
+     * checks the record type hierarchy (which can change without the record changing), or when a field value
+     * is not of an immutable type.</p>
+     */
+    private static final class CompiledFilters {
+        private final long generation;
+        private final List<Pair<String, IndexRecordFilter>> filters;
+        private final List<QName> fieldDependencies;
+        private final boolean cacheable;
+        private final Cache<List<Object>, InclusionDecision> decisions;
+
+        CompiledFilters(long generation, Collection<IndexInfo> indexInfos) {
+            this.generation = generation;
+            this.filters = new ArrayList<Pair<String, IndexRecordFilter>>(indexInfos.size());
+
+            Set<QName> fields = Sets.newHashSet();
+            boolean dependsOnInstanceOf = false;
+            for (IndexInfo indexInfo : indexInfos) {
+                IndexRecordFilter filter = indexInfo.getIndexerConf().getRecordFilter();
+                filters.add(new Pair<String, IndexRecordFilter>(
+                        indexInfo.getIndexDefinition().getQueueSubscriptionId(), filter));
+                fields.addAll(filter.getFieldDependencies());
+                dependsOnInstanceOf |= filter.dependsOnInstanceOf();
+            }
+
+            this.fieldDependencies = new ArrayList<QName>(fields);
+            this.cacheable = !dependsOnInstanceOf;
+            this.decisions = CacheBuilder.newBuilder().maximumSize(DECISION_CACHE_SIZE).build();
+        }
+
+        /**
+         * Returns the key under which the decision for these records is remembered, or null if it should
+         * not be remembered.
+         */
+        List<Object> getDecisionKey(String table, Record oldRecord, Record newRecord) {
+            if (!cacheable) {
+                return null;
+            }
+
+            List<Object> key = new ArrayList<Object>(3 + 2 * (2 + fieldDependencies.size()));
+            key.add(table);
+            return addRecordState(key, oldRecord) && addRecordState(key, newRecord) ? key : null;
+        }
+
+        private boolean addRecordState(List<Object> key, Record record) {
+            if (record == null) {
+                key.add(null);
+                return true;
+            }
+            if (record.getId() == null) {
+                return false;
+            }
+
+            key.add(Boolean.TRUE);
+            key.add(record.getRecordTypeName());
+            key.add(record.getId().getVariantProperties());
+            for (QName field : fieldDependencies) {
+                Object value = record.hasField(field) ? record.getField(field) : null;
+                if (value != null && !isImmutable(value)) {
+                    return false;
+                }
+                key.add(value);
+            }
+            return true;
+        }
+
+        private static boolean isImmutable(Object value) {
+            return value instanceof String || value instanceof Long || value instanceof Integer
+                    || value instanceof Double || value instanceof Boolean || value instanceof BigDecimal
+                    || value instanceof Link || value instanceof URI;
+        }
+    }
+
+    private static final class InclusionDecision {
+        private final boolean include;
+        private final Set<String> subscriptionIds;
+
+        InclusionDecision(boolean include, Set<String> subscriptionIds) {
+            this.include = include;
+            this.subscriptionIds = subscriptionIds;
+        }
+    }
+
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.metrics.util.MetricsLongValue;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncSolrClientTest {
+
+    private SolrClientMetrics solrClientMetrics;
+    private SolrClient baseSolrClient;
+    private AsyncSolrClient asyncSolrClient;
+
+    @Before
+    public void setUp() {
+        solrClientMetrics = mock(SolrClientMetrics.class);
+        solrClientMetrics.queueDepth = mock(MetricsLongValue.class);
+        solrClientMetrics.inFlightBytes = mock(MetricsLongValue.class);
+        solrClientMetrics.flushes = mock(MetricsTimeVaryingRate.class);
+        baseSolrClient = mock(SolrClient.class);
+        when(baseSolrClient.getDescription()).thenReturn("test");
+    }
+
+    @After
+    public void tearDown() {
+        if (asyncSolrClient != null) {
+            asyncSolrClient.close();
+        }
+    }
+
+    @Test
+    public void testUpdatesSentInOrderOnFlush() throws Exception {
+        asyncSolrClient = new AsyncSolrClient(baseSolrClient, solrClientMetrics, 100, 60000, 1000);
+        SolrInputDocument doc1 = createDocument("doc1");
+        SolrInputDocument doc2 = createDocument("doc2");
+        SolrInputDocument doc3 = createDocument("doc3");
+
+        assertSame(AsyncSolrClient.QUEUED_UPDATE_RESPONSE, asyncSolrClient.add(doc1));
+        asyncSolrClient.add(doc2);
+        asyncSolrClient.deleteById("doc4");
+        asyncSolrClient.deleteByQuery("lily.id:doc5");
+        asyncSolrClient.add(doc3);
+
+        verify(baseSolrClient, never()).add(anyCollectionOf(SolrInputDocument.class));
+
+        asyncSolrClient.waitFor(asyncSolrClient.flush());
+
+        // consecutive updates of the same kind are combined into one request
+        InOrder inOrder = inOrder(baseSolrClient);
+        inOrder.verify(baseSolrClient).add(Arrays.asList(doc1, doc2));
+        inOrder.verify(baseSolrClient).deleteById(Collections.singletonList("doc4"));
+        inOrder.verify(baseSolrClient).deleteByQuery("lily.id:doc5");
+        inOrder.verify(baseSolrClient).add(Collections.singletonList(doc3));
+    }
+
+    @Test
+    public void testFlushOnBufferSize() throws Exception {
+        asyncSolrClient = new AsyncSolrClient(baseSolrClient, solrClientMetrics, 2, 60000, 1000);
+        SolrInputDocument doc1 = createDocument("doc1");
+        SolrInputDocument doc2 = createDocument("doc2");
+
+        asyncSolrClient.add(doc1);
+        asyncSolrClient.add(doc2);
+
+        verify(baseSolrClient, timeout(5000)).add(Arrays.asList(doc1, doc2));
+    }
+
+    @Test
+    public void testFlushOnBufferAge() throws Exception {
+        asyncSolrClient = new AsyncSolrClient(baseSolrClient, solrClientMetrics, 100, 50, 1000);
+        SolrInputDocument doc1 = createDocument("doc1");
+
+        asyncSolrClient.add(doc1);
+
+        verify(baseSolrClient, timeout(5000)).add(Collections.singletonList(doc1));
+    }
+
+    @Test(expected = SolrClientException.class)
+    public void testFailureReportedOnFlush() throws Exception {
+        asyncSolrClient = new AsyncSolrClient(baseSolrClient, solrClientMetrics, 100, 60000, 1000);
+        when(baseSolrClient.add(anyCollectionOf(SolrInputDocument.class)))
+                .thenThrow(new SolrClientException("test", new Exception("Solr is down")));
+
+        asyncSolrClient.add(createDocument("doc1"));
+        asyncSolrClient.waitFor(asyncSolrClient.flush());
+    }
+
+    private SolrInputDocument createDocument(String id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("lily.key", id);
+        return doc;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.repo.VersionTag;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DerefRecordCacheTest {
+    private IndexerMetrics metrics;
+    private LRepository repository;
+    private LTable table;
+    private RecordId recordId;
+    private IdRecord record;
+    private IdRecord recordCopy;
+    private SchemaId lastVTag;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = mock(IndexerMetrics.class);
+        metrics.derefCacheHits = mock(MetricsTimeVaryingLong.class);
+        metrics.derefCacheMisses = mock(MetricsTimeVaryingLong.class);
+        metrics.derefCacheEvictions = mock(MetricsTimeVaryingLong.class);
+
+        lastVTag = new SchemaIdImpl(UUID.randomUUID());
+        FieldType lastVTagType = mock(FieldType.class);
+        when(lastVTagType.getId()).thenReturn(lastVTag);
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getFieldTypeByName(VersionTag.LAST)).thenReturn(lastVTagType);
+
+        // a record without versions, so that its 'last' vtag resolves to the record itself
+        recordId = new IdGeneratorImpl().newRecordId();
+        record = mock(IdRecord.class);
+        recordCopy = mock(IdRecord.class);
+        when(record.getId()).thenReturn(recordId);
+        when(record.getVersion()).thenReturn(null);
+        when(record.getFieldsById()).thenReturn(Collections.<SchemaId, Object>emptyMap());
+        when(record.cloneRecord()).thenReturn(recordCopy);
+
+        table = mock(LTable.class);
+        when(table.readWithIds(eq(recordId), (Long) eq(null), anyListOf(SchemaId.class))).thenReturn(record);
+
+        repository = mock(LRepository.class);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+        when(repository.getTable("record")).thenReturn(table);
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        DerefRecordCache cache = new DerefRecordCache(100, 60000, metrics);
+
+        assertSame(recordCopy, cache.getRecord("record", recordId, lastVTag, repository));
+        assertSame(recordCopy, cache.getRecord("record", recordId, lastVTag, repository));
+
+        verify(table, times(1)).readWithIds(eq(recordId), (Long) eq(null), anyListOf(SchemaId.class));
+        verify(metrics.derefCacheMisses, times(1)).inc();
+        verify(metrics.derefCacheHits, times(1)).inc();
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        DerefRecordCache cache = new DerefRecordCache(100, 60000, metrics);
+
+        cache.getRecord("record", recordId, lastVTag, repository);
+        cache.invalidate("record", recordId);
+        cache.getRecord("record", recordId, lastVTag, repository);
+
+        verify(table, times(2)).readWithIds(eq(recordId), (Long) eq(null), anyListOf(SchemaId.class));
+        verify(metrics.derefCacheMisses, times(2)).inc();
+    }
+
+    @Test
+    public void testUndefinedVTagNotCached() throws Exception {
+        DerefRecordCache cache = new DerefRecordCache(100, 60000, metrics);
+        SchemaId otherVTag = new SchemaIdImpl(UUID.randomUUID());
+
+        assertNull(cache.getRecord("record", recordId, otherVTag, repository));
+        assertNull(cache.getRecord("record", recordId, otherVTag, repository));
+
+        verify(metrics.derefCacheMisses, times(2)).inc();
+        verify(table, times(2)).readWithIds(eq(recordId), (Long) eq(null), anyListOf(SchemaId.class));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        DerefRecordCache cache = new DerefRecordCache(1, 60000, metrics);
+        RecordId otherId = new IdGeneratorImpl().newRecordId();
+        IdRecord other = mock(IdRecord.class);
+        when(other.getId()).thenReturn(otherId);
+        when(other.getVersion()).thenReturn(null);
+        when(other.getFieldsById()).thenReturn(Collections.<SchemaId, Object>emptyMap());
+        when(other.cloneRecord()).thenReturn(other);
+        when(table.readWithIds(eq(otherId), (Long) eq(null), anyListOf(SchemaId.class))).thenReturn(other);
+
+        cache.getRecord("record", recordId, lastVTag, repository);
+        cache.getRecord("record", otherId, lastVTag, repository);
+
+        verify(metrics.derefCacheEvictions, times(1)).inc();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class IndexUpdateBatchTest {
+    private IndexUpdateBatch batch;
+    private SolrClient shard1;
+    private SolrClient shard2;
+    private RecordId recordId1;
+    private RecordId recordId2;
+    private SchemaId vtag;
+
+    @Before
+    public void setUp() {
+        batch = new IndexUpdateBatch();
+        shard1 = mock(SolrClient.class);
+        shard2 = mock(SolrClient.class);
+        IdGeneratorImpl idGenerator = new IdGeneratorImpl();
+        recordId1 = idGenerator.newRecordId();
+        recordId2 = idGenerator.newRecordId();
+        vtag = new SchemaIdImpl(UUID.randomUUID());
+    }
+
+    @Test
+    public void testLastOperationWins() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        SolrInputDocument doc2 = new SolrInputDocument();
+
+        batch.add(shard1, recordId1, "doc1", doc1);
+        batch.deleteById(shard1, "table", recordId1, vtag, "doc1");
+        batch.add(shard1, recordId2, "doc2", new SolrInputDocument());
+        batch.add(shard1, recordId2, "doc2", doc2);
+
+        IndexUpdateBatch.ShardUpdates updates = batch.getShardUpdates().get(shard1);
+        assertEquals(Collections.singletonList("doc1"), updates.getDeletedIds());
+        assertEquals(1, updates.getAddedDocuments().size());
+        assertTrue(updates.getAddedDocuments().contains(doc2));
+    }
+
+    @Test
+    public void testGroupedPerShard() {
+        batch.add(shard1, recordId1, "doc1", new SolrInputDocument());
+        batch.add(shard2, recordId2, "doc2", new SolrInputDocument());
+        batch.deleteById(shard2, "table", recordId2, vtag, "doc3");
+
+        assertEquals(2, batch.getShardUpdates().size());
+        assertEquals(1, batch.getShardUpdates().get(shard1).getAddedDocuments().size());
+        assertEquals(1, batch.getShardUpdates().get(shard2).getAddedDocuments().size());
+        assertEquals(Arrays.asList("doc3"), batch.getShardUpdates().get(shard2).getDeletedIds());
+    }
+
+    @Test
+    public void testDeleteByQueryDropsEarlierUpdatesOfRecord() {
+        batch.add(shard1, recordId1, "doc1", new SolrInputDocument());
+        batch.add(shard1, recordId2, "doc2", new SolrInputDocument());
+        batch.deleteByQuery(shard1, recordId1, "lily.id:record1");
+        SolrInputDocument doc3 = new SolrInputDocument();
+        batch.add(shard1, recordId1, "doc3", doc3);
+
+        IndexUpdateBatch.ShardUpdates updates = batch.getShardUpdates().get(shard1);
+        assertEquals(Arrays.asList("lily.id:record1"), updates.getDeleteQueries());
+        assertEquals(2, updates.getAddedDocuments().size());
+        assertTrue(updates.getAddedDocuments().contains(doc3));
+        assertTrue(updates.getDeletedIds().isEmpty());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.indexer.IndexerException;
+import org.lilyproject.indexer.model.indexerconf.IndexCase;
+import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
+import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexerApiImplTest {
+    private RecordId recordId;
+    private IdRecord record;
+    private RepositoryManager repositoryManager;
+    private IndexerRegistry indexerRegistry;
+    private Indexer indexer1;
+    private Indexer indexer2;
+
+    @Before
+    public void setUp() throws Exception {
+        recordId = new IdGeneratorImpl().newRecordId();
+        record = mock(IdRecord.class);
+        LTable table = mock(LTable.class);
+        when(table.readWithIds(eq(recordId), (Long) isNull(), anyListOf(SchemaId.class))).thenReturn(record);
+        LRepository repository = mock(LRepository.class);
+        when(repository.getTable("record")).thenReturn(table);
+        repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getDefaultRepository()).thenReturn(repository);
+
+        indexer1 = createIndexer("index1");
+        indexer2 = createIndexer("index2");
+        indexerRegistry = mock(IndexerRegistry.class);
+        when(indexerRegistry.getAllIndexers()).thenReturn(Arrays.asList(indexer1, indexer2));
+        when(indexerRegistry.getIndexer("index1")).thenReturn(indexer1);
+        when(indexerRegistry.getIndexer("index2")).thenReturn(indexer2);
+    }
+
+    private Indexer createIndexer(String indexName) {
+        IndexRecordFilter recordFilter = mock(IndexRecordFilter.class);
+        when(recordFilter.getIndexCase("record", record)).thenReturn(mock(IndexCase.class));
+        IndexerConf conf = mock(IndexerConf.class);
+        when(conf.getRecordFilter()).thenReturn(recordFilter);
+        Indexer indexer = mock(Indexer.class);
+        when(indexer.getIndexName()).thenReturn(indexName);
+        when(indexer.getConf()).thenReturn(conf);
+        return indexer;
+    }
+
+    @Test
+    public void testWaitsForSolrUpdates() throws Exception {
+        IndexerApiImpl indexerApi = new IndexerApiImpl(repositoryManager, indexerRegistry);
+        indexerApi.index("record", recordId);
+
+        verify(indexer1).index(eq("record"), eq(record), anySetOf(SchemaId.class));
+        verify(indexer1).waitForSolrUpdates();
+        verify(indexer2).waitForSolrUpdates();
+        verify(indexer1, never()).discardSolrUpdates();
+    }
+
+    @Test
+    public void testSolrUpdateFailureReported() throws Exception {
+        doThrow(new SolrClientException("shard1", new IOException())).when(indexer1).waitForSolrUpdates();
+
+        IndexerApiImpl indexerApi = new IndexerApiImpl(repositoryManager, indexerRegistry);
+        try {
+            indexerApi.indexOn("record", recordId, Collections.singleton("index1"));
+            fail("expected IndexerException");
+        } catch (IndexerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSolrUpdatesDiscardedOnFailure() throws Exception {
+        doThrow(new SolrClientException("shard1", new IOException())).when(indexer2)
+                .index(anyString(), any(IdRecord.class), anySetOf(SchemaId.class));
+
+        IndexerApiImpl indexerApi = new IndexerApiImpl(repositoryManager, indexerRegistry);
+        try {
+            indexerApi.index("record", recordId);
+            fail("expected IndexerException");
+        } catch (IndexerException e) {
+            // expected
+        }
+
+        // the updates sent for the first index are not left to the next call
+        verify(indexer1).discardSolrUpdates();
+        verify(indexer2).discardSolrUpdates();
+        verify(indexer1, never()).waitForSolrUpdates();
+    }
+
+    @Test
+    public void testRemainingSolrUpdatesDiscardedOnWaitFailure() throws Exception {
+        doThrow(new SolrClientException("shard1", new IOException())).when(indexer1).waitForSolrUpdates();
+
+        IndexerApiImpl indexerApi = new IndexerApiImpl(repositoryManager, indexerRegistry);
+        try {
+            indexerApi.index("record", recordId);
+            fail("expected IndexerException");
+        } catch (IndexerException e) {
+            // expected
+        }
+
+        verify(indexer2).discardSolrUpdates();
+    }
+}
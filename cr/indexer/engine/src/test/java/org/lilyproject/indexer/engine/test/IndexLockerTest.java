@@ -30,6 +30,7 @@ import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.indexer.engine.IndexLockTimeoutException;
 import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.ZooKeeperIndexLocker;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.io.Closer;
@@ -73,7 +74,7 @@ public class IndexLockerTest {
 
     @Test
     public void testObtainAndReleaseLock() throws Exception {
-        IndexLocker indexLocker = new IndexLocker(ZK, true);
+        IndexLocker indexLocker = new ZooKeeperIndexLocker(ZK, true);
         RecordId recordId1 = new IdGeneratorImpl().newRecordId();
         RecordId recordId2 = new IdGeneratorImpl().newRecordId();
 
@@ -90,7 +91,7 @@ public class IndexLockerTest {
     @Test
     public void testLockTimeout() throws Exception {
         int maxWaitTime = 500;
-        final IndexLocker indexLocker = new IndexLocker(ZK, 2, maxWaitTime);
+        final IndexLocker indexLocker = new ZooKeeperIndexLocker(ZK, 2, maxWaitTime);
         final RecordId recordId = new IdGeneratorImpl().newRecordId();
 
         // take a lock and do not release it, another attempt to take a lock on the same record
@@ -131,7 +132,7 @@ public class IndexLockerTest {
 
     @Test
     public void testLockConcurrencyOnSameRecord() throws Exception {
-        IndexLocker indexLocker = new IndexLocker(ZK, true);
+        IndexLocker indexLocker = new ZooKeeperIndexLocker(ZK, true);
         RecordId recordId = new IdGeneratorImpl().newRecordId();
 
         List<Info> infos = new ArrayList<Info>();
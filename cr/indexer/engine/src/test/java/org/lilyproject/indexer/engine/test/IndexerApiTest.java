@@ -32,6 +32,7 @@ import org.lilyproject.indexer.engine.IndexerApiImpl;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.IndexerRegistry;
 import org.lilyproject.indexer.engine.SolrClientException;
+import org.lilyproject.indexer.engine.ZooKeeperIndexLocker;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
 import org.lilyproject.repository.api.FieldType;
@@ -108,7 +109,7 @@ public class IndexerApiTest {
     public void changeIndexUpdater(String confName) throws Exception {
         INDEXER_CONF = IndexerConfBuilder.build(IndexerTest.class.getResourceAsStream(confName),
                 repoSetup.getRepositoryManager().getDefaultRepository());
-        IndexLocker indexLocker = new IndexLocker(repoSetup.getZk(), false);
+        IndexLocker indexLocker = new ZooKeeperIndexLocker(repoSetup.getZk(), false);
         Indexer indexer =
                 new Indexer("test", INDEXER_CONF, repository, solrShardManager, indexLocker, new IndexerMetrics("test"),
                         null);
@@ -68,6 +68,7 @@ import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.SolrClientException;
+import org.lilyproject.indexer.engine.ZooKeeperIndexLocker;
 import org.lilyproject.indexer.integration.IndexRecordFilterHook;
 import org.lilyproject.indexer.model.api.IndexDefinition;
 import org.lilyproject.indexer.model.api.WriteableIndexerModel;
@@ -259,7 +260,7 @@ public class IndexerTest {
         // code in this method not to be executed! (so keep this in mind for anything related to resource cleanup)
         INDEXER_CONF = IndexerConfBuilder.build(IndexerTest.class.getResourceAsStream(confName),
                 repoSetup.getRepositoryManager().getDefaultRepository());
-        IndexLocker indexLocker = new IndexLocker(repoSetup.getZk(), false);
+        IndexLocker indexLocker = new ZooKeeperIndexLocker(repoSetup.getZk(), false);
 
         Configuration hbaseConf = repoSetup.getHadoopConf();
         if (derefMap != null) {
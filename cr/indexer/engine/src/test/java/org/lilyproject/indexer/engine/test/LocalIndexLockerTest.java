@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lilyproject.indexer.engine.IndexLockException;
+import org.lilyproject.indexer.engine.IndexLockTimeoutException;
+import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.LocalIndexLocker;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalIndexLockerTest {
+
+    @Test
+    public void testObtainAndReleaseLock() throws Exception {
+        IndexLocker indexLocker = new LocalIndexLocker();
+        RecordId recordId1 = new IdGeneratorImpl().newRecordId();
+        RecordId recordId2 = new IdGeneratorImpl().newRecordId();
+
+        indexLocker.lock(recordId1);
+        indexLocker.lock(recordId2);
+        assertTrue(indexLocker.hasLock(recordId1));
+        assertTrue(indexLocker.hasLock(recordId2));
+
+        indexLocker.unlock(recordId1);
+        indexLocker.unlock(recordId2);
+        assertFalse(indexLocker.hasLock(recordId1));
+    }
+
+    @Test
+    public void testLockTimeout() throws Exception {
+        final int maxWaitTime = 200;
+        final IndexLocker indexLocker = new LocalIndexLocker(16, maxWaitTime);
+        final RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        indexLocker.lock(recordId);
+
+        final AtomicReference<Throwable> throwable = new AtomicReference<Throwable>();
+        final long[] waited = new long[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long before = System.currentTimeMillis();
+                try {
+                    indexLocker.lock(recordId);
+                    fail("expected exception");
+                } catch (IndexLockTimeoutException e) {
+                    // expected
+                    waited[0] = System.currentTimeMillis() - before;
+                } catch (Throwable t) {
+                    throwable.set(t);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNull(throwable.get());
+        assertTrue(waited[0] >= maxWaitTime);
+        indexLocker.unlock(recordId);
+    }
+
+    @Test(expected = IndexLockException.class)
+    public void testUnlockNotOwned() throws Exception {
+        IndexLocker indexLocker = new LocalIndexLocker();
+        indexLocker.unlock(new IdGeneratorImpl().newRecordId());
+    }
+
+    @Test
+    public void testLockConcurrencyOnSameRecord() throws Exception {
+        final IndexLocker indexLocker = new LocalIndexLocker();
+        final RecordId recordId = new IdGeneratorImpl().newRecordId();
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicInteger maxHolders = new AtomicInteger();
+        final AtomicReference<Throwable> throwable = new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[7];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            indexLocker.lock(recordId);
+                            try {
+                                int current = holders.incrementAndGet();
+                                if (current > maxHolders.get()) {
+                                    maxHolders.set(current);
+                                }
+                                Thread.sleep(1);
+                                holders.decrementAndGet();
+                            } finally {
+                                indexLocker.unlock(recordId);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        throwable.set(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(throwable.get());
+        assertEquals(1, maxHolders.get());
+    }
+
+    @Test
+    public void testLockOrder() throws Exception {
+        // few stripes, so that the batches of the threads share stripes all the time
+        final IndexLocker indexLocker = new LocalIndexLocker(4, 2000);
+        final List<RecordId> recordIds = new ArrayList<RecordId>();
+        for (int i = 0; i < 20; i++) {
+            recordIds.add(new IdGeneratorImpl().newRecordId());
+        }
+        final AtomicReference<Throwable> throwable = new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            List<RecordId> batch = new ArrayList<RecordId>(recordIds);
+                            Collections.shuffle(batch, random);
+                            batch = batch.subList(0, 5);
+                            Collections.sort(batch, indexLocker.getLockOrder());
+                            for (RecordId recordId : batch) {
+                                indexLocker.lock(recordId);
+                            }
+                            Thread.sleep(1);
+                            for (RecordId recordId : batch) {
+                                indexLocker.unlock(recordId);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        throwable.set(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(throwable.get());
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.indexer.integration;
 
+import java.util.TreeMap;
+
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import org.junit.Before;
@@ -24,7 +26,9 @@ import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.util.IndexInfo;
 import org.lilyproject.indexer.model.util.IndexesInfo;
 import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
@@ -38,6 +42,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -177,6 +182,37 @@ public class IndexRecordFilterHookTest {
         verify(indexFilterData).setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
     }
 
+    @Test
+    public void testCalculateIndexInclusion_DecisionIsRemembered() {
+        RecordId recordId = mock(RecordId.class);
+        when(recordId.getVariantProperties()).thenReturn(new TreeMap<String, String>());
+        when(oldRecord.getId()).thenReturn(recordId);
+        when(oldRecord.getRecordTypeName()).thenReturn(new QName("ns", "type"));
+        when(newRecord.getId()).thenReturn(recordId);
+        when(newRecord.getRecordTypeName()).thenReturn(new QName("ns", "type"));
+
+        IndexInfo inclusion = createMockIndexInfo("include", true);
+        IndexInfo exclusion = createMockIndexInfo("exclude", false);
+        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion, exclusion));
+
+        IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
+        indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
+        indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
+
+        verify(indexFilterData, times(2)).setSubscriptionExclusions(ImmutableSet.of("exclude"));
+        verify(indexFilterHook, times(1)).indexIsApplicable(inclusion.getIndexerConf().getRecordFilter(),
+                Table.RECORD.name, oldRecord, newRecord);
+
+        // a change of the indexes leads to a new decision
+        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        when(indexesInfo.getGeneration()).thenReturn(1L);
+        indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
+
+        verify(indexFilterData).setSubscriptionInclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
+        verify(indexFilterHook, times(2)).indexIsApplicable(inclusion.getIndexerConf().getRecordFilter(),
+                Table.RECORD.name, oldRecord, newRecord);
+    }
+
     private IndexInfo createMockIndexInfo(String queueSubscriptionId, boolean include) {
         IndexInfo indexInfo = mock(IndexInfo.class, Mockito.RETURNS_DEEP_STUBS);
         IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
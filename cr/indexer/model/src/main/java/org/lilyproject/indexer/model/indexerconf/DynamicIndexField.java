@@ -88,6 +88,13 @@ public class DynamicIndexField {
         return match;
     }
 
+    /**
+     * @return null if the field matches any namespace
+     */
+    public WildcardPattern getNamespacePattern() {
+        return namespace;
+    }
+
     public NameTemplate getNameTemplate() {
         return nameTemplate;
     }
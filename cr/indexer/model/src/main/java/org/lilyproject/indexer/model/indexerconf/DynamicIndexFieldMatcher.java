@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.lilyproject.indexer.model.indexerconf.DynamicIndexField.DynamicIndexFieldMatch;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.Pair;
+
+/**
+ * Finds the dynamic index fields which apply to a field type.
+ *
+ * <p>The dynamic index fields are tried in the order in which they are defined: the first one which matches
+ * applies, and if it has the continue flag set, the next matching one too, and so on.</p>
+ *
+ * <p>Rather than trying all dynamic index fields for each field of each indexed record, the dynamic index
+ * fields are indexed on the namespace they match (when it is not a wildcard pattern), and the result is
+ * remembered per field type. Since the result only depends on the name, value type and scope of the field
+ * type, a remembered result is discarded when the field type it was computed for does not equal the
+ * current definition of the field type anymore (e.g. because it was renamed).</p>
+ */
+public class DynamicIndexFieldMatcher {
+    private final List<DynamicIndexField> fields;
+
+    /** Positions of the dynamic index fields which only match one namespace, by namespace. */
+    private final Map<String, List<Integer>> fieldsByNamespace = new HashMap<String, List<Integer>>();
+
+    /** Positions of the dynamic index fields which can match multiple namespaces. */
+    private final List<Integer> otherFields = new ArrayList<Integer>();
+
+    private final ConcurrentMap<SchemaId, Matches> matchesByFieldType = new ConcurrentHashMap<SchemaId, Matches>();
+
+    public DynamicIndexFieldMatcher(List<DynamicIndexField> fields) {
+        this.fields = new ArrayList<DynamicIndexField>(fields);
+
+        for (int i = 0; i < this.fields.size(); i++) {
+            WildcardPattern namespace = this.fields.get(i).getNamespacePattern();
+            String exactNamespace = namespace != null ? namespace.getExactMatch() : null;
+            if (exactNamespace != null) {
+                List<Integer> positions = fieldsByNamespace.get(exactNamespace);
+                if (positions == null) {
+                    positions = new ArrayList<Integer>();
+                    fieldsByNamespace.put(exactNamespace, positions);
+                }
+                positions.add(i);
+            } else {
+                otherFields.add(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the dynamic index fields which apply to the given field type, in order, together with their
+     * match information.
+     */
+    public List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> getMatches(FieldType fieldType) {
+        if (fields.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Matches matches = matchesByFieldType.get(fieldType.getId());
+        if (matches == null || !matches.fieldType.equals(fieldType)) {
+            matches = new Matches(fieldType, computeMatches(fieldType));
+            matchesByFieldType.put(fieldType.getId(), matches);
+        }
+        return matches.matches;
+    }
+
+    private List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> computeMatches(FieldType fieldType) {
+        List<Integer> namespaceFields = fieldsByNamespace.get(fieldType.getName().getNamespace());
+        if (namespaceFields == null) {
+            namespaceFields = Collections.emptyList();
+        }
+
+        List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> result = null;
+
+        // Walk over both lists of candidates in definition order
+        int i = 0;
+        int j = 0;
+        while (i < namespaceFields.size() || j < otherFields.size()) {
+            int position;
+            if (j >= otherFields.size() || (i < namespaceFields.size() && namespaceFields.get(i) < otherFields.get(j))) {
+                position = namespaceFields.get(i++);
+            } else {
+                position = otherFields.get(j++);
+            }
+
+            DynamicIndexField field = fields.get(position);
+            DynamicIndexFieldMatch match = field.matches(fieldType);
+            if (match.match) {
+                if (result == null) {
+                    result = new ArrayList<Pair<DynamicIndexField, DynamicIndexFieldMatch>>(1);
+                }
+                result.add(new Pair<DynamicIndexField, DynamicIndexFieldMatch>(field, match));
+
+                if (!field.getContinue()) {
+                    // stop on first match, unless continue attribute is true
+                    break;
+                }
+            }
+        }
+
+        return result != null ? Collections.unmodifiableList(result) :
+                Collections.<Pair<DynamicIndexField, DynamicIndexFieldMatch>>emptyList();
+    }
+
+    private static class Matches {
+        private final FieldType fieldType;
+        private final List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> matches;
+
+        Matches(FieldType fieldType, List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> matches) {
+            this.fieldType = fieldType;
+            this.matches = matches;
+        }
+    }
+}
@@ -69,6 +69,22 @@ public class IndexRecordFilter {
         return false;
     }
 
+    public boolean dependsOnInstanceOf() {
+        for (Pair<RecordMatcher, IndexCase> include : includes) {
+            if (include.getV1().dependsOnInstanceOf()) {
+                return true;
+            }
+        }
+
+        for (RecordMatcher exclude : excludes) {
+            if (exclude.dependsOnInstanceOf()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public IndexCase getIndexCase(String table, Record record) {
         // If an exclude matches, the record is not included in this index.
         // Excludes have higher precedence than includes.
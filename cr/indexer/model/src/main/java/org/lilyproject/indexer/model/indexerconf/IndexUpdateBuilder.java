@@ -18,8 +18,10 @@ package org.lilyproject.indexer.model.indexerconf;
 import java.io.IOException;
 import java.util.List;
 
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.SchemaId;
@@ -56,4 +58,15 @@ public interface IndexUpdateBuilder {
      */
     public String getTable();
 
+    /**
+     * Reads the version of a record corresponding to the vtag being indexed (see {@link #getVTag()}), as needed
+     * when following links. Implementations can serve this from a cache. Returns null if the vtag is not defined
+     * on the record.
+     *
+     * @throws org.lilyproject.repository.api.RecordNotFoundException if the record does not exist
+     * @throws org.lilyproject.repository.api.VersionNotFoundException if the version the vtag points to does
+     *                                                                  not exist
+     */
+    public IdRecord readRecord(String table, RecordId recordId) throws RepositoryException, InterruptedException;
+
 }
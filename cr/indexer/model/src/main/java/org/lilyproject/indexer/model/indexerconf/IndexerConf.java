@@ -21,11 +21,13 @@ import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Predicate;
+import org.lilyproject.indexer.model.indexerconf.DynamicIndexField.DynamicIndexFieldMatch;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.repo.SystemFields;
 import org.lilyproject.util.repo.VTaggedRecord;
 
@@ -45,6 +47,7 @@ public class IndexerConf {
     private IndexRecordFilter recordFilter;
     private IndexFields indexFields;
     private List<DynamicIndexField> dynamicFields = new ArrayList<DynamicIndexField>();
+    private DynamicIndexFieldMatcher dynamicFieldMatcher = new DynamicIndexFieldMatcher(dynamicFields);
     private Set<SchemaId> vtags = new HashSet<SchemaId>();
     private Formatters formatters = new Formatters();
     private SystemFields systemFields;
@@ -95,10 +98,26 @@ public class IndexerConf {
         dynamicFields.add(field);
     }
 
+    /**
+     * Builds the lookup structure for the dynamic index fields, should be called after all dynamic index fields
+     * have been added.
+     */
+    protected void compileDynamicFields() {
+        dynamicFieldMatcher = new DynamicIndexFieldMatcher(dynamicFields);
+    }
+
     public List<DynamicIndexField> getDynamicFields() {
         return dynamicFields;
     }
 
+    /**
+     * Returns the dynamic index fields which apply to the given field type, taking into account the order
+     * and continue flag of the dynamic index fields.
+     */
+    public List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> getDynamicFieldMatches(FieldType fieldType) {
+        return dynamicFieldMatcher.getMatches(fieldType);
+    }
+
     public boolean containsDerefExpressions() {
         return containsDerefExpression;
     }
@@ -134,12 +153,8 @@ public class IndexerConf {
 
         // Check dynamic fields
         for (FieldType fieldType : changedFields) {
-            // If there are lots of dynamic index fields, or lots of fields which are not indexed at all (thus
-            // leading to lots of invocations of this method), than maybe we need to review this for performance.
-            for (DynamicIndexField field : dynamicFields) {
-                if (field.matches(fieldType).match) {
-                    return true;
-                }
+            if (!getDynamicFieldMatches(fieldType).isEmpty()) {
+                return true;
             }
         }
 
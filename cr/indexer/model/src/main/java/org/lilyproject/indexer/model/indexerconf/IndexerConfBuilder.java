@@ -531,6 +531,8 @@ public class IndexerConfBuilder {
 
             conf.addDynamicIndexField(field);
         }
+
+        conf.compileDynamicFields();
     }
 
     private void validateName(String name) throws IndexerConfException {
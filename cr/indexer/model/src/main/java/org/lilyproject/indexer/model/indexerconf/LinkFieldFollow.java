@@ -21,15 +21,12 @@ import java.util.List;
 
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
-import org.lilyproject.repository.api.LRepository;
-import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 public class LinkFieldFollow implements Follow {
     private FieldType fieldType;
@@ -65,7 +62,6 @@ public class LinkFieldFollow implements Follow {
         IdGenerator idGenerator = indexUpdateBuilder.getRepository().getIdGenerator();
 
         RecordContext ctx = indexUpdateBuilder.getRecordContext();
-        LRepository repository = indexUpdateBuilder.getRepository();
 
         // FIXME: it's more efficient to read all records at once
         // but make sure missing records are also treated (handled here via null linkedRecord in case of RecordNotFoundException
@@ -75,9 +71,8 @@ public class LinkFieldFollow implements Follow {
                 RecordId linkedRecordId = link.resolve(ctx.contextRecord, idGenerator);
                 Record linkedRecord = null;
                 String tableName = link.getTable() != null ? link.getTable() : indexUpdateBuilder.getTable();
-                LTable table = repository.getTable(tableName);
                 try {
-                    linkedRecord = VersionTag.getIdRecord(linkedRecordId, indexUpdateBuilder.getVTag(), table, repository);
+                    linkedRecord = indexUpdateBuilder.readRecord(tableName, linkedRecordId);
                 } catch (RecordNotFoundException rnfe) {
                     // ok, continue with null value
                 } catch (VersionNotFoundException e) {
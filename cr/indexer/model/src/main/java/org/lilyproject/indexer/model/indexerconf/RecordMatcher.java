@@ -151,4 +151,12 @@ public class RecordMatcher {
     public boolean dependsOnRecordType() {
         return recordTypeName != null || recordTypeNamespace != null;
     }
+
+    /**
+     * True if this matcher checks the record type hierarchy, whose outcome can change without the record
+     * itself changing.
+     */
+    public boolean dependsOnInstanceOf() {
+        return instanceOfType != null;
+    }
 }
@@ -21,12 +21,10 @@ import java.util.Set;
 import com.google.common.collect.Sets;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
-import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 /**
  * Represents a -prop1[,-prop2 ...] follow
@@ -46,7 +44,6 @@ public class VariantFollow implements Follow {
     public void follow(IndexUpdateBuilder indexUpdateBuilder, FollowCallback callback)
             throws RepositoryException, IOException, InterruptedException {
         LRepository repository = indexUpdateBuilder.getRepository();
-        LTable table = repository.getTable(indexUpdateBuilder.getTable());
         IdGenerator idGenerator = repository.getIdGenerator();
         RecordContext ctx = indexUpdateBuilder.getRecordContext();
 
@@ -61,7 +58,7 @@ public class VariantFollow implements Follow {
 
         Record lessDimensionedRecord = null;
         try {
-            lessDimensionedRecord = VersionTag.getIdRecord(newDep.id, indexUpdateBuilder.getVTag(), table, repository);
+            lessDimensionedRecord = indexUpdateBuilder.readRecord(indexUpdateBuilder.getTable(), newDep.id);
         } catch (RecordNotFoundException e) {
             // It's ok that the variant does not exist
         } catch (VersionNotFoundException e) {
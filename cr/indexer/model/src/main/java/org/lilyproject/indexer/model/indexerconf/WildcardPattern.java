@@ -101,6 +101,13 @@ public class WildcardPattern {
         return type == Type.STARTS_WITH || type == Type.ENDS_WITH;
     }
 
+    /**
+     * Returns the string matched by this pattern if it does not contain a wildcard, null otherwise.
+     */
+    public String getExactMatch() {
+        return type == Type.EQUALS ? string : null;
+    }
+
     public static boolean isWildcardExpression(String text) {
         return text.length() > 0 && (text.startsWith("*") || text.endsWith("*"));
     }
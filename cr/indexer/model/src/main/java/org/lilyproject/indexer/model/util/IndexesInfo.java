@@ -33,4 +33,10 @@ public interface IndexesInfo {
     Set<QName> getRecordFilterFieldDependencies();
 
     boolean getRecordFilterDependsOnRecordType();
+
+    /**
+     * A number which changes each time the information about the indexes is reloaded, so that users can tell
+     * when to rebuild what they derived from it.
+     */
+    long getGeneration();
 }
@@ -49,6 +49,7 @@ public class IndexesInfoImpl implements IndexesInfo {
     private Map<String, IndexInfo> indexInfos;
     private Set<QName> recordFilterFieldDependencies;
     private boolean recordFilterDependsOnRecordType;
+    private volatile long generation;
 
     private final Listener listener = new Listener();
     private final Log log = LogFactory.getLog(getClass());
@@ -104,6 +105,7 @@ public class IndexesInfoImpl implements IndexesInfo {
         this.indexInfos = newIndexInfos;
         this.recordFilterFieldDependencies = recordFilterFieldDependencies;
         this.recordFilterDependsOnRecordType = recordFilterDependsOnRecordType;
+        this.generation++;
     }
 
     /**
@@ -139,6 +141,12 @@ public class IndexesInfoImpl implements IndexesInfo {
         return recordFilterDependsOnRecordType;
     }
 
+    @Override
+    public long getGeneration() {
+        assureInitialized();
+        return generation;
+    }
+
     private class Listener implements IndexerModelListener {
         @Override
         public void process(IndexerModelEvent event) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.lilyproject.indexer.model.indexerconf.DynamicIndexField.DynamicIndexFieldMatch;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.util.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DynamicIndexFieldMatcherTest {
+
+    private static final SchemaId FIELD_ID = mock(SchemaId.class);
+
+    @Test
+    public void testMatchesInDefinitionOrder() {
+        DynamicIndexField any = field(null, "*", true);
+        DynamicIndexField ns1 = field("ns1", "*", true);
+        DynamicIndexField ns2 = field("ns2", "*", true);
+        DynamicIndexField anyNs = field("*", "title", false);
+        DynamicIndexField last = field("ns1", "*", false);
+
+        DynamicIndexFieldMatcher matcher = new DynamicIndexFieldMatcher(Lists.newArrayList(any, ns1, ns2, anyNs, last));
+
+        assertEquals(Lists.newArrayList(any, ns1, anyNs), fields(matcher.getMatches(fieldType("ns1", "title"))));
+        assertEquals(Lists.newArrayList(any, ns1, last), fields(matcher.getMatches(fieldType("ns1", "summary"))));
+        assertEquals(Lists.newArrayList(any), fields(matcher.getMatches(fieldType("ns3", "summary"))));
+    }
+
+    @Test
+    public void testNameMatch() {
+        DynamicIndexFieldMatcher matcher = new DynamicIndexFieldMatcher(Lists.newArrayList(field("ns*", "*_s", false)));
+
+        List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> matches =
+                matcher.getMatches(fieldType("ns1", "title_s"));
+        assertEquals(1, matches.size());
+        assertEquals("1", matches.get(0).getV2().namespaceMatch);
+        assertEquals("title", matches.get(0).getV2().nameMatch);
+    }
+
+    @Test
+    public void testMatchesRememberedPerFieldType() {
+        DynamicIndexFieldMatcher matcher = new DynamicIndexFieldMatcher(Lists.newArrayList(field("ns1", "*", false)));
+
+        FieldType fieldType = fieldType("ns1", "title");
+        List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> matches = matcher.getMatches(fieldType);
+        assertEquals(1, matches.size());
+        assertSame(matches, matcher.getMatches(fieldType));
+
+        // The field type was moved to another namespace: the remembered result should not be used anymore
+        assertTrue(matcher.getMatches(fieldType("ns2", "title")).isEmpty());
+    }
+
+    private DynamicIndexField field(String namespace, String name, boolean continue_) {
+        return new DynamicIndexField(namespace != null ? new WildcardPattern(namespace) : null,
+                new WildcardPattern(name), null, null, null, false, continue_, null);
+    }
+
+    private FieldType fieldType(String namespace, String name) {
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getId()).thenReturn(FIELD_ID);
+        when(fieldType.getName()).thenReturn(new QName(namespace, name));
+        when(fieldType.getScope()).thenReturn(Scope.NON_VERSIONED);
+        return fieldType;
+    }
+
+    private List<DynamicIndexField> fields(List<Pair<DynamicIndexField, DynamicIndexFieldMatch>> matches) {
+        List<DynamicIndexField> result = new ArrayList<DynamicIndexField>();
+        for (Pair<DynamicIndexField, DynamicIndexFieldMatch> match : matches) {
+            result.add(match.getV1());
+        }
+        return result;
+    }
+}
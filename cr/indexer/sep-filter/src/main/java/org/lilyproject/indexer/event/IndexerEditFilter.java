@@ -18,6 +18,7 @@ package org.lilyproject.indexer.event;
 import java.io.IOException;
 import java.util.List;
 
+import com.google.common.base.Charsets;
 import com.ngdata.sep.WALEditFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +30,7 @@ import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+import org.lilyproject.util.repo.RecordEventHeader;
 
 /**
  * Filter for SEP events that removes all KeyValues from WALEdits that are not applicable to the configured index
@@ -40,11 +42,13 @@ class IndexerEditFilter implements WALEditFilter {
      * If this attribute value is set to "false" in the RecordEvent, the SEP event will not be passed through to the
      * indexer.
      */
-    public static final String NO_INDEX_FLAG = "lily.mq";
+    public static final String NO_INDEX_FLAG = RecordEventHeader.NO_INDEX_ATTRIBUTE;
 
     private final IdGenerator idGenerator = new IdGeneratorImpl();
     private final Log log = LogFactory.getLog(getClass());
     private final String subscriptionName;
+    private final byte[] subscriptionNameBytes;
+    private final long subscriptionBit;
 
     /**
      * Instantiate with the name of the IndexUpdater SEP subscription for which KeyValues are to be allowed. All
@@ -54,6 +58,8 @@ class IndexerEditFilter implements WALEditFilter {
      */
     IndexerEditFilter(String subscriptionName) {
         this.subscriptionName = subscriptionName;
+        this.subscriptionNameBytes = subscriptionName.getBytes(Charsets.UTF_8);
+        this.subscriptionBit = RecordEventHeader.subscriptionBit(subscriptionNameBytes);
     }
 
     @Override
@@ -68,6 +74,17 @@ class IndexerEditFilter implements WALEditFilter {
 
     private boolean isValidKeyValue(KeyValue kv) {
         if (kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) {
+            // Payloads with a routing header can be decided on without parsing them
+            switch (RecordEventHeader.route(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength(),
+                    subscriptionNameBytes, subscriptionBit)) {
+                case APPLIES:
+                    return true;
+                case DOES_NOT_APPLY:
+                    return false;
+                default:
+                    break;
+            }
+
             RecordEvent recordEvent = null;
             try {
                 recordEvent = new RecordEvent(kv.getValue(), idGenerator);
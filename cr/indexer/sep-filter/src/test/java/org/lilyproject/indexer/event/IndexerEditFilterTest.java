@@ -15,12 +15,15 @@
  */
 package org.lilyproject.indexer.event;
 
+import java.io.IOException;
+
 import com.google.common.collect.ImmutableSet;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Before;
 import org.junit.Test;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.repo.RecordEvent;
@@ -112,4 +115,65 @@ public class IndexerEditFilterTest {
         assertEquals(0, walEdit.size());
     }
 
+    @Test
+    public void testApply_BinaryPayload() {
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(payload(inclusions(INDEX_NAME)));
+        walEdit.add(payload(inclusions("SomeOtherIndexName")));
+        walEdit.add(payload(exclusions(INDEX_NAME)));
+        walEdit.add(payload(exclusions("SomeOtherIndexName")));
+
+        RecordEvent noIndex = inclusions(INDEX_NAME);
+        noIndex.getAttributes().put(IndexerEditFilter.NO_INDEX_FLAG, "false");
+        walEdit.add(payload(noIndex));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(2, walEdit.size());
+        assertEquals(inclusions(INDEX_NAME), toRecordEvent(walEdit.getKeyValues().get(0)));
+        assertEquals(exclusions("SomeOtherIndexName"), toRecordEvent(walEdit.getKeyValues().get(1)));
+    }
+
+    @Test
+    public void testApply_BinaryPayload_AllSubscriptions() {
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setIndexRecordFilterData(new IndexRecordFilterData());
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(payload(recordEvent));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(1, walEdit.size());
+    }
+
+    private RecordEvent inclusions(String... subscriptions) {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(ImmutableSet.copyOf(subscriptions));
+        recordEvent.setIndexRecordFilterData(filterData);
+        return recordEvent;
+    }
+
+    private RecordEvent exclusions(String... subscriptions) {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionExclusions(ImmutableSet.copyOf(subscriptions));
+        recordEvent.setIndexRecordFilterData(filterData);
+        return recordEvent;
+    }
+
+    private KeyValue payload(RecordEvent recordEvent) {
+        return new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes());
+    }
+
+    private RecordEvent toRecordEvent(KeyValue kv) {
+        try {
+            return new RecordEvent(kv.getValue(), new IdGeneratorImpl());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
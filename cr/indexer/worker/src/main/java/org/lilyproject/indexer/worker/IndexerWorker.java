@@ -24,8 +24,11 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.ngdata.sep.impl.SepConsumer;
 import org.apache.commons.logging.Log;
@@ -39,14 +42,17 @@ import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
+import org.lilyproject.indexer.engine.DerefRecordCache;
 import org.lilyproject.indexer.engine.IndexLocker;
 import org.lilyproject.indexer.engine.IndexUpdater;
 import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.IndexerRegistry;
+import org.lilyproject.indexer.engine.LocalIndexLocker;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.engine.SolrShardManager;
+import org.lilyproject.indexer.engine.ZooKeeperIndexLocker;
 import org.lilyproject.indexer.model.api.IndexDefinition;
 import org.lilyproject.indexer.model.api.IndexNotFoundException;
 import org.lilyproject.indexer.model.api.IndexUpdateState;
@@ -65,6 +71,7 @@ import org.lilyproject.sep.LilyPayloadExtractor;
 import org.lilyproject.sep.ZooKeeperItfAdapter;
 import org.lilyproject.util.Logs;
 import org.lilyproject.util.ObjectUtils;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
@@ -115,6 +122,12 @@ public class IndexerWorker {
 
     private ThreadSafeClientConnManager connectionManager;
 
+    /**
+     * Executor shared by the indexers to build the documents for the vtags of a record concurrently,
+     * null if disabled.
+     */
+    private ThreadPoolExecutor vtagExecutor;
+
     private final IndexerRegistry indexerRegistry;
 
     private HBaseTableFactory tableFactory;
@@ -143,6 +156,14 @@ public class IndexerWorker {
         connectionManager.setMaxTotal(settings.getSolrMaxTotalConnections());
         httpClient = new DefaultHttpClient(connectionManager);
 
+        if (settings.getVtagIndexingThreads() > 0) {
+            int threads = settings.getVtagIndexingThreads();
+            // When all threads are busy and the queue is full, the indexing thread builds the document itself
+            vtagExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 4), new CustomThreadFactory("indexer-vtag"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+
         eventWorker = new EventWorker();
         eventWorkerThread = new Thread(eventWorker, "IndexerWorkerEventWorker");
         eventWorkerThread.start();
@@ -177,6 +198,10 @@ public class IndexerWorker {
             }
         }
 
+        if (vtagExecutor != null) {
+            vtagExecutor.shutdownNow();
+        }
+
         connectionManager.shutdown();
     }
 
@@ -189,7 +214,12 @@ public class IndexerWorker {
 
             final SolrShardManager solrShardMgr = getSolrShardManager(index);
 
-            IndexLocker indexLocker = new IndexLocker(zk, settings.getEnableLocking());
+            IndexLocker indexLocker;
+            if (settings.getEnableLocking() && settings.getLockMode() == IndexerWorkerSettings.LockMode.LOCAL) {
+                indexLocker = new LocalIndexLocker();
+            } else {
+                indexLocker = new ZooKeeperIndexLocker(zk, settings.getEnableLocking());
+            }
             IndexerMetrics indexerMetrics = new IndexerMetrics(index.getName());
 
             // Create a deref map in case the indexer configuration contains deref fields and the index definition says
@@ -198,9 +228,14 @@ public class IndexerWorker {
                     DerefMapHbaseImpl.create(index.getName(), hbaseConf, tableFactory,
                             repository.getIdGenerator()) : null;
 
+            DerefRecordCache derefRecordCache =
+                    settings.getDerefCacheMaxRecords() > 0 && indexerConf.containsDerefExpressions() ?
+                    new DerefRecordCache(settings.getDerefCacheMaxRecords(), settings.getDerefCacheExpireAfter(),
+                            indexerMetrics) : null;
+
             // create and register the indexer
             Indexer indexer = new Indexer(index.getName(), indexerConf, repository, solrShardMgr, indexLocker,
-                    indexerMetrics, derefMap);
+                    indexerMetrics, derefMap, derefRecordCache, vtagExecutor);
             indexerRegistry.register(indexer);
 
             IndexUpdaterMetrics updaterMetrics = new IndexUpdaterMetrics(index.getName());
@@ -242,7 +277,7 @@ public class IndexerWorker {
     private SolrShardManager getSolrShardManager(IndexDefinition index) throws Exception {
         if (index.getSolrShards().isEmpty()) {
             return new CloudSolrShardManager(index.getName(), index.getZkConnectionString(), index.getSolrCollection(),
-                    true);
+                    solrClientConfig, true);
         } else {
             ShardSelector shardSelector;
             if (index.getShardingConfiguration() == null) {
@@ -18,8 +18,12 @@ package org.lilyproject.indexer.worker;
 public class IndexerWorkerSettings {
     private int listenersPerIndex = 10;
     private boolean enableLocking = false;
+    private LockMode lockMode = LockMode.ZOOKEEPER;
     private int solrMaxTotalConnections = 200;
     private int solrMaxConnectionsPerHost = 50;
+    private long derefCacheMaxRecords = 0;
+    private long derefCacheExpireAfter = 10000;
+    private int vtagIndexingThreads = 0;
 
     public int getListenersPerIndex() {
         return listenersPerIndex;
@@ -37,6 +41,17 @@ public class IndexerWorkerSettings {
         this.enableLocking = enableLocking;
     }
 
+    /**
+     * The kind of index locking to use, only relevant when locking is enabled.
+     */
+    public LockMode getLockMode() {
+        return lockMode;
+    }
+
+    public void setLockMode(String lockMode) {
+        this.lockMode = LockMode.valueOf(lockMode.trim().toUpperCase());
+    }
+
     public int getSolrMaxTotalConnections() {
         return solrMaxTotalConnections;
     }
@@ -52,4 +67,45 @@ public class IndexerWorkerSettings {
     public void setSolrMaxConnectionsPerHost(int solrMaxConnectionsPerHost) {
         this.solrMaxConnectionsPerHost = solrMaxConnectionsPerHost;
     }
+
+    /**
+     * Maximum number of records in the cache of dereferenced records, 0 to disable the cache.
+     */
+    public long getDerefCacheMaxRecords() {
+        return derefCacheMaxRecords;
+    }
+
+    public void setDerefCacheMaxRecords(long derefCacheMaxRecords) {
+        this.derefCacheMaxRecords = derefCacheMaxRecords;
+    }
+
+    /**
+     * Time in ms after which records are dropped from the cache of dereferenced records.
+     */
+    public long getDerefCacheExpireAfter() {
+        return derefCacheExpireAfter;
+    }
+
+    public void setDerefCacheExpireAfter(long derefCacheExpireAfter) {
+        this.derefCacheExpireAfter = derefCacheExpireAfter;
+    }
+
+    /**
+     * Number of threads used to build the index documents for the different vtags of a record concurrently,
+     * 0 to build them sequentially on the indexing thread.
+     */
+    public int getVtagIndexingThreads() {
+        return vtagIndexingThreads;
+    }
+
+    public void setVtagIndexingThreads(int vtagIndexingThreads) {
+        this.vtagIndexingThreads = vtagIndexingThreads;
+    }
+
+    public enum LockMode {
+        /** Locks are taken in ZooKeeper, works across Lily nodes. */
+        ZOOKEEPER,
+        /** Locks are taken within the Lily node, see {@link org.lilyproject.indexer.engine.LocalIndexLocker}. */
+        LOCAL
+    }
 }
@@ -26,7 +26,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lilyproject.util.hbase.RepoAndTableUtil;
@@ -47,6 +50,7 @@ import org.apache.zookeeper.data.Stat;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.ObjectNode;
 import org.lilyproject.avro.AvroConverter;
+import org.lilyproject.avro.AvroLily;
 import org.lilyproject.client.impl.HBaseConnections;
 import org.lilyproject.client.impl.LoadBalancingAndRetryingRepositoryManager;
 import org.lilyproject.client.impl.LoadBalancingUtil;
@@ -95,15 +99,23 @@ import org.lilyproject.util.zookeeper.ZooKeeperItf;
 public class LilyClient implements Closeable, RepositoryManager {
     private ZooKeeperItf zk;
     private boolean managedZk;
-    private List<ServerNode> servers = Collections.synchronizedList(new ArrayList<ServerNode>());
+    private List<ServerNode> servers = new CopyOnWriteArrayList<ServerNode>();
     private Set<String> serverAddresses = new HashSet<String>();
     private Set<String> lilyHosts = Collections.emptySet();
     private RetryConf retryConf = new RetryConf();
+    private final Set<String> serverSideReadRepositories =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private static final String nodesPath = "/lily/repositoryNodes";
     private static final String hbaseConfigPath = "/lily/hbaseConfig";
     private static final String blobDfsUriPath = "/lily/blobStoresConfig/dfsUri";
     private static final String blobStoreAccessConfigPath = "/lily/blobStoresConfig/accessConfig";
     private static AtomicInteger hbaseConfCounter = new AtomicInteger();
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
 
     private Log log = LogFactory.getLog(getClass());
 
@@ -248,8 +260,8 @@ public class LilyClient implements Closeable, RepositoryManager {
     }
 
     /**
-     * Returns an LTable that will execute its operations against one specific Lily server, randomly selected from
-     * the available Lily servers.
+     * Returns an LTable that will execute its operations against one specific Lily server, selected from
+     * the available Lily servers (see {@link #getServerStats()}).
      *
      * <p>This LTable instance will not automatically retry operations and to balance requests
      * over multiple Lily servers, you need to recall this method regularly to retrieve other
@@ -273,22 +285,45 @@ public class LilyClient implements Closeable, RepositoryManager {
         return getServerNode().repoMgr.getRepository(repositoryName);
     }
 
-    private synchronized ServerNode getServerNode() throws NoServersException, RepositoryException, IOException,
+    /**
+     * Selects the server to send a request to. Two servers are picked at random, of which the one with the
+     * lowest latency and the fewest running requests is used, skipping servers to which requests keep failing.
+     */
+    private ServerNode getServerNode() throws NoServersException, RepositoryException, IOException,
             InterruptedException, KeeperException {
-        if (servers.size() == 0) {
-            throw new NoServersException("No servers available");
-        }
+        while (true) {
+            // servers is a copy-on-write list, take a snapshot of it
+            ServerNode[] nodes = servers.toArray(new ServerNode[0]);
+            if (nodes.length == 0) {
+                throw new NoServersException("No servers available");
+            }
 
-        int pos = (int) Math.floor(Math.random() * servers.size());
-        ServerNode server = servers.get(pos);
-        if (server.repoMgr == null) {
-            server.repoMgr = constructRepositoryManager(server);
+            ServerNode server = selectServerNode(nodes);
+            if (server.init()) {
+                server.stats.selected();
+                return server;
+            }
+            // The server was removed in the meantime, select another one
         }
-        if (server.indexer == null) {
-            constructIndexer(server);
+    }
+
+    private ServerNode selectServerNode(ServerNode[] nodes) {
+        ServerStats[] stats = new ServerStats[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            stats[i] = nodes[i].stats;
         }
+        return nodes[ServerStats.select(stats, random.get(), System.nanoTime())];
+    }
 
-        return server;
+    /**
+     * Returns the statistics on the requests to each of the currently known Lily servers.
+     */
+    public List<ServerStats> getServerStats() {
+        List<ServerStats> result = new ArrayList<ServerStats>(servers.size());
+        for (ServerNode server : servers) {
+            result.add(server.stats);
+        }
+        return result;
     }
 
     /**
@@ -322,7 +357,7 @@ public class LilyClient implements Closeable, RepositoryManager {
     }
 
     /**
-     * Returns an Indexer that uses one of the available Lily servers (randomly selected).
+     * Returns an Indexer that uses one of the available Lily servers.
      * This indexer instance will not automatically retry operations and to balance requests
      * over multiple Lily servers, you need to recall this method regularly to retrieve other
      * indexer instances. Most of the time, you will rather use {@link #getIndexer()}.
@@ -351,19 +386,44 @@ public class LilyClient implements Closeable, RepositoryManager {
         return retryConf;
     }
 
+    /**
+     * Sets whether the records of a repository are read through the Lily servers, rather than directly from
+     * HBase, which is the default. Reading through the servers avoids decoding the records in the client, at
+     * the cost of an extra network hop. This can be changed at any time, it applies to subsequent reads.
+     */
+    public void setServerSideReads(String repositoryName, boolean serverSideReads) {
+        if (serverSideReads) {
+            serverSideReadRepositories.add(repositoryName);
+        } else {
+            serverSideReadRepositories.remove(repositoryName);
+        }
+    }
+
+    public boolean isServerSideReads(String repositoryName) {
+        return serverSideReadRepositories.contains(repositoryName);
+    }
+
     private RepositoryManager constructRepositoryManager(ServerNode server) throws IOException, InterruptedException {
 
         IdGeneratorImpl idGenerator = new IdGeneratorImpl();
         Configuration hbaseConf = getNewOrExistingConfiguration(zk);
         BlobManager blobManager = getBlobManager(zk, hbaseConf);
         InetSocketAddress lilySocketAddr = parseAddressAndPort(server.lilyAddressAndPort);
-        AvroLilyTransceiver transceiver = new AvroLilyTransceiver(lilySocketAddr);
+        final ServerStats stats = server.stats;
+        AvroLilyTransceiver transceiver = new AvroLilyTransceiver(lilySocketAddr) {
+            private final AvroLily trackedLilyProxy = stats.track(super.getLilyProxy(), AvroLily.class);
+
+            @Override
+            public AvroLily getLilyProxy() {
+                return trackedLilyProxy;
+            }
+        };
         HBaseTableFactoryImpl tableFactory = new HBaseTableFactoryImpl(hbaseConf);
         AvroConverter avroConverter = new AvroConverter();
         RemoteTypeManager remoteTypeManager = new RemoteTypeManager(lilySocketAddr, avroConverter, idGenerator, zk, schemaCache);
         RecordFactory recordFactory = new RecordFactoryImpl();
         RepositoryManager repositoryManager = new RemoteRepositoryManager(remoteTypeManager, idGenerator, recordFactory,
-                transceiver, avroConverter, blobManager, tableFactory, repositoryModel);
+                transceiver, avroConverter, blobManager, tableFactory, repositoryModel, serverSideReadRepositories);
         return repositoryManager;
     }
 
@@ -450,15 +510,46 @@ public class LilyClient implements Closeable, RepositoryManager {
     }
 
     private class ServerNode {
-        private String lilyAddressAndPort;
-        private RepositoryManager repoMgr;
-        private Indexer indexer;
+        private final String lilyAddressAndPort;
+        private final ServerStats stats;
+        private volatile RepositoryManager repoMgr;
+        private volatile Indexer indexer;
+        private volatile boolean closed;
 
         ServerNode(String lilyAddressAndPort) {
             this.lilyAddressAndPort = lilyAddressAndPort;
+            this.stats = new ServerStats(lilyAddressAndPort);
+        }
+
+        /**
+         * Creates the connections to this server if this was not done yet.
+         *
+         * @return false if this server was closed, and can hence not be used anymore
+         */
+        boolean init() throws IOException, InterruptedException, KeeperException, RepositoryException {
+            if (closed) {
+                return false;
+            }
+            if (repoMgr != null && indexer != null) {
+                return true;
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (repoMgr == null) {
+                    repoMgr = constructRepositoryManager(this);
+                }
+                if (indexer == null) {
+                    constructIndexer(this);
+                }
+                return true;
+            }
         }
 
-        public void close() {
+        public synchronized void close() {
+            closed = true;
             Closer.close(repoMgr);
             Closer.close(indexer);
         }
@@ -509,11 +600,9 @@ public class LilyClient implements Closeable, RepositoryManager {
         }
 
         // Remove removed servers
-        Iterator<ServerNode> serverIt = servers.iterator();
-        while (serverIt.hasNext()) {
-            ServerNode server = serverIt.next();
+        for (ServerNode server : servers) {
             if (removedServers.contains(server.lilyAddressAndPort)) {
-                serverIt.remove();
+                servers.remove(server);
                 server.close();
             }
         }
@@ -539,10 +628,8 @@ public class LilyClient implements Closeable, RepositoryManager {
     }
 
     private synchronized void clearServers() {
-        Iterator<ServerNode> serverIt = servers.iterator();
-        while (serverIt.hasNext()) {
-            ServerNode server = serverIt.next();
-            serverIt.remove();
+        for (ServerNode server : servers) {
+            servers.remove(server);
             server.close();
         }
 
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.specific.SpecificExceptionBase;
+
+/**
+ * Statistics about the requests {@link LilyClient} sends to one Lily server, used to balance the requests
+ * over the servers.
+ *
+ * <p>The latency is kept as an exponentially weighted moving average which decays over time, so that a
+ * server which was slow for a while gets a new chance later on. A server on which a number of consecutive
+ * requests failed is not used for a while, and when it comes back it only gets a small but growing share of
+ * the requests during a warm-up period.</p>
+ */
+public class ServerStats {
+    /** Time constant of the decay of the latency average. */
+    private static final long DECAY_TIME = TimeUnit.SECONDS.toNanos(5);
+
+    /** Number of consecutive failed requests after which a server is not used for a while. */
+    private static final int FAILURES_BEFORE_EJECT = 5;
+
+    private static final long MIN_EJECT_TIME = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_EJECT_TIME = TimeUnit.MINUTES.toNanos(2);
+
+    /** Time during which a server which was not used because of failures gets a growing share of the requests. */
+    private static final long WARMUP_TIME = TimeUnit.SECONDS.toNanos(30);
+
+    private final String address;
+
+    /** Latency average in ms, stored as double bits. Negative as long as no request finished. */
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(-1d));
+    private volatile long latencyUpdatedAt = System.nanoTime();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong selections = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger consecutiveEjections = new AtomicInteger();
+    private volatile boolean everEjected = false;
+    private volatile long ejectedUntil;
+
+    ServerStats(String address) {
+        this.address = address;
+    }
+
+    /**
+     * The host and port of the server.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Moving average of the duration of the requests to this server, in ms.
+     */
+    public double getLatency() {
+        return Math.max(Double.longBitsToDouble(latency.get()), 0d);
+    }
+
+    /**
+     * Number of requests currently running against this server.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Number of times this server was selected to perform requests.
+     */
+    public long getSelectionCount() {
+        return selections.get();
+    }
+
+    /**
+     * Number of requests which failed because the server could not be reached or did not answer.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns true if this server is currently not used because requests to it kept failing.
+     */
+    public boolean isEjected() {
+        return !isAvailable(System.nanoTime());
+    }
+
+    boolean isAvailable(long now) {
+        return !everEjected || now - ejectedUntil >= 0;
+    }
+
+    void selected() {
+        selections.incrementAndGet();
+    }
+
+    void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void requestFinished(long durationNanos, boolean failed) {
+        inFlight.decrementAndGet();
+
+        if (failed) {
+            failures.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= FAILURES_BEFORE_EJECT) {
+                eject();
+            }
+        } else {
+            consecutiveFailures.set(0);
+            consecutiveEjections.set(0);
+            updateLatency(durationNanos);
+        }
+    }
+
+    private void eject() {
+        consecutiveFailures.set(0);
+        int ejections = Math.min(consecutiveEjections.incrementAndGet(), 16);
+        long ejectTime = Math.min(MIN_EJECT_TIME << (ejections - 1), MAX_EJECT_TIME);
+        ejectedUntil = System.nanoTime() + ejectTime;
+        everEjected = true;
+    }
+
+    private void updateLatency(long durationNanos) {
+        double sample = durationNanos / 1e6d;
+        long now = System.nanoTime();
+        double weight = Math.exp(-(double)(now - latencyUpdatedAt) / DECAY_TIME);
+        latencyUpdatedAt = now;
+
+        while (true) {
+            long currentBits = latency.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double updated = current < 0 ? sample : current * weight + sample * (1 - weight);
+            if (latency.compareAndSet(currentBits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The expected cost of sending a request to this server: the latency times the number of requests which
+     * are already running against it, increased for a server which is warming up.
+     */
+    double getCost(long now) {
+        // decay the latency over the time it was not updated, so that servers which are avoided because they
+        // were slow once are tried again eventually
+        double decayedLatency = getLatency() * Math.exp(-(double)(now - latencyUpdatedAt) / DECAY_TIME);
+        double cost = (decayedLatency + 1d) * (inFlight.get() + 1);
+
+        if (everEjected) {
+            long sinceBack = now - ejectedUntil;
+            if (sinceBack < WARMUP_TIME) {
+                cost = cost * WARMUP_TIME / Math.max(sinceBack, WARMUP_TIME / 10);
+            }
+        }
+
+        return cost;
+    }
+
+    /**
+     * Chooses the best of two servers, which is the one with the lowest cost among those which are not
+     * ejected.
+     */
+    static ServerStats choose(ServerStats stats1, ServerStats stats2, long now) {
+        boolean available1 = stats1.isAvailable(now);
+        boolean available2 = stats2.isAvailable(now);
+        if (available1 != available2) {
+            return available1 ? stats1 : stats2;
+        }
+        return stats1.getCost(now) <= stats2.getCost(now) ? stats1 : stats2;
+    }
+
+    /**
+     * Selects the server to send a request to: two servers are picked at random, of which the best one is used
+     * (see {@link #choose}). If both are ejected, the first server which is not ejected is used instead.
+     *
+     * @return the index of the selected server
+     */
+    static int select(ServerStats[] servers, Random random, long now) {
+        if (servers.length == 1) {
+            return 0;
+        }
+
+        int pos1 = random.nextInt(servers.length);
+        int pos2 = random.nextInt(servers.length - 1);
+        if (pos2 >= pos1) {
+            pos2++;
+        }
+
+        int selected = choose(servers[pos1], servers[pos2], now) == servers[pos1] ? pos1 : pos2;
+
+        if (!servers[selected].isAvailable(now)) {
+            for (int i = 0; i < servers.length; i++) {
+                if (servers[i].isAvailable(now)) {
+                    return i;
+                }
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Wraps an object so that the calls on it are recorded in these statistics.
+     */
+    <T> T track(T delegate, Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type},
+                new TrackingInvocationHandler(delegate)));
+    }
+
+    private class TrackingInvocationHandler implements InvocationHandler {
+        private final Object delegate;
+
+        TrackingInvocationHandler(Object delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(delegate, args);
+            }
+
+            long before = System.nanoTime();
+            boolean failed = true;
+            requestStarted();
+            try {
+                Object result = method.invoke(delegate, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                // Errors declared in the protocol are answers from the server, anything else means the server
+                // could not be reached or did not answer
+                failed = !(e.getTargetException() instanceof SpecificExceptionBase);
+                throw e.getTargetException();
+            } finally {
+                requestFinished(System.nanoTime() - before, failed);
+            }
+        }
+    }
+}
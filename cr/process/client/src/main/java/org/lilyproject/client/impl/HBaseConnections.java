@@ -35,17 +35,16 @@ public class HBaseConnections {
      * If there is an existing configuration which has all the same properties as this configuration
      * (except for HConstants.HBASE_CLIENT_INSTANCE_ID), return it.
      * Otherwise, returns the passed conf. This is an expensive method.
+     *
+     * <p>This can be called concurrently, e.g. when LilyClient connects to several servers at once: the lookup
+     * and the adding of a new configuration happen under one lock, so that the callers share one configuration,
+     * and hence one HBase connection.</p>
      */
-    public Configuration getExisting(Configuration conf) {
-        Configuration[] confs;
-        synchronized (HBaseConnections.class) {
-            confs = configurations.toArray(new Configuration[0]);
-        }
-
+    public synchronized Configuration getExisting(Configuration conf) {
         Map<String, String> confAsMap = toMap(conf);
         confAsMap.remove(HConstants.HBASE_CLIENT_INSTANCE_ID);
 
-        for (Configuration current : confs) {
+        for (Configuration current : configurations) {
             Map<String, String> currentConfAsMap = toMap(current);
             currentConfAsMap.remove(HConstants.HBASE_CLIENT_INSTANCE_ID);
             if (currentConfAsMap.equals(confAsMap)) {
@@ -59,8 +58,11 @@ public class HBaseConnections {
         return conf;
     }
 
-    public List<Configuration> getConfigurations() {
-        return Collections.unmodifiableList(configurations);
+    /**
+     * Returns a snapshot of the configurations.
+     */
+    public synchronized List<Configuration> getConfigurations() {
+        return Collections.unmodifiableList(new ArrayList<Configuration>(configurations));
     }
 
     private Map<String, String> toMap(Configuration conf) {
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ServerStatsTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testLatency() {
+        ServerStats stats = new ServerStats("server1:12020");
+        assertEquals(0d, stats.getLatency(), 0d);
+
+        request(stats, 100, false);
+        assertEquals(100d, stats.getLatency(), 0.001d);
+        assertEquals(0, stats.getInFlight());
+
+        // the average moves towards the new samples
+        request(stats, 10, false);
+        assertTrue(stats.getLatency() <= 100d);
+        assertTrue(stats.getLatency() >= 10d);
+    }
+
+    @Test
+    public void testChooseOnLatency() {
+        ServerStats fast = new ServerStats("fast:12020");
+        ServerStats slow = new ServerStats("slow:12020");
+        request(fast, 10, false);
+        request(slow, 100, false);
+
+        long now = System.nanoTime();
+        assertSame(fast, ServerStats.choose(fast, slow, now));
+        assertSame(fast, ServerStats.choose(slow, fast, now));
+
+        // the latency of the slow server decays, after a while it has the same chance as the fast one
+        long later = now + 120 * SECOND;
+        assertEquals(fast.getCost(later), slow.getCost(later), 0.001d);
+    }
+
+    @Test
+    public void testChooseOnInFlight() {
+        ServerStats busy = new ServerStats("busy:12020");
+        ServerStats slow = new ServerStats("slow:12020");
+        request(busy, 10, false);
+        request(slow, 100, false);
+        for (int i = 0; i < 20; i++) {
+            busy.requestStarted();
+        }
+
+        long now = System.nanoTime();
+        assertSame(slow, ServerStats.choose(busy, slow, now));
+        assertSame(slow, ServerStats.choose(slow, busy, now));
+    }
+
+    @Test
+    public void testEject() {
+        ServerStats stats = new ServerStats("server1:12020");
+        ServerStats other = new ServerStats("server2:12020");
+        request(other, 1000, false);
+
+        for (int i = 0; i < 4; i++) {
+            request(stats, 10, true);
+        }
+        assertFalse(stats.isEjected());
+        assertEquals(4, stats.getFailureCount());
+
+        request(stats, 10, true);
+        long now = System.nanoTime();
+        assertTrue(stats.isEjected());
+        assertFalse(stats.isAvailable(now + 4 * SECOND));
+        assertTrue(stats.isAvailable(now + 5 * SECOND));
+        // an ejected server is never chosen, whatever its cost
+        assertSame(other, ServerStats.choose(stats, other, now));
+
+        // failing again right after coming back ejects the server for twice as long
+        for (int i = 0; i < 5; i++) {
+            request(stats, 10, true);
+        }
+        now = System.nanoTime();
+        assertFalse(stats.isAvailable(now + 9 * SECOND));
+        assertTrue(stats.isAvailable(now + 10 * SECOND));
+
+        // a successful request resets the backoff
+        request(stats, 10, false);
+        for (int i = 0; i < 5; i++) {
+            request(stats, 10, true);
+        }
+        now = System.nanoTime();
+        assertFalse(stats.isAvailable(now + 4 * SECOND));
+        assertTrue(stats.isAvailable(now + 5 * SECOND));
+        assertEquals(15, stats.getFailureCount());
+    }
+
+    @Test
+    public void testWarmUp() {
+        ServerStats ejected = new ServerStats("server1:12020");
+        ServerStats other = new ServerStats("server2:12020");
+        for (int i = 0; i < 5; i++) {
+            request(ejected, 10, true);
+        }
+        long back = System.nanoTime() + 5 * SECOND;
+        assertTrue(ejected.isAvailable(back));
+
+        // the cost goes down during the warm-up, until it is the same as for a server which was never ejected
+        double justBack = ejected.getCost(back);
+        double halfway = ejected.getCost(back + 15 * SECOND);
+        double warm = ejected.getCost(back + 30 * SECOND);
+        assertTrue(justBack > halfway);
+        assertTrue(halfway > warm);
+        assertEquals(other.getCost(back + 30 * SECOND), warm, 0.001d);
+
+        assertSame(other, ServerStats.choose(ejected, other, back));
+        assertSame(ejected, ServerStats.choose(ejected, other, back + 30 * SECOND));
+    }
+
+    @Test
+    public void testSelect() {
+        Random random = new Random(0);
+        ServerStats[] servers = new ServerStats[] {new ServerStats("server1:12020"),
+                new ServerStats("server2:12020"), new ServerStats("server3:12020")};
+        request(servers[0], 10, false);
+        request(servers[1], 10, false);
+        request(servers[2], 100, false);
+
+        // the slow server is only used when it is picked together with itself, which can't happen
+        long now = System.nanoTime();
+        int[] selections = new int[servers.length];
+        for (int i = 0; i < 1000; i++) {
+            selections[ServerStats.select(servers, random, now)]++;
+        }
+        assertEquals(0, selections[2]);
+        assertTrue(selections[0] > 0);
+        assertTrue(selections[1] > 0);
+
+        // when both picks are ejected, a server which is not ejected is used
+        for (int i = 0; i < 5; i++) {
+            request(servers[0], 10, true);
+            request(servers[1], 10, true);
+        }
+        now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2, ServerStats.select(servers, random, now));
+        }
+
+        // a single server is always used, even when it is ejected
+        assertEquals(0, ServerStats.select(new ServerStats[] {servers[0]}, random, now));
+    }
+
+    private void request(ServerStats stats, long durationMillis, boolean failed) {
+        stats.requestStarted();
+        stats.requestFinished(TimeUnit.MILLISECONDS.toNanos(durationMillis), failed);
+    }
+}
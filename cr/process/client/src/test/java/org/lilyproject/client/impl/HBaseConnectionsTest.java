@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.client.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class HBaseConnectionsTest {
+    @Test
+    public void testGetExisting() {
+        HBaseConnections connections = new HBaseConnections();
+
+        Configuration conf1 = createConf("zk1", 1);
+        assertSame(conf1, connections.getExisting(conf1));
+        // only the instance id differs
+        assertSame(conf1, connections.getExisting(createConf("zk1", 2)));
+
+        Configuration conf3 = createConf("zk2", 3);
+        assertSame(conf3, connections.getExisting(conf3));
+
+        assertEquals(2, connections.getConfigurations().size());
+    }
+
+    /**
+     * LilyClient connects to several servers at the same time, which should all use the same configuration.
+     */
+    @Test
+    public void testConcurrentServers() throws Exception {
+        final int servers = 16;
+        for (int run = 0; run < 20; run++) {
+            final HBaseConnections connections = new HBaseConnections();
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(servers);
+            try {
+                List<Future<Configuration>> results = new ArrayList<Future<Configuration>>();
+                for (int i = 0; i < servers; i++) {
+                    final Configuration conf = createConf("zk1", i);
+                    results.add(executor.submit(new Callable<Configuration>() {
+                        @Override
+                        public Configuration call() throws Exception {
+                            start.await();
+                            return connections.getExisting(conf);
+                        }
+                    }));
+                }
+                start.countDown();
+
+                Configuration shared = results.get(0).get();
+                for (Future<Configuration> result : results) {
+                    assertSame(shared, result.get());
+                }
+                assertEquals(1, connections.getConfigurations().size());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testConfigurationsSnapshot() {
+        HBaseConnections connections = new HBaseConnections();
+        connections.getExisting(createConf("zk1", 1));
+        List<Configuration> configurations = connections.getConfigurations();
+
+        Configuration conf2 = connections.getExisting(createConf("zk2", 2));
+        assertEquals(1, configurations.size());
+        assertNotSame(conf2, configurations.get(0));
+    }
+
+    private Configuration createConf(String zkQuorum, int instanceId) {
+        Configuration conf = new Configuration(false);
+        conf.set(HConstants.ZOOKEEPER_QUORUM, zkQuorum);
+        conf.set(HConstants.HBASE_CLIENT_INSTANCE_ID, "test-" + instanceId);
+        return conf;
+    }
+}
@@ -45,7 +45,7 @@ public class BlobManagerSetup {
     private final String blobStoreAccessConfigPath = lilyPath + "/blobStoresConfig/accessConfig";
 
     private FileSystem fs;
-    private BlobManager blobManager;
+    private BlobManagerImpl blobManager;
 
     public BlobManagerSetup(URI dfsUri, Configuration configuration, HBaseTableFactory tableFactory, ZooKeeperItf zk,
             Conf blobManagerConf) throws IOException, InterruptedException, KeeperException {
@@ -78,6 +78,8 @@ public class BlobManagerSetup {
 
     @PreDestroy
     public void stop() {
+        blobManager.close();
+
         // Since CDH4: don't close connection as this seems to close it for other clients (such as HBase)
         // too in case of launch-test-lily with resetLilyState.
         // Closer.close(fs);
@@ -0,0 +1,120 @@
+package org.lilyproject.runtime.module.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.lilyproject.runtime.model.ModuleDefinition;
+import org.lilyproject.runtime.model.ModuleSourceType;
+import org.lilyproject.util.xml.DocumentHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the dependencies between the modules of the Lily server which the runtime derives to start modules
+ * at the same time. Uses the wiring and the Spring configs of the Lily server, with the test update hook and
+ * decorator installed as plugins which are loaded before the repository.
+ */
+public class ServerModuleDependenciesTest {
+    private static final String SPRING_CONFIG_DIR = "src/main/lily/spring";
+
+    private List<ModuleDefinition> definitions = new ArrayList<ModuleDefinition>();
+    private List<ModuleDependencies.ServiceDeclarations> declarations =
+            new ArrayList<ModuleDependencies.ServiceDeclarations>();
+
+    @Test
+    public void testServerWiring() throws Exception {
+        String basedir = System.getProperty("basedir"); // This property is set by the Maven surefire:test goal
+        if (basedir == null) {
+            basedir = System.getProperty("user.dir");
+        }
+        File projectDir = new File(basedir, "../../..");
+        Map<String, File> moduleDirs = new HashMap<String, File>();
+        findModuleDirs(projectDir, moduleDirs);
+
+        Document wiring = DocumentHelper.parse(new File(projectDir, "cr/process/server/conf/runtime/wiring.xml"));
+        Element modulesElement = DocumentHelper.getElementChild(wiring.getDocumentElement(), "modules", true);
+        for (Element element : DocumentHelper.getElementChildren(modulesElement)) {
+            if (element.getLocalName().equals("artifact")) {
+                String artifactId = element.getAttribute("artifactId");
+                assertTrue("Module not found: " + artifactId, moduleDirs.containsKey(artifactId));
+                addModule(element.getAttribute("id"), moduleDirs.get(artifactId));
+            } else if (element.getAttribute("path").equals("load-before-repository")) {
+                addModule("test-updatehook", moduleDirs.get("lily-test-updatehook"));
+                addModule("test-decorator", moduleDirs.get("lily-test-decorator"));
+            }
+        }
+
+        ModuleDependencies dependencies = ModuleDependencies.build(definitions, declarations);
+
+        // the repository reads its update hooks and decorators when it is built
+        assertDependsOn(dependencies, "repository", "indexer-integration", "test-updatehook", "test-decorator");
+        // these use the repository
+        assertDependsOn(dependencies, "indexer", "repository");
+        assertDependsOn(dependencies, "avro", "repository");
+        assertDependsOn(dependencies, "rest", "repository");
+        // jetty reads the servlets when it is built
+        assertDependsOn(dependencies, "jetty", "rest", "webui");
+    }
+
+    private void assertDependsOn(ModuleDependencies dependencies, String moduleId, String... dependencyIds) {
+        List<String> moduleDependencies = new ArrayList<String>();
+        for (int dependency : dependencies.getDependencies(indexOf(moduleId))) {
+            moduleDependencies.add(definitions.get(dependency).getId());
+        }
+        for (String dependencyId : dependencyIds) {
+            assertTrue(moduleId + " should depend on " + dependencyId + ", depends on " + moduleDependencies,
+                    moduleDependencies.contains(dependencyId));
+        }
+    }
+
+    private int indexOf(String moduleId) {
+        for (int i = 0; i < definitions.size(); i++) {
+            if (definitions.get(i).getId().equals(moduleId)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No module " + moduleId);
+    }
+
+    /**
+     * Finds the source directories of the runtime modules, by their Maven artifact id.
+     */
+    private void findModuleDirs(File dir, Map<String, File> moduleDirs) throws Exception {
+        File pom = new File(dir, "pom.xml");
+        if (pom.exists() && new File(dir, SPRING_CONFIG_DIR).isDirectory()) {
+            // the pom is in the Maven namespace
+            for (Element element : DocumentHelper.getElementChildren(DocumentHelper.parse(pom).getDocumentElement())) {
+                if (element.getLocalName().equals("artifactId")) {
+                    moduleDirs.put(element.getTextContent().trim(), dir);
+                }
+            }
+        }
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory() && !child.getName().startsWith(".") && !child.getName().equals("target")
+                    && !child.getName().equals("src")) {
+                findModuleDirs(child, moduleDirs);
+            }
+        }
+    }
+
+    private void addModule(String id, File moduleDir) throws Exception {
+        ModuleDependencies.ServiceDeclarations moduleDeclarations = new ModuleDependencies.ServiceDeclarations();
+        File[] springConfigs = new File(moduleDir, SPRING_CONFIG_DIR).listFiles();
+        Arrays.sort(springConfigs);
+        for (File springConfig : springConfigs) {
+            if (springConfig.getName().endsWith(".xml")) {
+                moduleDeclarations.add(DocumentHelper.parse(springConfig));
+            }
+        }
+
+        definitions.add(new ModuleDefinition(id, moduleDir, ModuleSourceType.SOURCE_DIRECTORY));
+        declarations.add(moduleDeclarations);
+    }
+}
@@ -34,6 +34,10 @@ import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.util.ByteArrayBuilder;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.SchemaId;
@@ -43,9 +47,23 @@ import org.lilyproject.util.json.JsonFormat;
 /**
  * Represents the payload of an event about a create-update-delete operation on the repository.
  *
- * <p>The actual payload is json, this class helps in parsing or constructing that json.
+ * <p>The payload can be serialized either as json ({@link #toJsonBytes()}) or in a compact binary
+ * format ({@link #toBytes()}). When parsing, the format is auto-detected, so that payloads written
+ * by older versions (which always used json) remain readable.
  */
 public class RecordEvent {
+    /**
+     * First byte of the binary encoding. This value can never occur as the first byte of a
+     * (UTF-8 encoded) json payload, which is what allows to auto-detect the format.
+     */
+    public static final byte BINARY_FORMAT_MARKER = (byte)0xFE;
+
+    /**
+     * Version of the binary encoding. Version 2 added the {@link RecordEventHeader routing header}, payloads in
+     * version 1 can still be read.
+     */
+    public static final byte BINARY_FORMAT_VERSION = 2;
+
     private long versionCreated = -1;
     private long versionUpdated = -1;
     private Type type;
@@ -79,9 +97,25 @@ public class RecordEvent {
     }
 
     /**
-     * Creates a record event from the json data supplied as bytes.
+     * Creates a record event from the data supplied as bytes, which can be either in the json
+     * or in the binary format.
      */
     public RecordEvent(byte[] data, IdGenerator idGenerator) throws IOException {
+        if (isBinaryFormat(data)) {
+            readBinary(new DataInputImpl(data), idGenerator);
+        } else {
+            readJson(data, idGenerator);
+        }
+    }
+
+    /**
+     * Checks if the given payload is encoded in the binary format (as opposed to json).
+     */
+    public static boolean isBinaryFormat(byte[] data) {
+        return data.length > 0 && data[0] == BINARY_FORMAT_MARKER;
+    }
+
+    private void readJson(byte[] data, IdGenerator idGenerator) throws IOException {
         // Using streaming JSON parsing for performance. We expect the JSON to be correct, validation
         // is absent/minimal.
 
@@ -148,6 +182,52 @@ public class RecordEvent {
         }
     }
 
+    private void readBinary(DataInput input, IdGenerator idGenerator) {
+        input.readByte(); // marker
+        byte version = input.readByte();
+        if (version == BINARY_FORMAT_VERSION) {
+            // the header only repeats information from the event itself
+            RecordEventHeader.skip(input);
+        } else if (version != 1) {
+            throw new RuntimeException("Unsupported record event format version: " + version);
+        }
+
+        int typeOrdinal = input.readByte();
+        type = typeOrdinal == 0 ? null : Type.values()[typeOrdinal - 1];
+
+        // versions are stored shifted by one so that the 'not set' value (-1) fits in a vlong
+        versionCreated = input.readVLong() - 1;
+        versionUpdated = input.readVLong() - 1;
+        recordTypeChanged = input.readBoolean();
+
+        if (input.readBoolean()) {
+            // Table names come from a very small set, interning avoids keeping many copies of them around
+            tableName = input.readVUTF().intern();
+        }
+
+        int updatedFieldCount = input.readVInt();
+        for (int i = 0; i < updatedFieldCount; i++) {
+            addUpdatedField(readSchemaId(input, idGenerator));
+        }
+
+        int vtagCount = input.readVInt();
+        for (int i = 0; i < vtagCount; i++) {
+            addVTagToIndex(readSchemaId(input, idGenerator));
+        }
+
+        int attributeCount = input.readVInt();
+        if (attributeCount > 0) {
+            attributes = new HashMap<String, String>();
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.put(input.readVUTF(), input.readVUTF());
+            }
+        }
+
+        if (input.readBoolean()) {
+            indexRecordFilterData = new IndexRecordFilterData(input, idGenerator);
+        }
+    }
+
     public long getVersionCreated() {
         return versionCreated;
     }
@@ -335,6 +415,83 @@ public class RecordEvent {
         }
     }
 
+    /**
+     * Serializes this event in the compact binary format. The result can be parsed again using
+     * {@link #RecordEvent(byte[], IdGenerator)}.
+     */
+    public byte[] toBytes() {
+        DataOutput output = new DataOutputImpl(128);
+        output.writeByte(BINARY_FORMAT_MARKER);
+        output.writeByte(BINARY_FORMAT_VERSION);
+        RecordEventHeader.write(output, this);
+
+        output.writeByte(type == null ? 0 : (byte)(type.ordinal() + 1));
+        output.writeVLong(versionCreated + 1);
+        output.writeVLong(versionUpdated + 1);
+        output.writeBoolean(recordTypeChanged);
+
+        output.writeBoolean(tableName != null);
+        if (tableName != null) {
+            output.writeVUTF(tableName);
+        }
+
+        writeSchemaIds(output, updatedFields);
+        writeSchemaIds(output, vtagsToIndex);
+
+        if (attributes != null) {
+            output.writeVInt(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                output.writeVUTF(entry.getKey());
+                output.writeVUTF(entry.getValue());
+            }
+        } else {
+            output.writeVInt(0);
+        }
+
+        output.writeBoolean(indexRecordFilterData != null);
+        if (indexRecordFilterData != null) {
+            indexRecordFilterData.write(output);
+        }
+
+        return output.toByteArray();
+    }
+
+    private static void writeSchemaIds(DataOutput output, Set<SchemaId> schemaIds) {
+        if (schemaIds == null) {
+            output.writeVInt(0);
+            return;
+        }
+        output.writeVInt(schemaIds.size());
+        for (SchemaId schemaId : schemaIds) {
+            writeSchemaId(output, schemaId);
+        }
+    }
+
+    private static void writeSchemaId(DataOutput output, SchemaId schemaId) {
+        byte[] bytes = schemaId.getBytes();
+        output.writeVInt(bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    private static SchemaId readSchemaId(DataInput input, IdGenerator idGenerator) {
+        return idGenerator.getSchemaId(input.readBytes(input.readVInt()));
+    }
+
+    private static void writeNullableBytes(DataOutput output, byte[] bytes) {
+        // length is shifted by one, 0 represents null
+        if (bytes == null) {
+            output.writeVInt(0);
+        } else {
+            output.writeVInt(bytes.length + 1);
+            output.writeBytes(bytes);
+        }
+    }
+
+    private static byte[] readNullableBytes(DataInput input) {
+        int length = input.readVInt();
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -476,6 +633,36 @@ public class RecordEvent {
             }
         }
 
+        public IndexRecordFilterData(DataInput input, IdGenerator idGenerator) {
+            oldRecordExists = input.readBoolean();
+            newRecordExists = input.readBoolean();
+            includeSubscriptions = input.readBoolean();
+
+            if (input.readBoolean()) {
+                newRecordType = readSchemaId(input, idGenerator);
+            }
+
+            if (input.readBoolean()) {
+                oldRecordType = readSchemaId(input, idGenerator);
+            }
+
+            if (input.readBoolean()) {
+                int count = input.readVInt();
+                fieldChanges = new ArrayList<FieldChange>(count);
+                for (int i = 0; i < count; i++) {
+                    fieldChanges.add(new FieldChange(input, idGenerator));
+                }
+            }
+
+            if (input.readBoolean()) {
+                int count = input.readVInt();
+                indexSubscriptionIds = Sets.newHashSetWithExpectedSize(count);
+                for (int i = 0; i < count; i++) {
+                    indexSubscriptionIds.add(input.readVUTF());
+                }
+            }
+        }
+
         public boolean getNewRecordExists() {
             return newRecordExists;
         }
@@ -555,7 +742,49 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        public void write(DataOutput output) {
+            output.writeBoolean(oldRecordExists);
+            output.writeBoolean(newRecordExists);
+            output.writeBoolean(includeSubscriptions);
 
+            output.writeBoolean(newRecordType != null);
+            if (newRecordType != null) {
+                writeSchemaId(output, newRecordType);
+            }
+
+            output.writeBoolean(oldRecordType != null);
+            if (oldRecordType != null) {
+                writeSchemaId(output, oldRecordType);
+            }
+
+            output.writeBoolean(fieldChanges != null);
+            if (fieldChanges != null) {
+                output.writeVInt(fieldChanges.size());
+                for (FieldChange fieldChange : fieldChanges) {
+                    fieldChange.write(output);
+                }
+            }
+
+            output.writeBoolean(indexSubscriptionIds != null);
+            if (indexSubscriptionIds != null) {
+                output.writeVInt(indexSubscriptionIds.size());
+                for (String subscriptionId : indexSubscriptionIds) {
+                    output.writeVUTF(subscriptionId);
+                }
+            }
+        }
+
+        boolean getIncludeSubscriptions() {
+            return includeSubscriptions;
+        }
+
+        /**
+         * The subscription ids to be included or excluded, or null when the inclusion or exclusion applies to all
+         * subscriptions.
+         */
+        Set<String> getSubscriptionIds() {
+            return indexSubscriptionIds;
+        }
 
         /**
          * Set the index subscription ids to be included when distributing the containing record
@@ -647,6 +876,12 @@ public class RecordEvent {
             }
         }
 
+        public FieldChange(DataInput input, IdGenerator idGenerator) {
+            this.id = readSchemaId(input, idGenerator);
+            this.oldValue = readNullableBytes(input);
+            this.newValue = readNullableBytes(input);
+        }
+
         public SchemaId getId() {
             return id;
         }
@@ -675,6 +910,12 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        public void write(DataOutput output) {
+            writeSchemaId(output, id);
+            writeNullableBytes(output, oldValue);
+            writeNullableBytes(output, newValue);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return EqualsBuilder.reflectionEquals(this, obj);
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.util.repo;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+
+/**
+ * The routing header at the start of the binary {@link RecordEvent} format, which allows to decide whether an event
+ * is relevant for an index subscription without parsing the event.
+ *
+ * <p>This is used by the WAL edit filters running in the region servers, which see every record event once for
+ * each subscription. The header sits at a fixed offset after the format marker and version, and has this layout:</p>
+ *
+ * <ul>
+ *     <li>1 byte of flags</li>
+ *     <li>4 bytes (int): the length of the rest of the header</li>
+ *     <li>8 bytes (long): a bitmap with a bit set for each subscription id, see {@link #subscriptionBit(byte[])}</li>
+ *     <li>4 bytes (int): the number of subscription ids, followed by each id as a 4 byte length and UTF-8 bytes</li>
+ * </ul>
+ *
+ * <p>Payloads without this header (json or the first binary format version) are still handled by parsing them
+ * completely, see {@link #route}.</p>
+ */
+public final class RecordEventHeader {
+    /**
+     * The record attribute which, when set to "false", tells that the record should not be indexed.
+     */
+    public static final String NO_INDEX_ATTRIBUTE = "lily.mq";
+
+    /** The record event should not be indexed. */
+    static final byte FLAG_NO_INDEX = 0x01;
+
+    /** The record event contains {@link RecordEvent.IndexRecordFilterData}. */
+    static final byte FLAG_FILTER_DATA = 0x02;
+
+    /** The subscription ids are those which are included, rather than excluded. */
+    static final byte FLAG_INCLUDE_SUBSCRIPTIONS = 0x04;
+
+    /** No subscription ids are listed, i.e. the inclusion or exclusion is for all subscriptions. */
+    static final byte FLAG_ALL_SUBSCRIPTIONS = 0x08;
+
+    /** Offset of the flags in the payload, the header follows the format marker and version. */
+    private static final int FLAGS_OFFSET = 2;
+    private static final int BITMAP_OFFSET = FLAGS_OFFSET + 1 + 4;
+    private static final int SUBSCRIPTIONS_OFFSET = BITMAP_OFFSET + 8;
+
+    public enum Decision {
+        APPLIES,
+        DOES_NOT_APPLY,
+        /** The payload has no routing header, it needs to be parsed to know. */
+        UNKNOWN
+    }
+
+    private RecordEventHeader() {
+    }
+
+    static void write(DataOutput output, RecordEvent event) {
+        byte flags = 0;
+        Map<String, String> attributes = event.hasAttributes() ? event.getAttributes() : null;
+        if (attributes != null && "false".equals(attributes.get(NO_INDEX_ATTRIBUTE))) {
+            flags |= FLAG_NO_INDEX;
+        }
+
+        RecordEvent.IndexRecordFilterData filterData = event.getIndexRecordFilterData();
+        Set<String> subscriptionIds = null;
+        if (filterData != null) {
+            flags |= FLAG_FILTER_DATA;
+            if (filterData.getIncludeSubscriptions()) {
+                flags |= FLAG_INCLUDE_SUBSCRIPTIONS;
+            }
+            subscriptionIds = filterData.getSubscriptionIds();
+            if (subscriptionIds == null) {
+                flags |= FLAG_ALL_SUBSCRIPTIONS;
+            }
+        }
+
+        byte[][] encodedIds = new byte[subscriptionIds == null ? 0 : subscriptionIds.size()][];
+        long bitmap = 0;
+        int length = 8 + 4;
+        if (subscriptionIds != null) {
+            int i = 0;
+            for (String subscriptionId : subscriptionIds) {
+                encodedIds[i] = subscriptionId.getBytes(Charsets.UTF_8);
+                bitmap |= subscriptionBit(encodedIds[i]);
+                length += 4 + encodedIds[i].length;
+                i++;
+            }
+        }
+
+        output.writeByte(flags);
+        output.writeInt(length);
+        output.writeLong(bitmap);
+        output.writeInt(encodedIds.length);
+        for (byte[] encodedId : encodedIds) {
+            output.writeInt(encodedId.length);
+            output.writeBytes(encodedId);
+        }
+    }
+
+    /**
+     * Moves the input past the header, which should be positioned at the flags.
+     */
+    static void skip(DataInput input) {
+        input.readByte();
+        int length = input.readInt();
+        input.setPosition(input.getPosition() + length);
+    }
+
+    /**
+     * The bit which represents a subscription id in the subscription bitmap of the header. Subscriptions whose bits
+     * are not set are certainly not listed in the header, otherwise the listed ids need to be checked.
+     *
+     * @param subscriptionId the UTF-8 encoded subscription id
+     */
+    public static long subscriptionBit(byte[] subscriptionId) {
+        int hash = 1;
+        for (byte b : subscriptionId) {
+            hash = 31 * hash + b;
+        }
+        return 1L << (hash & 63);
+    }
+
+    /**
+     * Decides whether a record event payload applies to an index subscription, based on the routing header only.
+     * This does not allocate any objects.
+     *
+     * @param subscriptionId the UTF-8 encoded subscription id
+     * @param subscriptionBit the result of {@link #subscriptionBit(byte[])} for the subscription id
+     */
+    public static Decision route(byte[] buffer, int offset, int length, byte[] subscriptionId,
+            long subscriptionBit) {
+        if (length < SUBSCRIPTIONS_OFFSET + 4 || buffer[offset] != RecordEvent.BINARY_FORMAT_MARKER
+                || buffer[offset + 1] != RecordEvent.BINARY_FORMAT_VERSION) {
+            return Decision.UNKNOWN;
+        }
+
+        byte flags = buffer[offset + FLAGS_OFFSET];
+        if ((flags & FLAG_NO_INDEX) != 0) {
+            return Decision.DOES_NOT_APPLY;
+        }
+        if ((flags & FLAG_FILTER_DATA) == 0) {
+            // let the caller handle this unusual case, as it does for payloads without header
+            return Decision.UNKNOWN;
+        }
+
+        boolean include = (flags & FLAG_INCLUDE_SUBSCRIPTIONS) != 0;
+        if ((flags & FLAG_ALL_SUBSCRIPTIONS) != 0) {
+            // same semantics as IndexRecordFilterData.appliesToSubscription without subscription ids
+            return include ? Decision.APPLIES : Decision.DOES_NOT_APPLY;
+        }
+
+        boolean listed = (readLong(buffer, offset + BITMAP_OFFSET) & subscriptionBit) != 0
+                && isListed(buffer, offset, subscriptionId);
+        return include == listed ? Decision.APPLIES : Decision.DOES_NOT_APPLY;
+    }
+
+    private static boolean isListed(byte[] buffer, int offset, byte[] subscriptionId) {
+        int count = readInt(buffer, offset + SUBSCRIPTIONS_OFFSET);
+        int pos = offset + SUBSCRIPTIONS_OFFSET + 4;
+        for (int i = 0; i < count; i++) {
+            int idLength = readInt(buffer, pos);
+            pos += 4;
+            if (idLength == subscriptionId.length && equals(buffer, pos, subscriptionId)) {
+                return true;
+            }
+            pos += idLength;
+        }
+        return false;
+    }
+
+    private static boolean equals(byte[] buffer, int offset, byte[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (buffer[offset + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // same byte order as DataOutputImpl
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return ((long)readInt(buffer, offset) << 32) | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -31,6 +31,7 @@ import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.FieldChange;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+import org.lilyproject.util.repo.RecordEventHeader;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -122,6 +123,125 @@ public class RecordEventTest {
         assertEquals(tableName, deserialized.getTableName());
     }
 
+    @Test
+    public void testRecordEvent_BinaryRoundTrip() throws Exception {
+        SchemaId field1Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId field2Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId vtagId = idGenerator.getSchemaId(UUID.randomUUID());
+
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("record");
+        event.setVersionCreated(3);
+        event.setVersionUpdated(5);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(field1Id);
+        event.addUpdatedField(field2Id);
+        event.addVTagToIndex(vtagId);
+        event.getAttributes().put("key", "value");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordExists(true);
+        filterData.setNewRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.addChangedField(field1Id, null, Bytes.toBytes("foo1"));
+        filterData.addChangedField(field2Id, new byte[0], null);
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        byte[] bytes = event.toBytes();
+        assertTrue(RecordEvent.isBinaryFormat(bytes));
+        assertTrue(bytes.length < event.toJsonBytes().length);
+
+        RecordEvent deserialized = new RecordEvent(bytes, idGenerator);
+        assertEquals(event, deserialized);
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertEquals("value", deserialized.getAttributes().get("key"));
+    }
+
+    @Test
+    public void testRecordEvent_BinaryRoundTrip_Empty() throws Exception {
+        RecordEvent event = new RecordEvent();
+
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertEquals(event, deserialized);
+        assertNull(deserialized.getType());
+        assertNull(deserialized.getTableName());
+        assertEquals(-1, deserialized.getVersionCreated());
+        assertEquals(-1, deserialized.getVersionUpdated());
+        assertNull(deserialized.getIndexRecordFilterData());
+    }
+
+    @Test
+    public void testRecordEvent_BinaryVersion1() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setVersionUpdated(2);
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(Sets.newHashSet("indexA", "indexB"));
+        event.setIndexRecordFilterData(filterData);
+
+        // version 1 of the binary format is the same, without the routing header
+        byte[] bytes = event.toBytes();
+        int headerLength = 1 + 4 + Bytes.toInt(bytes, 3);
+        byte[] version1 = new byte[bytes.length - headerLength];
+        version1[0] = RecordEvent.BINARY_FORMAT_MARKER;
+        version1[1] = 1;
+        System.arraycopy(bytes, 2 + headerLength, version1, 2, version1.length - 2);
+
+        RecordEvent deserialized = new RecordEvent(version1, idGenerator);
+        assertEquals(event, deserialized);
+        assertTrue(deserialized.getIndexRecordFilterData().appliesToSubscription("indexA"));
+        assertFalse(deserialized.getIndexRecordFilterData().appliesToSubscription("indexC"));
+    }
+
+    @Test
+    public void testRecordEventHeader_Route() throws Exception {
+        RecordEvent event = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(Sets.newHashSet("indexA", "indexB"));
+        event.setIndexRecordFilterData(filterData);
+        byte[] inclusions = event.toBytes();
+
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA"));
+        byte[] exclusions = event.toBytes();
+
+        // the header is found at any offset, as happens in the buffer of a KeyValue
+        byte[] buffer = new byte[inclusions.length + 10];
+        System.arraycopy(inclusions, 0, buffer, 10, inclusions.length);
+
+        assertEquals(RecordEventHeader.Decision.APPLIES, route(buffer, 10, inclusions.length, "indexA"));
+        assertEquals(RecordEventHeader.Decision.APPLIES, route(buffer, 10, inclusions.length, "indexB"));
+        assertEquals(RecordEventHeader.Decision.DOES_NOT_APPLY, route(buffer, 10, inclusions.length, "indexC"));
+        assertEquals(RecordEventHeader.Decision.DOES_NOT_APPLY, route(exclusions, 0, exclusions.length, "indexA"));
+        assertEquals(RecordEventHeader.Decision.APPLIES, route(exclusions, 0, exclusions.length, "indexB"));
+
+        event.getAttributes().put(RecordEventHeader.NO_INDEX_ATTRIBUTE, "false");
+        byte[] noIndex = event.toBytes();
+        assertEquals(RecordEventHeader.Decision.DOES_NOT_APPLY, route(noIndex, 0, noIndex.length, "indexB"));
+
+        byte[] json = event.toJsonBytes();
+        assertEquals(RecordEventHeader.Decision.UNKNOWN, route(json, 0, json.length, "indexB"));
+    }
+
+    private RecordEventHeader.Decision route(byte[] buffer, int offset, int length, String subscription) {
+        byte[] subscriptionBytes = Bytes.toBytes(subscription);
+        return RecordEventHeader.route(buffer, offset, length, subscriptionBytes,
+                RecordEventHeader.subscriptionBit(subscriptionBytes));
+    }
+
+    @Test
+    public void testRecordEvent_JsonAutoDetected() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.CREATE);
+        event.setVersionCreated(1);
+
+        byte[] json = event.toJsonBytes();
+        assertFalse(RecordEvent.isBinaryFormat(json));
+        assertEquals(event, new RecordEvent(json, idGenerator));
+    }
+
     @Test
     public void testIndexRecordFilterData_JsonRoundtrip() {
         IndexRecordFilterData recordFilterData = new IndexRecordFilterData();
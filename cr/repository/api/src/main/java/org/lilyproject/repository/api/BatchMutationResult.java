@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * The outcome for one record of a batch operation such as {@link LTable#createBatch(java.util.List)}.
+ *
+ * <p>Since the records in a batch are handled independently, some can succeed while others fail. In case
+ * of success, {@link #getRecord()} returns the record as it would have been returned by the corresponding
+ * single-record operation. In case of failure, {@link #getException()} returns the exception that the
+ * single-record operation would have thrown, and {@link #getRecord()} returns the submitted record.</p>
+ */
+public class BatchMutationResult {
+    private final Record record;
+    private final RepositoryException exception;
+
+    public BatchMutationResult(Record record) {
+        this.record = record;
+        this.exception = null;
+    }
+
+    public BatchMutationResult(Record record, RepositoryException exception) {
+        this.record = record;
+        this.exception = exception;
+    }
+
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Returns the response status of the record, or null if the operation failed.
+     */
+    public ResponseStatus getResponseStatus() {
+        return exception == null ? record.getResponseStatus() : null;
+    }
+
+    /**
+     * Returns the exception that occurred for this record, or null in case of success.
+     */
+    public RepositoryException getException() {
+        return exception;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+}
@@ -204,6 +204,36 @@ public interface LTable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates a batch of records.
+     *
+     * <p>This has the same effect as calling {@link #create(Record)} for each of the records, but allows
+     * the implementation to combine the necessary IO. Each record is created independently: the failure
+     * to create one record does not influence the others, there is no transactional behavior across
+     * the records of a batch.
+     *
+     * <p>A record ID can occur only once in a batch: a record with the same ID as an earlier record of the
+     * batch is not created, its result holds an {@link InvalidRecordException}. Split the batch if the same
+     * record needs to be written more than once.</p>
+     *
+     * @return a list containing the result for each of the supplied records, in the same order
+     */
+    List<BatchMutationResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Updates a batch of records.
+     *
+     * <p>This has the same effect as calling {@link #update(Record)} for each of the records, see
+     * also {@link #createBatch(List)}.
+     *
+     * <p>As for {@link #createBatch(List)}, a record ID can occur only once in a batch: a record with the same
+     * ID as an earlier record of the batch is not updated, its result holds an {@link InvalidRecordException}.
+     * Merge the changes into one record, or split the batch.</p>
+     *
+     * @return a list containing the result for each of the supplied records, in the same order
+     */
+    List<BatchMutationResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames list of names of the fields to read or null to read all fields
@@ -356,6 +386,22 @@ public interface LTable {
     List<Record> readVersions(RecordId recordId, List<Long> versions, QName... fieldNames)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Iterates over the versions of a record between fromVersion and toVersion (both included), in ascending
+     * order. This is the streaming variant of {@link #readVersions(RecordId, Long, Long, QName...)}, meant for
+     * records with a long version history: the versions are read from the storage one page of versions at a
+     * time, and each version is only decoded when it is returned by the scanner.
+     *
+     * <p>If fieldNames are specified, the read is limited to include only this subset of fields.
+     * Otherwise all fields are read.</p>
+     *
+     * <p>When done with the scanner, be sure to call {@link RecordScanner#close()} on it.</p>
+     *
+     * @param pageSize the number of versions read from the storage at once
+     */
+    RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, int pageSize,
+            QName... fieldNames) throws RepositoryException, InterruptedException;
+
     /**
      * Reads a Record and also returns the mapping from QNames to IDs.
      *
@@ -367,6 +413,20 @@ public interface LTable {
     IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Reads the latest version of a list of records, also returning the mapping from QNames to IDs. The records
+     * are fetched from storage in one round trip.
+     *
+     * <p>No RecordNotFoundException is thrown when a record does not exist or has been deleted.
+     * Instead, the returned list will not contain an entry for that requested id.
+     *
+     * @param recordIds recordIds to read, null is not allowed
+     * @param fieldIds  load only the fields with these ids. optional, can be null.
+     * @return list of records that are read, can be smaller than the amount or requested ids when those are not found
+     */
+    List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Delete a {@link Record} from the repository.
      *
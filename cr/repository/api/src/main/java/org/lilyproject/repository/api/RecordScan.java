@@ -31,6 +31,8 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private int parallelism = 1;
+    private boolean ordered = true;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -210,4 +212,42 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setParallelism(int)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of regions of the record table to scan concurrently.
+     *
+     * <p>By default this is 1, which means the records are read one region after the other. With a higher
+     * value, the key range of the scan is split on region boundaries and the regions are read and decoded
+     * concurrently, each of them up to a limited number of records ahead of the consumer of the scanner
+     * (this limit is the {@link #setCaching(int) caching}, or 100 if caching is not enabled). This is
+     * mostly interesting for scans which run over many regions, such as full table exports.</p>
+     *
+     * @see #setOrdered(boolean)
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @see #setOrdered(boolean)
+     */
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets whether a scan with a {@link #setParallelism(int) parallelism} above 1 should return the records
+     * in record ID order, which is the default. When false, records are returned as soon as they are read,
+     * so a slow region does not hold back the records of the other regions.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
 }
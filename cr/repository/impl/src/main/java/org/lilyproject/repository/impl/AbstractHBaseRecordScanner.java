@@ -25,14 +25,29 @@ import org.lilyproject.repository.api.RepositoryException;
 
 abstract class AbstractHBaseRecordScanner<T extends Record> {
     private final ResultScanner hbaseScanner;
+    private final ParallelRegionScanner<T> parallelScanner;
 
     AbstractHBaseRecordScanner(ResultScanner hbaseScanner) {
         this.hbaseScanner = hbaseScanner;
+        this.parallelScanner = null;
+    }
+
+    /**
+     * Creates a scanner which reads the records from multiple regions concurrently, the records are decoded
+     * by the parallel scanner.
+     */
+    AbstractHBaseRecordScanner(ParallelRegionScanner<T> parallelScanner) {
+        this.hbaseScanner = null;
+        this.parallelScanner = parallelScanner;
     }
 
     abstract T decode(Result result) throws RepositoryException, InterruptedException;
 
     public T next() throws RepositoryException, InterruptedException {
+        if (parallelScanner != null) {
+            return parallelScanner.next();
+        }
+
         Result result;
         try {
             result = hbaseScanner.next();
@@ -49,7 +64,11 @@ abstract class AbstractHBaseRecordScanner<T extends Record> {
     }
 
     public void close() {
-        hbaseScanner.close();
+        if (parallelScanner != null) {
+            parallelScanner.close();
+        } else {
+            hbaseScanner.close();
+        }
     }
 
     public Iterator<T> iterator() {
@@ -19,11 +19,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import org.apache.hadoop.hbase.client.Get;
@@ -36,6 +39,7 @@ import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
@@ -45,6 +49,7 @@ import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
+import org.lilyproject.repository.api.InvalidRecordException;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.QName;
@@ -218,15 +223,58 @@ public abstract class BaseRepository implements Repository {
 
     @Override
     public RecordScanner getScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        if (scan.getParallelism() > 1) {
+            return new HBaseRecordScannerImpl(createParallelScanner(scan,
+                    new ParallelRegionScanner.ResultDecoder<Record>() {
+                        @Override
+                        public Record decode(Result result) throws RepositoryException, InterruptedException {
+                            return recdec.decodeRecord(result);
+                        }
+                    }));
+        }
         return new HBaseRecordScannerImpl(createHBaseResultScanner(scan), recdec);
     }
 
     @Override
     public IdRecordScanner getScannerWithIds(RecordScan scan) throws RepositoryException, InterruptedException {
+        if (scan.getParallelism() > 1) {
+            return new HBaseIdRecordScannerImpl(createParallelScanner(scan,
+                    new ParallelRegionScanner.ResultDecoder<IdRecord>() {
+                        @Override
+                        public IdRecord decode(Result result) throws RepositoryException, InterruptedException {
+                            return recdec.decodeRecordWithIds(result);
+                        }
+                    }));
+        }
         return new HBaseIdRecordScannerImpl(createHBaseResultScanner(scan), recdec);
     }
 
+    private <T> ParallelRegionScanner<T> createParallelScanner(RecordScan scan,
+            ParallelRegionScanner.ResultDecoder<T> decoder) throws RepositoryException, InterruptedException {
+        List<Scan> regionScans;
+        try {
+            regionScans = ParallelRegionScanner.splitOnRegions(recordTable, createHBaseScan(scan));
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        int prefetch = scan.getCaching() > 0 ? scan.getCaching() : 100;
+        return new ParallelRegionScanner<T>(recordTable, regionScans, scan.getParallelism(), scan.getOrdered(),
+                prefetch, decoder);
+    }
+
     private ResultScanner createHBaseResultScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseScan(scan);
+
+        ResultScanner hbaseScanner;
+        try {
+            hbaseScanner = recordTable.getScanner(hbaseScan);
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        return hbaseScanner;
+    }
+
+    private Scan createHBaseScan(RecordScan scan) throws RepositoryException, InterruptedException {
         Scan hbaseScan = new Scan();
 
         hbaseScan.setMaxVersions(1);
@@ -281,13 +329,7 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
-        ResultScanner hbaseScanner;
-        try {
-            hbaseScanner = recordTable.getScanner(hbaseScan);
-        } catch (IOException e) {
-            throw new RecordException("Error creating scanner", e);
-        }
-        return hbaseScanner;
+        return hbaseScan;
     }
 
     private static final List<HBaseRecordFilterFactory> FILTER_FACTORIES;
@@ -392,6 +434,37 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordIds, "recordIds");
+            List<IdRecord> records = new ArrayList<IdRecord>(recordIds.size());
+            if (recordIds.isEmpty()) {
+                return records;
+            }
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
+
+            Map<RecordId, Result> results = getRows(recordIds, fields);
+
+            for (RecordId recordId : recordIds) {
+                Result result = results.get(recordId);
+                if (result != null) {
+                    Long version = recdec.getLatestVersion(result);
+                    records.add(recdec.decodeRecordWithIds(recordId, version, result, fieldTypes));
+                }
+            }
+            return records;
+        } finally {
+            if (metrics != null) {
+                metrics.report(Action.READ, System.currentTimeMillis() - before);
+            }
+        }
+    }
+
     private List<FieldType> getFieldTypesFromIds(List<SchemaId> fieldIds, FieldTypes fieldTypes)
             throws TypeException, InterruptedException {
         List<FieldType> fields = null;
@@ -636,6 +709,87 @@ public abstract class BaseRepository implements Repository {
         return recdec.decodeRecords(recordId, validVersions, result, fieldTypes);
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, int pageSize,
+            QName... fieldNames) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(recordId, "recordId");
+        ArgumentValidator.notNull(fromVersion, "fromVersion");
+        ArgumentValidator.notNull(toVersion, "toVersion");
+        if (fromVersion > toVersion) {
+            throw new IllegalArgumentException("fromVersion '" + fromVersion +
+                    "' must be smaller or equal to toVersion '" + toVersion + "'");
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize should be at least 1, got: " + pageSize);
+        }
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
+
+        return new RecordVersionScanner(this, recdec, recordId, fromVersion, toVersion, pageSize, fields, fieldTypes);
+    }
+
+    /**
+     * Default implementation which creates the records one by one, subclasses can override this with
+     * a more efficient implementation.
+     */
+    @Override
+    public List<BatchMutationResult> createBatch(List<Record> records)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        BatchMutationResult[] results = rejectDuplicateIds(records);
+        for (int i = 0; i < records.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            try {
+                results[i] = new BatchMutationResult(create(records.get(i)));
+            } catch (RepositoryException e) {
+                results[i] = new BatchMutationResult(records.get(i), e);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Default implementation which updates the records one by one, subclasses can override this with
+     * a more efficient implementation.
+     */
+    @Override
+    public List<BatchMutationResult> updateBatch(List<Record> records)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        BatchMutationResult[] results = rejectDuplicateIds(records);
+        for (int i = 0; i < records.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            try {
+                results[i] = new BatchMutationResult(update(records.get(i)));
+            } catch (RepositoryException e) {
+                results[i] = new BatchMutationResult(records.get(i), e);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Returns an array with a result for each record of a batch, which is a failure for the records having
+     * the same ID as an earlier record of the batch, and null for the other records.
+     */
+    protected static BatchMutationResult[] rejectDuplicateIds(List<Record> records) {
+        BatchMutationResult[] results = new BatchMutationResult[records.size()];
+        Set<RecordId> recordIds = new HashSet<RecordId>();
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (record.getId() != null && !recordIds.add(record.getId())) {
+                results[i] = new BatchMutationResult(record, new InvalidRecordException(
+                        "The record occurs more than once in the batch.", record.getId()));
+            }
+        }
+        return results;
+    }
+
     @Override
     public Record newRecord() throws RecordException {
         return recordFactory.newRecord();
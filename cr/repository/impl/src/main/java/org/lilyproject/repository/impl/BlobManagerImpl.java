@@ -15,12 +15,26 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.primitives.Ints;
 import org.apache.commons.logging.Log;
@@ -43,12 +57,23 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorColumn;
 
-public class BlobManagerImpl implements BlobManager {
+/**
+ * Manages the blobs and their incubation.
+ *
+ * <p>When a record referencing blobs is written, its blobs are first reserved in the blob incubator table. This
+ * needs an atomic check-and-put per blob, which cannot be batched, so when a record references multiple incubated
+ * blobs these are reserved concurrently. Once the record is written, the incubator entries of the referenced blobs
+ * are deleted. These deletes are not needed for correctness (the {@link BlobIncubatorMonitor} removes entries of
+ * blobs which are in use), so they are queued and sent in batches by a background thread. When the queue is full,
+ * the entries are left to the incubator monitor.</p>
+ */
+public class BlobManagerImpl implements BlobManager, Closeable {
     private Log log = LogFactory.getLog(getClass());
 
     protected static final byte[] INCUBATE = new byte[]{(byte)-1};
@@ -56,10 +81,52 @@ public class BlobManagerImpl implements BlobManager {
 
     private BlobStoreAccessRegistry registry;
 
+    private static final int RESERVE_THREADS = 20;
+    private static final int MAX_QUEUED_INCUBATOR_DELETES = 10000;
+    private static final int MAX_INCUBATOR_DELETE_BATCH = 500;
+
+    /**
+     * Executes the reservations of the blobs of a record concurrently. Threads are only created on demand, and
+     * when all are busy the reservations are done by the calling thread.
+     */
+    private final ExecutorService reserveExecutor = new ThreadPoolExecutor(0, RESERVE_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new CustomThreadFactory("blob-reserve", null, true),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private final BlockingQueue<byte[]> incubatorDeletes = new ArrayBlockingQueue<byte[]>(MAX_QUEUED_INCUBATOR_DELETES);
+    private final AtomicBoolean incubatorCleanupScheduled = new AtomicBoolean();
+    private final ExecutorService incubatorCleanupExecutor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("blob-incubator-cleanup", null, true));
+
+    /** Only available when not in client mode, in which case blobs are reserved by the Lily server. */
+    private final BlobManagerMetrics metrics;
+
     public BlobManagerImpl(HBaseTableFactory hbaseTableFactory, BlobStoreAccessFactory blobStoreAccessFactory, boolean clientMode) throws IOException, InterruptedException {
         blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(hbaseTableFactory, clientMode);
         registry = new BlobStoreAccessRegistry(this);
         registry.setBlobStoreAccessFactory(blobStoreAccessFactory);
+        metrics = clientMode ? null : new BlobManagerMetrics();
+    }
+
+    /**
+     * Sends the queued blob incubator deletes and stops the background threads.
+     */
+    @Override
+    public void close() {
+        incubatorCleanupExecutor.shutdown();
+        try {
+            incubatorCleanupExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // In case no cleanup was scheduled anymore
+        deleteIncubatorEntries();
+
+        reserveExecutor.shutdown();
+
+        if (metrics != null) {
+            metrics.shutdown();
+        }
     }
 
     @Override
@@ -94,11 +161,15 @@ public class BlobManagerImpl implements BlobManager {
 
     @Override
     public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
+        long before = System.currentTimeMillis();
         Set<BlobReference> failedBlobs = new HashSet<BlobReference>();
+
+        // Blobs which are not incubated (inline blobs) don't need a reservation
+        List<BlobReference> incubatedBlobs = new ArrayList<BlobReference>(blobs.size());
         for (BlobReference referencedBlob : blobs) {
             try {
-                if (!reserveBlob(referencedBlob)) {
-                    failedBlobs.add(referencedBlob);
+                if (registry.getBlobStoreAccess(referencedBlob.getBlob()).incubate()) {
+                    incubatedBlobs.add(referencedBlob);
                 }
             } catch (BlobNotFoundException bnfe) {
                 failedBlobs.add(referencedBlob);
@@ -106,16 +177,71 @@ public class BlobManagerImpl implements BlobManager {
                 failedBlobs.add(referencedBlob);
             }
         }
+
+        if (incubatedBlobs.size() == 1) {
+            if (!reserveBlob(incubatedBlobs.get(0))) {
+                failedBlobs.add(incubatedBlobs.get(0));
+            }
+        } else if (incubatedBlobs.size() > 1) {
+            reserveBlobsConcurrently(incubatedBlobs, failedBlobs);
+        }
+
+        if (metrics != null) {
+            metrics.reserveDuration.inc(System.currentTimeMillis() - before);
+        }
         return failedBlobs;
     }
 
-    private boolean reserveBlob(BlobReference referencedBlob)  throws BlobNotFoundException, BlobException, IOException {
-        BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(referencedBlob.getBlob());
+    private void reserveBlobsConcurrently(List<BlobReference> blobs, Set<BlobReference> failedBlobs)
+            throws IOException {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(blobs.size());
+        for (final BlobReference blob : blobs) {
+            results.add(reserveExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return reserveBlob(blob);
+                }
+            }));
+        }
+
+        // All reservations need to be finished before returning, also when one of them failed, since
+        // the caller will release the reserved blobs.
+        IOException exception = null;
+        boolean interrupted = false;
+        for (int i = 0; i < results.size(); i++) {
+            while (true) {
+                try {
+                    if (!results.get(i).get()) {
+                        failedBlobs.add(blobs.get(i));
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        exception = (IOException) e.getCause();
+                    } else if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    } else {
+                        exception = new IOException("Error reserving blob", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
 
-        // Inline blobs are not incubated and therefore reserving them always succeeds
-        if (!blobStoreAccess.incubate()) {
-            return true;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (exception != null) {
+            throw exception;
         }
+    }
+
+    /**
+     * Reserves an incubated blob for the record referencing it.
+     */
+    private boolean reserveBlob(BlobReference referencedBlob) throws IOException {
         byte[] row = referencedBlob.getBlob().getValue();
         byte[] family = BlobIncubatorCf.REF.bytes;
         byte[] recordQualifier = BlobIncubatorColumn.RECORD.bytes;
@@ -129,25 +255,30 @@ public class BlobManagerImpl implements BlobManager {
     @Override
     public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs, Set<BlobReference> unReferencedBlobs) {
         // Remove references from the blobIncubator for the blobs that are still referenced.
+        // This is done in the background: if it doesn't happen, the BlobIncubatorMonitor will notice
+        // this later and clean it up.
         if (referencedBlobs != null) {
-            try {
-                for (BlobReference blobReference : referencedBlobs) {
-                    try {
-                        BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
-                        // Only delete from the blobIncubatorTable if incubation applies
-                        if (blobStoreAccess.incubate()) {
-                            blobIncubatorTable.delete(new Delete(blobReference.getBlob().getValue()));
+            boolean queued = false;
+            for (BlobReference blobReference : referencedBlobs) {
+                try {
+                    BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
+                    // Only delete from the blobIncubatorTable if incubation applies
+                    if (blobStoreAccess.incubate()) {
+                        if (incubatorDeletes.offer(blobReference.getBlob().getValue())) {
+                            queued = true;
+                        } else if (metrics != null) {
+                            metrics.incubatorDeletesDropped.inc();
                         }
-                    } catch (BlobNotFoundException bnfe) {
-                        // TODO
-                    } catch (BlobException be) {
-                        // TODO
                     }
+                } catch (BlobNotFoundException bnfe) {
+                    // TODO
+                } catch (BlobException be) {
+                    // TODO
                 }
-            } catch (IOException e) {
-                // We do a best effort to remove the blobs from the blobIncubator
-                // If it fails a background cleanup process will notice this later and clean it up
-                log.info("Failed to remove blobs from the blobIncubator for record '" + recordId + "'", e);
+            }
+
+            if (queued) {
+                scheduleIncubatorCleanup();
             }
         }
 
@@ -169,6 +300,60 @@ public class BlobManagerImpl implements BlobManager {
         }
     }
 
+    private void scheduleIncubatorCleanup() {
+        if (metrics != null) {
+            metrics.incubatorDeleteQueueSize.set(incubatorDeletes.size());
+        }
+
+        if (incubatorCleanupScheduled.compareAndSet(false, true)) {
+            try {
+                incubatorCleanupExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        do {
+                            deleteIncubatorEntries();
+                            incubatorCleanupScheduled.set(false);
+                            // Entries might have been queued after the last batch but before the flag was reset
+                        } while (!incubatorDeletes.isEmpty() && incubatorCleanupScheduled.compareAndSet(false, true));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // We are being closed, the remaining entries are deleted by close() or left to the monitor
+                incubatorCleanupScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Deletes the queued blob incubator entries, in batches, until the queue is empty.
+     */
+    private void deleteIncubatorEntries() {
+        List<byte[]> blobKeys = new ArrayList<byte[]>(MAX_INCUBATOR_DELETE_BATCH);
+        while (incubatorDeletes.drainTo(blobKeys, MAX_INCUBATOR_DELETE_BATCH) > 0) {
+            List<Delete> deletes = new ArrayList<Delete>(blobKeys.size());
+            for (byte[] blobKey : blobKeys) {
+                deletes.add(new Delete(blobKey));
+            }
+
+            long before = System.currentTimeMillis();
+            try {
+                // The HBase client groups the deletes per region server
+                blobIncubatorTable.delete(deletes);
+            } catch (IOException e) {
+                // We do a best effort to remove the blobs from the blobIncubator
+                // If it fails a background cleanup process will notice this later and clean it up
+                log.info("Failed to remove " + blobKeys.size() + " blobs from the blobIncubator", e);
+            }
+
+            if (metrics != null) {
+                metrics.incubatorDeleteBatchDuration.inc(System.currentTimeMillis() - before);
+                metrics.incubatorDeletesBatched.inc(blobKeys.size());
+                metrics.incubatorDeleteQueueSize.set(incubatorDeletes.size());
+            }
+            blobKeys.clear();
+        }
+    }
+
     private Blob getBlobFromRecord(Record record, QName fieldName, FieldType fieldType, int... indexes)
             throws BlobNotFoundException {
         Object value = record.getField(fieldName);
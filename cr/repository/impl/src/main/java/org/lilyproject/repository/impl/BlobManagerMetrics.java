@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+public class BlobManagerMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final BlobManagerMetricsMXBean mbean;
+    private final MetricsContext context;
+
+    /** Duration of reserving the blobs of a record. */
+    public MetricsTimeVaryingRate reserveDuration = new MetricsTimeVaryingRate("reserve_duration", registry);
+
+    /** Number of blob incubator entries waiting to be deleted in the background. */
+    public MetricsLongValue incubatorDeleteQueueSize = new MetricsLongValue("incubator_delete_queue_size", registry);
+
+    /** Blob incubator entries not deleted because the queue was full, these are left to the incubator monitor. */
+    public MetricsTimeVaryingInt incubatorDeletesDropped =
+            new MetricsTimeVaryingInt("incubator_delete_dropped_cnt", registry);
+
+    /** Duration of the batched deletes of blob incubator entries. */
+    public MetricsTimeVaryingRate incubatorDeleteBatchDuration =
+            new MetricsTimeVaryingRate("incubator_delete_batch_duration", registry);
+
+    /**
+     * Number of blob incubator entries deleted through the batched deletes. Each batch still needs one call per
+     * region server, divide by the number of batches for the average batch size.
+     */
+    public MetricsTimeVaryingLong incubatorDeletesBatched =
+            new MetricsTimeVaryingLong("incubator_delete_batched_cnt", registry);
+
+    public BlobManagerMetrics() {
+        context = MetricsUtil.getContext("blobManager");
+        metricsRecord = MetricsUtil.createRecord(context, "blobManager");
+        context.registerUpdater(this);
+        mbean = new BlobManagerMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    public class BlobManagerMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public BlobManagerMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Blob Manager");
+
+            mbeanName = MBeanUtil.registerMBean("Blob Manager", "blobManager", this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null) {
+                MBeanUtil.unregisterMBean(mbeanName);
+            }
+        }
+    }
+}
@@ -16,13 +16,11 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypes;
@@ -30,28 +28,66 @@ import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.ArgumentValidator;
 
+/**
+ * An immutable snapshot of the field types.
+ *
+ * <p>The field types are indexed both by id and by name. Both indexes are split in buckets, so that
+ * a new snapshot can be derived from an existing one by only copying the buckets that change, see
+ * {@link Builder}. The id buckets correspond to the buckets used by the schema cache (the hex-encoded
+ * first byte of the id).</p>
+ */
 public class FieldTypesImpl implements FieldTypes {
-    private Log log = LogFactory.getLog(getClass());
+    private static final int NAME_BUCKET_COUNT = 256;
 
-    // Always use getNameCache() instead of this variable directly, to make sure
-    // this is the up-to-date nameCache (in case of FieldTypesCache).
-    protected Map<QName, FieldType> nameCache;
-    protected Map<String, Map<SchemaId, FieldType>> buckets;
+    private final long version;
+    private final Map<String, Map<SchemaId, FieldType>> buckets;
+    private final Map<QName, FieldType>[] nameBuckets;
 
     public FieldTypesImpl() {
-        nameCache = new HashMap<QName, FieldType>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, FieldType>>();
+        this(0);
+    }
+
+    /**
+     * Creates an empty snapshot with the given version.
+     */
+    public FieldTypesImpl(long version) {
+        this(version, new HashMap<String, Map<SchemaId, FieldType>>(), newNameBuckets());
+    }
+
+    private FieldTypesImpl(long version, Map<String, Map<SchemaId, FieldType>> buckets,
+            Map<QName, FieldType>[] nameBuckets) {
+        this.version = version;
+        this.buckets = buckets;
+        this.nameBuckets = nameBuckets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<QName, FieldType>[] newNameBuckets() {
+        Map<QName, FieldType>[] nameBuckets = new Map[NAME_BUCKET_COUNT];
+        for (int i = 0; i < nameBuckets.length; i++) {
+            nameBuckets[i] = Collections.emptyMap();
+        }
+        return nameBuckets;
+    }
+
+    private static int nameBucket(QName name) {
+        return name.hashCode() & (NAME_BUCKET_COUNT - 1);
     }
 
-    protected Map<QName, FieldType> getNameCache() throws InterruptedException {
-        return nameCache;
+    /**
+     * The version of this snapshot. Each snapshot derived from this one will have a higher version.
+     */
+    public long getVersion() {
+        return version;
     }
 
     @Override
-    public List<FieldType> getFieldTypes() throws InterruptedException {
+    public List<FieldType> getFieldTypes() {
         List<FieldType> fieldTypes = new ArrayList<FieldType>();
-        for (FieldType fieldType : getNameCache().values()) {
-            fieldTypes.add(fieldType.clone());
+        for (Map<QName, FieldType> nameBucket : nameBuckets) {
+            for (FieldType fieldType : nameBucket.values()) {
+                fieldTypes.add(fieldType.clone());
+            }
         }
         return fieldTypes;
     }
@@ -73,22 +109,94 @@ public class FieldTypesImpl implements FieldTypes {
     }
 
     @Override
-    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException, InterruptedException {
+    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameBuckets[nameBucket(name)].get(name);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(name);
         }
         return fieldType.clone();
     }
 
-    public FieldType getFieldTypeByNameReturnNull(QName name) throws InterruptedException {
+    @Override
+    public FieldType getFieldTypeByNameReturnNull(QName name) {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameBuckets[nameBucket(name)].get(name);
         return fieldType != null ? fieldType.clone() : null;
     }
 
-    public boolean fieldTypeExists(QName name) throws InterruptedException {
-        return getNameCache().containsKey(name);
+    @Override
+    public boolean fieldTypeExists(QName name) {
+        return nameBuckets[nameBucket(name)].containsKey(name);
+    }
+
+    /**
+     * Derives a new snapshot from an existing one, copy-on-write: only the buckets that are
+     * modified are copied, all other buckets are shared with the original snapshot.
+     *
+     * <p>A builder should only be used by one thread, and should not be used anymore after
+     * {@link #build()} has been called.</p>
+     */
+    public static class Builder {
+        private final FieldTypesImpl original;
+        private final Map<String, Map<SchemaId, FieldType>> buckets;
+        private final Map<QName, FieldType>[] nameBuckets;
+        private final Map<String, Map<SchemaId, FieldType>> copiedBuckets =
+                new HashMap<String, Map<SchemaId, FieldType>>();
+        private final boolean[] copiedNameBuckets = new boolean[NAME_BUCKET_COUNT];
+
+        public Builder(FieldTypesImpl original) {
+            this.original = original;
+            this.buckets = new HashMap<String, Map<SchemaId, FieldType>>(original.buckets);
+            this.nameBuckets = original.nameBuckets.clone();
+        }
+
+        /**
+         * Adds the field type, or replaces the field type with the same id.
+         */
+        public Builder put(FieldType fieldType) {
+            SchemaId id = fieldType.getId();
+            QName name = fieldType.getName();
+
+            FieldType old = getWritableBucket(AbstractSchemaCache.encodeHex(id.getBytes())).put(id, fieldType);
+
+            if (old != null && !old.getName().equals(name)) {
+                // The field type was renamed, drop the old name, unless it has meanwhile been taken
+                // by another field type.
+                Map<QName, FieldType> oldNameBucket = getWritableNameBucket(old.getName());
+                FieldType current = oldNameBucket.get(old.getName());
+                if (current != null && current.getId().equals(id)) {
+                    oldNameBucket.remove(old.getName());
+                }
+            }
+            getWritableNameBucket(name).put(name, fieldType);
+
+            return this;
+        }
+
+        private Map<SchemaId, FieldType> getWritableBucket(String bucketId) {
+            Map<SchemaId, FieldType> bucket = copiedBuckets.get(bucketId);
+            if (bucket == null) {
+                Map<SchemaId, FieldType> originalBucket = buckets.get(bucketId);
+                bucket = originalBucket == null ? new HashMap<SchemaId, FieldType>(8)
+                        : new HashMap<SchemaId, FieldType>(originalBucket);
+                copiedBuckets.put(bucketId, bucket);
+                buckets.put(bucketId, bucket);
+            }
+            return bucket;
+        }
+
+        private Map<QName, FieldType> getWritableNameBucket(QName name) {
+            int index = nameBucket(name);
+            if (!copiedNameBuckets[index]) {
+                nameBuckets[index] = new HashMap<QName, FieldType>(nameBuckets[index]);
+                copiedNameBuckets[index] = true;
+            }
+            return nameBuckets[index];
+        }
+
+        public FieldTypesImpl build() {
+            return new FieldTypesImpl(original.version + 1, buckets, nameBuckets);
+        }
     }
 }
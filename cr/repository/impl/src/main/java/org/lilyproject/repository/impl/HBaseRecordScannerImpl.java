@@ -33,6 +33,11 @@ public class HBaseRecordScannerImpl extends AbstractHBaseRecordScanner<Record> i
         this.recordDecoder = recordDecoder;
     }
 
+    HBaseRecordScannerImpl(ParallelRegionScanner<Record> parallelScanner) {
+        super(parallelScanner);
+        this.recordDecoder = null;
+    }
+
     @Override
     Record decode(Result result) throws RepositoryException, InterruptedException {
         return this.recordDecoder.decodeRecord(result);
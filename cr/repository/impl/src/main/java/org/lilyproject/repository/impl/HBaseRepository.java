@@ -16,9 +16,11 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -49,6 +51,7 @@ import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
@@ -85,6 +88,7 @@ import org.lilyproject.repository.impl.RepositoryMetrics.Action;
 import org.lilyproject.repository.impl.hbase.ContainsValueComparator;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.repository.spi.FieldEncodingContext;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ObjectUtils;
@@ -198,89 +202,19 @@ public class HBaseRepository extends BaseRepository {
                 recordId = idGenerator.newRecordId();
             }
 
-            byte[] rowId = recordId.toBytes();
-
             try {
                 FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
 
-                long version = 1L;
-                byte[] oldOccBytes = null;
-                long newOcc = 1L;
-                // If the record existed it would have been deleted.
-                // The version numbering continues from where it has been deleted.
-                Get get = new Get(rowId);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                Result result = recordTable.get(get);
-                if (!result.isEmpty()) {
-                    // If the record existed it should have been deleted
-                    byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                    if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
-                        throw new RecordExistsException(recordId);
-                    }
-
-                    oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                    newOcc = Bytes.toLong(nextOcc(oldOccBytes));
-
-                    byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                    if (oldVersion != null) {
-                        version = Bytes.toLong(oldVersion) + 1;
-                        // Make sure any old data gets cleared and old blobs are deleted
-                        // This is to cover the failure scenario where a record was deleted, but a failure
-                        // occurred before executing the clearData
-                        // If this was already done, this is a no-op
-                        // Note: since the removal of the row locking, this part could run concurrent with other
-                        // threads trying to re-create a record or with a delete still being in progress. This
-                        // should be no problem since the clearData will only remove the versions at the old
-                        // timestamps, and leave the non-versioned fields untouched.
-                        clearData(recordId, null, Bytes.toLong(oldVersion));
-                    }
-                }
-
-                RecordEvent recordEvent = new RecordEvent();
-                recordEvent.setType(Type.CREATE);
-                recordEvent.setTableName(getTableName());
-                if (record.hasAttributes()) {
-                    recordEvent.getAttributes().putAll(record.getAttributes());
-                }
-
-                Record newRecord = record.cloneRecord();
-                newRecord.setId(recordId);
-
-                for (RecordUpdateHook hook : updateHooks) {
-                    hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
-                }
-
-                Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
-                Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
-
-                Put put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
-
-                // Make sure the record type changed flag stays false for a newly
-                // created record
-                recordEvent.setRecordTypeChanged(false);
-                Long newVersion = newRecord.getVersion();
-                if (newVersion != null) {
-                    recordEvent.setVersionCreated(newVersion);
-                }
-
-                // Reserve blobs so no other records can use them
-                reserveBlobs(null, referencedBlobs);
+                Result result = recordTable.get(createOccStateGet(recordId));
+                PreparedMutation mutation = prepareCreate(record, recordId, result, fieldTypes);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
-                boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
+                boolean success = recordTable.checkAndPut(mutation.put.getRow(), RecordCf.DATA.bytes,
+                        RecordColumn.OCC.bytes, mutation.oldOccBytes, mutation.put);
                 if (!success) {
                     throw new RecordExistsException(recordId);
                 }
 
-                // Remove the used blobs from the blobIncubator
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
-
-                newRecord.setResponseStatus(ResponseStatus.CREATED);
-                removeUnidirectionalState(newRecord);
-                return newRecord;
+                return completeMutation(mutation, ResponseStatus.CREATED);
 
             } catch (IOException e) {
                 throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
@@ -298,6 +232,279 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<BatchMutationResult> createBatch(List<Record> records) throws RepositoryException,
+            InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+
+        long before = System.currentTimeMillis();
+        try {
+            BatchMutationResult[] results = rejectDuplicateIds(records);
+            RecordId[] recordIds = new RecordId[records.size()];
+            List<Integer> validIndexes = new ArrayList<Integer>(records.size());
+            List<Get> gets = new ArrayList<Get>(records.size());
+
+            for (int i = 0; i < records.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                Record record = records.get(i);
+                try {
+                    checkCreatePreconditions(record);
+                } catch (InvalidRecordException e) {
+                    results[i] = new BatchMutationResult(record, e);
+                    continue;
+                }
+                recordIds[i] = record.getId() != null ? record.getId() : idGenerator.newRecordId();
+                gets.add(createOccStateGet(recordIds[i]));
+                validIndexes.add(i);
+            }
+
+            if (!gets.isEmpty()) {
+                FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+                // Read the OCC state of all records with one multi-get
+                Result[] occStates;
+                try {
+                    occStates = recordTable.get(gets);
+                } catch (IOException e) {
+                    throw new RecordException("Exception occurred while reading the state of a batch of "
+                            + gets.size() + " records from HBase table", e);
+                }
+
+                List<PreparedMutation> mutations = new ArrayList<PreparedMutation>(validIndexes.size());
+                for (int j = 0; j < validIndexes.size(); j++) {
+                    int i = validIndexes.get(j);
+                    RecordId recordId = recordIds[i];
+                    try {
+                        PreparedMutation mutation = prepareCreate(records.get(i), recordId, occStates[j], fieldTypes);
+                        mutation.batchIndex = i;
+                        mutations.add(mutation);
+                    } catch (BlobException e) {
+                        results[i] = new BatchMutationResult(records.get(i), new RecordException(
+                                "Exception occurred while creating record '" + recordId + "'", e));
+                    } catch (RepositoryException e) {
+                        results[i] = new BatchMutationResult(records.get(i), e);
+                    } catch (IOException e) {
+                        results[i] = new BatchMutationResult(records.get(i), new RecordException(
+                                "Exception occurred while creating record '" + recordId + "' in HBase table", e));
+                    }
+                }
+
+                for (PreparedMutation mutation : submitMutations(mutations, ResponseStatus.CREATED)) {
+                    int i = mutation.batchIndex;
+                    try {
+                        if (!mutation.success) {
+                            throw new RecordExistsException(mutation.recordId);
+                        }
+                        results[i] = new BatchMutationResult(completeMutation(mutation, ResponseStatus.CREATED));
+                    } catch (RepositoryException e) {
+                        results[i] = new BatchMutationResult(records.get(i), e);
+                    } catch (IOException e) {
+                        results[i] = new BatchMutationResult(records.get(i), new RecordException(
+                                "Exception occurred while creating record '" + mutation.recordId + "' in HBase table",
+                                e));
+                    }
+                }
+            }
+
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.CREATE, records.size(), System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Creates the Get to read the state needed to create a record: a record id might be re-used after
+     * the record was deleted, in which case the version numbering continues from where it has been deleted.
+     */
+    private Get createOccStateGet(RecordId recordId) {
+        Get get = new Get(recordId.toBytes());
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+        return get;
+    }
+
+    /**
+     * Does all the work of creating a record, except for the actual (conditional) put.
+     *
+     * @param result the result of the Get created by {@link #createOccStateGet(RecordId)}
+     */
+    private PreparedMutation prepareCreate(Record record, RecordId recordId, Result result, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException, IOException, BlobException {
+        long version = 1L;
+        byte[] oldOccBytes = null;
+        long newOcc = 1L;
+        if (!result.isEmpty()) {
+            // If the record existed it should have been deleted
+            byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
+                throw new RecordExistsException(recordId);
+            }
+
+            oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            newOcc = Bytes.toLong(nextOcc(oldOccBytes));
+
+            byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+            if (oldVersion != null) {
+                version = Bytes.toLong(oldVersion) + 1;
+                // Make sure any old data gets cleared and old blobs are deleted
+                // This is to cover the failure scenario where a record was deleted, but a failure
+                // occurred before executing the clearData
+                // If this was already done, this is a no-op
+                // Note: since the removal of the row locking, this part could run concurrent with other
+                // threads trying to re-create a record or with a delete still being in progress. This
+                // should be no problem since the clearData will only remove the versions at the old
+                // timestamps, and leave the non-versioned fields untouched.
+                clearData(recordId, null, Bytes.toLong(oldVersion));
+            }
+        }
+
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(Type.CREATE);
+        recordEvent.setTableName(getTableName());
+        if (record.hasAttributes()) {
+            recordEvent.getAttributes().putAll(record.getAttributes());
+        }
+
+        Record newRecord = record.cloneRecord();
+        newRecord.setId(recordId);
+
+        Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+        Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+
+        // Field values encoded by the hooks are reused when building the put
+        Put put;
+        FieldEncodingContext.start();
+        try {
+            for (RecordUpdateHook hook : updateHooks) {
+                hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
+            }
+
+            put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
+        } finally {
+            FieldEncodingContext.end();
+        }
+
+        // Make sure the record type changed flag stays false for a newly
+        // created record
+        recordEvent.setRecordTypeChanged(false);
+        Long newVersion = newRecord.getVersion();
+        if (newVersion != null) {
+            recordEvent.setVersionCreated(newVersion);
+        }
+
+        // Reserve blobs so no other records can use them
+        reserveBlobs(null, referencedBlobs);
+
+        put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
+
+        return new PreparedMutation(recordId, newRecord, put, oldOccBytes, referencedBlobs, unReferencedBlobs);
+    }
+
+    /**
+     * Performs the conditional puts of the given mutations, the outcome of each put is stored in the
+     * {@link PreparedMutation#success} flag. Returns the mutations in the order in which they were submitted.
+     *
+     * <p>HBase offers no multi-row checkAndPut, so this still does one call per mutation, but the mutations
+     * are submitted in row key order so that consecutive calls go to the same region (and region server).</p>
+     *
+     * <p>When interrupted, the remaining mutations are not submitted, but the ones which were applied already
+     * are completed before the InterruptedException is thrown.</p>
+     */
+    private List<PreparedMutation> submitMutations(List<PreparedMutation> mutations, ResponseStatus responseStatus)
+            throws InterruptedException {
+        Collections.sort(mutations, PreparedMutation.ROW_ORDER);
+        for (int i = 0; i < mutations.size(); i++) {
+            PreparedMutation mutation = mutations.get(i);
+            if (Thread.interrupted()) {
+                completeAppliedMutations(mutations.subList(0, i), responseStatus);
+                throw new InterruptedException();
+            }
+            try {
+                mutation.success = recordTable.checkAndPut(mutation.put.getRow(), RecordCf.DATA.bytes,
+                        RecordColumn.OCC.bytes, mutation.oldOccBytes, mutation.put);
+            } catch (IOException e) {
+                mutation.exception = e;
+            }
+        }
+        return mutations;
+    }
+
+    /**
+     * Completes the given mutations whose put went through, for when the batch can't be finished: the blobs
+     * they reference should still be taken out of the incubator, and the blobs they dropped deleted.
+     */
+    private void completeAppliedMutations(List<PreparedMutation> mutations, ResponseStatus responseStatus) {
+        for (PreparedMutation mutation : mutations) {
+            if (mutation.success) {
+                try {
+                    completeMutation(mutation, responseStatus);
+                } catch (Exception e) {
+                    log.warn("Failure occurred while completing the mutation of record " + mutation.recordId, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Does the work that needs to happen after the put of a mutation went through successfully.
+     */
+    private Record completeMutation(PreparedMutation mutation, ResponseStatus responseStatus)
+            throws RepositoryException, InterruptedException, IOException {
+        if (mutation.exception != null) {
+            throw mutation.exception;
+        }
+
+        // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
+        blobManager.handleBlobReferences(mutation.recordId, mutation.referencedBlobs, mutation.unReferencedBlobs);
+
+        Record newRecord = mutation.newRecord;
+        newRecord.setResponseStatus(responseStatus);
+        removeUnidirectionalState(newRecord);
+        return newRecord;
+    }
+
+    /**
+     * A record create or update that is ready to be written to HBase.
+     */
+    private static class PreparedMutation {
+        static final Comparator<PreparedMutation> ROW_ORDER = new Comparator<PreparedMutation>() {
+            @Override
+            public int compare(PreparedMutation o1, PreparedMutation o2) {
+                return Bytes.compareTo(o1.put.getRow(), o2.put.getRow());
+            }
+        };
+
+        final RecordId recordId;
+        final Record newRecord;
+        /** The put to apply, null if there is nothing to write. */
+        final Put put;
+        final byte[] oldOccBytes;
+        final Set<BlobReference> referencedBlobs;
+        final Set<BlobReference> unReferencedBlobs;
+
+        // Batch-related state
+        int batchIndex;
+        boolean success;
+        IOException exception;
+
+        PreparedMutation(RecordId recordId, Record newRecord, Put put, byte[] oldOccBytes,
+                Set<BlobReference> referencedBlobs, Set<BlobReference> unReferencedBlobs) {
+            this.recordId = recordId;
+            this.newRecord = newRecord;
+            this.put = put;
+            this.oldOccBytes = oldOccBytes;
+            this.referencedBlobs = referencedBlobs;
+            this.unReferencedBlobs = unReferencedBlobs;
+        }
+
+        PreparedMutation(Record newRecord) {
+            this(newRecord.getId(), newRecord, null, null, null, null);
+        }
+    }
+
     /**
      * Build a Put for inserting a new (blank) record into a Lily repository table.
      */
@@ -406,61 +613,20 @@ public class HBaseRepository extends BaseRepository {
 
         try {
             Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
-            Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
-
-            byte[] oldOccBytes = recordAndOcc.getV2();
-
-            RecordEvent recordEvent = new RecordEvent();
-            recordEvent.setType(Type.UPDATE);
-            recordEvent.setTableName(getTableName());
-            if (record.hasAttributes()) {
-                recordEvent.getAttributes().putAll(record.getAttributes());
-            }
-
-            for (RecordUpdateHook hook : updateHooks) {
-                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
-            }
 
-            Record newRecord = record.cloneRecord();
-
-            Put put = new Put(newRecord.getId().toBytes());
-            Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
-            Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
-            long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
-
-            // Check the mutation conditions.
-            // It is important that we do this before checking if the record needs updating at all: otherwise,
-            // another client might already have performed the update we intended to do, which is problematic
-            // in cases like incrementing a counter (the counter should be updated twice, not once).
-            Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
-                    record);
-            if (conditionsResponse != null) {
-                return conditionsResponse;
+            PreparedMutation mutation = prepareUpdate(record, recordAndOcc.getV1(), recordAndOcc.getV2(),
+                    useLatestRecordType, conditions, fieldTypes);
+            if (mutation.put == null) {
+                return mutation.newRecord;
             }
 
-            if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
-                    unReferencedBlobs, useLatestRecordType, fieldTypes)) {
-
-                // Reserve blobs so no other records can use them
-                reserveBlobs(record.getId(), referencedBlobs);
-
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
-                put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
-                boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
-                if (!occSuccess) {
-                    throw new ConcurrentRecordUpdateException(recordId);
-                }
-
-                // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
-                newRecord.setResponseStatus(ResponseStatus.UPDATED);
-            } else {
-                newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
+            boolean occSuccess = recordTable.checkAndPut(mutation.put.getRow(), RecordCf.DATA.bytes,
+                    RecordColumn.OCC.bytes, mutation.oldOccBytes, mutation.put);
+            if (!occSuccess) {
+                throw new ConcurrentRecordUpdateException(recordId);
             }
 
-            removeUnidirectionalState(newRecord);
-            return newRecord;
+            return completeMutation(mutation, ResponseStatus.UPDATED);
 
         } catch (IOException e) {
             throw new RecordException("Exception occurred while updating record '" + recordId + "' on HBase table",
@@ -475,6 +641,160 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<BatchMutationResult> updateBatch(List<Record> records) throws RepositoryException,
+            InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+
+        long before = System.currentTimeMillis();
+        try {
+            BatchMutationResult[] results = rejectDuplicateIds(records);
+            List<RecordId> recordIds = new ArrayList<RecordId>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                if (results[i] != null) {
+                    continue;
+                } else if (record.getId() == null) {
+                    results[i] = new BatchMutationResult(record, new InvalidRecordException(
+                            "The recordId cannot be null for a record to be updated.", record.getId()));
+                } else {
+                    recordIds.add(record.getId());
+                }
+            }
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+            // Read the current state of all records with one multi-get
+            Map<RecordId, Result> originalRows = recordIds.isEmpty() ?
+                    Collections.<RecordId, Result>emptyMap() : getRows(recordIds, null);
+
+            List<PreparedMutation> mutations = new ArrayList<PreparedMutation>(recordIds.size());
+            for (int i = 0; i < records.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                Record record = records.get(i);
+                RecordId recordId = record.getId();
+                try {
+                    Result result = originalRows.get(recordId);
+                    if (result == null) {
+                        throw new RecordNotFoundException(recordId, this, this);
+                    }
+                    Record originalRecord = recdec.decodeRecord(recordId, recdec.getLatestVersion(result), null,
+                            result, fieldTypes);
+                    byte[] oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+
+                    PreparedMutation mutation = prepareUpdate(record, originalRecord, oldOccBytes, true, null,
+                            fieldTypes);
+                    if (mutation.put == null) {
+                        results[i] = new BatchMutationResult(mutation.newRecord);
+                    } else {
+                        mutation.batchIndex = i;
+                        mutations.add(mutation);
+                    }
+                } catch (BlobException e) {
+                    results[i] = new BatchMutationResult(record, new RecordException(
+                            "Exception occurred while putting updated record '" + recordId + "' on HBase table", e));
+                } catch (RepositoryException e) {
+                    results[i] = new BatchMutationResult(record, e);
+                } catch (IOException e) {
+                    results[i] = new BatchMutationResult(record, new RecordException(
+                            "Exception occurred while updating record '" + recordId + "' on HBase table", e));
+                }
+            }
+
+            for (PreparedMutation mutation : submitMutations(mutations, ResponseStatus.UPDATED)) {
+                int i = mutation.batchIndex;
+                try {
+                    if (!mutation.success) {
+                        throw new ConcurrentRecordUpdateException(mutation.recordId);
+                    }
+                    results[i] = new BatchMutationResult(completeMutation(mutation, ResponseStatus.UPDATED));
+                } catch (RepositoryException e) {
+                    results[i] = new BatchMutationResult(records.get(i), e);
+                } catch (IOException e) {
+                    results[i] = new BatchMutationResult(records.get(i), new RecordException(
+                            "Exception occurred while updating record '" + mutation.recordId + "' on HBase table",
+                            e));
+                }
+            }
+
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.UPDATE, records.size(), System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Does all the work of updating a record, except for the actual (conditional) put.
+     *
+     * <p>If the record does not need to be written, either because it is up to date or because the
+     * conditions are not satisfied, the returned mutation has no put and contains the record to return.</p>
+     */
+    private PreparedMutation prepareUpdate(Record record, Record originalRecord, byte[] oldOccBytes,
+            boolean useLatestRecordType, List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException, IOException, BlobException {
+        originalRecord = new UnmodifiableRecord(originalRecord);
+
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(Type.UPDATE);
+        recordEvent.setTableName(getTableName());
+        if (record.hasAttributes()) {
+            recordEvent.getAttributes().putAll(record.getAttributes());
+        }
+
+        // Field values encoded by the hooks are reused when calculating the record changes
+        FieldEncodingContext.start();
+        try {
+            for (RecordUpdateHook hook : updateHooks) {
+                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+            }
+
+            return prepareUpdate(record, originalRecord, oldOccBytes, useLatestRecordType, conditions, fieldTypes,
+                    recordEvent);
+        } finally {
+            FieldEncodingContext.end();
+        }
+    }
+
+    private PreparedMutation prepareUpdate(Record record, Record originalRecord, byte[] oldOccBytes,
+            boolean useLatestRecordType, List<MutationCondition> conditions, FieldTypes fieldTypes,
+            RecordEvent recordEvent) throws RepositoryException, InterruptedException, IOException, BlobException {
+        Record newRecord = record.cloneRecord();
+
+        Put put = new Put(newRecord.getId().toBytes());
+        Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+        Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+        long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
+
+        // Check the mutation conditions.
+        // It is important that we do this before checking if the record needs updating at all: otherwise,
+        // another client might already have performed the update we intended to do, which is problematic
+        // in cases like incrementing a counter (the counter should be updated twice, not once).
+        Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
+                record);
+        if (conditionsResponse != null) {
+            return new PreparedMutation(conditionsResponse);
+        }
+
+        if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
+                unReferencedBlobs, useLatestRecordType, fieldTypes)) {
+
+            // Reserve blobs so no other records can use them
+            reserveBlobs(record.getId(), referencedBlobs);
+
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
+
+            return new PreparedMutation(record.getId(), newRecord, put, oldOccBytes, referencedBlobs,
+                    unReferencedBlobs);
+        } else {
+            newRecord.setResponseStatus(ResponseStatus.UP_TO_DATE);
+            removeUnidirectionalState(newRecord);
+            return new PreparedMutation(newRecord);
+        }
+    }
+
     // Calculates the changes that are to be made on the record-row and puts
     // this information on the Put object and the RecordEvent
     private boolean calculateRecordChanges(Record record, Record originalRecord, Long version, Put put,
@@ -902,13 +1222,20 @@ public class HBaseRepository extends BaseRepository {
             recordEvent.setTableName(getTableName());
             recordEvent.setVersionUpdated(version);
 
-            for (RecordUpdateHook hook : updateHooks) {
-                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
-            }
+            // Field values encoded by the hooks are reused when calculating the updated fields
+            Set<Scope> changedScopes;
+            FieldEncodingContext.start();
+            try {
+                for (RecordUpdateHook hook : updateHooks) {
+                    hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+                }
 
-            Set<Scope> changedScopes = calculateUpdateFields(record, fields, record.getMetadataMap(), originalFields,
-                    originalRecord.getMetadataMap(), originalNextFields, version, put,
-                    recordEvent, referencedBlobs, unReferencedBlobs, true, fieldTypes);
+                changedScopes = calculateUpdateFields(record, fields, record.getMetadataMap(), originalFields,
+                        originalRecord.getMetadataMap(), originalNextFields, version, put,
+                        recordEvent, referencedBlobs, unReferencedBlobs, true, fieldTypes);
+            } finally {
+                FieldEncodingContext.end();
+            }
             for (BlobReference referencedBlob : referencedBlobs) {
                 referencedBlob.setRecordId(recordId);
             }
@@ -983,7 +1310,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
@@ -1110,7 +1437,7 @@ public class HBaseRepository extends BaseRepository {
 
             }
 
-            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
             put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOcc));
             boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                     oldOcc, put);
@@ -1406,7 +1733,14 @@ public class HBaseRepository extends BaseRepository {
             boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
 
             dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
-            valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
+            // Reuse the encoding if an update hook needed it already
+            FieldEncodingContext encodingContext = FieldEncodingContext.current();
+            byte[] encoded = encodingContext != null ? encodingContext.getEncoded(fieldType, fieldValue) : null;
+            if (encoded != null) {
+                dataOutput.writeBytes(encoded);
+            } else {
+                valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
+            }
 
             if (hasMetadata) {
                 if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
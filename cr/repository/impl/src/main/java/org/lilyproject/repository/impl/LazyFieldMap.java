@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
+
+/**
+ * Map of record fields in which values read from storage are only decoded on first access.
+ *
+ * <p>Undecoded fields keep a reference to the cell value as returned by HBase together with the offset and
+ * length of the encoded value within it, so no bytes are copied until the value is actually needed. Operations
+ * which need to see all values (iteration, equals, hashCode) decode everything that is still pending.</p>
+ *
+ * <p>Like {@link RecordImpl} itself, this class is not thread safe for modifications. Records are however
+ * commonly shared between threads once read, so as decoding a value on access modifies the map, all methods
+ * are synchronized, and {@link #entrySet()} (on which the key set and values are based) returns a snapshot
+ * rather than a view of the inner map. Only values whose decoding can't fail with a RepositoryException are
+ * left undecoded by the {@link RecordDecoder}, the read itself reports such failures.</p>
+ */
+class LazyFieldMap extends AbstractMap<QName, Object> {
+    private final Map<QName, Object> decoded;
+    private Map<QName, EncodedValue> pending;
+
+    LazyFieldMap(Map<QName, Object> decoded) {
+        this.decoded = decoded;
+        this.pending = new HashMap<QName, EncodedValue>();
+    }
+
+    synchronized void putEncoded(QName name, ValueType valueType, byte[] source, int offset, int length) {
+        decoded.remove(name);
+        pending.put(name, new EncodedValue(valueType, source, offset, length));
+    }
+
+    /**
+     * Returns a new map which shares the still undecoded values of this map (these are immutable byte
+     * ranges, so decoding them again yields an independent copy of the value). Values which were
+     * already decoded are not included.
+     */
+    synchronized LazyFieldMap copyPending() {
+        LazyFieldMap copy = new LazyFieldMap(new HashMap<QName, Object>());
+        copy.pending.putAll(pending);
+        return copy;
+    }
+
+    /**
+     * A copy of the values which have been decoded already, or which were set directly.
+     */
+    synchronized Map<QName, Object> getDecoded() {
+        return new HashMap<QName, Object>(decoded);
+    }
+
+    /**
+     * Same as {@link #put}, but without decoding the replaced value just to return it.
+     */
+    synchronized void set(QName key, Object value) {
+        pending.remove(key);
+        decoded.put(key, value);
+    }
+
+    /**
+     * Same as {@link #remove}, but without decoding the removed value just to return it.
+     */
+    synchronized void delete(QName key) {
+        pending.remove(key);
+        decoded.remove(key);
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        Object value = decoded.get(key);
+        if (value == null && !pending.isEmpty()) {
+            EncodedValue encoded = pending.remove(key);
+            if (encoded != null) {
+                value = encoded.decode((QName)key);
+                decoded.put((QName)key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return decoded.containsKey(key) || pending.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object put(QName key, Object value) {
+        EncodedValue encoded = pending.remove(key);
+        Object previous = decoded.put(key, value);
+        return encoded != null ? encoded.decode(key) : previous;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        EncodedValue encoded = pending.remove(key);
+        Object previous = decoded.remove(key);
+        return encoded != null ? encoded.decode((QName)key) : previous;
+    }
+
+    @Override
+    public synchronized int size() {
+        return decoded.size() + pending.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return decoded.isEmpty() && pending.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        decoded.clear();
+        pending.clear();
+    }
+
+    /**
+     * Returns a snapshot of the entries. Removing through its iterator and setting the value of an entry
+     * still write through to this map, but other changes to this map are not reflected in the snapshot.
+     */
+    @Override
+    public synchronized Set<Entry<QName, Object>> entrySet() {
+        decodeAll();
+        final List<Entry<QName, Object>> entries = new ArrayList<Entry<QName, Object>>(decoded.size());
+        for (Entry<QName, Object> entry : decoded.entrySet()) {
+            entries.add(new FieldEntry(entry.getKey(), entry.getValue()));
+        }
+        return new AbstractSet<Entry<QName, Object>>() {
+            @Override
+            public Iterator<Entry<QName, Object>> iterator() {
+                final Iterator<Entry<QName, Object>> it = entries.iterator();
+                return new Iterator<Entry<QName, Object>>() {
+                    private Entry<QName, Object> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<QName, Object> next() {
+                        current = it.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        it.remove();
+                        delete(current.getKey());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private void decodeAll() {
+        if (!pending.isEmpty()) {
+            for (Map.Entry<QName, EncodedValue> entry : pending.entrySet()) {
+                decoded.put(entry.getKey(), entry.getValue().decode(entry.getKey()));
+            }
+            pending = new HashMap<QName, EncodedValue>();
+        }
+    }
+
+    private final class FieldEntry extends SimpleEntry<QName, Object> {
+        FieldEntry(QName key, Object value) {
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            set(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    private static final class EncodedValue {
+        final ValueType valueType;
+        final byte[] source;
+        final int offset;
+        final int length;
+
+        EncodedValue(ValueType valueType, byte[] source, int offset, int length) {
+            this.valueType = valueType;
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Object decode(QName name) {
+            try {
+                return valueType.read(new DataInputImpl(source, offset, length));
+            } catch (RepositoryException e) {
+                throw new RuntimeException("Error decoding value of field " + name, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while decoding value of field " + name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.MetaScanner;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+
+/**
+ * Runs a scan over the regions of a table concurrently, decoding the results on the threads which read them.
+ *
+ * <p>The scan is split on region boundaries, and up to a given number of regions are read at the same time.
+ * Each region is read ahead of the consumer up to a limited number of results. The results are either returned
+ * in row order, in which case the regions are consumed one after the other while the next ones are being read,
+ * or in the order in which they become available.</p>
+ */
+class ParallelRegionScanner<T> {
+    private static final Object END_OF_REGION = new Object();
+
+    private final HTableInterface table;
+    private final ResultDecoder<T> decoder;
+    private final ExecutorService executor;
+    private final boolean ordered;
+
+    /** For an ordered scan, the queue of each region. Otherwise, one queue shared by all regions. */
+    private final List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+    private final int regionCount;
+    private int finishedRegions = 0;
+    private volatile boolean closed = false;
+
+    interface ResultDecoder<T> {
+        T decode(Result result) throws RepositoryException, InterruptedException;
+    }
+
+    /**
+     * @param scans the scans of each region, in row order
+     * @param prefetch the number of results to read ahead of the consumer for each region
+     */
+    ParallelRegionScanner(HTableInterface table, List<Scan> scans, int parallelism, boolean ordered, int prefetch,
+            ResultDecoder<T> decoder) {
+        this.table = table;
+        this.decoder = decoder;
+        this.ordered = ordered;
+        this.regionCount = scans.size();
+
+        int threads = Math.max(Math.min(parallelism, scans.size()), 1);
+        // The region tasks are queued in row order, so the regions are read in that order
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("parallel-record-scan", null, true));
+
+        BlockingQueue<Object> sharedQueue = ordered ? null : new LinkedBlockingQueue<Object>(prefetch * threads);
+        for (Scan scan : scans) {
+            BlockingQueue<Object> queue = ordered ? new LinkedBlockingQueue<Object>(prefetch) : sharedQueue;
+            queues.add(queue);
+            executor.execute(new RegionReader(scan, queue));
+        }
+    }
+
+    /**
+     * Splits a scan on the boundaries of the regions of the table.
+     */
+    static List<Scan> splitOnRegions(HTableInterface table, Scan scan) throws IOException {
+        NavigableMap<HRegionInfo, ServerName> regions =
+                MetaScanner.allTableRegions(table.getConfiguration(), table.getTableName(), false);
+
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+
+        List<Scan> scans = new ArrayList<Scan>(regions.size());
+        for (HRegionInfo region : regions.keySet()) {
+            byte[] regionStart = region.getStartKey();
+            byte[] regionEnd = region.getEndKey();
+
+            // determine if the region overlaps with the scanned range
+            if ((startRow.length == 0 || regionEnd.length == 0 || Bytes.compareTo(startRow, regionEnd) < 0) &&
+                    (stopRow.length == 0 || Bytes.compareTo(stopRow, regionStart) > 0)) {
+                Scan regionScan = new Scan(scan);
+                if (startRow.length == 0 || Bytes.compareTo(regionStart, startRow) >= 0) {
+                    regionScan.setStartRow(regionStart);
+                }
+                if (regionEnd.length > 0 && (stopRow.length == 0 || Bytes.compareTo(regionEnd, stopRow) <= 0)) {
+                    regionScan.setStopRow(regionEnd);
+                }
+                scans.add(regionScan);
+            }
+        }
+
+        return scans;
+    }
+
+    /**
+     * Returns the next result, or null if there are none left.
+     */
+    T next() throws RepositoryException, InterruptedException {
+        while (finishedRegions < regionCount) {
+            if (closed) {
+                throw new IllegalStateException("Scanner is closed.");
+            }
+
+            BlockingQueue<Object> queue = queues.get(ordered ? finishedRegions : 0);
+            Object item = queue.take();
+            if (item == END_OF_REGION) {
+                finishedRegions++;
+            } else if (item instanceof ScanFailure) {
+                close();
+                Throwable cause = ((ScanFailure)item).cause;
+                if (cause instanceof RepositoryException) {
+                    throw (RepositoryException)cause;
+                }
+                throw new RecordException("Error reading records", cause);
+            } else {
+                return (T)item;
+            }
+        }
+        executor.shutdown();
+        return null;
+    }
+
+    void close() {
+        closed = true;
+        // Interrupts the readers waiting for the consumer
+        executor.shutdownNow();
+    }
+
+    private class RegionReader implements Runnable {
+        private final Scan scan;
+        private final BlockingQueue<Object> queue;
+
+        RegionReader(Scan scan, BlockingQueue<Object> queue) {
+            this.scan = scan;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            ResultScanner scanner = null;
+            try {
+                scanner = table.getScanner(scan);
+                Result result;
+                while (!closed && (result = scanner.next()) != null) {
+                    queue.put(decoder.decode(result));
+                }
+                queue.put(END_OF_REGION);
+            } catch (InterruptedException e) {
+                // scanner is closed
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                if (!closed) {
+                    // leave room for the failure: the consumer stops at the first failure anyway
+                    ScanFailure failure = new ScanFailure(t);
+                    do {
+                        queue.clear();
+                    } while (!queue.offer(failure));
+                }
+            } finally {
+                if (scanner != null) {
+                    scanner.close();
+                }
+            }
+        }
+    }
+
+    private static class ScanFailure {
+        private final Throwable cause;
+
+        ScanFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -107,6 +107,9 @@ public class RecordDecoder {
 
     /**
      * Gets the requested version of the record (fields and recordTypes) from the Result object.
+     *
+     * <p>When the record factory produces {@link RecordImpl} instances, the field values are decoded lazily,
+     * on first access. The returned record then holds on to the value bytes of the Result.</p>
      */
     public Record decodeRecord(RecordId recordId, Long requestedVersion, ReadContext readContext,
                                Result result, FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
@@ -117,6 +120,9 @@ public class RecordDecoder {
         // All non-versioned fields are stored at version 1, so we extract the fields at version 1
         Long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
 
+        // Field values are only decoded when accessed, the record keeps a reference to the bytes in the Result
+        boolean lazy = record instanceof RecordImpl;
+
         // Get a map of all fields with their values for each (cell-)version
         NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
         if (mapWithVersions != null) {
@@ -131,9 +137,14 @@ public class RecordDecoder {
                     if (ceilingEntry != null) {
                         // Extract and decode the value of the field
                         ExtractedField field =
-                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes);
+                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes, !lazy);
                         if (field != null) {
-                            record.setField(field.type.getName(), field.value);
+                            if (!field.decoded) {
+                                ((RecordImpl)record).setEncodedField(field.type.getName(), field.type.getValueType(),
+                                        ceilingEntry.getValue(), field.valueOffset, field.valueLength);
+                            } else {
+                                record.setField(field.type.getName(), field.value);
+                            }
                             if (field.metadata != null) {
                                 record.setMetadata(field.type.getName(), field.metadata);
                             }
@@ -231,7 +242,7 @@ public class RecordDecoder {
                                     !lastDecodedFieldVersion.equals(ceilingEntry.getKey())) {
                                 // Not yet decoded, do it now
                                 lastDecodedFieldVersion = ceilingEntry.getKey();
-                                lastDecodedField = extractField(key, ceilingEntry.getValue(), null, fieldTypes);
+                                lastDecodedField = extractField(key, ceilingEntry.getValue(), null, fieldTypes, true);
                             }
                             if (lastDecodedField != null) {
                                 record.setField(lastDecodedField.type.getName(), lastDecodedField.value);
@@ -272,18 +283,32 @@ public class RecordDecoder {
 
     private static class ExtractedField {
         FieldType type;
+        boolean decoded;
         Object value;
         Metadata metadata;
+        int valueOffset;
+        int valueLength;
 
-        ExtractedField(FieldType type, Object value, Metadata metadata) {
+        ExtractedField(FieldType type, boolean decoded, Object value, Metadata metadata, int valueOffset,
+                int valueLength) {
             this.type = type;
+            this.decoded = decoded;
             this.value = value;
             this.metadata = metadata;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
         }
     }
 
+    /**
+     * Extracts the field stored in the given cell.
+     *
+     * @param decodeValue if false, the value itself is not decoded: only its position within prefixedValue
+     *                    is determined. Values whose decoding can fail with a RepositoryException, i.e. those
+     *                    containing records, are decoded anyway, so that the failure is reported by the read.
+     */
     private ExtractedField extractField(byte[] key, byte[] prefixedValue, ReadContext context,
-                                                 FieldTypes fieldTypes)
+                                        FieldTypes fieldTypes, boolean decodeValue)
             throws RepositoryException, InterruptedException {
         byte flags = prefixedValue[0];
         if (FieldFlags.isDeletedField(flags)) {
@@ -309,10 +334,15 @@ public class RecordDecoder {
             throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
         }
 
-        Object value = valueType.read(new DataInputImpl(prefixedValue, FieldFlags.SIZE_OF_FIELD_FLAGS,
-                prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
+        int valueOffset = FieldFlags.SIZE_OF_FIELD_FLAGS;
+        int valueLength = prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace;
+        Object value = null;
+        boolean decoded = decodeValue || valueType.getDeepestValueType().getBaseName().equals("RECORD");
+        if (decoded) {
+            value = valueType.read(new DataInputImpl(prefixedValue, valueOffset, valueLength));
+        }
 
-        return new ExtractedField(fieldType, value, metadata);
+        return new ExtractedField(fieldType, decoded, value, metadata, valueOffset, valueLength);
     }
 
     /**
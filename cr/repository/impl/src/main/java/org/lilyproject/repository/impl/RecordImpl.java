@@ -35,6 +35,7 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ObjectUtils;
 
@@ -131,7 +132,23 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public void setField(QName name, Object value) {
-        fields.put(name, value);
+        if (fields instanceof LazyFieldMap) {
+            ((LazyFieldMap)fields).set(name, value);
+        } else {
+            fields.put(name, value);
+        }
+        fieldsToDelete.remove(name);
+    }
+
+    /**
+     * Sets a field whose value is still in its encoded form, it will only be decoded when it is first
+     * accessed. The given byte array is referenced, not copied, so it should not be modified afterwards.
+     */
+    void setEncodedField(QName name, ValueType valueType, byte[] source, int offset, int length) {
+        if (!(fields instanceof LazyFieldMap)) {
+            fields = new LazyFieldMap(fields);
+        }
+        ((LazyFieldMap)fields).putEncoded(name, valueType, source, offset, length);
         fieldsToDelete.remove(name);
     }
 
@@ -156,7 +173,11 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public void delete(QName fieldName, boolean addToFieldsToDelete) {
-        fields.remove(fieldName);
+        if (fields instanceof LazyFieldMap) {
+            ((LazyFieldMap)fields).delete(fieldName);
+        } else {
+            fields.remove(fieldName);
+        }
 
         if (addToFieldsToDelete) {
             getFieldsToDelete().add(fieldName);
@@ -215,7 +236,14 @@ public class RecordImpl implements Record, Cloneable {
         record.version = version;
         record.recordTypes.putAll(recordTypes);
         parentRecords.push(this);
-        for (Entry<QName, Object> entry : fields.entrySet()) {
+        Map<QName, Object> fieldsToClone = fields;
+        if (fields instanceof LazyFieldMap) {
+            // Values which were not yet decoded don't need cloning: decoding them produces new objects anyway
+            LazyFieldMap lazyFields = (LazyFieldMap)fields;
+            record.fields = lazyFields.copyPending();
+            fieldsToClone = lazyFields.getDecoded();
+        }
+        for (Entry<QName, Object> entry : fieldsToClone.entrySet()) {
             record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry));
         }
         parentRecords.pop();
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Runs over a range of versions of a record, reading a page of versions at a time.
+ *
+ * <p>Each page is read with one get which is limited to the time range of the page, and to as many cell
+ * versions as there are versions in the page. Because fields are stored sparsely, a field which was not changed
+ * within the page still has its older cell in the result, so each version of the page can be decoded from it.</p>
+ */
+class RecordVersionScanner implements RecordScanner {
+    private final BaseRepository repository;
+    private final RecordDecoder recdec;
+    private final RecordId recordId;
+    private final int pageSize;
+    private final List<FieldType> fields;
+    private final FieldTypes fieldTypes;
+
+    /** The last version to return, lowered to the latest version of the record once that is known. */
+    private long toVersion;
+    /** The next version to return. */
+    private long version;
+    /** The last version contained in the current page. */
+    private long pageEnd;
+    private Result page;
+
+    RecordVersionScanner(BaseRepository repository, RecordDecoder recdec, RecordId recordId, long fromVersion,
+            long toVersion, int pageSize, List<FieldType> fields, FieldTypes fieldTypes) {
+        this.repository = repository;
+        this.recdec = recdec;
+        this.recordId = recordId;
+        this.pageSize = pageSize;
+        this.fields = fields;
+        this.fieldTypes = fieldTypes;
+        this.version = Math.max(fromVersion, 1L);
+        this.toVersion = toVersion;
+    }
+
+    @Override
+    public Record next() throws RepositoryException, InterruptedException {
+        if (version > toVersion) {
+            page = null;
+            return null;
+        }
+
+        if (page == null || version > pageEnd) {
+            readPage();
+            if (version > toVersion) {
+                return null;
+            }
+        }
+
+        Record record = recdec.decodeRecords(recordId, Collections.singletonList(version), page, fieldTypes).get(0);
+        version++;
+        return record;
+    }
+
+    private void readPage() throws RepositoryException {
+        pageEnd = Math.min(version + pageSize - 1, toVersion);
+        page = repository.getRow(recordId, pageEnd, (int)(pageEnd - version + 1), fields);
+
+        Long latestVersion = recdec.getLatestVersion(page);
+        if (latestVersion == null) {
+            // record without versions
+            toVersion = 0;
+            page = null;
+        } else if (latestVersion < pageEnd) {
+            // Limit the toVersion to the highest existing version
+            toVersion = latestVersion;
+            pageEnd = latestVersion;
+        }
+    }
+
+    @Override
+    public void close() {
+        page = null;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private Record next;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                } else {
+                    try {
+                        next = RecordVersionScanner.this.next();
+                    } catch (RepositoryException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    return next != null;
+                }
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    return null;
+                }
+
+                Record result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
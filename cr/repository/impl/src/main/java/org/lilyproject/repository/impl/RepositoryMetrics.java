@@ -82,6 +82,18 @@ public class RepositoryMetrics implements Updater {
         }
     }
 
+    /**
+     * Reports a batch of operations, counted as that many operations with an equal share of the duration.
+     */
+    void report(Action action, int operations, long duration) {
+        if (operations > 0) {
+            rates.get(action).inc(operations, duration);
+            if (action != Action.READ) {
+                lastMutationEventTimestamp.set(System.currentTimeMillis());
+            }
+        }
+    }
+
     void reportHBase(HBaseAction action, long duration) {
         hbaseRates.get(action).inc(duration);
     }
@@ -18,6 +18,8 @@ package org.lilyproject.repository.remote;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -28,10 +30,12 @@ import org.lilyproject.avro.AvroConverter;
 import org.lilyproject.avro.AvroGenericException;
 import org.lilyproject.avro.AvroLily;
 import org.lilyproject.avro.AvroRepositoryException;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.IORecordException;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
@@ -43,6 +47,7 @@ import org.lilyproject.repository.impl.AbstractRepositoryManager;
 import org.lilyproject.repository.impl.BaseRepository;
 import org.lilyproject.repository.impl.RecordBuilderImpl;
 import org.lilyproject.repository.impl.RepoTableKey;
+import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.io.Closer;
 
 // ATTENTION: when adding new methods, do not forget to add handling for UndeclaredThrowableException! This is
@@ -55,17 +60,32 @@ public class RemoteRepository extends BaseRepository {
     private Transceiver client;
     private String repositoryName;
     private String tableName;
+    private final Set<String> serverSideReadRepositories;
 
     public RemoteRepository(RepoTableKey repoTableKey, AvroLilyTransceiver lilyTransceiver, AvroConverter converter,
             AbstractRepositoryManager repositoryManager, BlobManager blobManager, HTableInterface recordTable,
             TableManager tableManager, RecordFactory recordFactory)
             throws IOException, InterruptedException {
+        this(repoTableKey, lilyTransceiver, converter, repositoryManager, blobManager, recordTable, tableManager,
+                recordFactory, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param serverSideReadRepositories names of the repositories whose records are read through the Lily server,
+     *                                   rather than directly from HBase. This set is checked on each read, so it
+     *                                   can be changed while the repository is in use.
+     */
+    public RemoteRepository(RepoTableKey repoTableKey, AvroLilyTransceiver lilyTransceiver, AvroConverter converter,
+            AbstractRepositoryManager repositoryManager, BlobManager blobManager, HTableInterface recordTable,
+            TableManager tableManager, RecordFactory recordFactory, Set<String> serverSideReadRepositories)
+            throws IOException, InterruptedException {
         super(repoTableKey, repositoryManager, blobManager, recordTable, null, tableManager, recordFactory);
         this.converter = converter;
         client = lilyTransceiver.getTransceiver();
         lilyProxy = lilyTransceiver.getLilyProxy();
         this.repositoryName = repoTableKey.getRepositoryName();
         this.tableName = repoTableKey.getTableName();
+        this.serverSideReadRepositories = serverSideReadRepositories;
     }
 
     @Override
@@ -93,6 +113,40 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<BatchMutationResult> createBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroBatchMutationResults(
+                    lilyProxy.createBatch(converter.convertRecords(records, this), repositoryName, tableName),
+                    records, this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<BatchMutationResult> updateBatch(List<Record> records) throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroBatchMutationResults(
+                    lilyProxy.updateBatch(converter.convertRecords(records, this), repositoryName, tableName),
+                    records, this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     @Override
     public Record delete(RecordId recordId, List<MutationCondition> conditions)
             throws RepositoryException, InterruptedException {
@@ -213,6 +267,95 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    private boolean isServerSideRead() {
+        return serverSideReadRepositories.contains(repositoryName);
+    }
+
+    @Override
+    public Record read(RecordId recordId, Long version, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        if (!isServerSideRead()) {
+            return super.read(recordId, version, fieldNames);
+        }
+
+        try {
+            return converter.convertRecord(lilyProxy.read(converter.convert(recordId),
+                    converter.convertVersion(version), converter.convert(fieldNames), repositoryName, tableName),
+                    this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<Record> read(List<RecordId> recordIds, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        if (!isServerSideRead()) {
+            return super.read(recordIds, fieldNames);
+        }
+
+        try {
+            return converter.convertAvroRecords(lilyProxy.readMulti(converter.convertRecordIds(recordIds),
+                    converter.convert(fieldNames), repositoryName, tableName), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<Record> readVersions(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        if (!isServerSideRead()) {
+            return super.readVersions(recordId, fromVersion, toVersion, fieldNames);
+        }
+
+        ArgumentValidator.notNull(fromVersion, "fromVersion");
+        ArgumentValidator.notNull(toVersion, "toVersion");
+        return readVersionsFromServer(recordId, fromVersion, toVersion, null, fieldNames);
+    }
+
+    @Override
+    public List<Record> readVersions(RecordId recordId, List<Long> versions, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        if (!isServerSideRead()) {
+            return super.readVersions(recordId, versions, fieldNames);
+        }
+
+        ArgumentValidator.notNull(versions, "versions");
+        if (versions.isEmpty()) {
+            return new ArrayList<Record>();
+        }
+        return readVersionsFromServer(recordId, -1, -1, versions, fieldNames);
+    }
+
+    private List<Record> readVersionsFromServer(RecordId recordId, long fromVersion, long toVersion,
+            List<Long> versions, QName... fieldNames) throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroRecords(lilyProxy.readVersions(converter.convert(recordId), fromVersion,
+                    toVersion, versions, converter.convert(fieldNames), repositoryName, tableName), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     private RuntimeException handleUndeclaredRecordThrowable(UndeclaredThrowableException e) throws RecordException {
         if (e.getCause() instanceof IOException) {
             throw new IORecordException(e.getCause());
@@ -16,6 +16,8 @@
 package org.lilyproject.repository.remote;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 import org.lilyproject.avro.AvroConverter;
 import org.lilyproject.repository.api.BlobManager;
@@ -39,15 +41,28 @@ public class RemoteRepositoryManager extends AbstractRepositoryManager implement
     private AvroConverter avroConverter;
     private BlobManager blobManager;
     private HBaseTableFactory tableFactory;
+    private Set<String> serverSideReadRepositories;
 
     public RemoteRepositoryManager(RemoteTypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
             AvroLilyTransceiver transceiver, AvroConverter avroConverter, BlobManager blobManager,
             HBaseTableFactory tableFactory, RepositoryModel repositoryModel) {
+        this(typeManager, idGenerator, recordFactory, transceiver, avroConverter, blobManager, tableFactory,
+                repositoryModel, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param serverSideReadRepositories names of the repositories whose records should be read through the Lily
+     *                                   server rather than directly from HBase, see {@link RemoteRepository}.
+     */
+    public RemoteRepositoryManager(RemoteTypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
+            AvroLilyTransceiver transceiver, AvroConverter avroConverter, BlobManager blobManager,
+            HBaseTableFactory tableFactory, RepositoryModel repositoryModel, Set<String> serverSideReadRepositories) {
         super(typeManager, idGenerator, recordFactory, repositoryModel);
         this.transceiver = transceiver;
         this.avroConverter = avroConverter;
         this.blobManager = blobManager;
         this.tableFactory = tableFactory;
+        this.serverSideReadRepositories = serverSideReadRepositories;
     }
 
     @Override
@@ -55,7 +70,8 @@ public class RemoteRepositoryManager extends AbstractRepositoryManager implement
         try {
             TableManager tableManager = new RemoteTableManager(key.getRepositoryName(), transceiver, avroConverter);
             Repository repo = new RemoteRepository(key, transceiver, avroConverter, this, blobManager,
-                    LilyHBaseSchema.getRecordTable(tableFactory, key.getRepositoryName(), key.getTableName(), true), tableManager, getRecordFactory());
+                    LilyHBaseSchema.getRecordTable(tableFactory, key.getRepositoryName(), key.getTableName(), true), tableManager, getRecordFactory(),
+                    serverSideReadRepositories);
             if ("true".equals(System.getProperty("lilyclient.trace"))) {
                 repo = TracingRepository.wrap(repo);
             }
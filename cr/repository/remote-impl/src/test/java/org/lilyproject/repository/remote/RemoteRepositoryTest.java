@@ -19,23 +19,30 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.junit.Before;
 import org.junit.Test;
+import org.lilyproject.avro.AvroBatchMutationResult;
 import org.lilyproject.avro.AvroConverter;
 import org.lilyproject.avro.AvroLily;
 import org.lilyproject.avro.AvroMutationCondition;
+import org.lilyproject.avro.AvroQName;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.impl.RepoTableKey;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -47,6 +54,7 @@ public class RemoteRepositoryTest {
     private AvroConverter avroConverter;
     private HTableInterface recordTable;
     private RemoteRepository remoteRepository;
+    private Set<String> serverSideReadRepositories;
     private static final String repositoryName = "default";
 
     @Before
@@ -57,10 +65,12 @@ public class RemoteRepositoryTest {
         avroConverter = mock(AvroConverter.class);
         recordTable = mock(HTableInterface.class);
 
+        serverSideReadRepositories = Sets.newHashSet();
+
         RemoteTableManager tableMgr = new RemoteTableManager(repositoryName, avroLilyTransceiver, avroConverter);
         remoteRepository = new RemoteRepository(new RepoTableKey(repositoryName, Table.RECORD.name), avroLilyTransceiver,
                 avroConverter, mock(RemoteRepositoryManager.class), mock(BlobManager.class), recordTable, tableMgr,
-                mock(RecordFactory.class));
+                mock(RecordFactory.class), serverSideReadRepositories);
     }
 
     @Test
@@ -109,4 +119,81 @@ public class RemoteRepositoryTest {
         verify(avroLily).delete(encodedRecordId, repositoryName, Table.RECORD.name, null, attributes);
     }
 
+    @Test
+    public void testRead_ServerSide() throws Exception {
+        serverSideReadRepositories.add(repositoryName);
+
+        RecordId recordId = mock(RecordId.class);
+        QName[] fieldNames = new QName[] {new QName("ns", "field")};
+
+        ByteBuffer encodedRecordId = mock(ByteBuffer.class);
+        List<AvroQName> encodedFieldNames = Lists.newArrayList(mock(AvroQName.class));
+        ByteBuffer encodedRecord = mock(ByteBuffer.class);
+        Record record = mock(Record.class);
+
+        when(avroConverter.convert(recordId)).thenReturn(encodedRecordId);
+        when(avroConverter.convertVersion(null)).thenReturn(-1L);
+        when(avroConverter.convert(fieldNames)).thenReturn(encodedFieldNames);
+        when(avroLily.read(encodedRecordId, -1L, encodedFieldNames, repositoryName, Table.RECORD.name))
+                .thenReturn(encodedRecord);
+        when(avroConverter.convertRecord(encodedRecord, remoteRepository)).thenReturn(record);
+
+        assertEquals(record, remoteRepository.read(recordId, fieldNames));
+    }
+
+    @Test
+    public void testReadMulti_ServerSide() throws Exception {
+        serverSideReadRepositories.add(repositoryName);
+
+        List<RecordId> recordIds = Lists.newArrayList(mock(RecordId.class), mock(RecordId.class));
+        QName[] fieldNames = new QName[] {new QName("ns", "field")};
+
+        List<ByteBuffer> encodedRecordIds = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<ByteBuffer> encodedRecords = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<AvroQName> encodedFieldNames = Lists.newArrayList(mock(AvroQName.class));
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+
+        when(avroConverter.convertRecordIds(recordIds)).thenReturn(encodedRecordIds);
+        when(avroConverter.convert(fieldNames)).thenReturn(encodedFieldNames);
+        when(avroLily.readMulti(encodedRecordIds, encodedFieldNames, repositoryName, Table.RECORD.name))
+                .thenReturn(encodedRecords);
+        when(avroConverter.convertAvroRecords(encodedRecords, remoteRepository)).thenReturn(records);
+
+        assertEquals(records, remoteRepository.read(recordIds, fieldNames));
+    }
+
+    @Test
+    public void testCreateBatch() throws Exception {
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+        List<ByteBuffer> encodedRecords = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<AvroBatchMutationResult> encodedResults = Lists.newArrayList(new AvroBatchMutationResult(),
+                new AvroBatchMutationResult());
+        List<BatchMutationResult> results = Lists.newArrayList(mock(BatchMutationResult.class),
+                mock(BatchMutationResult.class));
+
+        when(avroConverter.convertRecords(records, remoteRepository)).thenReturn(encodedRecords);
+        when(avroLily.createBatch(encodedRecords, repositoryName, Table.RECORD.name)).thenReturn(encodedResults);
+        when(avroConverter.convertAvroBatchMutationResults(encodedResults, records, remoteRepository))
+                .thenReturn(results);
+
+        assertEquals(results, remoteRepository.createBatch(records));
+    }
+
+    @Test
+    public void testUpdateBatch() throws Exception {
+        List<Record> records = Lists.newArrayList(mock(Record.class), mock(Record.class));
+        List<ByteBuffer> encodedRecords = Lists.newArrayList(mock(ByteBuffer.class), mock(ByteBuffer.class));
+        List<AvroBatchMutationResult> encodedResults = Lists.newArrayList(new AvroBatchMutationResult(),
+                new AvroBatchMutationResult());
+        List<BatchMutationResult> results = Lists.newArrayList(mock(BatchMutationResult.class),
+                mock(BatchMutationResult.class));
+
+        when(avroConverter.convertRecords(records, remoteRepository)).thenReturn(encodedRecords);
+        when(avroLily.updateBatch(encodedRecords, repositoryName, Table.RECORD.name)).thenReturn(encodedResults);
+        when(avroConverter.convertAvroBatchMutationResults(encodedResults, records, remoteRepository))
+                .thenReturn(results);
+
+        assertEquals(results, remoteRepository.updateBatch(records));
+    }
+
 }
@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.Set;
 
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.IdGenerator;
@@ -120,6 +121,18 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.createOrUpdate(record, useLatestRecordType);
     }
 
+    @Override
+    public List<BatchMutationResult> createBatch(List<Record> records)
+            throws RepositoryException, InterruptedException {
+        return delegate.createBatch(records);
+    }
+
+    @Override
+    public List<BatchMutationResult> updateBatch(List<Record> records)
+            throws RepositoryException, InterruptedException {
+        return delegate.updateBatch(records);
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
         return delegate.read(recordId, fieldNames);
@@ -178,12 +191,24 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.readVersions(recordId, versions, fieldNames);
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, int pageSize,
+            QName... fieldNames) throws RepositoryException, InterruptedException {
+        return delegate.getVersionScanner(recordId, fromVersion, toVersion, pageSize, fieldNames);
+    }
+
     @Override
     public IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException {
         return delegate.readWithIds(recordId, version, fieldIds);
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.readWithIds(recordIds, fieldIds);
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         delegate.delete(recordId);
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.ValueType;
+
+/**
+ * Remembers the encoded field values during one record write, so that a value which is needed in encoded form
+ * both by a {@link RecordUpdateHook} and by the repository itself is only encoded once.
+ *
+ * <p>The repository starts a context for the current thread before calling the update hooks, and ends it after
+ * the record has been turned into a put. Hooks don't need to know about it: they simply use
+ * {@link #encodeValue}, which falls back to {@link ValueType#toBytes} when no context is active. The repository
+ * itself only looks up the encodings the hooks produced, with {@link #getEncoded}, and otherwise writes the values
+ * directly to its output.</p>
+ *
+ * <p>The encoded values are cached by field type and value equality. Values of RECORD or BLOB types are never
+ * cached: the encoding of records depends on the enclosing records, and blobs are mutable. Other values should
+ * not be modified in place during the write, which the repository doesn't do. The returned byte arrays are
+ * shared and should not be modified.</p>
+ */
+public final class FieldEncodingContext {
+    private static final ThreadLocal<FieldEncodingContext> CURRENT = new ThreadLocal<FieldEncodingContext>();
+
+    private final Map<EncodingKey, byte[]> encodings = new HashMap<EncodingKey, byte[]>();
+
+    /** Number of started writes on this thread, a hook could in turn write records. */
+    private int depth;
+
+    private FieldEncodingContext() {
+    }
+
+    /**
+     * Starts a context for the current thread, or joins the one that is already active. Each call should be
+     * followed by a call to {@link #end}, in a finally block.
+     */
+    public static void start() {
+        FieldEncodingContext context = CURRENT.get();
+        if (context == null) {
+            context = new FieldEncodingContext();
+            CURRENT.set(context);
+        }
+        context.depth++;
+    }
+
+    public static void end() {
+        FieldEncodingContext context = CURRENT.get();
+        if (context != null && --context.depth == 0) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * The context of the current thread, null if there is none.
+     */
+    public static FieldEncodingContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Encodes a field value, reusing the encoding from the current context if there is one.
+     */
+    public static byte[] encodeValue(FieldType fieldType, Object value, IdentityRecordStack parentRecords)
+            throws RepositoryException, InterruptedException {
+        FieldEncodingContext context = CURRENT.get();
+        if (context == null) {
+            return fieldType.getValueType().toBytes(value, parentRecords);
+        }
+        return context.encode(fieldType, value, parentRecords);
+    }
+
+    public byte[] encode(FieldType fieldType, Object value, IdentityRecordStack parentRecords)
+            throws RepositoryException, InterruptedException {
+        ValueType valueType = fieldType.getValueType();
+        if (!isCacheable(valueType)) {
+            return valueType.toBytes(value, parentRecords);
+        }
+
+        EncodingKey key = new EncodingKey(fieldType.getId(), value);
+        byte[] encoded = encodings.get(key);
+        if (encoded == null) {
+            encoded = valueType.toBytes(value, parentRecords);
+            encodings.put(key, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the encoding of the value if it was already made in this context, otherwise null.
+     */
+    public byte[] getEncoded(FieldType fieldType, Object value) {
+        if (encodings.isEmpty() || !isCacheable(fieldType.getValueType())) {
+            return null;
+        }
+        return encodings.get(new EncodingKey(fieldType.getId(), value));
+    }
+
+    private static boolean isCacheable(ValueType valueType) {
+        String baseName = valueType.getDeepestValueType().getBaseName();
+        return !baseName.equals("RECORD") && !baseName.equals("BLOB");
+    }
+
+    private static final class EncodingKey {
+        private final SchemaId fieldTypeId;
+        private final Object value;
+
+        EncodingKey(SchemaId fieldTypeId, Object value) {
+            this.fieldTypeId = fieldTypeId;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EncodingKey)) {
+                return false;
+            }
+            EncodingKey other = (EncodingKey)obj;
+            return fieldTypeId.equals(other.fieldTypeId) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fieldTypeId.hashCode() + value.hashCode();
+        }
+    }
+}
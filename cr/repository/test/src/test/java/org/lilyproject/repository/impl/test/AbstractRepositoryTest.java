@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,6 +38,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.bytes.api.ByteArray;
+import org.lilyproject.repository.api.BatchMutationResult;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
@@ -46,6 +48,7 @@ import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
 import org.lilyproject.repository.api.InvalidRecordException;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.Metadata;
 import org.lilyproject.repository.api.MetadataBuilder;
@@ -67,6 +70,7 @@ import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.ReturnFields;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TableCreateDescriptor;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
@@ -107,6 +111,7 @@ public abstract class AbstractRepositoryTest {
     private static RecordType recordType2;
     private static RecordType recordType3;
     private static String namespace = "/test/repository";
+    private static final String PARALLEL_SCAN_TABLE = "parallelscan";
 
 
     @Before
@@ -587,6 +592,51 @@ public abstract class AbstractRepositoryTest {
         assertTrue(list.contains(repository.read(record.getId(), 3L)));
     }
 
+    @Test
+    public void testVersionScanner() throws Exception {
+        Record record = createDefaultRecord();
+
+        Record updateRecord = record.cloneRecord();
+        updateRecord.setField(fieldType1.getName(), "value2");
+        updateRecord.setField(fieldType2.getName(), 789);
+        updateRecord.setField(fieldType3.getName(), false);
+        repository.update(updateRecord);
+
+        // Versions 3 to 5 only change fieldType2, so the other fields have to be taken from older versions
+        for (int i = 0; i < 3; i++) {
+            updateRecord = record.cloneRecord();
+            updateRecord.setField(fieldType2.getName(), 790 + i);
+            repository.update(updateRecord);
+        }
+
+        // The pages of two versions don't line up with the range
+        List<Record> expected = repository.readVersions(record.getId(), 2L, 5L, (QName[]) null);
+        List<Record> scanned = new ArrayList<Record>();
+        RecordScanner scanner = repository.getVersionScanner(record.getId(), 2L, 5L, 2);
+        for (Record scannedRecord : scanner) {
+            scanned.add(scannedRecord);
+        }
+        scanner.close();
+        assertEquals(4, scanned.size());
+        for (int i = 0; i < scanned.size(); i++) {
+            assertEquals(Long.valueOf(i + 2), scanned.get(i).getVersion());
+            assertTrue(expected.contains(scanned.get(i)));
+        }
+
+        // The range is limited to the existing versions, and the fields to read are respected
+        scanner = repository.getVersionScanner(record.getId(), 0L, 10L, 3, fieldType3.getName());
+        Record scannedRecord;
+        long version = 1;
+        while ((scannedRecord = scanner.next()) != null) {
+            assertEquals(Long.valueOf(version), scannedRecord.getVersion());
+            assertEquals(version == 1, scannedRecord.getField(fieldType3.getName()));
+            assertFalse(scannedRecord.hasField(fieldType2.getName()));
+            version++;
+        }
+        scanner.close();
+        assertEquals(6, version);
+    }
+
     @Test
     public void testReadSpecificVersions() throws Exception {
         Record record = createDefaultRecord();
@@ -1703,6 +1753,84 @@ public abstract class AbstractRepositoryTest {
         assertTrue(readRecords.isEmpty());
     }
 
+    @Test
+    public void testCreateAndUpdateBatch() throws Exception {
+        Record existing = createDefaultRecord();
+
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 3; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "batch" + i);
+            records.add(record);
+        }
+        // a record which already exists
+        Record duplicate = repository.newRecord(existing.getId());
+        duplicate.setRecordType(recordType1.getName(), recordType1.getVersion());
+        duplicate.setField(fieldType1.getName(), "duplicate");
+        records.add(duplicate);
+
+        List<BatchMutationResult> results = repository.createBatch(records);
+        assertEquals(4, results.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(ResponseStatus.CREATED, results.get(i).getResponseStatus());
+            assertEquals("batch" + i, repository.read(results.get(i).getRecord().getId())
+                    .getField(fieldType1.getName()));
+        }
+        assertFalse(results.get(3).isSuccess());
+        assertTrue(results.get(3).getException() instanceof RecordExistsException);
+
+        List<Record> updates = new ArrayList<Record>();
+        Record update = repository.newRecord(results.get(0).getRecord().getId());
+        update.setField(fieldType1.getName(), "updated");
+        updates.add(update);
+        Record unchanged = repository.newRecord(results.get(1).getRecord().getId());
+        unchanged.setField(fieldType1.getName(), "batch1");
+        updates.add(unchanged);
+        Record missing = repository.newRecord(idGenerator.newRecordId());
+        missing.setField(fieldType1.getName(), "missing");
+        updates.add(missing);
+
+        results = repository.updateBatch(updates);
+        assertEquals(3, results.size());
+        assertEquals(ResponseStatus.UPDATED, results.get(0).getResponseStatus());
+        assertEquals("updated", repository.read(update.getId()).getField(fieldType1.getName()));
+        assertEquals(ResponseStatus.UP_TO_DATE, results.get(1).getResponseStatus());
+        assertTrue(results.get(2).getException() instanceof RecordNotFoundException);
+    }
+
+    @Test
+    public void testBatchWithDuplicateIds() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 2; i++) {
+            Record record = repository.newRecord(recordId);
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "create" + i);
+            records.add(record);
+        }
+
+        List<BatchMutationResult> results = repository.createBatch(records);
+        assertEquals(2, results.size());
+        assertEquals(ResponseStatus.CREATED, results.get(0).getResponseStatus());
+        assertTrue(results.get(1).getException() instanceof InvalidRecordException);
+        assertEquals("create0", repository.read(recordId).getField(fieldType1.getName()));
+
+        records.clear();
+        for (int i = 0; i < 2; i++) {
+            Record record = repository.newRecord(recordId);
+            record.setField(fieldType1.getName(), "update" + i);
+            records.add(record);
+        }
+
+        results = repository.updateBatch(records);
+        assertEquals(2, results.size());
+        assertEquals(ResponseStatus.UPDATED, results.get(0).getResponseStatus());
+        assertTrue(results.get(1).getException() instanceof InvalidRecordException);
+        assertEquals("update0", repository.read(recordId).getField(fieldType1.getName()));
+    }
+
     @Test
     public void testConditionalUpdate() throws Exception {
         Record record = createDefaultRecord();
@@ -2390,6 +2518,81 @@ public abstract class AbstractRepositoryTest {
         final IdRecord casted = (IdRecord) next;
     }
 
+    @Test
+    public void testParallelScanOrdered() throws Exception {
+        List<RecordId> recordIds = createParallelScanRecords();
+        LTable table = repository.getTable(PARALLEL_SCAN_TABLE);
+
+        RecordScan scan = new RecordScan();
+        scan.setParallelism(3);
+        scan.setCaching(2); // the regions can only be read a few records ahead
+        RecordScanner scanner = table.getScanner(scan);
+
+        List<RecordId> scannedIds = new ArrayList<RecordId>();
+        Record record;
+        while ((record = scanner.next()) != null) {
+            scannedIds.add(record.getId());
+            assertEquals("value " + record.getId(), record.getField(fieldType1.getName()));
+        }
+        scanner.close();
+
+        assertEquals(recordIds, scannedIds);
+    }
+
+    @Test
+    public void testParallelScanUnordered() throws Exception {
+        List<RecordId> recordIds = createParallelScanRecords();
+        LTable table = repository.getTable(PARALLEL_SCAN_TABLE);
+
+        RecordScan scan = new RecordScan();
+        scan.setParallelism(3);
+        scan.setOrdered(false);
+        scan.setCaching(2);
+        // starts and stops in the middle of a region
+        scan.setStartRecordId(recordIds.get(3));
+        scan.setStopRecordId(recordIds.get(36));
+        IdRecordScanner scanner = table.getScannerWithIds(scan);
+
+        Set<RecordId> scannedIds = new HashSet<RecordId>();
+        IdRecord record;
+        int count = 0;
+        while ((record = scanner.next()) != null) {
+            scannedIds.add(record.getId());
+            count++;
+        }
+        scanner.close();
+
+        assertEquals(33, count);
+        assertEquals(new HashSet<RecordId>(recordIds.subList(3, 36)), scannedIds);
+    }
+
+    /**
+     * Creates a table with 4 regions holding 10 records each, returns the record IDs in table order.
+     */
+    private List<RecordId> createParallelScanRecords() throws Exception {
+        List<RecordId> recordIds = new ArrayList<RecordId>();
+        for (int i = 0; i < 40; i++) {
+            recordIds.add(idGenerator.newRecordId(String.format("parallelscan-%02d", i)));
+        }
+
+        if (!repository.getTableManager().tableExists(PARALLEL_SCAN_TABLE)) {
+            byte[][] splitKeys = new byte[][] {recordIds.get(10).toBytes(), recordIds.get(20).toBytes(),
+                    recordIds.get(30).toBytes()};
+            repository.getTableManager().createTable(new TableCreateDescriptor(PARALLEL_SCAN_TABLE, splitKeys));
+
+            LTable table = repository.getTable(PARALLEL_SCAN_TABLE);
+            for (RecordId recordId : recordIds) {
+                table.recordBuilder()
+                        .id(recordId)
+                        .recordType(recordType1.getName())
+                        .field(fieldType1.getName(), "value " + recordId)
+                        .create();
+            }
+        }
+
+        return recordIds;
+    }
+
     @Test
     public void testRecordTypeFilter() throws Exception {
         RecordType rt1 = typeManager.recordTypeBuilder()
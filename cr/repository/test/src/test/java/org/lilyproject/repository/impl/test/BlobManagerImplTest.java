@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.BlobStoreAccessFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.BlobManagerImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the blob incubation of the BlobManagerImpl against an in-memory blob incubator table.
+ */
+public class BlobManagerImplTest {
+    private static final String BLOBSTORE_ID = "test";
+    private static final byte[] INCUBATE = new byte[]{(byte)-1};
+
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+    private FieldType fieldType;
+    private HTableInterface incubatorTable;
+    /** The contents of the blob incubator table: the record column of each row. */
+    private final Map<String, byte[]> incubatorRows = new HashMap<String, byte[]>();
+    private CountDownLatch deleteStarted;
+    private CountDownLatch deleteMayProceed;
+    private BlobManagerImpl blobManager;
+
+    @Before
+    public void setUp() throws Exception {
+        fieldType = mock(FieldType.class);
+        when(fieldType.getId()).thenReturn(new SchemaIdImpl(UUID.randomUUID()));
+
+        incubatorTable = mock(HTableInterface.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Put put = (Put)invocation.getArguments()[0];
+                synchronized (incubatorRows) {
+                    incubatorRows.put(Bytes.toStringBinary(put.getRow()), INCUBATE);
+                }
+                return null;
+            }
+        }).when(incubatorTable).put(any(Put.class));
+        when(incubatorTable.checkAndPut(any(byte[].class), any(byte[].class), any(byte[].class), any(byte[].class),
+                any(Put.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                String row = Bytes.toStringBinary((byte[])invocation.getArguments()[0]);
+                byte[] expected = (byte[])invocation.getArguments()[3];
+                Put put = (Put)invocation.getArguments()[4];
+                synchronized (incubatorRows) {
+                    byte[] current = incubatorRows.get(row);
+                    if (current == null || !Arrays.equals(current, expected)) {
+                        return false;
+                    }
+                    incubatorRows.put(row, put.getFamilyMap().values().iterator().next().get(0).getValue());
+                    return true;
+                }
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (deleteStarted != null) {
+                    deleteStarted.countDown();
+                    deleteMayProceed.await();
+                }
+                List<Delete> deletes = (List<Delete>)invocation.getArguments()[0];
+                synchronized (incubatorRows) {
+                    for (Delete delete : deletes) {
+                        incubatorRows.remove(Bytes.toStringBinary(delete.getRow()));
+                    }
+                }
+                return null;
+            }
+        }).when(incubatorTable).delete(anyListOf(Delete.class));
+
+        HBaseTableFactory tableFactory = mock(HBaseTableFactory.class);
+        when(tableFactory.getTable(any(HTableDescriptor.class), anyBoolean())).thenReturn(incubatorTable);
+
+        BlobStoreAccess blobStoreAccess = mock(BlobStoreAccess.class);
+        when(blobStoreAccess.getId()).thenReturn(BLOBSTORE_ID);
+        when(blobStoreAccess.incubate()).thenReturn(true);
+        BlobStoreAccessFactory blobStoreAccessFactory = mock(BlobStoreAccessFactory.class);
+        when(blobStoreAccessFactory.getAll()).thenReturn(Collections.singletonList(blobStoreAccess));
+
+        blobManager = new BlobManagerImpl(tableFactory, blobStoreAccessFactory, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (deleteMayProceed != null) {
+            deleteMayProceed.countDown();
+        }
+        blobManager.close();
+    }
+
+    private Blob newIncubatedBlob() throws Exception {
+        // The blob key as encoded by the BlobStoreAccessRegistry: key, blobstore id, length of the id
+        byte[] idBytes = Bytes.toBytes(BLOBSTORE_ID);
+        byte[] key = Bytes.add(Bytes.toBytes(UUID.randomUUID().toString()), idBytes, Bytes.toBytes(idBytes.length));
+        blobManager.incubateBlob(key);
+        return new Blob(key, "text/plain", 1L, "blob");
+    }
+
+    private int incubatorSize() {
+        synchronized (incubatorRows) {
+            return incubatorRows.size();
+        }
+    }
+
+    @Test
+    public void testQueuedDeletesFinishedOnClose() throws Exception {
+        deleteStarted = new CountDownLatch(1);
+        deleteMayProceed = new CountDownLatch(1);
+
+        RecordId recordId = idGenerator.newRecordId();
+        Blob blob1 = newIncubatedBlob();
+        Blob blob2 = newIncubatedBlob();
+        Set<BlobReference> references1 = Collections.singleton(new BlobReference(blob1, recordId, fieldType));
+        Set<BlobReference> references2 = Collections.singleton(new BlobReference(blob2, recordId, fieldType));
+        assertTrue(blobManager.reserveBlobs(references1).isEmpty());
+        assertTrue(blobManager.reserveBlobs(references2).isEmpty());
+
+        // The first delete is in progress in the background while the second one is queued
+        blobManager.handleBlobReferences(recordId, references1, null);
+        assertTrue(deleteStarted.await(10, TimeUnit.SECONDS));
+        blobManager.handleBlobReferences(recordId, references2, null);
+        assertEquals(2, incubatorSize());
+
+        deleteMayProceed.countDown();
+        blobManager.close();
+        assertEquals(0, incubatorSize());
+    }
+
+    @Test
+    public void testReservationRacingWithCleanup() throws Exception {
+        final RecordId recordId = idGenerator.newRecordId();
+        final Blob blob = newIncubatedBlob();
+        final Set<BlobReference> references = Collections.singleton(new BlobReference(blob, recordId, fieldType));
+        assertTrue(blobManager.reserveBlobs(references).isEmpty());
+
+        // While the entry of the reserved blob is cleaned up, other records reserving the same blob must fail,
+        // and the reservations of other blobs must not be affected
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            RecordId otherRecordId = idGenerator.newRecordId();
+                            Set<BlobReference> sameBlob = Collections.singleton(
+                                    new BlobReference(blob, otherRecordId, fieldType));
+                            if (blobManager.reserveBlobs(sameBlob).size() != 1) {
+                                failures.incrementAndGet();
+                            }
+
+                            Set<BlobReference> otherBlobs = new HashSet<BlobReference>();
+                            otherBlobs.add(new BlobReference(newIncubatedBlob(), otherRecordId, fieldType));
+                            otherBlobs.add(new BlobReference(newIncubatedBlob(), otherRecordId, fieldType));
+                            if (!blobManager.reserveBlobs(otherBlobs).isEmpty()) {
+                                failures.incrementAndGet();
+                            }
+                            blobManager.handleBlobReferences(otherRecordId, otherBlobs, null);
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        blobManager.handleBlobReferences(recordId, references, null);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        blobManager.close();
+        assertEquals(0, incubatorSize());
+    }
+}
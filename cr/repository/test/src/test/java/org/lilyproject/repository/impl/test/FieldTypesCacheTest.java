@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.TypeBucket;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.FieldTypesCache;
+import org.lilyproject.repository.impl.FieldTypesImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FieldTypesCacheTest {
+
+    private FieldType newFieldType(SchemaId id, String name) {
+        return new FieldTypeImpl(id, null, new QName("ns", name), Scope.NON_VERSIONED);
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() throws Exception {
+        FieldTypesCache cache = new FieldTypesCache();
+        FieldType fieldType1 = newFieldType(new SchemaIdImpl(UUID.randomUUID()), "field1");
+        cache.update(fieldType1);
+
+        FieldTypesImpl snapshot = cache.getSnapshot();
+        assertSame(snapshot, cache.getSnapshot());
+
+        FieldType fieldType2 = newFieldType(new SchemaIdImpl(UUID.randomUUID()), "field2");
+        cache.update(fieldType2);
+
+        // The old snapshot is not affected by the update
+        assertFalse(snapshot.fieldTypeExists(fieldType2.getName()));
+        assertEquals(1, snapshot.getFieldTypes().size());
+
+        FieldTypesImpl newSnapshot = cache.getSnapshot();
+        assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+        assertEquals(fieldType1, newSnapshot.getFieldType(fieldType1.getId()));
+        assertEquals(fieldType2, newSnapshot.getFieldType(fieldType2.getName()));
+        assertEquals(2, newSnapshot.getFieldTypes().size());
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        FieldTypesCache cache = new FieldTypesCache();
+        SchemaId id = new SchemaIdImpl(UUID.randomUUID());
+        cache.update(newFieldType(id, "before"));
+        cache.update(newFieldType(id, "after"));
+
+        FieldTypes snapshot = cache.getSnapshot();
+        assertNull(snapshot.getFieldTypeByNameReturnNull(new QName("ns", "before")));
+        assertEquals(id, snapshot.getFieldType(new QName("ns", "after")).getId());
+        assertEquals(new QName("ns", "after"), snapshot.getFieldType(id).getName());
+        assertEquals(1, snapshot.getFieldTypes().size());
+    }
+
+    @Test
+    public void testRefreshSkipsLocalUpdates() throws Exception {
+        FieldTypesCache cache = new FieldTypesCache();
+        SchemaId id = new SchemaIdImpl(UUID.randomUUID());
+        cache.update(newFieldType(id, "new"));
+
+        // A refresh can still contain the state from before the local update
+        TypeBucket bucket = new TypeBucket(AbstractSchemaCache.encodeHex(id.getBytes()));
+        bucket.add(newFieldType(id, "old"));
+        cache.refreshFieldTypeBucket(bucket);
+        assertEquals(new QName("ns", "new"), cache.getFieldType(id).getName());
+
+        // But the next refresh is taken into account
+        cache.refreshFieldTypeBucket(bucket);
+        assertEquals(new QName("ns", "old"), cache.getFieldType(id).getName());
+    }
+
+    @Test
+    public void testConcurrentReadersAndUpdates() throws Exception {
+        final FieldTypesCache cache = new FieldTypesCache();
+        final List<FieldType> fieldTypes = new ArrayList<FieldType>();
+        for (int i = 0; i < 2000; i++) {
+            fieldTypes.add(newFieldType(new SchemaIdImpl(UUID.randomUUID()), "field" + i));
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            FieldTypesImpl snapshot = cache.getSnapshot();
+                            // A snapshot always contains a consistent prefix of the added field types
+                            int count = snapshot.getFieldTypes().size();
+                            for (int i = 0; i < count; i++) {
+                                FieldType fieldType = fieldTypes.get(i);
+                                assertEquals(fieldType, snapshot.getFieldType(fieldType.getId()));
+                                assertEquals(fieldType, snapshot.getFieldType(fieldType.getName()));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (FieldType fieldType : fieldTypes) {
+            cache.update(fieldType);
+        }
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(fieldTypes.size(), cache.getFieldTypes().size());
+    }
+}
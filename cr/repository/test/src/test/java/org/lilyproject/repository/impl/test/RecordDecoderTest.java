@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.FieldTypesImpl;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.RecordImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordDecoderTest {
+    private static final int FIELD_COUNT = 10;
+
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+    private RecordDecoder recordDecoder;
+    private CountingStringValueType valueType;
+    private List<FieldType> fieldTypes;
+    private FieldTypesImpl fieldTypesSnapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        recordDecoder = new RecordDecoder(null, idGenerator, new RecordFactoryImpl());
+        createFieldTypes(new CountingStringValueType());
+    }
+
+    private void createFieldTypes(CountingStringValueType valueType) {
+        this.valueType = valueType;
+        fieldTypes = new ArrayList<FieldType>();
+        FieldTypesImpl.Builder builder = new FieldTypesImpl.Builder(new FieldTypesImpl());
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            FieldType fieldType = new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), valueType,
+                    new QName("ns", "field" + i), Scope.NON_VERSIONED);
+            fieldTypes.add(fieldType);
+            builder.put(fieldType);
+        }
+        fieldTypesSnapshot = builder.build();
+    }
+
+    private Result createResult(RecordId recordId) throws Exception {
+        byte[] row = recordId.toBytes();
+        List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            DataOutputImpl dataOutput = new DataOutputImpl();
+            dataOutput.writeByte(FieldFlags.DEFAULT);
+            valueType.write("value" + i, dataOutput, new IdentityRecordStack());
+            keyValues.add(new KeyValue(row, RecordCf.DATA.bytes, ((FieldTypeImpl)fieldTypes.get(i)).getQualifier(),
+                    1L, dataOutput.toByteArray()));
+        }
+        KeyValue[] sorted = keyValues.toArray(new KeyValue[keyValues.size()]);
+        Arrays.sort(sorted, KeyValue.COMPARATOR);
+        return new Result(sorted);
+    }
+
+    @Test
+    public void testFieldsDecodedOnAccess() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId), fieldTypesSnapshot);
+
+        assertEquals(0, valueType.reads);
+        assertTrue(record.hasField(fieldTypes.get(3).getName()));
+        assertEquals(0, valueType.reads);
+
+        assertEquals("value3", record.getField(fieldTypes.get(3).getName()));
+        assertEquals("value3", record.getField(fieldTypes.get(3).getName()));
+        assertEquals(1, valueType.reads);
+
+        assertEquals(FIELD_COUNT, record.getFields().size());
+        assertEquals(1, valueType.reads);
+
+        // Iterating the fields decodes all of them
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            assertEquals("value" + i, record.getFields().get(fieldTypes.get(i).getName()));
+        }
+        assertEquals(FIELD_COUNT, valueType.reads);
+    }
+
+    @Test
+    public void testBehavesAsEagerRecord() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        Record lazyRecord = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId),
+                fieldTypesSnapshot);
+
+        Record eagerRecord = new RecordImpl(recordId);
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            eagerRecord.setField(fieldTypes.get(i).getName(), "value" + i);
+        }
+
+        assertEquals(eagerRecord, lazyRecord);
+        assertEquals(lazyRecord, eagerRecord);
+        assertEquals(eagerRecord.hashCode(), lazyRecord.hashCode());
+
+        // Modifications
+        Record lazyRecord2 = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId),
+                fieldTypesSnapshot);
+        lazyRecord2.setField(fieldTypes.get(0).getName(), "changed");
+        lazyRecord2.delete(fieldTypes.get(1).getName(), true);
+        assertFalse(lazyRecord2.hasField(fieldTypes.get(1).getName()));
+        assertEquals(FIELD_COUNT - 1, lazyRecord2.getFields().size());
+        assertEquals("changed", lazyRecord2.getField(fieldTypes.get(0).getName()));
+        assertEquals(1, lazyRecord2.getFieldsToDelete().size());
+    }
+
+    @Test
+    public void testModifyWithoutDecoding() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId), fieldTypesSnapshot);
+
+        record.setField(fieldTypes.get(0).getName(), "changed");
+        record.delete(fieldTypes.get(1).getName(), false);
+        assertEquals(0, valueType.reads);
+
+        assertEquals("changed", record.getField(fieldTypes.get(0).getName()));
+        assertFalse(record.hasField(fieldTypes.get(1).getName()));
+        assertEquals(FIELD_COUNT - 1, record.getFields().size());
+    }
+
+    @Test
+    public void testEntrySetWritesThrough() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId), fieldTypesSnapshot);
+
+        Iterator<Map.Entry<QName, Object>> it = record.getFields().entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<QName, Object> entry = it.next();
+            if (entry.getKey().equals(fieldTypes.get(0).getName())) {
+                entry.setValue("changed");
+            } else if (entry.getKey().equals(fieldTypes.get(1).getName())) {
+                it.remove();
+            }
+        }
+
+        assertEquals("changed", record.getField(fieldTypes.get(0).getName()));
+        assertFalse(record.hasField(fieldTypes.get(1).getName()));
+        assertEquals(FIELD_COUNT - 1, record.getFields().size());
+        assertEquals(FIELD_COUNT - 1, record.getFields().keySet().size());
+    }
+
+    @Test
+    public void testCloneLazyRecord() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId), fieldTypesSnapshot);
+
+        record.getField(fieldTypes.get(0).getName());
+        Record clone = record.cloneRecord();
+        assertEquals(1, valueType.reads);
+
+        assertEquals(record, clone);
+        clone.setField(fieldTypes.get(1).getName(), "changed");
+        assertEquals("value1", record.getField(fieldTypes.get(1).getName()));
+        assertEquals("changed", clone.getField(fieldTypes.get(1).getName()));
+    }
+
+    @Test
+    public void testGetFieldsById() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        IdRecord record = recordDecoder.decodeRecordWithIds(recordId, null, createResult(recordId),
+                fieldTypesSnapshot);
+
+        assertEquals("value4", record.getField(fieldTypes.get(4).getId()));
+        assertEquals(1, valueType.reads);
+
+        assertEquals(FIELD_COUNT, record.getFieldsById().size());
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            assertEquals("value" + i, record.getFieldsById().get(fieldTypes.get(i).getId()));
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        final Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId),
+                fieldTypesSnapshot);
+
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < FIELD_COUNT; i++) {
+                            if (!("value" + i).equals(record.getField(fieldTypes.get(i).getName()))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        // each value is decoded only once
+        assertEquals(FIELD_COUNT, valueType.reads);
+    }
+
+    @Test
+    public void testConcurrentIteration() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        final Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId),
+                fieldTypesSnapshot);
+        final QName extraField = new QName("ns", "extra");
+
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final boolean writer = t == 0;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            if (writer) {
+                                record.setField(extraField, "extra" + i);
+                                record.delete(extraField, false);
+                            } else {
+                                int count = 0;
+                                for (QName name : record.getFields().keySet()) {
+                                    if (!name.equals(extraField)) {
+                                        count++;
+                                    }
+                                }
+                                if (count != FIELD_COUNT) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void testRecordValuesDecodedOnRead() throws Exception {
+        // Decoding record values can fail with a RepositoryException, which should be thrown by the read
+        createFieldTypes(new CountingStringValueType() {
+            @Override
+            public ValueType getDeepestValueType() {
+                return new StringValueType() {
+                    @Override
+                    public String getBaseName() {
+                        return "RECORD";
+                    }
+                };
+            }
+        });
+        RecordId recordId = idGenerator.newRecordId();
+        Record record = recordDecoder.decodeRecord(recordId, null, null, createResult(recordId), fieldTypesSnapshot);
+
+        assertEquals(FIELD_COUNT, valueType.reads);
+        assertEquals("value3", record.getField(fieldTypes.get(3).getName()));
+        assertEquals(FIELD_COUNT, valueType.reads);
+    }
+
+    private static class CountingStringValueType extends StringValueType {
+        volatile int reads;
+
+        @Override
+        public String read(DataInput dataInput) {
+            reads++;
+            return super.read(dataInput);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi.test;
+
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+import org.lilyproject.repository.spi.FieldEncodingContext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FieldEncodingContextTest {
+    @After
+    public void tearDown() {
+        while (FieldEncodingContext.current() != null) {
+            FieldEncodingContext.end();
+        }
+    }
+
+    @Test
+    public void testNestedStartEnd() throws Exception {
+        assertNull(FieldEncodingContext.current());
+
+        FieldEncodingContext.start();
+        FieldEncodingContext context = FieldEncodingContext.current();
+        assertNotNull(context);
+
+        // e.g. an update hook which writes another record joins the context
+        FieldEncodingContext.start();
+        assertSame(context, FieldEncodingContext.current());
+        FieldEncodingContext.end();
+        assertSame(context, FieldEncodingContext.current());
+
+        FieldEncodingContext.end();
+        assertNull(FieldEncodingContext.current());
+
+        // the next write gets a new context
+        FieldEncodingContext.start();
+        assertNotSame(context, FieldEncodingContext.current());
+        FieldEncodingContext.end();
+    }
+
+    @Test
+    public void testEncodingReused() throws Exception {
+        FieldType fieldType = createFieldType(new StringValueType());
+
+        // without a context, nothing is remembered
+        byte[] encoded = FieldEncodingContext.encodeValue(fieldType, "value", new IdentityRecordStack());
+        assertArrayEquals(fieldType.getValueType().toBytes("value", new IdentityRecordStack()), encoded);
+        assertNotSame(encoded, FieldEncodingContext.encodeValue(fieldType, "value", new IdentityRecordStack()));
+
+        FieldEncodingContext.start();
+        FieldEncodingContext context = FieldEncodingContext.current();
+        assertNull(context.getEncoded(fieldType, "value"));
+
+        encoded = FieldEncodingContext.encodeValue(fieldType, "value", new IdentityRecordStack());
+        assertSame(encoded, FieldEncodingContext.encodeValue(fieldType, new String("value"), new IdentityRecordStack()));
+        assertSame(encoded, context.getEncoded(fieldType, "value"));
+        assertNull(context.getEncoded(fieldType, "other value"));
+        // encodings are kept per field type
+        assertNull(context.getEncoded(createFieldType(new StringValueType()), "value"));
+        FieldEncodingContext.end();
+    }
+
+    @Test
+    public void testRecordAndBlobValuesNotCached() throws Exception {
+        FieldEncodingContext.start();
+        FieldEncodingContext context = FieldEncodingContext.current();
+        for (String baseName : new String[] {"RECORD", "BLOB"}) {
+            FieldType fieldType = createFieldType(new NamedValueType(baseName));
+            byte[] encoded = context.encode(fieldType, "value", new IdentityRecordStack());
+            assertEquals("value", fieldType.getValueType().read(encoded));
+            assertNotSame(encoded, context.encode(fieldType, "value", new IdentityRecordStack()));
+            assertNull(context.getEncoded(fieldType, "value"));
+        }
+        FieldEncodingContext.end();
+    }
+
+    private FieldType createFieldType(ValueType valueType) {
+        return new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), valueType, new QName("ns", "field"),
+                Scope.NON_VERSIONED);
+    }
+
+    /**
+     * Stands in for the value types which are not cached, the caching only looks at their name.
+     */
+    private static class NamedValueType extends StringValueType {
+        private final String baseName;
+
+        NamedValueType(String baseName) {
+            this.baseName = baseName;
+        }
+
+        @Override
+        public String getBaseName() {
+            return baseName;
+        }
+    }
+}
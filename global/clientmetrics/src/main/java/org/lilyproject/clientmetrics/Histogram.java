@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of values with a fixed memory size, which can be updated concurrently without locking.
+ *
+ * <p>The buckets are log-linear: values are counted in units of 1/1000 (so microseconds for millisecond
+ * durations), the first 32 units each have their own bucket, and each next power of two is split in 32 buckets.
+ * This keeps the relative error of the percentiles below about 3%. Negative values are counted in the first
+ * bucket, values above about 68 million are counted in the last one. The minimum and maximum are exact.</p>
+ */
+class Histogram {
+    private static final double UNITS = 1000d;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** Values from 2^MAX_BITS units and up go in the last bucket. */
+    private static final int MAX_BITS = 36;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_BITS - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong minBits = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+    private final AtomicLong maxBits = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+
+    public void record(double value) {
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+
+        long current;
+        while (value < Double.longBitsToDouble(current = minBits.get())) {
+            if (minBits.compareAndSet(current, Double.doubleToLongBits(value))) {
+                break;
+            }
+        }
+        while (value > Double.longBitsToDouble(current = maxBits.get())) {
+            if (maxBits.compareAndSet(current, Double.doubleToLongBits(value))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the values recorded in another histogram to this one.
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = other.buckets.get(i);
+            if (bucketCount > 0) {
+                buckets.addAndGet(i, bucketCount);
+            }
+        }
+        count.addAndGet(other.count.get());
+        if (other.getMin() < getMin()) {
+            minBits.set(other.minBits.get());
+        }
+        if (other.getMax() > getMax()) {
+            maxBits.set(other.maxBits.get());
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMin() {
+        return Double.longBitsToDouble(minBits.get());
+    }
+
+    public double getMax() {
+        return Double.longBitsToDouble(maxBits.get());
+    }
+
+    /**
+     * Returns the value below which the given percentage of the values lie, 0 if there are no values.
+     */
+    public double getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100d * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                // the middle of the bucket, but never outside of the actual values
+                double value = (bucketLowerBound(i) + bucketLowerBound(i + 1)) / 2d / UNITS;
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return getMax();
+    }
+
+    static int bucketIndex(double value) {
+        long units = (long)(value * UNITS);
+        if (units < SUB_BUCKET_COUNT) {
+            return units < 0 ? 0 : (int)units;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(units);
+        if (highestBit >= MAX_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        // keep the highest bit and the SUB_BUCKET_BITS bits below it
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int)((units >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * The lowest value, in units, which is counted in the given bucket.
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        return (subBucket + SUB_BUCKET_COUNT) << shift;
+    }
+}
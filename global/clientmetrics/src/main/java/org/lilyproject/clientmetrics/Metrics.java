@@ -19,11 +19,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.joda.time.DateTime;
@@ -44,15 +48,23 @@ import org.joda.time.DateTime;
  *
  * <p>The metrics files produced by this class are human readable but also machine readable, they can
  * be parsed using {@link org.lilyproject.clientmetrics.postproc.MetricsParser}.
+ *
+ * <p>Incrementing a metric does not lock and does not allocate memory, so that the metrics do not influence
+ * the heavily multi-threaded tests they measure. Each metric keeps its values for the current interval in a
+ * number of stripes, each with a fixed size {@link Histogram}, which are merged when the report is printed.
+ * The interval medians and percentiles are hence approximations, see {@link Histogram} for their precision.
  */
 public class Metrics {
-    private Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
     private int intervalDuration = 1000 * 30;
-    private DateTime intervalStartedAt;
-    private DateTime startedAt;
+    /** Start time of the current interval in ms, 0 as long as no values have been added. */
+    private final AtomicLong intervalStartedAt = new AtomicLong();
+    private volatile long startedAt;
     private PrintStream reportStream;
     private MetricsPlugin plugin;
-    private boolean inReport;
+    /** Taken while printing a report, the increments only try to take it when the interval is over. */
+    private final ReentrantLock reportLock = new ReentrantLock();
+    private volatile boolean inReport;
     private int threadCount = 1;
     private Table table;
     private boolean inHeader;
@@ -76,7 +88,10 @@ public class Metrics {
         table.addColumn(40, "Name", "s");
         table.addColumn(-1, "Op count", "d");
         table.addColumn(-1, "Average", "f");
-        table.addColumn(-1, "Median", "f");
+        table.addColumn(9, "P50", "f");
+        table.addColumn(9, "P90", "f");
+        table.addColumn(9, "P99", "f");
+        table.addColumn(9, "P99.9", "f");
         table.addColumn(-1, "Minimum", "f");
         table.addColumn(-1, "Maximum", "f");
         table.addColumn(-1, "Alltime ops", "d");
@@ -94,24 +109,34 @@ public class Metrics {
 
     public void finish() {
         // print one last report
-        printReport();
-        printGlobalOpsPerSec();
+        reportLock.lock();
+        try {
+            printReport();
+            printGlobalOpsPerSec();
+        } finally {
+            reportLock.unlock();
+        }
     }
 
     /**
      * Does an in-between reset of the metrics. This is useful if your test consists of multiple phases
      * which each have different metrics.
      */
-    public synchronized void restart() {
-        printReport();
-        printGlobalOpsPerSec();
-        metrics.clear();
-        intervalStartedAt = null;
-        startedAt = null;
-
-        reportStream.println("");
-        reportStream.println("Metrics have been reset");
-        reportStream.println("");
+    public void restart() {
+        reportLock.lock();
+        try {
+            printReport();
+            printGlobalOpsPerSec();
+            metrics.clear();
+            intervalStartedAt.set(0);
+            startedAt = 0;
+
+            reportStream.println("");
+            reportStream.println("Metrics have been reset");
+            reportStream.println("");
+        } finally {
+            reportLock.unlock();
+        }
     }
 
     public void startTest(String testName, String testDescription) {
@@ -150,11 +175,11 @@ public class Metrics {
         return intervalDuration;
     }
 
-    public synchronized void increment(String name, double value) {
+    public void increment(String name, double value) {
         increment(name, null, 1, value);
     }
 
-    public synchronized void increment(String name, String type, double value) {
+    public void increment(String name, String type, double value) {
         increment(name, type, 1, value);
     }
 
@@ -172,36 +197,46 @@ public class Metrics {
      * @param value the value for the metric, such as a duration (typically in ms), an operation count, or whatever
      *              quantity you want to keep track of such as free memory, cpu load, ...
      */
-    public synchronized void increment(String name, String type, int operations, double value) {
-        if (type != null && !NAME_PATTERN.matcher(type).matches()) {
-            // Being strict here, can be helpful for further reporting
-            throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
-        }
-        if (name.indexOf(':') > 0) {
-            // Colons are used to separate the type from the name in the output, and type is optional, so if
-            // would allow colon in the name we would not be able to know what it stands for
-            throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
-        }
-
-        if (intervalStartedAt == null) {
-            // it's our very first value
-            intervalStartedAt = new DateTime();
-            startedAt = new DateTime();
-        }
+    public void increment(String name, String type, int operations, double value) {
+        Metric metric = metrics.get(name);
+        if (metric == null || (type != null && !type.equals(metric.type))) {
+            // Only validate for new metrics and types, to keep the common case cheap
+            if (type != null && !NAME_PATTERN.matcher(type).matches()) {
+                // Being strict here, can be helpful for further reporting
+                throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
+            }
+            if (name.indexOf(':') > 0) {
+                // Colons are used to separate the type from the name in the output, and type is optional, so if
+                // would allow colon in the name we would not be able to know what it stands for
+                throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
+            }
 
-        if (!inReport && System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
-            printReport();
-            for (Metric metric : metrics.values()) {
-                metric.rollInterval();
+            if (metric == null) {
+                metric = new Metric(type);
+                Metric existing = metrics.putIfAbsent(name, metric);
+                if (existing != null) {
+                    metric = existing;
+                }
             }
-            intervalStartedAt = new DateTime();
         }
 
-        Metric metric = metrics.get(name);
-        if (metric == null) {
-            metric = new Metric();
-            metric.type = type;
-            metrics.put(name, metric);
+        long intervalStart = intervalStartedAt.get();
+        if (intervalStart == 0) {
+            // it's our very first value
+            long now = System.currentTimeMillis();
+            if (intervalStartedAt.compareAndSet(0, now)) {
+                startedAt = now;
+            }
+        } else if (!inReport && System.currentTimeMillis() - intervalStart >= intervalDuration
+                && reportLock.tryLock()) {
+            // Only one thread prints the report, the others go on without waiting for it
+            try {
+                if (intervalStartedAt.get() == intervalStart) {
+                    printReport(true);
+                }
+            } finally {
+                reportLock.unlock();
+            }
         }
 
         metric.add(operations, value);
@@ -210,7 +245,21 @@ public class Metrics {
     }
 
     public void printReport() {
-        if (intervalStartedAt == null) {
+        reportLock.lock();
+        try {
+            printReport(false);
+        } finally {
+            reportLock.unlock();
+        }
+    }
+
+    /**
+     * Prints the report of the current interval, should be called while holding the report lock.
+     *
+     * @param rollInterval true to start a new interval after the current one
+     */
+    private void printReport(boolean rollInterval) {
+        if (intervalStartedAt.get() == 0) {
             return;
         }
 
@@ -219,11 +268,20 @@ public class Metrics {
         plugin.beforeReport(this);
 
         long now = System.currentTimeMillis();
-        long actualIntervalDuration = now - intervalStartedAt.getMillis();
+        long intervalStart = intervalStartedAt.get();
+        long actualIntervalDuration = now - intervalStart;
+
+        Map<String, IntervalSnapshot> snapshots = new TreeMap<String, IntervalSnapshot>();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot(rollInterval));
+        }
+        if (rollInterval) {
+            intervalStartedAt.set(now);
+        }
 
         table.fullSepLine();
-        table.crossColumn("Interval started at: " + intervalStartedAt + " (duration: " + (actualIntervalDuration / 1000) + "s).");
-        table.crossColumn("Measurements started at: " + startedAt + " (duration: " + formatDuration(now - startedAt.getMillis()) + ")");
+        table.crossColumn("Interval started at: " + new DateTime(intervalStart) + " (duration: " + (actualIntervalDuration / 1000) + "s).");
+        table.crossColumn("Measurements started at: " + new DateTime(startedAt) + " (duration: " + formatDuration(now - startedAt) + ")");
 
 
         List<String> extra = plugin.getExtraInfoLines();
@@ -237,9 +295,10 @@ public class Metrics {
 
         Map<String, CountAndValue> statByType = new TreeMap<String, CountAndValue>();
 
-        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+        for (Map.Entry<String, IntervalSnapshot> entry : snapshots.entrySet()) {
             String name = entry.getKey();
-            Metric metric = entry.getValue();
+            IntervalSnapshot snapshot = entry.getValue();
+            Metric metric = snapshot.metric;
 
             if (metric.type != null) {
                 name = metric.type + ":" + name;
@@ -249,13 +308,14 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getIntervalCount();
-                stat.value += metric.getIntervalValue();
+                stat.count += snapshot.count;
+                stat.value += snapshot.value;
             }
 
-            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(), metric.getIntervalMedian(),
-                    metric.getIntervalMin(), metric.getIntervalMax(), metric.getAllTimeCount(),
-                    metric.getAllTimeAverage());
+            Histogram histogram = snapshot.histogram;
+            table.columns(name, snapshot.count, snapshot.getAverage(), histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99), histogram.getPercentile(99.9),
+                    snapshot.getMin(), snapshot.getMax(), snapshot.getAllTimeCount(), snapshot.getAllTimeAverage());
         }
         table.columnSepLine();
 
@@ -290,11 +350,11 @@ public class Metrics {
     }
 
     private void printGlobalOpsPerSec() {
-        if (startedAt == null) {
+        if (intervalStartedAt.get() == 0) {
             return;
         }
 
-        double testDuration = System.currentTimeMillis() - startedAt.getMillis();
+        double testDuration = System.currentTimeMillis() - startedAt;
 
         Map<String, CountAndValue> statByType = new TreeMap<String, CountAndValue>();
 
@@ -308,8 +368,9 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getAllTimeCount();
-                stat.value += metric.getAllTimeValue();
+                IntervalSnapshot snapshot = metric.snapshot(false);
+                stat.count += snapshot.getAllTimeCount();
+                stat.value += snapshot.getAllTimeValue();
             }
         }
 
@@ -346,20 +407,16 @@ public class Metrics {
     }
 
     private static class Metric {
-        private List<Double> values = new ArrayList<Double>(1000);
-
-        String type;
+        final String type;
 
-        int intervalCount;
-        double intervalValue;
-        double intervalMin;
-        double intervalMax;
+        volatile IntervalStats interval = new IntervalStats();
 
-        int allTimeCount;
-        double allTimeValue;
+        // The totals of the past intervals, only accessed while holding the report lock
+        long pastCount;
+        double pastValue;
 
-        Metric() {
-            rollInterval();
+        Metric(String type) {
+            this.type = type;
         }
 
         /**
@@ -371,82 +428,149 @@ public class Metrics {
                 return;
             }
 
-            intervalCount += operations;
-            intervalValue += value;
-            allTimeCount += operations;
-            allTimeValue += value;
-
-            double valuePerOp = value / (double)operations;
-
-            if (valuePerOp < intervalMin) {
-                intervalMin = valuePerOp;
+            while (true) {
+                IntervalStats stats = interval;
+                Stripe stripe = stats.stripe();
+                stripe.writers.incrementAndGet();
+                try {
+                    // If the interval was rolled in the meantime, the value goes to the new one. Otherwise the
+                    // snapshot of the old interval waits until the value is added.
+                    if (stats == interval) {
+                        stripe.add(operations, value);
+                        return;
+                    }
+                } finally {
+                    stripe.writers.decrementAndGet();
+                }
             }
+        }
 
-            if (valuePerOp > intervalMax) {
-                intervalMax = valuePerOp;
+        /**
+         * Merges the stripes of the current interval.
+         *
+         * @param rollInterval true to start a new interval
+         */
+        IntervalSnapshot snapshot(boolean rollInterval) {
+            IntervalStats stats = interval;
+            if (rollInterval) {
+                interval = new IntervalStats();
+                stats.awaitWriters();
             }
 
-            values.add(valuePerOp);
+            IntervalSnapshot snapshot = new IntervalSnapshot(this, stats);
+            snapshot.pastCount = pastCount;
+            snapshot.pastValue = pastValue;
+            if (rollInterval) {
+                pastCount += snapshot.count;
+                pastValue += snapshot.value;
+            }
+            return snapshot;
         }
+    }
 
-        public void rollInterval() {
-            intervalCount = 0;
-            intervalValue = 0;
-            intervalMin = Integer.MAX_VALUE;
-            intervalMax = 0;
-            values.clear();
+    /**
+     * The values of a metric for one interval, spread over a number of stripes to avoid contention.
+     */
+    private static class IntervalStats {
+        private static final int STRIPE_COUNT = Math.min(64,
+                Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+        // Stripes are only created when used, as most metrics are not used by many threads
+        private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<Stripe>(STRIPE_COUNT);
+
+        Stripe stripe() {
+            int index = (int)Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+            Stripe stripe = stripes.get(index);
+            if (stripe == null) {
+                stripes.compareAndSet(index, null, new Stripe());
+                stripe = stripes.get(index);
+            }
+            return stripe;
         }
 
-        public int getIntervalCount() {
-            return intervalCount;
+        /**
+         * Waits until the values which are being added to this interval are added, once this is no longer
+         * the current interval. This takes at most the time of one add.
+         */
+        void awaitWriters() {
+            for (int i = 0; i < stripes.length(); i++) {
+                Stripe stripe = stripes.get(i);
+                if (stripe != null) {
+                    while (stripe.writers.get() > 0) {
+                        Thread.yield();
+                    }
+                }
+            }
         }
+    }
 
-        public double getIntervalValue() {
-            return intervalValue;
+    private static class Stripe {
+        /** The number of threads adding a value, see {@link Metric#add}. */
+        final AtomicInteger writers = new AtomicInteger();
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong valueBits = new AtomicLong(Double.doubleToLongBits(0d));
+        final Histogram histogram = new Histogram();
+
+        void add(int operations, double value) {
+            count.addAndGet(operations);
+            long current;
+            do {
+                current = valueBits.get();
+            } while (!valueBits.compareAndSet(current,
+                    Double.doubleToLongBits(Double.longBitsToDouble(current) + value)));
+
+            histogram.record(value / (double)operations);
         }
+    }
 
-        public int getAllTimeCount() {
-            return allTimeCount;
+    private static class IntervalSnapshot {
+        final Metric metric;
+        final Histogram histogram = new Histogram();
+        long count;
+        double value;
+        long pastCount;
+        double pastValue;
+
+        IntervalSnapshot(Metric metric, IntervalStats stats) {
+            this.metric = metric;
+            for (int i = 0; i < stats.stripes.length(); i++) {
+                Stripe stripe = stats.stripes.get(i);
+                if (stripe != null) {
+                    count += stripe.count.get();
+                    value += Double.longBitsToDouble(stripe.valueBits.get());
+                    histogram.add(stripe.histogram);
+                }
+            }
         }
 
-        public double getIntervalAverage() {
-            return intervalCount == 0 ? 0 : intervalValue / (double)intervalCount;
+        double getAverage() {
+            return count == 0 ? 0 : value / (double)count;
         }
 
-        public double getAllTimeAverage() {
-            return allTimeCount == 0 ? 0 : allTimeValue / (double)allTimeCount;
+        double getMin() {
+            return histogram.getCount() == 0 ? 0 : histogram.getMin();
         }
 
-        public double getAllTimeValue() {
-            return allTimeValue;
+        double getMax() {
+            return histogram.getCount() == 0 ? 0 : histogram.getMax();
         }
 
-        public double getIntervalMin() {
-            return intervalCount == 0 ? 0 : intervalMin;
+        long getAllTimeCount() {
+            return pastCount + count;
         }
 
-        public double getIntervalMax() {
-            return intervalMax;
+        double getAllTimeValue() {
+            return pastValue + value;
         }
 
-        public double getIntervalMedian() {
-            if (values.size() == 0) {
-                return 0;
-            }
-
-            Collections.sort(values);
-            int middle = values.size() / 2;
-
-            if (values.size() % 2 == 1) {
-                return values.get(middle);
-            } else {
-                return (values.get(middle - 1) + values.get(middle)) / 2d;
-            }
+        double getAllTimeAverage() {
+            long allTimeCount = getAllTimeCount();
+            return allTimeCount == 0 ? 0 : getAllTimeValue() / (double)allTimeCount;
         }
     }
 
     private static class CountAndValue {
-        int count;
+        long count;
         double value;
     }
 }
@@ -19,6 +19,9 @@ public class MetricData {
     public long count = -1;
     public double average = -1;
     public double median = -1;
+    public double p90 = -1;
+    public double p99 = -1;
+    public double p999 = -1;
     public double min = -1;
     public double max = -1;
 }
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
@@ -80,7 +82,8 @@ public class MetricsParser {
                     tests.footer.add(line);
                 }
             } else if (line.startsWith(INT_START_LINE)) {
-                // The code below parses tables like the following one:
+                // The code below parses tables like the following one (which is the format from before the
+                // percentile columns were added):
                 //
                 //+----------------------------------------------------------------------------------------------------------------------+
                 //| Interval started at: 2011-01-15T19:57:23.918+01:00 (duration: 30s).                                                  |
@@ -116,28 +119,36 @@ public class MetricsParser {
                 while ((line = reader.readLine()) != null && line.startsWith("| ")) {
                 }
 
-                // read the title lines (we are already positioned at the first one)
-                reader.readLine();
+                // read the title lines (we are already positioned at the first one). The columns are looked
+                // up by their title: newer files have percentile columns (and P50 rather than Median).
+                List<String> titles = splitColumns(reader.readLine());
                 reader.readLine();
 
+                int countCol = titles.indexOf("Op count");
+                int averageCol = titles.indexOf("Average");
+                int medianCol = titles.contains("P50") ? titles.indexOf("P50") : titles.indexOf("Median");
+                int p90Col = titles.indexOf("P90");
+                int p99Col = titles.indexOf("P99");
+                int p999Col = titles.indexOf("P99.9");
+                int minCol = titles.indexOf("Minimum");
+                int maxCol = titles.indexOf("Maximum");
+
                 // read the metrics
                 while ((line = reader.readLine()) != null && line.startsWith("|")) {
-                    int countColStart = line.indexOf("|", 1);
-                    int averageColStart = line.indexOf("|", countColStart + 1);
-                    int medianColStart = line.indexOf("|", averageColStart + 1);
-                    int minColStart = line.indexOf("|", medianColStart + 1);
-                    int maxColStart = line.indexOf("|", minColStart + 1);
-                    int allTimeOpsColStart = line.indexOf("|", maxColStart + 1);
+                    List<String> columns = splitColumns(line);
 
                     MetricData data = new MetricData();
 
-                    String metricName = line.substring(1, countColStart).trim();
+                    String metricName = columns.get(0);
 
-                    data.count = Integer.parseInt(line.substring(countColStart + 1, averageColStart).trim());
-                    data.average = Double.parseDouble(line.substring(averageColStart + 1, medianColStart).trim());
-                    data.median = Double.parseDouble(line.substring(medianColStart + 1, minColStart).trim());
-                    data.min = Double.parseDouble(line.substring(minColStart + 1, maxColStart).trim());
-                    data.max = Double.parseDouble(line.substring(maxColStart + 1, allTimeOpsColStart).trim());
+                    data.count = Long.parseLong(columns.get(countCol));
+                    data.average = parseDouble(columns, averageCol);
+                    data.median = parseDouble(columns, medianCol);
+                    data.p90 = parseDouble(columns, p90Col);
+                    data.p99 = parseDouble(columns, p99Col);
+                    data.p999 = parseDouble(columns, p999Col);
+                    data.min = parseDouble(columns, minCol);
+                    data.max = parseDouble(columns, maxCol);
 
                     interval.set(metricName, data);
                 }
@@ -169,6 +180,27 @@ public class MetricsParser {
         return tests;
     }
 
+    /**
+     * Returns the trimmed contents of the columns of a table line, which are separated by '|' symbols.
+     */
+    private static List<String> splitColumns(String line) {
+        List<String> columns = new ArrayList<String>();
+        int start = 1;
+        int end;
+        while ((end = line.indexOf('|', start)) != -1) {
+            columns.add(line.substring(start, end).trim());
+            start = end + 1;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns -1 (= no value) for columns which don't exist in the file.
+     */
+    private static double parseDouble(List<String> columns, int index) {
+        return index == -1 ? -1 : Double.parseDouble(columns.get(index));
+    }
+
     public int getCurrentLine() {
         return reader != null ? reader.currentLine : -1;
     }
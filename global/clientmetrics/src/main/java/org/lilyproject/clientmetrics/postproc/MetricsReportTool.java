@@ -57,7 +57,7 @@ public class MetricsReportTool extends BaseCliTool {
 
     private static final String STRING_QUOTE = "\"";
 
-    private static final int COLS_PER_METRIC = 5;
+    private static final int COLS_PER_METRIC = 8;
 
     private static final int HEADER_COLUMNS = 2;
 
@@ -66,6 +66,9 @@ public class MetricsReportTool extends BaseCliTool {
     private static final int COL_MED = 3;
     private static final int COL_MIN = 4;
     private static final int COL_MAX = 5;
+    private static final int COL_P90 = 6;
+    private static final int COL_P99 = 7;
+    private static final int COL_P999 = 8;
 
     // http://www.uni-hamburg.de/Wiss/FB/15/Sustainability/schneider/gnuplot/colors.htm
     private static final String[] COLORS = new String[] {
@@ -269,6 +272,12 @@ public class MetricsReportTool extends BaseCliTool {
             titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" min").append(STRING_QUOTE);
             titleLine.append(SEP);
             titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" max").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p90").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p99").append(STRING_QUOTE);
+            titleLine.append(SEP);
+            titleLine.append(STRING_QUOTE).append(removeGroupingPrefix(metricName)).append(" p99.9").append(STRING_QUOTE);
         }
 
         ps.println(titleLine.toString());
@@ -292,6 +301,12 @@ public class MetricsReportTool extends BaseCliTool {
                 ps.print(formatDouble(data.min));
                 ps.print(SEP);
                 ps.print(formatDouble(data.max));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p90));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p99));
+                ps.print(SEP);
+                ps.print(formatDouble(data.p999));
             }
 
             ps.println();
@@ -330,7 +345,7 @@ public class MetricsReportTool extends BaseCliTool {
     }
 
     private MetricData safeGet(Interval interval, int index) {
-        if (index >= interval.datas.length) {
+        if (index >= interval.datas.length || interval.datas[index] == null) {
             return new MetricData();
         } else {
             return interval.datas[index];
@@ -355,11 +370,18 @@ public class MetricsReportTool extends BaseCliTool {
         // if the name starts with a dash, it means the values for avg/med/min/max are (intended to be) the same
         boolean isAvgOnly = groupName.name.startsWith("-");
 
-        final int firstPlotValue = COL_AVG;
-        int lastPlotValue = COL_MIN;
-        if (isAvgOnly) {
-            lastPlotValue = COL_AVG;
+        List<Integer> plotValues = new ArrayList<Integer>();
+        plotValues.add(COL_AVG);
+        if (!isAvgOnly) {
+            plotValues.add(COL_MED);
+            plotValues.add(COL_MIN);
+            // metrics files from before the percentiles were added don't have them, gnuplot fails on empty columns
+            if (hasPercentiles(metricNames, test)) {
+                plotValues.add(COL_P90);
+                plotValues.add(COL_P99);
+            }
         }
+        int trendValue = isAvgOnly ? COL_AVG : COL_MED;
 
         if (test.intervals.size() > 1) {
             // Calculate trendlines: on median except for avg-only metrics
@@ -367,7 +389,7 @@ public class MetricsReportTool extends BaseCliTool {
             // does not work with the date values (I think because they are too big integers?)
             for (int i = 0; i < metricNames.size(); i++) {
                 ps.println("f" + i + "(x)=m" + i + "*x+c" + i);
-                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + (isAvgOnly ? COL_AVG : COL_MED);
+                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + trendValue;
                 ps.println("fit f" + i + "(x) \"" + groupName.fileName + ".txt\" using 2:" + dataCol + " via m" + i + ",c" + i);
             }
         }
@@ -376,20 +398,20 @@ public class MetricsReportTool extends BaseCliTool {
         ps.println("set xdata time");
         ps.println("set timefmt \"%Y%m%d%H%M%S\"");
 
-        int numberOfValues = lastPlotValue - firstPlotValue + 1;
+        int numberOfValues = plotValues.size();
 
         StringBuilder plot = new StringBuilder();
         plot.append("plot ");
         for (int i = 0; i < metricNames.size(); i++) {
             int colorStart = i * numberOfValues;
 
-            for (int c = firstPlotValue; c <= lastPlotValue; c++) {
-                if (i > 0 || c > firstPlotValue) {
+            for (int v = 0; v < numberOfValues; v++) {
+                if (i > 0 || v > 0) {
                     plot.append(", ");
                 }
 
-                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + c;
-                int color = colorStart + c - firstPlotValue;
+                int dataCol = (COLS_PER_METRIC * i) + HEADER_COLUMNS + plotValues.get(v);
+                int color = colorStart + v;
                 plot.append("'").append(groupName.fileName).append(".txt' using 1:").append(dataCol).
                         append(" with steps linecolor rgb '").append(COLORS[color % COLORS.length]).append("'");
             }
@@ -397,7 +419,7 @@ public class MetricsReportTool extends BaseCliTool {
             if (test.intervals.size() > 1) {
                 // add trendline
                 // same color as data line
-                int color = colorStart + (isAvgOnly ? COL_AVG : COL_MED) - firstPlotValue;
+                int color = colorStart + plotValues.indexOf(trendValue);
                 plot.append(", '").append(groupName.fileName).append(".txt' using 1:(f").append(i).append("($2))").
                         append(" with lines linewidth 1 linecolor rgb '").append(COLORS[color % COLORS.length]).append("' title '")
                         .append(removeGroupingPrefix(metricNames.get(i))).append(isAvgOnly ? " avg" : " med").append(" trend'");
@@ -409,6 +431,18 @@ public class MetricsReportTool extends BaseCliTool {
         ps.close();
     }
 
+    private boolean hasPercentiles(List<String> metricNames, Test test) {
+        for (String metricName : metricNames) {
+            int index = test.getIndex(metricName);
+            for (Interval interval : test.intervals) {
+                if (safeGet(interval, index).p99 >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private void executePlot(GroupName groupName, File outputDir) throws IOException, InterruptedException {
         System.out.println("Calling gnuplot for " + groupName);
         ProcessBuilder pb = new ProcessBuilder("gnuplot", groupName.fileName + ".plot.txt");
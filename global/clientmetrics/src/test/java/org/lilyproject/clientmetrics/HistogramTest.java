@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void testBucketBoundaries() {
+        assertEquals(0, Histogram.bucketLowerBound(0));
+        for (int i = 0; i < Histogram.BUCKET_COUNT - 1; i++) {
+            long lowerBound = Histogram.bucketLowerBound(i);
+            long nextLowerBound = Histogram.bucketLowerBound(i + 1);
+            // one unit wide for the first buckets, at most 1/32 of their values after that
+            long width = nextLowerBound - lowerBound;
+            assertTrue("bucket " + i, width == 1 || (width > 1 && width * 32 <= lowerBound));
+            // the first and the last unit of each bucket (half a unit in, to stay clear of rounding)
+            assertEquals(i, Histogram.bucketIndex((lowerBound + 0.5) / 1000d));
+            assertEquals(i, Histogram.bucketIndex((nextLowerBound - 0.5) / 1000d));
+        }
+
+        assertEquals(0, Histogram.bucketIndex(-5));
+        assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(1e9));
+    }
+
+    @Test
+    public void testPercentileError() {
+        // 0.01 to 1000 ms, uniformly
+        Histogram histogram = new Histogram();
+        int count = 100000;
+        for (int i = 1; i <= count; i++) {
+            histogram.record(i / 100d);
+        }
+
+        assertEquals(count, histogram.getCount());
+        assertEquals(0.01, histogram.getMin(), 0);
+        assertEquals(1000, histogram.getMax(), 0);
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            double exact = percentile / 100d * count / 100d;
+            assertEquals("P" + percentile, exact, histogram.getPercentile(percentile), exact * 0.03);
+        }
+    }
+
+    @Test
+    public void testPercentileWithinMinMax() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(50), 0);
+
+        histogram.record(7.3);
+        assertEquals(7.3, histogram.getPercentile(50), 0);
+        assertEquals(7.3, histogram.getPercentile(99.9), 0);
+    }
+
+    @Test
+    public void testAdd() {
+        Histogram histogram1 = new Histogram();
+        Histogram histogram2 = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram1.record(i);
+            histogram2.record(100 + i);
+        }
+
+        histogram1.add(histogram2);
+
+        assertEquals(200, histogram1.getCount());
+        assertEquals(1, histogram1.getMin(), 0);
+        assertEquals(200, histogram1.getMax(), 0);
+        assertEquals(100, histogram1.getPercentile(50), 3);
+    }
+}
@@ -0,0 +1,60 @@
+package org.lilyproject.clientmetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.lilyproject.clientmetrics.postproc.Interval;
+import org.lilyproject.clientmetrics.postproc.MetricsParser;
+import org.lilyproject.clientmetrics.postproc.Tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+    private static final int THREADS = 8;
+    private static final int INCREMENTS = 20000;
+
+    @Test
+    public void testNoValuesLostWhenRolling() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final Metrics metrics = new Metrics(new PrintStream(bos, true, "UTF-8"), null);
+        metrics.startTest("rolling", "Intervals rolled while values are added");
+        // roll the interval about every millisecond
+        metrics.setIntervalDuration(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < INCREMENTS; i++) {
+                        metrics.increment("Op", "O", 1);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        metrics.finish();
+
+        Tests tests = new MetricsParser().parse(new ByteArrayInputStream(bos.toByteArray()));
+        List<Interval> intervals = tests.entries.get(0).intervals;
+        assertTrue(intervals.size() > 1);
+        long count = 0;
+        for (Interval interval : intervals) {
+            Integer index = interval.owner.metricNames.get("O:Op");
+            if (index != null && index < interval.datas.length && interval.datas[index] != null) {
+                count += interval.datas[index].count;
+            }
+        }
+        assertEquals(THREADS * INCREMENTS, count);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics.postproc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.joda.time.DateTime;
+import org.lilyproject.clientmetrics.Metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The JUnit annotations are spelled out, as {@link Test} is the class of the parsed tests here.
+ */
+public class MetricsParserTest {
+    /** The format from before the percentile columns were added. */
+    private static final String MEDIAN_LAYOUT = ""
+            + "+----------------------------------------------------------------------------------------------------------------------+\n"
+            + "| Interval started at: 2011-01-15T19:57:23.918+01:00 (duration: 30s).                                                  |\n"
+            + "| Measurements started at: 2011-01-15T19:57:23.918+01:00 (duration: 00:00:30)                                          |\n"
+            + "| HBase cluster status: avg load: 20.00, dead servers: 0, live servers: 1, regions: 20                                 |\n"
+            + "+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+\n"
+            + "| Name                                   | Op count | Average | Median | Minimum | Maximum | Alltime ops | Alltime avg |\n"
+            + "+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+\n"
+            + "|-blockCacheHitRatio@lat                 |         1|    97.00|   97.00|    97.00|    97.00|            1|        97.00|\n"
+            + "|-sysLoadAvg@lat                         |         1|     1.16|    1.16|     1.16|     1.16|            1|         1.16|\n"
+            + "|-usedHeap@lat                           |         1|   162.90|  162.90|   162.90|   162.90|            1|       162.90|\n"
+            + "|B:Blob creation                         |      1231|     0.33|    0.06|     0.02|   101.84|         1231|         0.33|\n"
+            + "|Invalid messages                        |         6|     1.00|    1.00|     1.00|     1.00|            6|         1.00|\n"
+            + "|C:Message record                        |      1190|    10.16|    8.30|     6.52|   444.16|         1190|        10.16|\n"
+            + "|C:Part record                           |      1225|     9.29|    8.11|     6.45|    90.71|         1225|         9.29|\n"
+            + "+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+\n"
+            + "| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                                                 |\n"
+            + "| C ops/sec: 102.93 real (=102.93x1), 80.41 interval                                                                   |\n"
+            + "+----------------------------------------------------------------------------------------------------------------------+\n";
+
+    @org.junit.Test
+    public void testMedianLayout() throws Exception {
+        Tests tests = new MetricsParser().parse(new ByteArrayInputStream(MEDIAN_LAYOUT.getBytes("UTF-8")));
+
+        assertEquals(1, tests.entries.size());
+        Test test = tests.entries.get(0);
+        assertEquals("default", test.name);
+        assertEquals(1, test.intervals.size());
+        Interval interval = test.intervals.get(0);
+        assertEquals(new DateTime("2011-01-15T19:57:23.918+01:00"), interval.begin);
+
+        MetricData data = getData(interval, "C:Part record");
+        assertEquals(1225, data.count);
+        assertEquals(9.29, data.average, 0);
+        assertEquals(8.11, data.median, 0);
+        assertEquals(6.45, data.min, 0);
+        assertEquals(90.71, data.max, 0);
+        // not in this format
+        assertEquals(-1, data.p90, 0);
+        assertEquals(-1, data.p99, 0);
+        assertEquals(-1, data.p999, 0);
+
+        assertEquals(6, getData(interval, "Invalid messages").count);
+        assertEquals(102.93, getData(interval, "-C ops/sec").average, 0);
+        assertEquals(3063.80, getData(interval, "-B ops/sec").average, 0);
+    }
+
+    @org.junit.Test
+    public void testPercentileLayout() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Metrics metrics = new Metrics(new PrintStream(bos, true, "UTF-8"), null);
+        metrics.startTest("percentiles", "Values from 1 to 1000");
+        for (int i = 1; i <= 1000; i++) {
+            metrics.increment("Read", "R", i);
+        }
+        metrics.finish();
+
+        Tests tests = new MetricsParser().parse(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals(1, tests.entries.size());
+        Test test = tests.entries.get(0);
+        assertEquals("percentiles", test.name);
+        assertEquals("Values from 1 to 1000", test.description);
+        assertEquals(1, test.intervals.size());
+
+        MetricData data = getData(test.intervals.get(0), "R:Read");
+        assertEquals(1000, data.count);
+        assertEquals(500.5, data.average, 0.01);
+        assertEquals(500, data.median, 500 * 0.03);
+        assertEquals(900, data.p90, 900 * 0.03);
+        assertEquals(990, data.p99, 990 * 0.03);
+        assertEquals(999, data.p999, 999 * 0.03);
+        assertEquals(1, data.min, 0);
+        assertEquals(1000, data.max, 0);
+        assertNotNull(getData(test.intervals.get(0), "-R ops/sec"));
+    }
+
+    private MetricData getData(Interval interval, String metricName) {
+        Integer index = interval.owner.metricNames.get(metricName);
+        assertNotNull("No metric " + metricName, index);
+        return interval.datas[index];
+    }
+}
@@ -31,6 +31,18 @@ abstract class BaseQueryResult implements QueryResult {
         this.definition = definition;
     }
 
+    /**
+     * Default implementation of seek which steps through the results using {@link #next}.
+     */
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key;
+        do {
+            key = next();
+        } while (key != null && Bytes.compareTo(key, identifier) < 0);
+        return key;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         if (currentResult != null) {
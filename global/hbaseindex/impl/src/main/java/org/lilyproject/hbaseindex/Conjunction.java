@@ -32,14 +32,10 @@ import org.apache.hadoop.hbase.util.Bytes;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>The intersection is computed by letting each QueryResult {@link QueryResult#seek seek} to the
+ * current identifier of the other one, rather than stepping through it one result at a time. For a
+ * selective condition combined with a non-selective one, this allows the non-selective one to skip over
+ * the results which can't match (see {@link ScannerQueryResult#seek}).
  */
 public class Conjunction extends BaseQueryResult {
     private QueryResult result1;
@@ -54,9 +50,29 @@ public class Conjunction extends BaseQueryResult {
     @Override
     public byte[] next() throws IOException {
         byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
+        if (key1 == null) {
+            return null;
+        }
+        return intersect(key1);
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key1 = result1.seek(identifier);
+        if (key1 == null) {
+            return null;
+        }
+        return intersect(key1);
+    }
 
-        if (key1 == null || key2 == null) {
+    /**
+     * Moves both results forward until they are positioned on the same identifier.
+     *
+     * @param key1 the identifier on which result1 is positioned
+     */
+    private byte[] intersect(byte[] key1) throws IOException {
+        byte[] key2 = result2.seek(key1);
+        if (key2 == null) {
             return null;
         }
 
@@ -64,22 +80,17 @@ public class Conjunction extends BaseQueryResult {
 
         while (cmp != 0) {
             if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
+                key1 = result1.seek(key2);
+                if (key1 == null) {
+                    return null;
                 }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
+            } else {
+                key2 = result2.seek(key1);
+                if (key2 == null) {
+                    return null;
                 }
             }
+            cmp = Bytes.compareTo(key1, key2);
         }
 
         currentQResult = result1;
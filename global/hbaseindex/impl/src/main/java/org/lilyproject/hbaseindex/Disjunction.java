@@ -46,6 +46,30 @@ public class Disjunction extends BaseQueryResult {
             init = true;
         }
 
+        return nextFromKeys();
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (!init) {
+            key1 = result1.seek(identifier);
+            key2 = result2.seek(identifier);
+            init = true;
+        } else {
+            // key1 and key2 are the next results, not yet returned, of result1 and result2
+            if (key1 != null && Bytes.compareTo(key1, identifier) < 0) {
+                key1 = result1.seek(identifier);
+            }
+            if (key2 != null && Bytes.compareTo(key2, identifier) < 0) {
+                key2 = result2.seek(identifier);
+            }
+        }
+
+        return nextFromKeys();
+    }
+
+    private byte[] nextFromKeys() throws IOException {
+
         if (key1 == null && key2 == null) {
             return null;
         } else if (key1 == null) {
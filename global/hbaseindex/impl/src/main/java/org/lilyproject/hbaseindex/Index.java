@@ -286,7 +286,7 @@ public class Index {
         scan.setFilter(filters);
         scan.setCaching(30);
 
-        return new ScannerQueryResult(htable.getScanner(scan), definition);
+        return new ScannerQueryResult(htable, scan, definition);
     }
 
     /**
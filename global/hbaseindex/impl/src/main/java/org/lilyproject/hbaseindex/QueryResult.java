@@ -30,6 +30,17 @@ public interface QueryResult extends Closeable {
      */
     byte[] next() throws IOException;
 
+    /**
+     * Move to and return the first result, after the current one, whose identifier is equal to or larger
+     * than the given identifier.
+     *
+     * <p>This is only meaningful for query results which return their rows sorted in increasing identifier
+     * order (see {@link Conjunction}). Implementations can use this to skip over results without reading them.
+     *
+     * @return the identifier of the result moved to, or null if the end is reached.
+     */
+    byte[] seek(byte[] identifier) throws IOException;
+
     /**
      * Retrieves data that was stored as part of the {@link IndexEntry} from the current index
      * entry (corresponding to the last {@link #next} call).
@@ -19,17 +19,32 @@ import java.io.IOException;
 
 import com.gotometrics.orderly.StructIterator;
 import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
  */
 class ScannerQueryResult extends BaseQueryResult {
+    private final HTableInterface htable;
+    private final Scan scan;
     private ResultScanner scanner;
 
-    ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
+    /**
+     * Number of rows to step through in {@link #seek} before reopening the scanner at the sought row.
+     * Stepping through the rows the scanner already fetched is cheap, but once these are consumed each further
+     * batch costs a round trip, just like reopening the scanner does.
+     */
+    private final int maxSeekSteps;
+
+    ScannerQueryResult(HTableInterface htable, Scan scan, IndexDefinition definition) throws IOException {
         super(definition);
-        this.scanner = scanner;
+        this.htable = htable;
+        this.scan = scan;
+        this.scanner = htable.getScanner(scan);
+        this.maxSeekSteps = Math.max(scan.getCaching(), 1);
     }
 
     @Override
@@ -44,6 +59,35 @@ class ScannerQueryResult extends BaseQueryResult {
         return decodeIdentifierFrom(rowKey);
     }
 
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        for (int i = 0; i < maxSeekSteps; i++) {
+            byte[] key = next();
+            if (key == null || Bytes.compareTo(key, identifier) >= 0) {
+                return key;
+            }
+        }
+
+        // Still not there: skip the remaining rows in between by reopening the scanner. Since the results are
+        // sorted on identifier, the other fields of the rows are the same, so the row to start from is the
+        // current row with the identifier replaced.
+        byte[] startRow = replaceIdentifier(currentResult.getRow(), identifier);
+
+        scanner.close();
+        Scan seekScan = new Scan(scan);
+        seekScan.setStartRow(startRow);
+        scanner = htable.getScanner(seekScan);
+
+        return next();
+    }
+
+    private byte[] replaceIdentifier(byte[] rowKey, byte[] identifier) throws IOException {
+        final StructRowKey structRowKey = definition.asStructRowKey();
+        Object[] fields = (Object[]) structRowKey.deserialize(rowKey);
+        fields[fields.length - 1] = identifier;
+        return structRowKey.serialize(fields);
+    }
+
     private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
         final StructRowKey structRowKey = definition.asStructRowKey();
         structRowKey.iterateOver(rowKey);
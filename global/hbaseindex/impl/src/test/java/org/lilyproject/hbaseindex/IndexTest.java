@@ -249,6 +249,55 @@ public class IndexTest {
         assertResultSize(4, result);
     }
 
+    @Test
+    public void testSeek() throws Exception {
+        final String INDEX_NAME = "seek";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+
+        Index index = indexManager.getIndex(indexDef);
+
+        // Many more entries than the scanner fetches at once, so seeking far ahead reopens the scanner
+        for (int i = 0; i < 200; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "a");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+        }
+
+        // Entries after the queried range, which seeking should not run into
+        for (int i = 0; i < 10; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "b");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+        }
+
+        Query query = new Query();
+        query.addEqualsCondition("field1", "a");
+        QueryResult result = index.performQuery(query);
+
+        assertEquals("key000", Bytes.toString(result.next()));
+        // within the fetched rows
+        assertEquals("key005", Bytes.toString(result.seek(Bytes.toBytes("key005"))));
+        // past the fetched rows
+        assertEquals("key150", Bytes.toString(result.seek(Bytes.toBytes("key150"))));
+        assertEquals("key151", Bytes.toString(result.next()));
+        // an identifier which is not in the index
+        assertEquals("key190", Bytes.toString(result.seek(Bytes.toBytes("key1895"))));
+        assertEquals("key191", Bytes.toString(result.next()));
+        assertNull(result.seek(Bytes.toBytes("key200")));
+        result.close();
+
+        // seeking past the fetched rows, and then past the last entry
+        result = index.performQuery(query);
+        assertEquals("key100", Bytes.toString(result.seek(Bytes.toBytes("key100"))));
+        assertNull(result.seek(Bytes.toBytes("key999")));
+        result.close();
+    }
+
     @Test
     public void testMultiFieldIndex() throws Exception {
         final String INDEX_NAME = "multiField";
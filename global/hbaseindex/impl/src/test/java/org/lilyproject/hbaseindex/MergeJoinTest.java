@@ -55,6 +55,57 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testConjunctionSkewed() throws Exception {
+        List<String> values1 = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            values1.add(String.format("%04d", i));
+        }
+        String[] values2 = {"0010", "0500", "0999", "1500"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1.toArray(new String[0])),
+                buildQueryResult(values2));
+
+        assertEquals("0010", Bytes.toString(result.next()));
+        assertEquals("0500", Bytes.toString(result.next()));
+        assertEquals("0999", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g"};
+        String[] values2 = {"b", "c", "d", "e", "f"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("c", Bytes.toString(result.seek(Bytes.toBytes("c"))));
+        assertEquals("f", Bytes.toString(result.seek(Bytes.toBytes("d"))));
+        assertNull(result.seek(Bytes.toBytes("g")));
+
+        result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.seek(Bytes.toBytes("d"))));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.seek(Bytes.toBytes("fa"))));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testNestedConjunction() throws Exception {
+        String[] values1 = {"a", "b", "c", "d", "e", "f", "g"};
+        String[] values2 = {"b", "f"};
+        String[] values3 = {"c", "g"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1),
+                new Disjunction(buildQueryResult(values2), buildQueryResult(values3)));
+
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
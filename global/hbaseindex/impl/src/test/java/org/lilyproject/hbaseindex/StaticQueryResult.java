@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 public class StaticQueryResult implements QueryResult {
     private Iterator<byte[]> iterator;
 
@@ -31,6 +33,15 @@ public class StaticQueryResult implements QueryResult {
         return iterator.hasNext() ? iterator.next() : null;
     }
 
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] key;
+        do {
+            key = next();
+        } while (key != null && Bytes.compareTo(key, identifier) < 0);
+        return key;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         return null;
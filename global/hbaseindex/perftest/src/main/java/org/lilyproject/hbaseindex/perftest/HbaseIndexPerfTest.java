@@ -23,6 +23,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.lilyproject.cli.OptionUtil;
+import org.lilyproject.hbaseindex.Conjunction;
 import org.lilyproject.hbaseindex.Index;
 import org.lilyproject.hbaseindex.IndexDefinition;
 import org.lilyproject.hbaseindex.IndexEntry;
@@ -39,15 +40,23 @@ import org.lilyproject.util.Version;
 public class HbaseIndexPerfTest extends BaseTestTool {
     private Index index;
 
+    /**
+     * Index in which all entries have the common tag and a small fraction also the rare tag, to test
+     * conjunctions of conditions with very different selectivity.
+     */
+    private Index skewIndex;
+
     private IdGenerator idGenerator = new IdGeneratorImpl();
 
     private Option initialInsertOption;
     private Option initialInsertBatchOption;
     private Option loopsOption;
+    private Option rareFractionOption;
 
     private int initialInserts;
     private int initialInsertsBatchSize;
     private int loops;
+    private double rareFraction;
 
     private int maxResults = 100;
 
@@ -94,6 +103,14 @@ public class HbaseIndexPerfTest extends BaseTestTool {
                 .create("l");
         options.add(loopsOption);
 
+        rareFractionOption = OptionBuilder
+                .withArgName("fraction")
+                .hasArg()
+                .withDescription("Fraction of the entries in the skewed index which have the rare tag (default 0.001)")
+                .withLongOpt("rare-fraction")
+                .create("r");
+        options.add(rareFractionOption);
+
         return options;
     }
 
@@ -116,9 +133,15 @@ public class HbaseIndexPerfTest extends BaseTestTool {
 
         index = indexMgr.getIndex(indexDef);
 
+        IndexDefinition skewIndexDef = new IndexDefinition("perftest-skew");
+        skewIndexDef.addStringField("tag");
+
+        skewIndex = indexMgr.getIndex(skewIndexDef);
+
         initialInserts = OptionUtil.getIntOption(cmd, initialInsertOption, 5000000);
         initialInsertsBatchSize = OptionUtil.getIntOption(cmd, initialInsertBatchOption, 300);
         loops = OptionUtil.getIntOption(cmd, loopsOption, 100000);
+        rareFraction = Double.parseDouble(OptionUtil.getStringOption(cmd, rareFractionOption, "0.001"));
 
         System.out
                 .println("Will insert " + initialInserts + " index entries in batches of " + initialInsertBatchOption);
@@ -144,6 +167,7 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             int amount = Math.min(left, initialInsertsBatchSize);
             left -= amount;
             executor.submit(new BulkInserter(amount));
+            executor.submit(new SkewedBulkInserter(amount));
         }
 
         stopExecutor();
@@ -158,6 +182,7 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             executor.submit(new BulkInserter(1));
             executor.submit(new StringRangeQuery());
             executor.submit(new BulkInserter(5));
+            executor.submit(new SkewedConjunctionQuery());
         }
 
         stopExecutor();
@@ -247,4 +272,74 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             }
         }
     }
+
+    private class SkewedBulkInserter implements Runnable {
+        private int amount;
+
+        SkewedBulkInserter(int amount) {
+            this.amount = amount;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<IndexEntry> entries = new ArrayList<IndexEntry>(amount);
+
+                for (int i = 0; i < amount; i++) {
+                    byte[] identifier = idGenerator.newRecordId().toBytes();
+
+                    IndexEntry entry = new IndexEntry(skewIndex.getDefinition());
+                    entry.addField("tag", "common");
+                    entry.setIdentifier(identifier);
+                    entries.add(entry);
+
+                    if (Math.random() < rareFraction) {
+                        entry = new IndexEntry(skewIndex.getDefinition());
+                        entry.addField("tag", "rare");
+                        entry.setIdentifier(identifier);
+                        entries.add(entry);
+                    }
+                }
+
+                long before = System.nanoTime();
+                skewIndex.addEntries(entries);
+                double duration = System.nanoTime() - before;
+                metrics.increment("Skewed index insert in batch of " + amount, "I", amount, duration / 1e6d);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Intersects the results of the rare and the common tag, the common one needs to skip over most of its
+     * results.
+     */
+    private class SkewedConjunctionQuery implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Query rareQuery = new Query();
+                rareQuery.addEqualsCondition("tag", "rare");
+
+                Query commonQuery = new Query();
+                commonQuery.addEqualsCondition("tag", "common");
+
+                int resultCount = 0;
+
+                long before = System.nanoTime();
+                QueryResult result = new Conjunction(skewIndex.performQuery(commonQuery),
+                        skewIndex.performQuery(rareQuery));
+                while (result.next() != null && resultCount < maxResults) {
+                    resultCount++;
+                }
+                double duration = System.nanoTime() - before;
+                metrics.increment("Skewed conjunction query duration", "Q", duration / 1e6d);
+                metrics.increment("Skewed conjunction query # of results", resultCount);
+                result.close();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
 }
@@ -32,6 +32,7 @@ import org.apache.zookeeper.KeeperException;
 import org.lilyproject.cli.OptionUtil;
 import org.lilyproject.client.LilyClient;
 import org.lilyproject.client.NoServersException;
+import org.lilyproject.clientmetrics.ListMetricsPlugin;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
@@ -120,6 +121,14 @@ public abstract class BaseRepositoryTestTool extends BaseTestTool {
         return 0;
     }
 
+    @Override
+    protected void addMetricsPlugins(ListMetricsPlugin plugins) {
+        super.addMetricsPlugins(plugins);
+        if (lilyClient != null) {
+            plugins.add(new LilyClientMetricsPlugin(lilyClient));
+        }
+    }
+
     @Override
     protected void cleanup() {
         Closer.close(lilyClient);
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.testclientfw;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.client.ServerStats;
+import org.lilyproject.clientmetrics.Metrics;
+import org.lilyproject.clientmetrics.MetricsPlugin;
+
+/**
+ * Reports how {@link LilyClient} balances the requests over the Lily servers: the latency it sees for each
+ * server, the number of running requests, and how often each server was selected or failed since the previous
+ * report.
+ */
+public class LilyClientMetricsPlugin implements MetricsPlugin {
+    private final LilyClient lilyClient;
+    private final Map<String, Long> lastSelectionCounts = new HashMap<String, Long>();
+    private final Map<String, Long> lastFailureCounts = new HashMap<String, Long>();
+
+    public LilyClientMetricsPlugin(LilyClient lilyClient) {
+        this.lilyClient = lilyClient;
+    }
+
+    @Override
+    public void beforeReport(Metrics metrics) {
+        for (ServerStats stats : lilyClient.getServerStats()) {
+            // colons are not allowed in metric names
+            String server = stats.getAddress().replace(':', '_');
+
+            metrics.increment("-lilyLatency@" + server, stats.getLatency());
+            metrics.increment("-lilyInFlight@" + server, stats.getInFlight());
+            metrics.increment("-lilySelections@" + server,
+                    delta(lastSelectionCounts, server, stats.getSelectionCount()));
+            metrics.increment("-lilyFailures@" + server, delta(lastFailureCounts, server, stats.getFailureCount()));
+        }
+    }
+
+    /**
+     * Returns how much the given count increased since the previous report, and remembers it for the next one.
+     */
+    private long delta(Map<String, Long> lastCounts, String server, long count) {
+        Long lastCount = lastCounts.put(server, count);
+        return count - (lastCount != null ? lastCount : 0);
+    }
+
+    @Override
+    public void afterIncrement(Metrics metrics) {
+    }
+
+    @Override
+    public List<String> getExtraInfoLines() {
+        List<String> ejected = new ArrayList<String>();
+        for (ServerStats stats : lilyClient.getServerStats()) {
+            if (stats.isEjected()) {
+                ejected.add(stats.getAddress());
+            }
+        }
+        if (ejected.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList("Lily servers not used because of failures: " + ejected);
+    }
+}
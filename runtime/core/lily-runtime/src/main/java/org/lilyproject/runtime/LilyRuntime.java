@@ -20,11 +20,18 @@ import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Throwables;
 import org.apache.commons.jci.monitor.FilesystemAlterationMonitor;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +48,7 @@ import org.lilyproject.runtime.module.Module;
 import org.lilyproject.runtime.module.ModuleConfig;
 import org.lilyproject.runtime.module.build.ModuleBuilder;
 import org.lilyproject.runtime.module.build.ModuleConfigBuilder;
+import org.lilyproject.runtime.module.build.ModuleDependencies;
 import org.lilyproject.runtime.module.javaservice.JavaServiceManager;
 import org.lilyproject.runtime.rapi.ConfRegistry;
 import org.lilyproject.runtime.rapi.Mode;
@@ -49,6 +57,7 @@ import org.lilyproject.runtime.repository.ArtifactRepository;
 import org.lilyproject.runtime.source.ModuleSourceManager;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Version;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 
 /**
  * This is the main entry point of the LilyRuntime.
@@ -64,8 +73,8 @@ public class LilyRuntime {
     private LilyRuntimeSettings settings;
     private LilyRuntimeModel model;
     private ClassLoader rootClassLoader;
-    private List<Module> modules;
-    private Map<String, Module> modulesById = new HashMap<String, Module>();
+    private volatile List<Module> modules;
+    private Map<String, Module> modulesById = new ConcurrentHashMap<String, Module>();
     private List<ModuleConfig> moduleConfigs;
     private JavaServiceManager javaServiceManager;
     private ModuleSourceManager moduleSourceManager;
@@ -81,6 +90,12 @@ public class LilyRuntime {
     public static final String CLASSLOADING_LOG_CATEGORY = "org.lilyproject.runtime.classloading-info";
     public static final String CLASSLOADING_REPORT_CATEGORY = "org.lilyproject.runtime.classloading-report";
 
+    /**
+     * System property with the number of threads used to start the modules, by default the number of processors.
+     * With one thread, the modules are started one by one in the order of the model.
+     */
+    public static final String STARTUP_THREADS_PROPERTY = "lilyruntime.startup.threads";
+
     public LilyRuntime(LilyRuntimeSettings settings) {
         ArgumentValidator.notNull(settings, "settings");
 
@@ -215,15 +230,7 @@ public class LilyRuntime {
         confManager.initModulesConfig(moduleConfigs);
 
         // Create the modules
-        infolog.info("Starting the modules.");
-
-        modules = new ArrayList<Module>(model.getModules().size());
-        for (int i = 0; i < moduleConfigs.size(); i++) {
-            ModuleConfig moduleConfig = moduleConfigs.get(i);
-            Module module = ModuleBuilder.build(moduleConfig, moduleClassLoaders.get(i), this);
-            modules.add(module);
-            modulesById.put(module.getDefinition().getId(), module);
-        }
+        startModules(moduleClassLoaders);
 
         // Start the FAM, conf manager refreshing
         fam.start();
@@ -232,6 +239,142 @@ public class LilyRuntime {
         infolog.info("Runtime initialisation finished.");
     }
 
+    /**
+     * Builds each module as soon as the modules it depends on for its Java services have been built, using a bounded
+     * number of threads, see {@link ModuleDependencies}.
+     *
+     * <p>The modules are kept in the order of the model, which is a valid order to start them one by one, and
+     * so its reverse is used to shut them down. When modules fail, no new modules are started, the running ones
+     * are waited for, and the error of the first failed module in the model is thrown.</p>
+     */
+    private void startModules(List<ClassLoader> moduleClassLoaders) throws ArtifactNotFoundException,
+            MalformedURLException {
+        long before = System.currentTimeMillis();
+        int moduleCount = moduleConfigs.size();
+        ModuleDependencies dependencies = ModuleDependencies.build(moduleConfigs, mode);
+
+        // For each module, the number of modules it still waits for, and the modules which wait for it
+        int[] waitingFor = new int[moduleCount];
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(moduleCount);
+        for (int i = 0; i < moduleCount; i++) {
+            dependents.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < moduleCount; i++) {
+            waitingFor[i] = dependencies.getDependencies(i).size();
+            for (int dependency : dependencies.getDependencies(i)) {
+                dependents.get(dependency).add(i);
+            }
+            if (infolog.isDebugEnabled() && waitingFor[i] > 0) {
+                List<String> dependencyIds = new ArrayList<String>();
+                for (int dependency : dependencies.getDependencies(i)) {
+                    dependencyIds.add(moduleConfigs.get(dependency).getId());
+                }
+                infolog.debug("Module " + moduleConfigs.get(i).getId() + " waits for " + dependencyIds);
+            }
+        }
+
+        int threads = Math.max(1, Math.min(moduleCount,
+                Integer.getInteger(STARTUP_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())));
+        infolog.info("Starting " + moduleCount + " modules using " + threads + " threads.");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new CustomThreadFactory("lily-module-startup"));
+        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+        Module[] builtModules = new Module[moduleCount];
+        Throwable[] failures = new Throwable[moduleCount];
+        boolean failed = false;
+        int running = 0;
+        try {
+            for (int i = 0; i < moduleCount; i++) {
+                if (waitingFor[i] == 0) {
+                    submitModule(completionService, i, moduleClassLoaders.get(i), builtModules, failures);
+                    running++;
+                }
+            }
+
+            while (running > 0) {
+                int i = completionService.take().get();
+                running--;
+
+                if (failures[i] != null) {
+                    failed = true;
+                    continue;
+                }
+
+                modulesById.put(builtModules[i].getDefinition().getId(), builtModules[i]);
+                publishModules(builtModules);
+
+                if (!failed) {
+                    // Dependents are ordered by index, so ready modules are queued in model order
+                    for (int dependent : dependents.get(i)) {
+                        if (--waitingFor[dependent] == 0) {
+                            submitModule(completionService, dependent, moduleClassLoaders.get(dependent),
+                                    builtModules, failures);
+                            running++;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new LilyRTException("Interrupted while starting the modules.", e);
+        } catch (ExecutionException e) {
+            // the tasks catch everything themselves
+            throw new LilyRTException("Unexpected error starting the modules.", e.getCause());
+        } finally {
+            executor.shutdown();
+            publishModules(builtModules);
+        }
+
+        if (failed) {
+            Throwable firstFailure = null;
+            for (int i = 0; i < moduleCount; i++) {
+                if (failures[i] == null) {
+                    continue;
+                }
+                if (firstFailure == null) {
+                    firstFailure = failures[i];
+                } else {
+                    infolog.error("Module " + moduleConfigs.get(i).getId() + " also failed to start.", failures[i]);
+                }
+            }
+            Throwables.propagateIfPossible(firstFailure, ArtifactNotFoundException.class, MalformedURLException.class);
+            throw new LilyRTException("Error starting the modules.", firstFailure);
+        }
+
+        infolog.info("Started " + moduleCount + " modules in " + (System.currentTimeMillis() - before) + " ms.");
+    }
+
+    private void submitModule(CompletionService<Integer> completionService, final int index,
+            final ClassLoader classLoader, final Module[] builtModules, final Throwable[] failures) {
+        final ModuleConfig moduleConfig = moduleConfigs.get(index);
+        completionService.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    builtModules[index] = ModuleBuilder.build(moduleConfig, classLoader, LilyRuntime.this);
+                } catch (Throwable t) {
+                    failures[index] = t;
+                }
+                return index;
+            }
+        });
+    }
+
+    /**
+     * Makes the modules which have been built so far available through {@link #getModules()}, in model order.
+     */
+    private void publishModules(Module[] builtModules) {
+        List<Module> newModules = new ArrayList<Module>(builtModules.length);
+        for (Module module : builtModules) {
+            if (module != null) {
+                newModules.add(module);
+            }
+        }
+        modules = newModules;
+    }
+
     public List<ModuleConfig> getModuleConfigs() {
         return moduleConfigs;
     }
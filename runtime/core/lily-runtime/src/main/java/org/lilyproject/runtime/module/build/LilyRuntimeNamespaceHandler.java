@@ -18,12 +18,14 @@ package org.lilyproject.runtime.module.build;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.jxpath.JXPathContext;
 import org.lilyproject.runtime.LilyRTException;
 import org.lilyproject.runtime.conf.Conf;
 import org.lilyproject.runtime.model.JavaServiceInjectDefinition;
 import org.lilyproject.runtime.module.javaservice.JavaServiceManager;
+import org.lilyproject.runtime.module.javaservice.NoSuchServiceException;
 import org.lilyproject.runtime.rapi.ConfRegistry;
 import org.lilyproject.runtime.rapi.LilyRuntimeModule;
 import org.lilyproject.runtime.rapi_impl.LilyRuntimeModuleImpl;
@@ -138,16 +140,19 @@ public class LilyRuntimeNamespaceHandler implements NamespaceHandler {
                     injectDef = springBuildContext.getModule().getDefinition().getJavaServiceInjectByService(serviceClass.getName());
                 }
 
+                Set<String> precedingModuleIds = springBuildContext.getPrecedingModuleIds();
                 if (injectDef != null) {
                     String moduleId = injectDef.getSourceModuleId();
                     String name = injectDef.getSourceJavaServiceName();
-                    if (moduleId != null && name != null) {
+                    if (!precedingModuleIds.contains(moduleId)) {
+                        throw new NoSuchServiceException(serviceClass.getName(), moduleId);
+                    } else if (moduleId != null && name != null) {
                         component = javaServiceManager.getService(serviceClass, moduleId, name);
                     } else {
                         component = javaServiceManager.getService(serviceClass, moduleId);
                     }
                 } else {
-                    component = javaServiceManager.getService(serviceClass);
+                    component = javaServiceManager.getService(serviceClass, precedingModuleIds);
                 }
             } catch (Throwable t) {
                 throw new LilyRTException("Error assigning Java service dependency " + dependencyName + " of module "
@@ -19,11 +19,14 @@ package org.lilyproject.runtime.module.build;
 import java.io.InputStream;
 import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.runtime.LilyRTException;
 import org.lilyproject.runtime.LilyRuntime;
+import org.lilyproject.runtime.model.ModuleDefinition;
 import org.lilyproject.runtime.module.Module;
 import org.lilyproject.runtime.module.ModuleConfig;
 import org.lilyproject.runtime.module.ModuleImpl;
@@ -53,6 +56,7 @@ public class ModuleBuilder {
 
     private Module buildInt(ModuleConfig cfg, ClassLoader classLoader, LilyRuntime runtime) throws ArtifactNotFoundException, MalformedURLException {
         infolog.info("Starting module " + cfg.getId() + " - " + cfg.getLocation());
+        long before = System.currentTimeMillis();
         ClassLoader previousContextClassLoader = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(classLoader);
@@ -66,7 +70,8 @@ public class ModuleBuilder {
             //   * the module also needs to have the reference to the applicationcontext, as there might be beans trying to get while initializing
             ModuleImpl module = new ModuleImpl(classLoader, applicationContext, cfg.getDefinition(), cfg.getModuleSource());
 
-            SpringBuildContext springBuildContext = new SpringBuildContext(runtime, module, classLoader);
+            SpringBuildContext springBuildContext = new SpringBuildContext(runtime, module, classLoader,
+                    getPrecedingModuleIds(cfg, runtime));
             SPRING_BUILD_CONTEXT.set(springBuildContext);
 
             XmlBeanDefinitionReader xmlReader = new XmlBeanDefinitionReader(applicationContext);
@@ -108,6 +113,7 @@ public class ModuleBuilder {
             }
 
             module.start();
+            infolog.info("Started module " + cfg.getId() + " in " + (System.currentTimeMillis() - before) + " ms");
             return module;
         } catch (Throwable e) {
             // TODO module source and classloader handle might need disposing!
@@ -119,6 +125,21 @@ public class ModuleBuilder {
         }
     }
 
+    /**
+     * Modules might be built concurrently, the services of a module should however only be visible to the modules
+     * after it, so that the service lookups have the same result as when the modules are built one by one.
+     */
+    private Set<String> getPrecedingModuleIds(ModuleConfig cfg, LilyRuntime runtime) {
+        Set<String> moduleIds = new HashSet<String>();
+        for (ModuleDefinition definition : runtime.getModel().getModules()) {
+            if (definition.getId().equals(cfg.getId())) {
+                break;
+            }
+            moduleIds.add(definition.getId());
+        }
+        return moduleIds;
+    }
+
     /**
      * Wraps the bean to assure only that only methods of the published service
      * can be accessed.
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.module.build;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.runtime.model.JavaServiceInjectDefinition;
+import org.lilyproject.runtime.model.ModuleDefinition;
+import org.lilyproject.runtime.module.ModuleConfig;
+import org.lilyproject.runtime.rapi.Mode;
+import org.lilyproject.runtime.rapi.ModuleSource;
+import org.lilyproject.util.io.IOUtils;
+import org.lilyproject.util.xml.DocumentHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The Java service dependencies between the modules of a runtime, which tell which modules can be built
+ * at the same time.
+ *
+ * <p>A module can only use the services of the modules which come before it in the model, as was always the case
+ * when the modules were built one after the other. A module depends on an earlier module when it imports a service
+ * which is explicitly wired to that module, or when it imports a service type which is not explicitly wired and
+ * the earlier module exports that type. The imports and exports are read from the Spring configs of the modules.
+ * When this is not possible for a module, it depends on all the modules before it.</p>
+ *
+ * <p>Some services are registries: modules register things in them, which other modules importing the same
+ * registry only look up when they are built, e.g. the repository reads its decorators and update hooks from the
+ * plugin registry. Such services are exported with the attribute <tt>registry="true"</tt>. A module importing a
+ * registry service therefore also depends on all the earlier modules importing it.</p>
+ */
+public class ModuleDependencies {
+    static final String SPRINGEXT_NAMESPACE = "http://lilyproject.org/runtime/1.0#springext";
+    private static final String BEANS_NAMESPACE = "http://www.springframework.org/schema/beans";
+
+    private static final Log log = LogFactory.getLog(ModuleDependencies.class);
+
+    /** For each module, the indexes of the modules it depends on, in model order. */
+    private final List<SortedSet<Integer>> dependencies;
+
+    private ModuleDependencies(List<SortedSet<Integer>> dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    public static ModuleDependencies build(List<ModuleConfig> moduleConfigs, Mode mode) {
+        List<ModuleDefinition> definitions = new ArrayList<ModuleDefinition>(moduleConfigs.size());
+        List<ServiceDeclarations> declarations = new ArrayList<ServiceDeclarations>(moduleConfigs.size());
+        for (ModuleConfig moduleConfig : moduleConfigs) {
+            definitions.add(moduleConfig.getDefinition());
+            declarations.add(ServiceDeclarations.read(moduleConfig, mode));
+        }
+        return build(definitions, declarations);
+    }
+
+    static ModuleDependencies build(List<ModuleDefinition> definitions, List<ServiceDeclarations> declarations) {
+        List<SortedSet<Integer>> dependencies = new ArrayList<SortedSet<Integer>>(definitions.size());
+
+        // The services whose importing modules are built in model order, see the class description
+        Set<String> registryServices = new HashSet<String>();
+        for (ServiceDeclarations moduleDeclarations : declarations) {
+            if (moduleDeclarations != null) {
+                registryServices.addAll(moduleDeclarations.registryExports);
+            }
+        }
+
+        for (int i = 0; i < definitions.size(); i++) {
+            SortedSet<Integer> moduleDependencies = new TreeSet<Integer>();
+            ServiceDeclarations moduleDeclarations = declarations.get(i);
+
+            if (moduleDeclarations == null) {
+                for (int k = 0; k < i; k++) {
+                    moduleDependencies.add(k);
+                }
+            } else {
+                ModuleDefinition definition = definitions.get(i);
+                for (ServiceImport serviceImport : moduleDeclarations.imports) {
+                    // same lookup of the wiring as in LilyRuntimeNamespaceHandler
+                    JavaServiceInjectDefinition injectDef = definition.getJavaServiceInject(serviceImport.dependencyName);
+                    if (injectDef == null) {
+                        injectDef = definition.getJavaServiceInjectByService(serviceImport.serviceType);
+                    }
+
+                    for (int k = 0; k < i; k++) {
+                        if (injectDef != null
+                                ? definitions.get(k).getId().equals(injectDef.getSourceModuleId())
+                                : declarations.get(k) == null
+                                        || declarations.get(k).exports.contains(serviceImport.serviceType)) {
+                            moduleDependencies.add(k);
+                        }
+                    }
+
+                    if (registryServices.contains(serviceImport.serviceType)) {
+                        for (int k = 0; k < i; k++) {
+                            if (declarations.get(k) == null
+                                    || declarations.get(k).importsService(serviceImport.serviceType)) {
+                                moduleDependencies.add(k);
+                            }
+                        }
+                    }
+                }
+            }
+
+            dependencies.add(moduleDependencies);
+        }
+
+        return new ModuleDependencies(dependencies);
+    }
+
+    /**
+     * The indexes of the modules the given module depends on, these are always lower than the index of the module.
+     */
+    public SortedSet<Integer> getDependencies(int moduleIndex) {
+        return dependencies.get(moduleIndex);
+    }
+
+    public int size() {
+        return dependencies.size();
+    }
+
+    static class ServiceImport {
+        final String serviceType;
+        final String dependencyName;
+
+        ServiceImport(String serviceType, String dependencyName) {
+            this.serviceType = serviceType;
+            this.dependencyName = dependencyName;
+        }
+    }
+
+    /**
+     * The Java services imported and exported by the Spring configs of a module.
+     */
+    static class ServiceDeclarations {
+        final List<ServiceImport> imports = new ArrayList<ServiceImport>();
+        final Set<String> exports = new HashSet<String>();
+        final Set<String> registryExports = new HashSet<String>();
+
+        /**
+         * Returns null if the declarations can't be known for sure.
+         */
+        static ServiceDeclarations read(ModuleConfig moduleConfig, Mode mode) {
+            ServiceDeclarations declarations = new ServiceDeclarations();
+            for (ModuleSource.SpringConfigEntry entry : moduleConfig.getModuleSource().getSpringConfigs(mode)) {
+                InputStream is = null;
+                try {
+                    is = entry.getStream();
+                    Document document = DocumentHelper.parse(is);
+
+                    // imported Spring configs are not followed
+                    if (document.getElementsByTagNameNS(BEANS_NAMESPACE, "import").getLength() > 0) {
+                        log.debug("Spring config " + entry.getLocation() + " of module " + moduleConfig.getId()
+                                + " imports other configs, the module will wait for all modules before it.");
+                        return null;
+                    }
+
+                    declarations.add(document);
+                } catch (Throwable t) {
+                    // building the module will report the actual problem
+                    log.debug("Could not read the Java services of Spring config " + entry.getLocation()
+                            + " of module " + moduleConfig.getId(), t);
+                    return null;
+                } finally {
+                    IOUtils.closeQuietly(is, entry.getLocation());
+                }
+            }
+            return declarations;
+        }
+
+        boolean importsService(String serviceType) {
+            for (ServiceImport serviceImport : imports) {
+                if (serviceImport.serviceType.equals(serviceType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(Document document) {
+            NodeList importElements = document.getElementsByTagNameNS(SPRINGEXT_NAMESPACE, "import-service");
+            for (int i = 0; i < importElements.getLength(); i++) {
+                Element element = (Element)importElements.item(i);
+                String dependencyName = element.getAttribute("name");
+                if (dependencyName.equals("")) {
+                    dependencyName = element.getAttribute("id");
+                }
+                imports.add(new ServiceImport(element.getAttribute("service"), dependencyName));
+            }
+
+            NodeList exportElements = document.getElementsByTagNameNS(SPRINGEXT_NAMESPACE, "export-service");
+            for (int i = 0; i < exportElements.getLength(); i++) {
+                Element element = (Element)exportElements.item(i);
+                exports.add(element.getAttribute("service"));
+                if (element.getAttribute("registry").equals("true")) {
+                    registryExports.add(element.getAttribute("service"));
+                }
+            }
+        }
+    }
+}
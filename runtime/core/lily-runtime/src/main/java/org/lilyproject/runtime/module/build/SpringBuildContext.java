@@ -18,6 +18,7 @@ package org.lilyproject.runtime.module.build;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.lilyproject.runtime.LilyRuntime;
 import org.lilyproject.runtime.module.Module;
@@ -32,11 +33,14 @@ public class SpringBuildContext {
     private LilyRuntime runtime;
     private ClassLoader moduleClassLoader;
     private Module module;
+    private Set<String> precedingModuleIds;
 
-    public SpringBuildContext(LilyRuntime runtime, Module module, ClassLoader moduleClassLoader) {
+    public SpringBuildContext(LilyRuntime runtime, Module module, ClassLoader moduleClassLoader,
+            Set<String> precedingModuleIds) {
         this.runtime = runtime;
         this.module = module;
         this.moduleClassLoader = moduleClassLoader;
+        this.precedingModuleIds = precedingModuleIds;
     }
 
     public LilyRuntime getRuntime() {
@@ -70,4 +74,12 @@ public class SpringBuildContext {
     public ClassLoader getModuleClassLoader() {
         return moduleClassLoader;
     }
+
+    /**
+     * The IDs of the modules which come before this module in the runtime model, only their Java services
+     * can be imported.
+     */
+    public Set<String> getPrecedingModuleIds() {
+        return precedingModuleIds;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.module.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.lilyproject.runtime.model.JavaServiceInjectByNameDefinition;
+import org.lilyproject.runtime.model.ModuleDefinition;
+import org.lilyproject.runtime.model.ModuleSourceType;
+import org.lilyproject.util.xml.DocumentHelper;
+
+public class ModuleDependenciesTest extends TestCase {
+    private List<ModuleDefinition> definitions = new ArrayList<ModuleDefinition>();
+    private List<ModuleDependencies.ServiceDeclarations> declarations =
+            new ArrayList<ModuleDependencies.ServiceDeclarations>();
+
+    public void testDependencies() throws Exception {
+        addModule("general", "<lily:export-service service='org.Foo' ref='foo'/>");
+        addModule("other", "<lily:export-service service='org.Bar' ref='bar'/>");
+        addModule("user", "<lily:import-service id='foo' service='org.Foo'/>");
+        // two earlier exporters: the module waits for both, building it will report the ambiguity
+        addModule("general2", "<lily:export-service service='org.Foo' ref='foo'/>");
+        addModule("user2", "<lily:import-service id='foo' service='org.Foo'/>");
+        // explicitly wired to one of them
+        addModule("user3", "<lily:import-service id='foo' service='org.Foo'/>");
+        definitions.get(5).addInject(new JavaServiceInjectByNameDefinition("foo", "general2"));
+        // wired to a module which comes later: it won't find the service, as before
+        addModule("user4", "<lily:import-service id='baz' service='org.Baz'/>");
+        definitions.get(6).addInject(new JavaServiceInjectByNameDefinition("baz", "late"));
+        addModule("late", "<lily:export-service service='org.Baz' ref='baz'/>");
+        addModule("independent", "");
+
+        ModuleDependencies dependencies = ModuleDependencies.build(definitions, declarations);
+
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(0)));
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(1)));
+        assertEquals(Arrays.asList(0), new ArrayList<Integer>(dependencies.getDependencies(2)));
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(3)));
+        assertEquals(Arrays.asList(0, 3), new ArrayList<Integer>(dependencies.getDependencies(4)));
+        assertEquals(Arrays.asList(3), new ArrayList<Integer>(dependencies.getDependencies(5)));
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(6)));
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(8)));
+    }
+
+    public void testUnknownDeclarations() throws Exception {
+        addModule("first", "");
+        // e.g. an unparseable Spring config
+        definitions.add(new ModuleDefinition("unknown", new File("unknown"), ModuleSourceType.JAR));
+        declarations.add(null);
+        addModule("user", "<lily:import-service id='foo' service='org.Foo'/>");
+        addModule("independent", "");
+
+        ModuleDependencies dependencies = ModuleDependencies.build(definitions, declarations);
+
+        assertEquals(Arrays.asList(0), new ArrayList<Integer>(dependencies.getDependencies(1)));
+        // the unknown module might export the service
+        assertEquals(Arrays.asList(1), new ArrayList<Integer>(dependencies.getDependencies(2)));
+        assertEquals(Arrays.<Integer>asList(), new ArrayList<Integer>(dependencies.getDependencies(3)));
+    }
+
+    public void testRegistryServices() throws Exception {
+        String pluginRegistry = "<lily:import-service id='pluginRegistry' service='org.lilyproject.plugin.PluginRegistry'/>";
+        addModule("pluginregistry", "<lily:export-service service='org.lilyproject.plugin.PluginRegistry' ref='registry'"
+                + " registry='true'/>");
+        addModule("hook", pluginRegistry);
+        addModule("independent", "");
+        addModule("decorator", pluginRegistry);
+        addModule("repository", pluginRegistry + "<lily:export-service service='org.Repository' ref='repository'/>");
+        addModule("user", "<lily:import-service id='repository' service='org.Repository'/>");
+
+        ModuleDependencies dependencies = ModuleDependencies.build(definitions, declarations);
+
+        assertEquals(Arrays.asList(0), new ArrayList<Integer>(dependencies.getDependencies(1)));
+        assertEquals(Arrays.asList(0, 1), new ArrayList<Integer>(dependencies.getDependencies(3)));
+        assertEquals(Arrays.asList(0, 1, 3), new ArrayList<Integer>(dependencies.getDependencies(4)));
+        assertEquals(Arrays.asList(4), new ArrayList<Integer>(dependencies.getDependencies(5)));
+    }
+
+    public void testNonRegistryServices() throws Exception {
+        String foo = "<lily:import-service id='foo' service='org.Foo'/>";
+        addModule("general", "<lily:export-service service='org.Foo' ref='foo' registry='false'/>");
+        addModule("user", foo);
+        addModule("user2", foo);
+
+        ModuleDependencies dependencies = ModuleDependencies.build(definitions, declarations);
+
+        assertEquals(Arrays.asList(0), new ArrayList<Integer>(dependencies.getDependencies(1)));
+        assertEquals(Arrays.asList(0), new ArrayList<Integer>(dependencies.getDependencies(2)));
+    }
+
+    private void addModule(String id, String springConfigContent) throws Exception {
+        String springConfig = "<beans xmlns='http://www.springframework.org/schema/beans' xmlns:lily='"
+                + ModuleDependencies.SPRINGEXT_NAMESPACE + "'>" + springConfigContent + "</beans>";
+        ModuleDependencies.ServiceDeclarations moduleDeclarations = new ModuleDependencies.ServiceDeclarations();
+        moduleDeclarations.add(DocumentHelper.parse(new ByteArrayInputStream(springConfig.getBytes("UTF-8"))));
+
+        definitions.add(new ModuleDefinition(id, new File(id), ModuleSourceType.JAR));
+        declarations.add(moduleDeclarations);
+    }
+}